@@ -143,6 +143,11 @@ PRODUCT_PROPERTY_OVERRIDES += \
     ro.wifi.ap.ssid=GlassPorts \
     ro.wifi.ap.enabled=0
 
+# Have logd read /dev/kmsg into the kernel log buffer, so the
+# GlassSettings field log spool gets kernel messages through logcat
+PRODUCT_PROPERTY_OVERRIDES += \
+    ro.logd.kernel=true
+
 # System properties
 PRODUCT_PROPERTY_OVERRIDES += \
     dalvik.vm.heapsize=512m \
@@ -105,6 +105,7 @@ public class AppListActivity extends Activity implements
             intent.addCategory(Intent.CATEGORY_LAUNCHER);
             intent.setComponent(new ComponentName(app.packageName, app.activityName));
             intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            CpuBoost.getInstance().boost(CpuBoost.REASON_LAUNCH);
             startActivity(intent);
             finish();
         }
@@ -0,0 +1,22 @@
+/*
+ * GlassPorts Launcher Boot Receiver
+ */
+
+package com.glassports.launcher;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Starts launcher background services after boot
+ */
+public class BootReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
+            context.startService(new Intent(context, CpuBoostService.class));
+        }
+    }
+}
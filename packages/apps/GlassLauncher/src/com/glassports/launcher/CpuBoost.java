@@ -0,0 +1,251 @@
+/*
+ * GlassPorts CPU Boost
+ * Short minimum-frequency boosts for input and app launches
+ */
+
+package com.glassports.launcher;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.PrintWriter;
+
+/**
+ * Raises the CPU floor on both Cortex-A9 cores for a bounded window.
+ *
+ * The frequency limits belong to GlassSettings' PerformanceProfileService,
+ * which also applies performance profiles and thermal caps. A boost is a
+ * request to it for a floor and a duration; it keeps the floor under the
+ * current ceiling and drops back to the profile's own when the boost ends
+ * or times out, so nothing here saves or restores sysfs values.
+ *
+ * Requests that arrive while a boost is active extend it, but never past
+ * MAX_BOOST_MS from its start. After a boost ends, requests are dropped for
+ * COOLDOWN_MS so a continuous stream of touch events cannot pin the CPU
+ * high. Counters record how often and how long the CPU was boosted, so the
+ * battery cost can be measured with dumpsys.
+ */
+public class CpuBoost {
+    private static final String TAG = "GlassCpuBoost";
+
+    public static final int REASON_TOUCH = 0;
+    public static final int REASON_LAUNCH = 1;
+    public static final int REASON_TRANSITION = 2;
+    private static final String[] REASON_NAMES = {"touch", "launch", "transition"};
+
+    /** Boost window for each reason */
+    private static final long[] REASON_DURATION_MS = {100, 500, 300};
+
+    private static final long MAX_BOOST_MS = 1000;
+    private static final long COOLDOWN_MS = 200;
+
+    private static final int BOOST_FREQ_KHZ = 1008000;
+
+    // PerformanceProfileService's boost messenger
+    private static final String ACTION_CPU_BOOST = "com.glassports.settings.action.CPU_BOOST";
+    private static final int MSG_BOOST = 1;
+
+    private static CpuBoost sInstance;
+
+    private final Handler mHandler;
+    private final Object mLock = new Object();
+
+    // Guarded by mLock
+    private boolean mBoosted;
+    private long mBoostStart;
+    private long mBoostEnd;
+    private long mCooldownEnd;
+    private Messenger mLimits;
+
+    // Counters, guarded by mLock
+    private final long[] mRequested = new long[REASON_NAMES.length];
+    private final long[] mGranted = new long[REASON_NAMES.length];
+    private long mExtended;
+    private long mRateLimited;
+    private long mBoostCount;
+    private long mTotalBoostMs;
+    private long mUnavailable;
+
+    public static synchronized CpuBoost getInstance() {
+        if (sInstance == null) {
+            sInstance = new CpuBoost();
+        }
+        return sInstance;
+    }
+
+    private CpuBoost() {
+        HandlerThread thread = new HandlerThread("CpuBoost");
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Bind to the service that owns the frequency limits. Boosts before the
+     * bind completes are counted but not applied.
+     */
+    public void connect(Context context) {
+        Intent intent = new Intent(ACTION_CPU_BOOST);
+        intent.setComponent(new ComponentName(
+                "com.glassports.settings",
+                "com.glassports.settings.PerformanceProfileService"));
+        try {
+            if (!context.bindService(intent, mConnection, Context.BIND_AUTO_CREATE)) {
+                Log.w(TAG, "PerformanceProfileService not found, boost disabled");
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Could not bind PerformanceProfileService: " + e.getMessage());
+        }
+    }
+
+    public void disconnect(Context context) {
+        context.unbindService(mConnection);
+        synchronized (mLock) {
+            mLimits = null;
+        }
+    }
+
+    private final ServiceConnection mConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            synchronized (mLock) {
+                mLimits = new Messenger(service);
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            synchronized (mLock) {
+                mLimits = null;
+            }
+        }
+    };
+
+    /**
+     * Request a boost. Returns immediately; sysfs is written on the boost thread.
+     */
+    public void boost(int reason) {
+        if (reason < 0 || reason >= REASON_NAMES.length) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        synchronized (mLock) {
+            mRequested[reason]++;
+
+            if (mBoosted) {
+                long end = Math.min(now + REASON_DURATION_MS[reason],
+                        mBoostStart + MAX_BOOST_MS);
+                if (end > mBoostEnd) {
+                    mBoostEnd = end;
+                    mExtended++;
+                    mGranted[reason]++;
+                    // The service ends the boost at the time it was last given
+                    mHandler.post(mStartBoost);
+                } else {
+                    mRateLimited++;
+                }
+                return;
+            }
+
+            if (now < mCooldownEnd) {
+                mRateLimited++;
+                return;
+            }
+
+            mBoosted = true;
+            mBoostStart = now;
+            mBoostEnd = now + REASON_DURATION_MS[reason];
+            mGranted[reason]++;
+            mBoostCount++;
+        }
+        mHandler.post(mStartBoost);
+    }
+
+    private final Runnable mStartBoost = new Runnable() {
+        @Override
+        public void run() {
+            long remaining;
+            synchronized (mLock) {
+                remaining = mBoostEnd - SystemClock.uptimeMillis();
+            }
+            if (remaining > 0) {
+                request(BOOST_FREQ_KHZ, remaining);
+            }
+            scheduleEnd();
+        }
+    };
+
+    private void scheduleEnd() {
+        long end;
+        synchronized (mLock) {
+            end = mBoostEnd;
+        }
+        mHandler.removeCallbacks(mEndBoost);
+        mHandler.postAtTime(mEndBoost, end);
+    }
+
+    private final Runnable mEndBoost = new Runnable() {
+        @Override
+        public void run() {
+            long now = SystemClock.uptimeMillis();
+            synchronized (mLock) {
+                if (now < mBoostEnd) {
+                    // Extended while we were waiting
+                    mHandler.postAtTime(this, mBoostEnd);
+                    return;
+                }
+                mBoosted = false;
+                mCooldownEnd = now + COOLDOWN_MS;
+                mTotalBoostMs += now - mBoostStart;
+            }
+            request(0, 0);
+        }
+    };
+
+    /**
+     * Ask PerformanceProfileService for a floor of floorKhz for durationMs,
+     * or end the boost with 0
+     */
+    private void request(int floorKhz, long durationMs) {
+        Messenger limits;
+        synchronized (mLock) {
+            limits = mLimits;
+            if (limits == null) {
+                mUnavailable++;
+                return;
+            }
+        }
+        try {
+            limits.send(Message.obtain(null, MSG_BOOST, floorKhz, (int) durationMs));
+        } catch (RemoteException e) {
+            // Settings died; the connection comes back when it restarts
+            Log.v(TAG, "Boost request failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Print counters for dumpsys
+     */
+    public void dump(PrintWriter pw) {
+        synchronized (mLock) {
+            pw.println("CPU boost:");
+            pw.println("  active=" + mBoosted);
+            pw.println("  boosts=" + mBoostCount + " totalBoostMs=" + mTotalBoostMs);
+            pw.println("  extended=" + mExtended + " rateLimited=" + mRateLimited
+                    + " unavailable=" + mUnavailable);
+            for (int i = 0; i < REASON_NAMES.length; i++) {
+                pw.println("  " + REASON_NAMES[i] + ": requested=" + mRequested[i]
+                        + " granted=" + mGranted[i]);
+            }
+        }
+    }
+}
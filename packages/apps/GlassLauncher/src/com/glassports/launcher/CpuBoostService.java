@@ -0,0 +1,143 @@
+/*
+ * GlassPorts CPU Boost Service
+ * Boosts the CPU on touchpad input and on request from other GlassPorts apps
+ */
+
+package com.glassports.launcher;
+
+import android.app.Service;
+import android.content.Intent;
+import android.os.IBinder;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * CPU Boost Service
+ *
+ * Blocks on the touchpad evdev node on a dedicated thread and requests a
+ * boost for every new touch, so the CPU is already ramped when the first
+ * scroll frames are drawn. Other GlassPorts apps (same uid) start the
+ * service with ACTION_BOOST to boost activity transitions. The service
+ * holds CpuBoost's binding to GlassSettings, which applies the boosts.
+ */
+public class CpuBoostService extends Service {
+    private static final String TAG = "GlassCpuBoostService";
+
+    public static final String ACTION_BOOST = "com.glassports.launcher.action.CPU_BOOST";
+    public static final String EXTRA_REASON = "reason";
+
+    private static final String TOUCHPAD_NAME = "touchpad";
+
+    // struct input_event on 32-bit ARM: timeval (8), type (2), code (2), value (4)
+    private static final int EVENT_SIZE = 16;
+    private static final int EV_KEY = 0x01;
+    private static final int BTN_TOUCH = 0x14a;
+
+    private Thread mInputThread;
+    private volatile boolean mRunning;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        CpuBoost.getInstance().connect(getApplicationContext());
+
+        final File device = findTouchpad();
+        if (device == null) {
+            Log.w(TAG, "No touchpad input device found, input boost disabled");
+            return;
+        }
+
+        mRunning = true;
+        mInputThread = new Thread(() -> readInput(device), "CpuBoostInput");
+        mInputThread.start();
+        Log.i(TAG, "Input boost listening on " + device);
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        CpuBoost.getInstance().disconnect(getApplicationContext());
+        mRunning = false;
+        if (mInputThread != null) {
+            mInputThread.interrupt();
+        }
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_BOOST.equals(intent.getAction())) {
+            CpuBoost.getInstance().boost(
+                    intent.getIntExtra(EXTRA_REASON, CpuBoost.REASON_TRANSITION));
+        }
+        return START_STICKY;
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        CpuBoost.getInstance().dump(pw);
+    }
+
+    /**
+     * Find the touchpad event node by its input device name
+     */
+    private static File findTouchpad() {
+        File[] nodes = new File("/sys/class/input").listFiles(
+                (dir, name) -> name.startsWith("event"));
+        if (nodes == null) {
+            return null;
+        }
+        for (File node : nodes) {
+            String name = readName(new File(node, "device/name"));
+            if (name != null && name.toLowerCase().contains(TOUCHPAD_NAME)) {
+                return new File("/dev/input", node.getName());
+            }
+        }
+        return null;
+    }
+
+    private static String readName(File file) {
+        try (FileInputStream in = new FileInputStream(file)) {
+            byte[] buf = new byte[64];
+            int len = in.read(buf);
+            return len > 0 ? new String(buf, 0, len).trim() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Blocking evdev read loop. Only touch-down events request a boost; the
+     * rest of a gesture is covered by the boost window.
+     */
+    private void readInput(File device) {
+        byte[] buf = new byte[EVENT_SIZE * 64];
+        try (FileInputStream in = new FileInputStream(device)) {
+            while (mRunning) {
+                int len = in.read(buf);
+                if (len < 0) {
+                    break;
+                }
+                for (int off = 0; off + EVENT_SIZE <= len; off += EVENT_SIZE) {
+                    int type = (buf[off + 8] & 0xff) | (buf[off + 9] & 0xff) << 8;
+                    int code = (buf[off + 10] & 0xff) | (buf[off + 11] & 0xff) << 8;
+                    int value = buf[off + 12] & 0xff;
+                    if (type == EV_KEY && code == BTN_TOUCH && value == 1) {
+                        CpuBoost.getInstance().boost(CpuBoost.REASON_TOUCH);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Touchpad read failed: " + e.getMessage());
+        }
+    }
+}
@@ -60,6 +60,9 @@ public class GlassLauncherActivity extends Activity implements
 
         // Set initial status
         mStatusView.setText(R.string.status_ready);
+
+        // Input boost runs in the launcher process, which is always alive
+        startService(new Intent(this, CpuBoostService.class));
     }
 
     @Override
@@ -95,6 +98,7 @@ public class GlassLauncherActivity extends Activity implements
             intent = new Intent(android.provider.Settings.ACTION_SETTINGS);
         }
 
+        CpuBoost.getInstance().boost(CpuBoost.REASON_TRANSITION);
         startActivity(intent);
     }
 
@@ -103,6 +107,7 @@ public class GlassLauncherActivity extends Activity implements
      */
     private void openAppList() {
         Intent intent = new Intent(this, AppListActivity.class);
+        CpuBoost.getInstance().boost(CpuBoost.REASON_TRANSITION);
         startActivity(intent);
     }
 
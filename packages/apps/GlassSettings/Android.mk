@@ -21,8 +21,13 @@ LOCAL_STATIC_ANDROID_LIBRARIES := \
     androidx.recyclerview_recyclerview \
     androidx.preference_preference
 
+LOCAL_STATIC_JAVA_LIBRARIES := glass-wifiap-client
+
 LOCAL_USE_AAPT2 := true
 
 LOCAL_PROGUARD_ENABLED := disabled
 
 include $(BUILD_PACKAGE)
+
+# Host tests
+include $(call all-makefiles-under,$(LOCAL_PATH))
@@ -4,17 +4,20 @@
 
 package com.glassports.settings;
 
-import android.app.Activity;
 import android.os.Build;
 import android.os.Bundle;
 import android.view.KeyEvent;
 import android.widget.TextView;
 
 /**
- * About Settings Activity
+ * About Settings Screen
  * Display device and GlassPorts version info
  */
-public class AboutSettingsActivity extends Activity {
+public class AboutSettingsScreen extends SettingsScreen {
+
+    public AboutSettingsScreen(GlassSettingsActivity host) {
+        super(host);
+    }
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
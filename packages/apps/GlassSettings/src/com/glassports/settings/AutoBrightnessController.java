@@ -0,0 +1,100 @@
+/*
+ * GlassPorts Auto-Brightness Controller
+ * Decides when the backlight should change for ambient light
+ */
+
+package com.glassports.settings;
+
+/**
+ * Ties the lux filter and brightness curve together and suppresses writes
+ * the wearer would not notice.
+ *
+ * Perceived brightness is roughly the square root of backlight level, so
+ * two levels are compared in that space; a change smaller than
+ * MIN_PERCEPTIBLE_STEP is dropped. This keeps settings writes (and the
+ * display driver work behind them) to a handful per hour in steady light.
+ *
+ * Plain Java, so it can run against recorded lux traces off-device.
+ */
+public final class AutoBrightnessController {
+
+    /** Minimum change in sqrt(level / 255) that is worth writing */
+    static final float MIN_PERCEPTIBLE_STEP = 0.03f;
+
+    private final LuxFilter mFilter;
+    private BrightnessCurve mCurve;
+    private float mAdjustment;
+    private int mBrightness = -1;
+
+    public AutoBrightnessController(LuxFilter filter, BrightnessCurve curve) {
+        mFilter = filter;
+        mCurve = curve;
+    }
+
+    /**
+     * Feed one sensor sample
+     *
+     * @return the new backlight level, or -1 if it should not change
+     */
+    public int onLuxSample(long timeMs, float lux) {
+        if (!mFilter.addSample(timeMs, lux)) {
+            return -1;
+        }
+        return update(false);
+    }
+
+    /**
+     * Change the user bias; applied immediately since the user is watching
+     *
+     * @return the new backlight level, or -1 if it should not change
+     */
+    public int setAdjustment(float adjustment) {
+        mAdjustment = adjustment;
+        return update(true);
+    }
+
+    /**
+     * @return the new backlight level, or -1 if it should not change
+     */
+    public int setCurve(BrightnessCurve curve) {
+        mCurve = curve;
+        return update(true);
+    }
+
+    /**
+     * Forget ambient history and the last written level
+     */
+    public void reset() {
+        mFilter.reset();
+        mBrightness = -1;
+    }
+
+    public float getAmbientLux() {
+        return mFilter.getAmbientLux();
+    }
+
+    public int getBrightness() {
+        return mBrightness;
+    }
+
+    private int update(boolean force) {
+        if (!mFilter.hasAmbientLux()) {
+            return -1;
+        }
+        int target = mCurve.getBrightness(mFilter.getAmbientLux(), mAdjustment);
+        if (target == mBrightness) {
+            return -1;
+        }
+        if (!force && mBrightness >= 0 && !isPerceptible(mBrightness, target)) {
+            return -1;
+        }
+        mBrightness = target;
+        return target;
+    }
+
+    static boolean isPerceptible(int from, int to) {
+        double a = Math.sqrt(from / (double) BrightnessCurve.MAX_BRIGHTNESS);
+        double b = Math.sqrt(to / (double) BrightnessCurve.MAX_BRIGHTNESS);
+        return Math.abs(a - b) >= MIN_PERCEPTIBLE_STEP;
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * GlassPorts Auto-Brightness Service
+ * Drives the prism backlight from the ambient light sensor
+ */
+
+package com.glassports.settings;
+
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.ContentObserver;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.PowerManager;
+import android.provider.Settings;
+import android.util.Log;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Auto-Brightness Service
+ *
+ * The framework auto-brightness is disabled in the device overlay, so this
+ * service owns the backlight while SCREEN_BRIGHTNESS_MODE is automatic.
+ * The light sensor is registered at 1 Hz with a batching latency, so on
+ * sensor hubs with a FIFO the CPU wakes a few times a minute rather than
+ * on every sample, and it is unregistered entirely while the screen is off.
+ * Filtering and the curve live in AutoBrightnessController; the service only
+ * feeds it samples and writes the levels it returns.
+ *
+ * Recent samples are kept in a ring and printed by dumpsys as a lux trace
+ * that LuxTraceReplay can replay off-device.
+ */
+public class AutoBrightnessService extends Service {
+    private static final String TAG = "GlassAutoBrightness";
+
+    /** Hidden Settings.System key, -1 to 1, shared with the stock framework */
+    public static final String SCREEN_AUTO_BRIGHTNESS_ADJ = "screen_auto_brightness_adj";
+
+    private static final int SAMPLE_PERIOD_US = 1000000;
+    private static final int MAX_REPORT_LATENCY_US = 4000000;
+
+    /** Lux trace ring, about half an hour at 1 Hz */
+    private static final int TRACE_SIZE = 2048;
+
+    private SensorManager mSensorManager;
+    private Sensor mLightSensor;
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private boolean mListening;
+
+    private final AutoBrightnessController mController =
+            new AutoBrightnessController(new LuxFilter(), BrightnessCurve.createDefault());
+
+    // Only touched on the sensor thread
+    private final long[] mTraceTimes = new long[TRACE_SIZE];
+    private final float[] mTraceLux = new float[TRACE_SIZE];
+    private int mTraceNext;
+    private int mTraceCount;
+    private int mWrites;
+    private int mBrightnessCap = 255;
+
+    /**
+     * Start the service if automatic brightness is selected; it stops
+     * itself otherwise
+     */
+    public static void start(Context context) {
+        context.startService(new Intent(context, AutoBrightnessService.class));
+    }
+
+    public static boolean isAutomatic(Context context) {
+        return Settings.System.getInt(context.getContentResolver(),
+                Settings.System.SCREEN_BRIGHTNESS_MODE,
+                Settings.System.SCREEN_BRIGHTNESS_MODE_MANUAL)
+                == Settings.System.SCREEN_BRIGHTNESS_MODE_AUTOMATIC;
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        mSensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
+        mLightSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_LIGHT);
+
+        mThread = new HandlerThread("AutoBrightness");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+
+        getContentResolver().registerContentObserver(
+                Settings.System.getUriFor(Settings.System.SCREEN_BRIGHTNESS_MODE),
+                false, mSettingsObserver);
+        getContentResolver().registerContentObserver(
+                Settings.System.getUriFor(SCREEN_AUTO_BRIGHTNESS_ADJ),
+                false, mSettingsObserver);
+        getContentResolver().registerContentObserver(
+                Settings.System.getUriFor(ThermalService.THERMAL_BRIGHTNESS_CAP),
+                false, mCapObserver);
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_SCREEN_OFF);
+        registerReceiver(mScreenReceiver, filter, null, mHandler);
+
+        mHandler.post(() -> {
+            updateCap();
+            updateAdjustment();
+        });
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (mLightSensor == null) {
+            Log.w(TAG, "No light sensor, auto-brightness unavailable");
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        mHandler.post(this::updateMode);
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        getContentResolver().unregisterContentObserver(mSettingsObserver);
+        getContentResolver().unregisterContentObserver(mCapObserver);
+        unregisterReceiver(mScreenReceiver);
+        mHandler.post(() -> {
+            setListening(false);
+            mThread.quitSafely();
+        });
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    /**
+     * Stop when the user selects manual brightness, otherwise follow the screen
+     */
+    private void updateMode() {
+        if (!isAutomatic(this)) {
+            Log.i(TAG, "Manual brightness selected, stopping");
+            stopSelf();
+            return;
+        }
+        PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        setListening(pm.isInteractive());
+    }
+
+    private void updateAdjustment() {
+        float adjustment = Settings.System.getFloat(getContentResolver(),
+                SCREEN_AUTO_BRIGHTNESS_ADJ, 0f);
+        writeBrightness(mController.setAdjustment(adjustment));
+    }
+
+    /**
+     * Follow the thermal service's ceiling, rewriting the current level
+     * when it moves
+     */
+    private void updateCap() {
+        int cap = Settings.System.getInt(getContentResolver(),
+                ThermalService.THERMAL_BRIGHTNESS_CAP, 255);
+        if (cap != mBrightnessCap) {
+            mBrightnessCap = cap;
+            writeBrightness(mController.getBrightness());
+        }
+    }
+
+    private void setListening(boolean listening) {
+        if (listening == mListening) {
+            return;
+        }
+        mListening = listening;
+        if (listening) {
+            mSensorManager.registerListener(mSensorListener, mLightSensor,
+                    SAMPLE_PERIOD_US, MAX_REPORT_LATENCY_US, mHandler);
+            // Deliver the first sample now instead of after the batch latency
+            mSensorManager.flush(mSensorListener);
+        } else {
+            mSensorManager.unregisterListener(mSensorListener);
+            // Light may be completely different when the screen comes back
+            mController.reset();
+        }
+    }
+
+    private void writeBrightness(int brightness) {
+        if (brightness < 0 || !mListening) {
+            return;
+        }
+        Settings.System.putInt(getContentResolver(),
+                Settings.System.SCREEN_BRIGHTNESS, Math.min(brightness, mBrightnessCap));
+        mWrites++;
+    }
+
+    private final SensorEventListener mSensorListener = new SensorEventListener() {
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            long timeMs = event.timestamp / 1000000;
+            float lux = event.values[0];
+
+            mTraceTimes[mTraceNext] = timeMs;
+            mTraceLux[mTraceNext] = lux;
+            mTraceNext = (mTraceNext + 1) % TRACE_SIZE;
+            mTraceCount = Math.min(mTraceCount + 1, TRACE_SIZE);
+
+            writeBrightness(mController.onLuxSample(timeMs, lux));
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        }
+    };
+
+    private final BroadcastReceiver mScreenReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            setListening(Intent.ACTION_SCREEN_ON.equals(intent.getAction()));
+        }
+    };
+
+    private final ContentObserver mSettingsObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            mHandler.post(() -> {
+                updateMode();
+                updateAdjustment();
+            });
+        }
+    };
+
+    private final ContentObserver mCapObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            mHandler.post(AutoBrightnessService.this::updateCap);
+        }
+    };
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        // Copy the ring on the sensor thread so the dump is consistent
+        final long[] times = new long[TRACE_SIZE];
+        final float[] lux = new float[TRACE_SIZE];
+        final int[] state = new int[4];
+        final float[] ambient = new float[1];
+        final CountDownLatch copied = new CountDownLatch(1);
+        mHandler.post(() -> {
+            System.arraycopy(mTraceTimes, 0, times, 0, TRACE_SIZE);
+            System.arraycopy(mTraceLux, 0, lux, 0, TRACE_SIZE);
+            state[0] = mTraceNext;
+            state[1] = mTraceCount;
+            state[2] = mWrites;
+            state[3] = mController.getBrightness();
+            ambient[0] = mController.getAmbientLux();
+            copied.countDown();
+        });
+        try {
+            copied.await(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        pw.println("# listening=" + mListening + " ambient=" + ambient[0]
+                + " brightness=" + state[3] + " cap=" + mBrightnessCap + " writes=" + state[2]);
+        pw.println("# time_ms,lux");
+        int start = (state[0] - state[1] + TRACE_SIZE) % TRACE_SIZE;
+        for (int i = 0; i < state[1]; i++) {
+            int index = (start + i) % TRACE_SIZE;
+            pw.println(times[index] + "," + lux[index]);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * GlassPorts Battery Settings
+ */
+
+package com.glassports.settings;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Bundle;
+import android.os.Handler;
+import android.text.format.DateUtils;
+import android.view.KeyEvent;
+import android.widget.TextView;
+
+/**
+ * Battery Settings Screen
+ * Battery level history and what kept the device busy
+ */
+public class BatterySettingsScreen extends SettingsScreen {
+
+    private static final long WINDOW_MS = 24 * 60 * 60 * 1000L;
+    private static final long MAX_GAP_MS = 30 * 60 * 1000L;
+
+    /** Redraw while visible so new samples show up */
+    private static final long REFRESH_MS = 30 * 1000;
+
+    private TextView mStatusText;
+    private TextView mUsageText;
+    private PowerHistoryView mChart;
+    private Handler mHandler;
+    private PowerHistory.Reader mReader;
+
+    public BatterySettingsScreen(GlassSettingsActivity host) {
+        super(host);
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_battery_settings);
+
+        mStatusText = findViewById(R.id.battery_status);
+        mUsageText = findViewById(R.id.battery_usage);
+        mChart = findViewById(R.id.battery_chart);
+        mChart.setWindow(WINDOW_MS);
+        mHandler = new Handler();
+
+        // Make sure the sampler runs even if it was never started at boot
+        startService(new Intent(this, PowerHistoryService.class));
+
+        openHistory();
+    }
+
+    /**
+     * Map the history ring in the background; retried on refresh until the
+     * sampler has created it
+     */
+    private void openHistory() {
+        SettingsExecutor.execute(() -> {
+            final PowerHistory.Reader reader =
+                    PowerHistory.Reader.open(PowerHistoryService.getHistoryFile(this));
+            mHandler.post(() -> {
+                if (isDestroyed()) {
+                    return;
+                }
+                mReader = reader;
+                mChart.setReader(reader);
+                updateUsage();
+            });
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        registerReceiver(mBatteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        mHandler.postDelayed(mRefreshRunnable, REFRESH_MS);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        unregisterReceiver(mBatteryReceiver);
+        mHandler.removeCallbacks(mRefreshRunnable);
+    }
+
+    private final Runnable mRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mReader == null) {
+                openHistory();
+            } else {
+                mChart.invalidate();
+                updateUsage();
+            }
+            mHandler.postDelayed(this, REFRESH_MS);
+        }
+    };
+
+    /**
+     * Sum time spent with the screen and hotspot on over the chart window
+     */
+    private void updateUsage() {
+        if (mReader == null) {
+            mUsageText.setText(R.string.battery_no_history);
+            return;
+        }
+        long start = System.currentTimeMillis() - WINDOW_MS;
+        long screenMs = 0;
+        long hotspotMs = 0;
+        long dischargeMs = 0;
+        long dischargeMaMs = 0;
+        int size = mReader.size();
+        for (int i = 0; i + 1 < size; i++) {
+            long time = mReader.getTimeMs(i);
+            long duration = mReader.getTimeMs(i + 1) - time;
+            if (time < start || duration > MAX_GAP_MS) {
+                continue;
+            }
+            int flags = mReader.getFlags(i);
+            if ((flags & PowerHistory.FLAG_SCREEN_ON) != 0) {
+                screenMs += duration;
+            }
+            if ((flags & PowerHistory.FLAG_HOTSPOT_ON) != 0) {
+                hotspotMs += duration;
+            }
+            if ((flags & PowerHistory.FLAG_CHARGING) == 0) {
+                dischargeMs += duration;
+                dischargeMaMs += -mReader.getCurrentMa(i) * duration;
+            }
+        }
+        long averageMa = dischargeMs > 0 ? dischargeMaMs / dischargeMs : 0;
+        mUsageText.setText(getString(R.string.battery_usage,
+                DateUtils.formatElapsedTime(screenMs / 1000),
+                DateUtils.formatElapsedTime(hotspotMs / 1000),
+                averageMa));
+    }
+
+    private final BroadcastReceiver mBatteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, 0);
+            int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+            int temp = intent.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0);
+            int plugged = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0);
+            mStatusText.setText(getString(plugged != 0
+                            ? R.string.battery_status_charging : R.string.battery_status,
+                    level * 100 / Math.max(1, scale), temp / 10f));
+        }
+    };
+
+    @Override
+    public boolean onKeyDown(int keyCode, KeyEvent event) {
+        if (keyCode == KeyEvent.KEYCODE_BACK) {
+            finish();
+            return true;
+        }
+        return super.onKeyDown(keyCode, event);
+    }
+}
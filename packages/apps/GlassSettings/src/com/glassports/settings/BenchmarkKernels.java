@@ -0,0 +1,279 @@
+/*
+ * GlassPorts Benchmark Kernels
+ * Pure-compute benchmark kernels shared by the device runner and desktop JVMs
+ */
+
+package com.glassports.settings;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+/**
+ * CPU, memory and compression kernels.
+ *
+ * Plain Java with no Android dependencies, so the same numbers can be
+ * produced on a desktop JVM as a sanity baseline:
+ *   javac -d out BenchmarkKernels.java BenchmarkReport.java
+ *   java -cp out com.glassports.settings.BenchmarkKernels [report.json]
+ *
+ * Every kernel runs one untimed warm-up chunk (so JIT and AOT builds are
+ * compared on steady state), then repeats chunks until MEASURE_NS has
+ * passed and reports work per second.
+ */
+public final class BenchmarkKernels {
+
+    private static final long MEASURE_NS = 1000000000L;
+
+    private static final int FP_MATRIX_SIZE = 96;
+    private static final int BANDWIDTH_BYTES = 8 * 1024 * 1024;
+    private static final int LATENCY_BYTES = 16 * 1024 * 1024;
+    private static final int LATENCY_LOADS = 1 << 20;
+    private static final int PAGE_SIZE = 4096;
+    private static final int COMPRESS_PAGES = 512;
+
+    /** Results are consumed here so no kernel can be optimised away */
+    private static volatile long sBlackhole;
+
+    /**
+     * Receives kernel results
+     */
+    public interface Sink {
+        void result(String name, double value, String unit);
+    }
+
+    private interface Chunk {
+        /** Run one chunk and return the amount of work it did */
+        long run();
+    }
+
+    private BenchmarkKernels() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        BenchmarkReport report = new BenchmarkReport();
+        report.putInfo("platform", "jvm");
+        report.putInfo("java.vm", System.getProperty("java.vm.name") + " "
+                + System.getProperty("java.vm.version"));
+        report.putInfo("os", System.getProperty("os.name") + " "
+                + System.getProperty("os.arch"));
+        report.putInfo("cpus", String.valueOf(Runtime.getRuntime().availableProcessors()));
+
+        runAll(report);
+
+        if (args.length > 0) {
+            try (OutputStream out = new FileOutputStream(args[0])) {
+                report.writeTo(out);
+            }
+        } else {
+            report.writeTo(System.out);
+        }
+    }
+
+    public static void runAll(Sink sink) {
+        integer(sink);
+        floatingPoint(sink);
+        memoryBandwidth(sink);
+        memoryLatency(sink);
+        compression(sink);
+    }
+
+    /**
+     * Integer hashing, one thread and all cores
+     */
+    public static void integer(Sink sink) {
+        sink.result("cpu.int.single", measure(BenchmarkKernels::hashChunk) / 1e6, "Mops/s");
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        final double[] rates = new double[threads];
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int slot = i;
+            workers[i] = new Thread(() -> rates[slot] = measure(BenchmarkKernels::hashChunk));
+            workers[i].start();
+        }
+        double total = 0;
+        for (int i = 0; i < threads; i++) {
+            join(workers[i]);
+            total += rates[i];
+        }
+        sink.result("cpu.int.multi", total / 1e6, "Mops/s");
+    }
+
+    private static long hashChunk() {
+        long x = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < 65536; i++) {
+            x ^= x << 13;
+            x ^= x >>> 7;
+            x ^= x << 17;
+            x *= 0x2545F4914F6CDD1DL;
+        }
+        sBlackhole += x;
+        return 65536;
+    }
+
+    /**
+     * Double precision matrix multiply
+     */
+    public static void floatingPoint(Sink sink) {
+        final int n = FP_MATRIX_SIZE;
+        final double[] a = new double[n * n];
+        final double[] b = new double[n * n];
+        final double[] c = new double[n * n];
+        Random random = new Random(1);
+        for (int i = 0; i < a.length; i++) {
+            a[i] = random.nextDouble();
+            b[i] = random.nextDouble();
+        }
+
+        double flops = measure(() -> {
+            for (int i = 0; i < n; i++) {
+                for (int k = 0; k < n; k++) {
+                    double aik = a[i * n + k];
+                    int row = i * n;
+                    int col = k * n;
+                    for (int j = 0; j < n; j++) {
+                        c[row + j] += aik * b[col + j];
+                    }
+                }
+            }
+            sBlackhole += (long) c[n + 1];
+            return 2L * n * n * n;
+        });
+        sink.result("cpu.fp.matmul", flops / 1e6, "MFLOPS");
+    }
+
+    /**
+     * Sequential copy and read bandwidth over buffers larger than the L2
+     */
+    public static void memoryBandwidth(Sink sink) {
+        final byte[] src = new byte[BANDWIDTH_BYTES];
+        final byte[] dst = new byte[BANDWIDTH_BYTES];
+        for (int i = 0; i < src.length; i += PAGE_SIZE) {
+            src[i] = (byte) i;
+        }
+        double copy = measure(() -> {
+            System.arraycopy(src, 0, dst, 0, src.length);
+            return src.length;
+        });
+        sink.result("mem.copy", copy / (1024 * 1024), "MB/s");
+
+        final long[] words = new long[BANDWIDTH_BYTES / 8];
+        double read = measure(() -> {
+            long sum = 0;
+            for (long word : words) {
+                sum += word;
+            }
+            sBlackhole += sum;
+            return (long) words.length * 8;
+        });
+        sink.result("mem.read", read / (1024 * 1024), "MB/s");
+    }
+
+    /**
+     * Dependent loads through a random cycle, defeating the prefetcher
+     */
+    public static void memoryLatency(Sink sink) {
+        final int[] next = new int[LATENCY_BYTES / 4];
+        // Sattolo's algorithm gives a single cycle through every slot
+        for (int i = 0; i < next.length; i++) {
+            next[i] = i;
+        }
+        Random random = new Random(2);
+        for (int i = next.length - 1; i > 0; i--) {
+            int j = random.nextInt(i);
+            int tmp = next[i];
+            next[i] = next[j];
+            next[j] = tmp;
+        }
+
+        double loads = measure(() -> {
+            int p = 0;
+            for (int i = 0; i < LATENCY_LOADS; i++) {
+                p = next[p];
+            }
+            sBlackhole += p;
+            return LATENCY_LOADS;
+        });
+        sink.result("mem.latency", 1e9 / loads, "ns");
+    }
+
+    /**
+     * Page-at-a-time deflate, the closest portable stand-in for zram.
+     * Pages mix zero, repetitive and random content like app heaps do.
+     */
+    public static void compression(Sink sink) {
+        final byte[] data = new byte[COMPRESS_PAGES * PAGE_SIZE];
+        Random random = new Random(3);
+        for (int page = 0; page < COMPRESS_PAGES; page++) {
+            int base = page * PAGE_SIZE;
+            switch (page % 4) {
+                case 0:
+                    // zero page
+                    break;
+                case 1:
+                    for (int i = 0; i < PAGE_SIZE; i++) {
+                        data[base + i] = (byte) ((i / 16) & 0x0F);
+                    }
+                    break;
+                case 2:
+                    for (int i = 0; i < PAGE_SIZE; i += 8) {
+                        data[base + i] = (byte) random.nextInt(256);
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < PAGE_SIZE; i++) {
+                        data[base + i] = (byte) random.nextInt(256);
+                    }
+                    break;
+            }
+        }
+
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        final byte[] out = new byte[PAGE_SIZE * 2];
+        final long[] compressed = new long[1];
+        double rate = measure(() -> {
+            long bytes = 0;
+            for (int page = 0; page < COMPRESS_PAGES; page++) {
+                deflater.reset();
+                deflater.setInput(data, page * PAGE_SIZE, PAGE_SIZE);
+                deflater.finish();
+                while (!deflater.finished()) {
+                    bytes += deflater.deflate(out);
+                }
+            }
+            compressed[0] = bytes;
+            return data.length;
+        });
+        deflater.end();
+        sink.result("zram.deflate", rate / (1024 * 1024), "MB/s");
+        sink.result("zram.ratio", (double) data.length / Math.max(1, compressed[0]), "x");
+    }
+
+    /**
+     * Warm up once, then run chunks for MEASURE_NS
+     *
+     * @return work per second
+     */
+    private static double measure(Chunk chunk) {
+        chunk.run();
+        long work = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            work += chunk.run();
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < MEASURE_NS);
+        return work * 1e9 / elapsed;
+    }
+
+    private static void join(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * GlassPorts Benchmark Report
+ * Versioned JSON report of a benchmark run
+ */
+
+package com.glassports.settings;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Collects benchmark results and writes them as one JSON object:
+ *
+ *   { "report_version": 1,
+ *     "info": { "build.fingerprint": "...", ... },
+ *     "results": [ { "name": "cpu.int.single", "value": 123.4, "unit": "Mops/s" }, ... ] }
+ *
+ * Result names are stable across versions so reports from different
+ * builds can be diffed; REPORT_VERSION is bumped whenever a kernel changes
+ * in a way that makes old numbers incomparable.
+ *
+ * Plain Java, shared with the desktop entry point in BenchmarkKernels.
+ */
+public class BenchmarkReport implements BenchmarkKernels.Sink {
+
+    public static final int REPORT_VERSION = 1;
+
+    private final Map<String, String> mInfo = new LinkedHashMap<>();
+    private final List<String> mNames = new ArrayList<>();
+    private final List<Double> mValues = new ArrayList<>();
+    private final List<String> mUnits = new ArrayList<>();
+
+    public synchronized void putInfo(String key, String value) {
+        mInfo.put(key, value);
+    }
+
+    @Override
+    public synchronized void result(String name, double value, String unit) {
+        mNames.add(name);
+        mValues.add(value);
+        mUnits.add(unit);
+    }
+
+    public synchronized int size() {
+        return mNames.size();
+    }
+
+    public synchronized String getName(int index) {
+        return mNames.get(index);
+    }
+
+    public synchronized double getValue(int index) {
+        return mValues.get(index);
+    }
+
+    public synchronized String getUnit(int index) {
+        return mUnits.get(index);
+    }
+
+    public synchronized void writeTo(OutputStream out) throws IOException {
+        StringBuilder sb = new StringBuilder(2048);
+        sb.append("{\n  \"report_version\": ").append(REPORT_VERSION).append(",\n");
+        sb.append("  \"info\": {");
+        boolean first = true;
+        for (Map.Entry<String, String> entry : mInfo.entrySet()) {
+            sb.append(first ? "\n" : ",\n");
+            sb.append("    ").append(quote(entry.getKey())).append(": ")
+                    .append(quote(entry.getValue()));
+            first = false;
+        }
+        sb.append("\n  },\n  \"results\": [");
+        for (int i = 0; i < mNames.size(); i++) {
+            sb.append(i == 0 ? "\n" : ",\n");
+            sb.append("    { \"name\": ").append(quote(mNames.get(i)))
+                    .append(", \"value\": ")
+                    .append(String.format(Locale.US, "%.3f", mValues.get(i)))
+                    .append(", \"unit\": ").append(quote(mUnits.get(i))).append(" }");
+        }
+        sb.append("\n  ]\n}\n");
+        out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static String quote(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * GlassPorts Benchmark Service
+ * Runs the benchmark suite and writes a versioned report
+ */
+
+package com.glassports.settings;
+
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Benchmark Service
+ *
+ * Runs CPU, memory, zram, eMMC and UI benchmarks and saves the results to
+ * /data/misc/glassports/bench, one JSON report per run named after the
+ * build, so runs on different AOSP versions can be pulled and compared.
+ *
+ * Headless use:
+ *   adb shell am startservice -a com.glassports.settings.action.RUN_BENCHMARK \
+ *       -n com.glassports.settings/.BenchmarkService
+ *   adb logcat -s GlassBenchmark     # prints the report path when done
+ */
+public class BenchmarkService extends Service {
+    private static final String TAG = "GlassBenchmark";
+
+    public static final String ACTION_RUN_BENCHMARK =
+            "com.glassports.settings.action.RUN_BENCHMARK";
+
+    private static final String REPORT_DIR = "/data/misc/glassports/bench";
+
+    private final IBinder mBinder = new BenchmarkBinder();
+    private HandlerThread mThread;
+    private Handler mWorker;
+    private Handler mMainHandler;
+    private PowerManager.WakeLock mWakeLock;
+    private boolean mRunning;
+
+    /**
+     * Progress and completion, called on the main thread
+     */
+    public interface BenchmarkCallback {
+        void onProgress(String suite);
+
+        /**
+         * @param report file written, or null if it could not be saved
+         */
+        void onFinished(File report, BenchmarkReport results);
+    }
+
+    public class BenchmarkBinder extends Binder {
+        public BenchmarkService getService() {
+            return BenchmarkService.this;
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mThread = new HandlerThread("Benchmark", Process.THREAD_PRIORITY_DEFAULT);
+        mThread.start();
+        mWorker = new Handler(mThread.getLooper());
+        mMainHandler = new Handler(Looper.getMainLooper());
+
+        PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        mWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mThread.quitSafely();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_RUN_BENCHMARK.equals(intent.getAction())) {
+            runBenchmarks(null);
+        }
+        return START_NOT_STICKY;
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * Run the whole suite; ignored if a run is already in progress
+     */
+    public void runBenchmarks(final BenchmarkCallback callback) {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        mWakeLock.acquire();
+        mWorker.post(() -> {
+            final BenchmarkReport report = new BenchmarkReport();
+            putBuildInfo(report);
+
+            progress(callback, "cpu");
+            BenchmarkKernels.integer(report);
+            BenchmarkKernels.floatingPoint(report);
+            progress(callback, "memory");
+            BenchmarkKernels.memoryBandwidth(report);
+            BenchmarkKernels.memoryLatency(report);
+            progress(callback, "zram");
+            BenchmarkKernels.compression(report);
+            progress(callback, "storage");
+            DeviceBenchmarks.storage(this, report);
+            progress(callback, "ui");
+            DeviceBenchmarks.ui(this, report);
+
+            final File file = writeReport(report);
+            mMainHandler.post(() -> {
+                mRunning = false;
+                mWakeLock.release();
+                if (callback != null) {
+                    callback.onFinished(file, report);
+                }
+                stopSelf();
+            });
+        });
+    }
+
+    private void progress(final BenchmarkCallback callback, final String suite) {
+        Log.i(TAG, "Running " + suite);
+        if (callback != null) {
+            mMainHandler.post(() -> callback.onProgress(suite));
+        }
+    }
+
+    private void putBuildInfo(BenchmarkReport report) {
+        report.putInfo("platform", "android");
+        report.putInfo("build.fingerprint", Build.FINGERPRINT);
+        report.putInfo("build.display", Build.DISPLAY);
+        report.putInfo("build.sdk", String.valueOf(Build.VERSION.SDK_INT));
+        report.putInfo("build.release", Build.VERSION.RELEASE);
+        report.putInfo("glassports.version", getString(R.string.glassports_version));
+        report.putInfo("kernel", String.valueOf(SysfsUtils.read("/proc/version")));
+        report.putInfo("vm", System.getProperty("java.vm.name") + " "
+                + System.getProperty("java.vm.version"));
+        report.putInfo("cpu.governor", String.valueOf(
+                SysfsUtils.read("/sys/devices/system/cpu/cpu0/cpufreq/scaling_governor")));
+        report.putInfo("performance.profile", getSharedPreferences("performance", MODE_PRIVATE)
+                .getString("profile", PerformanceProfile.DEFAULT_ID));
+        report.putInfo("zram.algorithm", String.valueOf(
+                SysfsUtils.read("/sys/block/zram0/comp_algorithm")));
+        report.putInfo("thermal", String.valueOf(
+                SysfsUtils.read("/sys/class/thermal/thermal_zone0/temp")));
+        report.putInfo("time", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.US)
+                .format(new Date()));
+    }
+
+    private File writeReport(BenchmarkReport report) {
+        String name = String.format(Locale.US, "bench-v%d-%s-%s.json",
+                BenchmarkReport.REPORT_VERSION,
+                Build.ID.replaceAll("[^A-Za-z0-9._-]", "_"),
+                new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date()));
+        File dir = new File(REPORT_DIR);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            // Fall back to app storage if the shared directory is missing
+            dir = new File(getFilesDir(), "bench");
+            dir.mkdirs();
+        }
+        File file = new File(dir, name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            report.writeTo(out);
+            Log.i(TAG, "Benchmark report saved to " + file);
+            return file;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save benchmark report: " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -4,25 +4,34 @@
 
 package com.glassports.settings;
 
-import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.Bundle;
+import android.os.Handler;
 import android.view.KeyEvent;
 import android.widget.Switch;
 import android.widget.TextView;
 
 /**
- * Bluetooth Settings Activity
+ * Bluetooth Settings Screen
  */
-public class BluetoothSettingsActivity extends Activity {
+public class BluetoothSettingsScreen extends SettingsScreen {
+
+    private static final String KEY_ENABLED = "enabled";
 
     private BluetoothAdapter mBluetoothAdapter;
     private Switch mBluetoothSwitch;
     private TextView mStatusText;
+    private Handler mHandler;
+    private SettingsSnapshot mSnapshot;
+    private boolean mUpdating;
+
+    public BluetoothSettingsScreen(GlassSettingsActivity host) {
+        super(host);
+    }
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -30,23 +39,31 @@ public class BluetoothSettingsActivity extends Activity {
         setContentView(R.layout.activity_bluetooth_settings);
 
         mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        mHandler = new Handler();
 
         mBluetoothSwitch = findViewById(R.id.bluetooth_switch);
         mStatusText = findViewById(R.id.bluetooth_status);
 
         mBluetoothSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (mUpdating || mBluetoothAdapter == null) {
+                return;
+            }
             if (isChecked) {
                 mBluetoothAdapter.enable();
             } else {
                 mBluetoothAdapter.disable();
             }
-            updateState();
+            refreshState();
         });
 
+        // Draw the first frame from the last known state
+        mSnapshot = SettingsSnapshot.load(this, "bluetooth");
+        updateViews(mSnapshot.getBoolean(KEY_ENABLED, false));
+
         IntentFilter filter = new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED);
         registerReceiver(mReceiver, filter);
 
-        updateState();
+        refreshState();
     }
 
     @Override
@@ -55,16 +72,34 @@ public class BluetoothSettingsActivity extends Activity {
         unregisterReceiver(mReceiver);
     }
 
-    private void updateState() {
-        boolean enabled = mBluetoothAdapter != null && mBluetoothAdapter.isEnabled();
+    /**
+     * Query live Bluetooth state in the background and reconcile the screen with it
+     */
+    private void refreshState() {
+        SettingsExecutor.execute(() -> {
+            final boolean enabled = mBluetoothAdapter != null && mBluetoothAdapter.isEnabled();
+            mHandler.post(() -> {
+                if (isDestroyed()) {
+                    return;
+                }
+                updateViews(enabled);
+                mSnapshot.putBoolean(KEY_ENABLED, enabled);
+                mSnapshot.saveAsync();
+            });
+        });
+    }
+
+    private void updateViews(boolean enabled) {
+        mUpdating = true;
         mBluetoothSwitch.setChecked(enabled);
+        mUpdating = false;
         mStatusText.setText(enabled ? R.string.bluetooth_on : R.string.bluetooth_off);
     }
 
     private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
-            updateState();
+            refreshState();
         }
     };
 
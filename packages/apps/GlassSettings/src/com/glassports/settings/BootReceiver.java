@@ -0,0 +1,44 @@
+/*
+ * GlassPorts Settings Boot Receiver
+ */
+
+package com.glassports.settings;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Restores runtime system settings after boot
+ */
+public class BootReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (!Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
+            return;
+        }
+
+        // Re-apply the selected performance profile
+        Intent profile = new Intent(context, PerformanceProfileService.class);
+        profile.setAction(PerformanceProfileService.ACTION_RESTORE_PROFILE);
+        context.startService(profile);
+
+        // Resume auto-brightness; the service stops itself in manual mode
+        AutoBrightnessService.start(context);
+
+        // Start recording power history
+        context.startService(new Intent(context, PowerHistoryService.class));
+
+        // Start thermal mitigation
+        context.startService(new Intent(context, ThermalService.class));
+
+        // Reconnect WiFi through learned channels on wake
+        context.startService(new Intent(context, FastReconnectService.class));
+
+        // Resume the field log spool if it was left on
+        if (LogSpoolService.isEnabled(context)) {
+            context.startService(new Intent(context, LogSpoolService.class));
+        }
+    }
+}
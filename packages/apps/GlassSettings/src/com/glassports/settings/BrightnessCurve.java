@@ -0,0 +1,113 @@
+/*
+ * GlassPorts Brightness Curve
+ * Ambient lux to prism backlight mapping
+ */
+
+package com.glassports.settings;
+
+/**
+ * Piecewise curve from ambient lux to backlight level (1-255).
+ *
+ * Points are interpolated on a log lux axis, which matches how the eye
+ * perceives ambient changes. The user adjustment (-1 to 1) bends the whole
+ * curve brighter or darker with a gamma, so the end points stay fixed and
+ * the curve stays monotonic.
+ *
+ * Plain Java, so it can run against recorded lux traces off-device.
+ */
+public final class BrightnessCurve {
+
+    public static final int MIN_BRIGHTNESS = 1;
+    public static final int MAX_BRIGHTNESS = 255;
+
+    /** Gamma at full adjustment; 3 matches the stock auto-brightness range */
+    private static final float MAX_ADJUSTMENT_GAMMA = 3.0f;
+
+    private static final float[] DEFAULT_LUX = {
+            0f, 10f, 50f, 200f, 1000f, 5000f, 20000f
+    };
+    private static final int[] DEFAULT_BRIGHTNESS = {
+            8, 30, 60, 110, 180, 230, 255
+    };
+
+    private final float[] mLogLux;
+    private final float[] mLevel;
+
+    /**
+     * @param lux strictly increasing ambient lux control points
+     * @param brightness backlight level at each point, non-decreasing
+     */
+    public BrightnessCurve(float[] lux, int[] brightness) {
+        if (lux.length < 2 || lux.length != brightness.length) {
+            throw new IllegalArgumentException("Curve needs matching points");
+        }
+        mLogLux = new float[lux.length];
+        mLevel = new float[lux.length];
+        for (int i = 0; i < lux.length; i++) {
+            if (i > 0 && (lux[i] <= lux[i - 1] || brightness[i] < brightness[i - 1])) {
+                throw new IllegalArgumentException("Curve must be monotonic at point " + i);
+            }
+            mLogLux[i] = logLux(lux[i]);
+            mLevel[i] = clamp(brightness[i]) / (float) MAX_BRIGHTNESS;
+        }
+    }
+
+    public static BrightnessCurve createDefault() {
+        return new BrightnessCurve(DEFAULT_LUX, DEFAULT_BRIGHTNESS);
+    }
+
+    /**
+     * Parse a curve written as "lux:level,lux:level,..."
+     */
+    public static BrightnessCurve parse(String spec) {
+        String[] points = spec.trim().split(",");
+        float[] lux = new float[points.length];
+        int[] brightness = new int[points.length];
+        for (int i = 0; i < points.length; i++) {
+            String[] parts = points[i].trim().split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Bad curve point: " + points[i]);
+            }
+            lux[i] = Float.parseFloat(parts[0]);
+            brightness[i] = Integer.parseInt(parts[1]);
+        }
+        return new BrightnessCurve(lux, brightness);
+    }
+
+    /**
+     * Backlight level for an ambient lux value
+     *
+     * @param adjustment user bias, -1 (darker) to 1 (brighter), 0 for none
+     */
+    public int getBrightness(float lux, float adjustment) {
+        float x = logLux(lux);
+        float level;
+        if (x <= mLogLux[0]) {
+            level = mLevel[0];
+        } else if (x >= mLogLux[mLogLux.length - 1]) {
+            level = mLevel[mLevel.length - 1];
+        } else {
+            int i = 1;
+            while (mLogLux[i] < x) {
+                i++;
+            }
+            float t = (x - mLogLux[i - 1]) / (mLogLux[i] - mLogLux[i - 1]);
+            level = mLevel[i - 1] + t * (mLevel[i] - mLevel[i - 1]);
+        }
+
+        if (adjustment != 0f) {
+            float a = Math.max(-1f, Math.min(1f, adjustment));
+            level = (float) Math.pow(level, Math.pow(MAX_ADJUSTMENT_GAMMA, -a));
+        }
+        return clamp(Math.round(level * MAX_BRIGHTNESS));
+    }
+
+    private static float logLux(float lux) {
+        // log1p keeps 0 lux finite
+        return (float) Math.log1p(Math.max(0f, lux));
+    }
+
+    private static int clamp(int brightness) {
+        return Math.max(MIN_BRIGHTNESS, Math.min(MAX_BRIGHTNESS, brightness));
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * GlassPorts Developer Settings
+ */
+
+package com.glassports.settings;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.SystemProperties;
+import android.provider.Settings;
+import android.text.format.Formatter;
+import android.view.GestureDetector;
+import android.view.KeyEvent;
+import android.view.MotionEvent;
+import android.widget.Switch;
+import android.widget.TextView;
+
+import java.io.File;
+
+/**
+ * Developer Settings Screen
+ * ADB and development options
+ */
+public class DeveloperSettingsScreen extends SettingsScreen {
+
+    private static final String KEY_ADB = "adb";
+    private static final String KEY_STAY_AWAKE = "stay_awake";
+
+    private Switch mAdbSwitch;
+    private Switch mStayAwakeSwitch;
+    private Switch mPerfHudSwitch;
+    private Switch mTraceSwitch;
+    private Switch mLogSpoolSwitch;
+    private TextView mAdbStatus;
+    private TextView mTraceStatus;
+    private TextView mLogSpoolStatus;
+    private TextView mBenchmarkStatus;
+    private BenchmarkService mBenchmarkService;
+    private LogSpoolService mLogSpoolService;
+    private GestureDetector mGestureDetector;
+    private Handler mHandler;
+    private SettingsSnapshot mSnapshot;
+    private boolean mUpdating;
+
+    public DeveloperSettingsScreen(GlassSettingsActivity host) {
+        super(host);
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_developer_settings);
+
+        mAdbSwitch = findViewById(R.id.adb_switch);
+        mStayAwakeSwitch = findViewById(R.id.stay_awake_switch);
+        mAdbStatus = findViewById(R.id.adb_status);
+        mPerfHudSwitch = findViewById(R.id.perf_hud_switch);
+        mTraceSwitch = findViewById(R.id.trace_switch);
+        mTraceStatus = findViewById(R.id.trace_status);
+        mLogSpoolSwitch = findViewById(R.id.log_spool_switch);
+        mLogSpoolStatus = findViewById(R.id.log_spool_status);
+        mBenchmarkStatus = findViewById(R.id.benchmark_status);
+
+        mHandler = new Handler();
+
+        // Draw the first frame from the last known state. ADB is enabled
+        // by default in GlassPorts.
+        mSnapshot = SettingsSnapshot.load(this, "developer");
+        updateViews(mSnapshot.getBoolean(KEY_ADB, true),
+                mSnapshot.getBoolean(KEY_STAY_AWAKE, false));
+
+        mAdbSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (mUpdating) {
+                return;
+            }
+            Settings.Global.putInt(getContentResolver(),
+                    Settings.Global.ADB_ENABLED, isChecked ? 1 : 0);
+            updateAdbStatus(isChecked);
+        });
+
+        mStayAwakeSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (mUpdating) {
+                return;
+            }
+            Settings.Global.putInt(getContentResolver(),
+                    Settings.Global.STAY_ON_WHILE_PLUGGED_IN,
+                    isChecked ? 3 : 0); // 3 = USB + AC
+        });
+
+        final SharedPreferences prefs = getSharedPreferences("developer", MODE_PRIVATE);
+        mPerfHudSwitch.setChecked(prefs.getBoolean(PerfHudService.PREF_PERF_HUD, false));
+
+        mPerfHudSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            prefs.edit().putBoolean(PerfHudService.PREF_PERF_HUD, isChecked).apply();
+            Intent intent = new Intent(this, PerfHudService.class);
+            if (isChecked) {
+                startService(intent);
+            } else {
+                stopService(intent);
+            }
+        });
+
+        mTraceSwitch.setChecked(TraceCapture.isRunning());
+        mTraceSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (isChecked) {
+                TraceCapture.start();
+            } else {
+                TraceCapture.stop();
+            }
+        });
+
+        // Long press saves the trace buffer
+        mGestureDetector = new GestureDetector(this,
+                new GestureDetector.SimpleOnGestureListener() {
+                    @Override
+                    public void onLongPress(MotionEvent e) {
+                        saveTraceSnapshot();
+                    }
+                });
+
+        mLogSpoolSwitch.setChecked(LogSpoolService.isEnabled(this));
+        mLogSpoolSwitch.setOnCheckedChangeListener((buttonView, isChecked) ->
+                LogSpoolService.setEnabled(this, isChecked));
+        findViewById(R.id.log_spool_row).setOnClickListener(v -> exportLogs());
+        bindService(new Intent(this, LogSpoolService.class), mLogSpoolConnection,
+                Context.BIND_AUTO_CREATE);
+
+        findViewById(R.id.benchmark_row).setOnClickListener(v -> runBenchmarks());
+        bindService(new Intent(this, BenchmarkService.class), mBenchmarkConnection,
+                Context.BIND_AUTO_CREATE);
+
+        refreshState();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        unbindService(mBenchmarkConnection);
+        unbindService(mLogSpoolConnection);
+    }
+
+    /**
+     * Read live settings in the background and reconcile the switches
+     */
+    private void refreshState() {
+        SettingsExecutor.execute(() -> {
+            final boolean adbEnabled = Settings.Global.getInt(getContentResolver(),
+                    Settings.Global.ADB_ENABLED, 1) == 1;
+            final boolean stayAwake = Settings.Global.getInt(getContentResolver(),
+                    Settings.Global.STAY_ON_WHILE_PLUGGED_IN, 0) != 0;
+            mHandler.post(() -> {
+                if (isDestroyed()) {
+                    return;
+                }
+                updateViews(adbEnabled, stayAwake);
+                mSnapshot.putBoolean(KEY_ADB, adbEnabled);
+                mSnapshot.putBoolean(KEY_STAY_AWAKE, stayAwake);
+                mSnapshot.saveAsync();
+            });
+        });
+    }
+
+    private void updateViews(boolean adbEnabled, boolean stayAwake) {
+        mUpdating = true;
+        mAdbSwitch.setChecked(adbEnabled);
+        mStayAwakeSwitch.setChecked(stayAwake);
+        mUpdating = false;
+        updateAdbStatus(adbEnabled);
+    }
+
+    private void saveTraceSnapshot() {
+        if (!TraceCapture.isRunning()) {
+            return;
+        }
+        mTraceStatus.setText(R.string.trace_saving);
+        TraceCapture.snapshot(file -> {
+            if (file != null) {
+                mTraceStatus.setText(getString(R.string.trace_saved, file.getName()));
+            } else {
+                mTraceStatus.setText(R.string.trace_failed);
+            }
+        });
+    }
+
+    private void exportLogs() {
+        if (mLogSpoolService == null) {
+            return;
+        }
+        mLogSpoolStatus.setText(R.string.log_spool_exporting);
+        mLogSpoolService.export(bundle -> {
+            if (isDestroyed()) {
+                return;
+            }
+            if (bundle != null) {
+                mLogSpoolStatus.setText(getString(R.string.log_spool_exported,
+                        bundle.getName()));
+            } else {
+                mLogSpoolStatus.setText(R.string.log_spool_export_failed);
+            }
+        });
+    }
+
+    private void runBenchmarks() {
+        if (mBenchmarkService == null || mBenchmarkService.isRunning()) {
+            return;
+        }
+        mBenchmarkService.runBenchmarks(new BenchmarkService.BenchmarkCallback() {
+            @Override
+            public void onProgress(String suite) {
+                mBenchmarkStatus.setText(getString(R.string.benchmark_running, suite));
+            }
+
+            @Override
+            public void onFinished(File report, BenchmarkReport results) {
+                if (isDestroyed()) {
+                    return;
+                }
+                if (report != null) {
+                    mBenchmarkStatus.setText(getString(R.string.benchmark_saved,
+                            report.getName()));
+                } else {
+                    mBenchmarkStatus.setText(R.string.benchmark_failed);
+                }
+            }
+        });
+    }
+
+    private final ServiceConnection mBenchmarkConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            mBenchmarkService = ((BenchmarkService.BenchmarkBinder) service).getService();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mBenchmarkService = null;
+        }
+    };
+
+    private final ServiceConnection mLogSpoolConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            mLogSpoolService = ((LogSpoolService.LogSpoolBinder) service).getService();
+            long bytes = mLogSpoolService.getSpoolBytes();
+            if (bytes > 0) {
+                mLogSpoolStatus.setText(getString(R.string.log_spool_size,
+                        Formatter.formatShortFileSize(DeveloperSettingsScreen.this, bytes)));
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mLogSpoolService = null;
+        }
+    };
+
+    private void updateAdbStatus(boolean enabled) {
+        if (enabled) {
+            mAdbStatus.setText(R.string.adb_enabled);
+        } else {
+            mAdbStatus.setText(R.string.adb_disabled);
+        }
+    }
+
+    @Override
+    public boolean dispatchTouchEvent(MotionEvent event) {
+        mGestureDetector.onTouchEvent(event);
+        return super.dispatchTouchEvent(event);
+    }
+
+    @Override
+    public boolean onKeyDown(int keyCode, KeyEvent event) {
+        if (keyCode == KeyEvent.KEYCODE_BACK) {
+            finish();
+            return true;
+        }
+        return super.onKeyDown(keyCode, event);
+    }
+}
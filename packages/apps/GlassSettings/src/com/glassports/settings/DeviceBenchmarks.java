@@ -0,0 +1,198 @@
+/*
+ * GlassPorts Device Benchmarks
+ * Storage and UI benchmarks that need a device
+ */
+
+package com.glassports.settings;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * eMMC and UI benchmarks; the pure-compute kernels live in BenchmarkKernels.
+ *
+ * Storage numbers are taken on /data, where apps and recordings live. The
+ * page cache is dropped for the test file with posix_fadvise before each
+ * read pass, so reads hit the eMMC rather than RAM.
+ */
+final class DeviceBenchmarks {
+    private static final String TAG = "GlassBenchmark";
+
+    private static final int IO_FILE_BYTES = 32 * 1024 * 1024;
+    private static final int IO_SEQ_CHUNK = 256 * 1024;
+    private static final int IO_RANDOM_BLOCK = 4096;
+    private static final int IO_RANDOM_WRITES = 256;
+    private static final int IO_RANDOM_READS = 2048;
+
+    private static final int UI_ITERATIONS = 200;
+    private static final int UI_WIDTH_PX = 640;
+
+    private DeviceBenchmarks() {
+    }
+
+    /**
+     * Sequential and 4K random I/O on the data partition
+     */
+    static void storage(Context context, BenchmarkKernels.Sink sink) {
+        File file = new File(context.getCacheDir(), "bench.io");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FileChannel channel = raf.getChannel();
+            FileDescriptor fd = raf.getFD();
+            ByteBuffer chunk = ByteBuffer.allocateDirect(IO_SEQ_CHUNK);
+            Random random = new Random(4);
+            byte[] fill = new byte[IO_SEQ_CHUNK];
+            random.nextBytes(fill);
+            chunk.put(fill);
+
+            // Sequential write, including the final flush to the device
+            long start = System.nanoTime();
+            for (long pos = 0; pos < IO_FILE_BYTES; pos += IO_SEQ_CHUNK) {
+                chunk.clear();
+                channel.write(chunk, pos);
+            }
+            channel.force(true);
+            sink.result("io.seq.write", mbPerSecond(IO_FILE_BYTES, System.nanoTime() - start),
+                    "MB/s");
+
+            // Sequential read from the device
+            dropCache(fd);
+            start = System.nanoTime();
+            for (long pos = 0; pos < IO_FILE_BYTES; pos += IO_SEQ_CHUNK) {
+                chunk.clear();
+                channel.read(chunk, pos);
+            }
+            sink.result("io.seq.read", mbPerSecond(IO_FILE_BYTES, System.nanoTime() - start),
+                    "MB/s");
+
+            ByteBuffer block = ByteBuffer.allocateDirect(IO_RANDOM_BLOCK);
+            int blocks = IO_FILE_BYTES / IO_RANDOM_BLOCK;
+
+            // Random synchronous 4K writes, like database commits
+            start = System.nanoTime();
+            for (int i = 0; i < IO_RANDOM_WRITES; i++) {
+                block.clear();
+                channel.write(block, (long) random.nextInt(blocks) * IO_RANDOM_BLOCK);
+                channel.force(false);
+            }
+            sink.result("io.rand.write", IO_RANDOM_WRITES * 1e9 / (System.nanoTime() - start),
+                    "IOPS");
+
+            // Random 4K reads with readahead disabled
+            dropCache(fd);
+            fadvise(fd, OsConstants.POSIX_FADV_RANDOM);
+            start = System.nanoTime();
+            for (int i = 0; i < IO_RANDOM_READS; i++) {
+                block.clear();
+                channel.read(block, (long) random.nextInt(blocks) * IO_RANDOM_BLOCK);
+            }
+            sink.result("io.rand.read", IO_RANDOM_READS * 1e9 / (System.nanoTime() - start),
+                    "IOPS");
+        } catch (IOException e) {
+            Log.w(TAG, "Storage benchmark failed: " + e.getMessage());
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Inflate, bind and measure the GlassPorts card layouts on the main thread
+     */
+    static void ui(Context context, BenchmarkKernels.Sink sink) {
+        final CountDownLatch done = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(() -> {
+            try {
+                uiLayout(context, sink, "item_setting", R.layout.item_setting);
+                uiLayout(context, sink, "item_profile", R.layout.item_profile);
+                uiLayout(context, sink, "item_storage", R.layout.item_storage);
+            } finally {
+                done.countDown();
+            }
+        });
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void uiLayout(Context context, BenchmarkKernels.Sink sink,
+                                 String name, int layout) {
+        LayoutInflater inflater = LayoutInflater.from(context);
+        ViewGroup parent = new FrameLayout(context);
+        int widthSpec = View.MeasureSpec.makeMeasureSpec(UI_WIDTH_PX, View.MeasureSpec.EXACTLY);
+        int heightSpec = View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED);
+
+        // Warm up class loading and resource caches
+        inflater.inflate(layout, parent, false);
+
+        View[] views = new View[UI_ITERATIONS];
+        long start = System.nanoTime();
+        for (int i = 0; i < UI_ITERATIONS; i++) {
+            views[i] = inflater.inflate(layout, parent, false);
+        }
+        long inflateNs = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < UI_ITERATIONS; i++) {
+            bind(views[i], i);
+            views[i].measure(widthSpec, heightSpec);
+            views[i].layout(0, 0, views[i].getMeasuredWidth(), views[i].getMeasuredHeight());
+        }
+        long bindNs = System.nanoTime() - start;
+
+        sink.result("ui.inflate." + name, inflateNs / 1000.0 / UI_ITERATIONS, "us");
+        sink.result("ui.bind." + name, bindNs / 1000.0 / UI_ITERATIONS, "us");
+    }
+
+    /**
+     * Set every text and image the way the adapters do
+     */
+    private static void bind(View view, int position) {
+        if (view instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup) view;
+            for (int i = 0; i < group.getChildCount(); i++) {
+                bind(group.getChildAt(i), position);
+            }
+        } else if (view instanceof TextView) {
+            ((TextView) view).setText("Item " + position);
+        } else if (view instanceof ImageView) {
+            ((ImageView) view).setImageResource(R.drawable.ic_performance);
+        }
+    }
+
+    private static void dropCache(FileDescriptor fd) {
+        fadvise(fd, OsConstants.POSIX_FADV_DONTNEED);
+    }
+
+    private static void fadvise(FileDescriptor fd, int advice) {
+        try {
+            Os.posix_fadvise(fd, 0, 0, advice);
+        } catch (ErrnoException e) {
+            Log.w(TAG, "posix_fadvise failed: " + e.getMessage());
+        }
+    }
+
+    private static double mbPerSecond(long bytes, long nanos) {
+        return bytes * 1e9 / nanos / (1024 * 1024);
+    }
+}
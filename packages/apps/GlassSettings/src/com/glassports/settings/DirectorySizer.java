@@ -0,0 +1,171 @@
+/*
+ * GlassPorts Directory Sizer
+ * Parallel, cache-aware disk usage of directory trees
+ */
+
+package com.glassports.settings;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructStat;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Walks directory trees on a two-thread fork/join pool, one task per
+ * directory, and reports disk usage (allocated blocks, not file length).
+ *
+ * Each directory adds its own bytes to the caller's running total as soon
+ * as it is sized, so a UI polling the total sees it climb while the walk
+ * is still in progress. Unchanged directories are served from StorageCache
+ * without listing them. Symlinks are never followed.
+ */
+public class DirectorySizer {
+
+    private static final int PARALLELISM = 2;
+
+    private static ForkJoinPool sPool;
+
+    private final StorageCache mCache;
+    private final long mScanStartSec;
+    private final AtomicInteger mScanned = new AtomicInteger();
+    private final AtomicInteger mCached = new AtomicInteger();
+
+    public DirectorySizer(StorageCache cache) {
+        mCache = cache;
+        mScanStartSec = System.currentTimeMillis() / 1000;
+    }
+
+    private static synchronized ForkJoinPool pool() {
+        if (sPool == null) {
+            sPool = new ForkJoinPool(PARALLELISM);
+        }
+        return sPool;
+    }
+
+    /**
+     * Size a directory tree, blocking until done
+     *
+     * @param total running total that each directory is added to as it completes
+     * @return bytes used by the tree
+     */
+    public long size(String path, AtomicLong total) {
+        return pool().invoke(new SizeTask(path, total));
+    }
+
+    /**
+     * Size several trees in one parallel pass
+     *
+     * @param totals running total for each root, may share instances
+     */
+    public void sizeAll(String[] paths, AtomicLong[] totals) {
+        pool().invoke(new RecursiveTask<Long>() {
+            @Override
+            protected Long compute() {
+                List<SizeTask> tasks = new ArrayList<>(paths.length);
+                for (int i = 0; i < paths.length; i++) {
+                    tasks.add(new SizeTask(paths[i], totals[i]));
+                }
+                invokeAll(tasks);
+                return 0L;
+            }
+        });
+    }
+
+    /** Directories listed during this walk */
+    public int getScannedCount() {
+        return mScanned.get();
+    }
+
+    /** Directories served from the cache during this walk */
+    public int getCachedCount() {
+        return mCached.get();
+    }
+
+    private final class SizeTask extends RecursiveTask<Long> {
+        private final String mPath;
+        private final AtomicLong mTotal;
+
+        SizeTask(String path, AtomicLong total) {
+            mPath = path;
+            mTotal = total;
+        }
+
+        @Override
+        protected Long compute() {
+            StructStat stat = lstat(mPath);
+            if (stat == null || !OsConstants.S_ISDIR(stat.st_mode)) {
+                return 0L;
+            }
+
+            long now = System.currentTimeMillis();
+            long bytes;
+            String[] subdirs;
+            StorageCache.Entry cached = mCache.get(mPath, stat.st_mtime, now);
+            if (cached != null) {
+                mCached.incrementAndGet();
+                bytes = cached.bytes;
+                subdirs = cached.subdirs;
+            } else {
+                mScanned.incrementAndGet();
+                String[] names = new File(mPath).list();
+                if (names == null) {
+                    // Unreadable, e.g. another app's private data
+                    return 0L;
+                }
+                bytes = 0;
+                List<String> dirs = new ArrayList<>();
+                for (String name : names) {
+                    StructStat child = lstat(mPath + "/" + name);
+                    if (child == null) {
+                        continue;
+                    }
+                    if (OsConstants.S_ISDIR(child.st_mode)) {
+                        dirs.add(name);
+                    } else if (OsConstants.S_ISREG(child.st_mode)) {
+                        bytes += child.st_blocks * 512;
+                    }
+                }
+                subdirs = dirs.toArray(new String[dirs.size()]);
+
+                // mtime has one second resolution; a directory modified in
+                // the second this walk started may change again unseen
+                if (stat.st_mtime < mScanStartSec) {
+                    mCache.put(mPath, stat.st_mtime, bytes, subdirs, now);
+                } else {
+                    mCache.remove(mPath);
+                }
+            }
+
+            mTotal.addAndGet(bytes);
+
+            if (subdirs.length == 0) {
+                return bytes;
+            }
+            List<SizeTask> tasks = new ArrayList<>(subdirs.length);
+            for (String subdir : subdirs) {
+                tasks.add(new SizeTask(mPath + "/" + subdir, mTotal));
+            }
+            invokeAll(tasks);
+            for (SizeTask task : tasks) {
+                bytes += task.join();
+            }
+            return bytes;
+        }
+    }
+
+    private static StructStat lstat(String path) {
+        try {
+            return Os.lstat(path);
+        } catch (ErrnoException e) {
+            return null;
+        }
+    }
+}
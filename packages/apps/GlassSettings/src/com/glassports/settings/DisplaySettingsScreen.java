@@ -0,0 +1,179 @@
+/*
+ * GlassPorts Display Settings
+ */
+
+package com.glassports.settings;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.provider.Settings;
+import android.view.KeyEvent;
+import android.widget.SeekBar;
+import android.widget.Switch;
+import android.widget.TextView;
+
+/**
+ * Display Settings Screen
+ * Control Glass display brightness
+ *
+ * In automatic mode the slider no longer sets the backlight directly; it
+ * bends the auto-brightness curve darker or brighter instead.
+ */
+public class DisplaySettingsScreen extends SettingsScreen {
+
+    private static final String KEY_BRIGHTNESS = "brightness";
+    private static final String KEY_AUTO = "auto";
+    private static final String KEY_ADJUSTMENT = "adjustment";
+
+    /** Slider steps on each side of a neutral adjustment */
+    private static final int ADJUSTMENT_STEPS = 100;
+
+    private Switch mAutoSwitch;
+    private TextView mBrightnessLabel;
+    private SeekBar mBrightnessSeekBar;
+    private TextView mBrightnessValue;
+    private Handler mHandler;
+    private SettingsSnapshot mSnapshot;
+    private boolean mUpdating;
+
+    private boolean mAuto;
+    private int mBrightness;
+    private int mAdjustment;
+
+    public DisplaySettingsScreen(GlassSettingsActivity host) {
+        super(host);
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_display_settings);
+
+        mAutoSwitch = findViewById(R.id.auto_brightness_switch);
+        mBrightnessLabel = findViewById(R.id.brightness_label);
+        mBrightnessSeekBar = findViewById(R.id.brightness_seekbar);
+        mBrightnessValue = findViewById(R.id.brightness_value);
+
+        mHandler = new Handler();
+
+        // Draw the first frame from the last known state
+        mSnapshot = SettingsSnapshot.load(this, "display");
+        updateViews(mSnapshot.getBoolean(KEY_AUTO, false),
+                mSnapshot.getInt(KEY_BRIGHTNESS, 128),
+                mSnapshot.getInt(KEY_ADJUSTMENT, 0));
+
+        mAutoSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (mUpdating) {
+                return;
+            }
+            setAutoBrightness(isChecked);
+        });
+
+        mBrightnessSeekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                if (!fromUser || mUpdating) {
+                    return;
+                }
+                if (mAuto) {
+                    mAdjustment = progress - ADJUSTMENT_STEPS;
+                    Settings.System.putFloat(getContentResolver(),
+                            AutoBrightnessService.SCREEN_AUTO_BRIGHTNESS_ADJ,
+                            mAdjustment / (float) ADJUSTMENT_STEPS);
+                } else {
+                    mBrightness = progress;
+                    Settings.System.putInt(getContentResolver(),
+                            Settings.System.SCREEN_BRIGHTNESS, progress);
+                }
+                updateBrightnessLabel();
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {
+                saveSnapshot();
+            }
+        });
+
+        refreshState();
+    }
+
+    private void setAutoBrightness(boolean auto) {
+        Settings.System.putInt(getContentResolver(), Settings.System.SCREEN_BRIGHTNESS_MODE,
+                auto ? Settings.System.SCREEN_BRIGHTNESS_MODE_AUTOMATIC
+                        : Settings.System.SCREEN_BRIGHTNESS_MODE_MANUAL);
+        if (auto) {
+            AutoBrightnessService.start(this);
+        }
+        updateViews(auto, mBrightness, mAdjustment);
+        saveSnapshot();
+    }
+
+    /**
+     * Read the live brightness state in the background and reconcile the views
+     */
+    private void refreshState() {
+        SettingsExecutor.execute(() -> {
+            final boolean auto = AutoBrightnessService.isAutomatic(this);
+            final int brightness = Settings.System.getInt(getContentResolver(),
+                    Settings.System.SCREEN_BRIGHTNESS, 128);
+            final float adjustment = Settings.System.getFloat(getContentResolver(),
+                    AutoBrightnessService.SCREEN_AUTO_BRIGHTNESS_ADJ, 0f);
+            mHandler.post(() -> {
+                if (isDestroyed()) {
+                    return;
+                }
+                updateViews(auto, brightness, Math.round(adjustment * ADJUSTMENT_STEPS));
+                saveSnapshot();
+            });
+        });
+    }
+
+    private void updateViews(boolean auto, int brightness, int adjustment) {
+        mAuto = auto;
+        mBrightness = brightness;
+        mAdjustment = adjustment;
+
+        mUpdating = true;
+        mAutoSwitch.setChecked(auto);
+        mBrightnessLabel.setText(auto
+                ? R.string.auto_brightness_adjust_label : R.string.brightness_label);
+        if (auto) {
+            mBrightnessSeekBar.setMax(2 * ADJUSTMENT_STEPS);
+            mBrightnessSeekBar.setProgress(adjustment + ADJUSTMENT_STEPS);
+        } else {
+            mBrightnessSeekBar.setMax(255);
+            mBrightnessSeekBar.setProgress(brightness);
+        }
+        mUpdating = false;
+        updateBrightnessLabel();
+    }
+
+    private void saveSnapshot() {
+        mSnapshot.putBoolean(KEY_AUTO, mAuto);
+        mSnapshot.putInt(KEY_BRIGHTNESS, mBrightness);
+        mSnapshot.putInt(KEY_ADJUSTMENT, mAdjustment);
+        mSnapshot.saveAsync();
+    }
+
+    private void updateBrightnessLabel() {
+        if (mAuto) {
+            mBrightnessValue.setText((mAdjustment > 0 ? "+" : "") + mAdjustment + "%");
+        } else {
+            int percent = (mBrightness * 100) / 255;
+            mBrightnessValue.setText(percent + "%");
+        }
+    }
+
+    @Override
+    public boolean onKeyDown(int keyCode, KeyEvent event) {
+        if (keyCode == KeyEvent.KEYCODE_BACK) {
+            finish();
+            return true;
+        }
+        return super.onKeyDown(keyCode, event);
+    }
+}
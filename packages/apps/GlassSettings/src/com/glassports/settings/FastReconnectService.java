@@ -0,0 +1,461 @@
+/*
+ * GlassPorts Fast Reconnect Service
+ * Reconnects WiFi by scanning learned channels first
+ */
+
+package com.glassports.settings;
+
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.NetworkInfo;
+import android.net.wifi.ScanResult;
+import android.net.wifi.SupplicantState;
+import android.net.wifi.WifiConfiguration;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+import android.net.wifi.WifiScanner;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fast Reconnect Service
+ *
+ * When Glass wakes, WiFi is switched on, or the connection drops, the
+ * framework normally finds its way back with full-band scans that take
+ * seconds each. This service remembers where every saved network was
+ * last found (WifiNetworkCache) and on those triggers:
+ *   1. scans only the learned channels through WifiScanner,
+ *   2. ranks the saved networks found by past success rate and connect
+ *      time, and connects to the best one directly,
+ *   3. falls back to a normal full scan if nothing usable is found or
+ *      the connection does not come up in time.
+ * The time from trigger to connected is recorded per path, so the saving
+ * is visible in the WiFi screen and in dumpsys. The baseline to compare
+ * against is the framework reconnecting alone, so one attempt in
+ * BASELINE_INTERVAL, and any with nothing learned, leave it alone and are
+ * only timed. Fallbacks are kept apart: they include the time the fast
+ * path lost.
+ */
+public class FastReconnectService extends Service {
+    private static final String TAG = "GlassFastReconnect";
+
+    public static final String PREFS = "wifi_reconnect";
+    public static final String PREF_LAST_MS = "last_ms";
+    public static final String PREF_LAST_FAST = "last_fast";
+    public static final String PREF_FAST_COUNT = "fast_count";
+    public static final String PREF_FAST_TOTAL_MS = "fast_total_ms";
+    public static final String PREF_FALLBACK_COUNT = "fallback_count";
+    public static final String PREF_FALLBACK_TOTAL_MS = "fallback_total_ms";
+    public static final String PREF_BASELINE_COUNT = "baseline_count";
+    public static final String PREF_BASELINE_TOTAL_MS = "baseline_total_ms";
+
+    /** 2.4 GHz only radio; a few channels cover nearly every revisit */
+    private static final int MAX_FAST_CHANNELS = 3;
+
+    private static final long SCAN_TIMEOUT_MS = 2000;
+    private static final long CONNECT_TIMEOUT_MS = 6000;
+    /** Attempts not connected by then are not timed */
+    private static final long ATTEMPT_TIMEOUT_MS = 30000;
+    /** Every this many attempts, time the framework without the fast path */
+    private static final int BASELINE_INTERVAL = 10;
+
+    private static final int MODE_IDLE = 0;
+    private static final int MODE_SCANNING = 1;
+    private static final int MODE_CONNECTING = 2;
+    private static final int MODE_FULL_SCAN = 3;
+    /** Not interfering, only timing the framework */
+    private static final int MODE_BASELINE = 4;
+
+    private static final int PATH_FAST = 0;
+    private static final int PATH_FALLBACK = 1;
+    private static final int PATH_BASELINE = 2;
+
+    private WifiManager mWifiManager;
+    private WifiScanner mWifiScanner;
+    private SharedPreferences mPrefs;
+    private HandlerThread mThread;
+    private Handler mHandler;
+
+    // Only touched on the reconnect thread
+    private WifiNetworkCache mCache;
+    private int mMode = MODE_IDLE;
+    private int mPath;
+    private int mAttempts;
+    /** Whether the pending connection was started by us */
+    private boolean mConnectIssued;
+    private long mAttemptStart;
+    private String mTrigger;
+    private String mPendingNetwork;
+    private String mPendingBssid;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mWifiManager = (WifiManager) getSystemService(Context.WIFI_SERVICE);
+        mWifiScanner = (WifiScanner) getSystemService(Context.WIFI_SCANNING_SERVICE);
+        mPrefs = getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+
+        mThread = new HandlerThread("WifiReconnect");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mHandler.post(() -> mCache = WifiNetworkCache.load(this));
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_SCREEN_ON);
+        filter.addAction(WifiManager.WIFI_STATE_CHANGED_ACTION);
+        filter.addAction(WifiManager.NETWORK_STATE_CHANGED_ACTION);
+        registerReceiver(mReceiver, filter, null, mHandler);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        unregisterReceiver(mReceiver);
+        mHandler.post(() -> {
+            finishAttempt();
+            mThread.quitSafely();
+        });
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String action = intent.getAction();
+            if (Intent.ACTION_SCREEN_ON.equals(action)) {
+                maybeStartAttempt("wake");
+            } else if (WifiManager.WIFI_STATE_CHANGED_ACTION.equals(action)) {
+                int state = intent.getIntExtra(WifiManager.EXTRA_WIFI_STATE,
+                        WifiManager.WIFI_STATE_UNKNOWN);
+                if (state == WifiManager.WIFI_STATE_ENABLED) {
+                    maybeStartAttempt("enabled");
+                } else if (state != WifiManager.WIFI_STATE_ENABLING) {
+                    finishAttempt();
+                }
+            } else if (WifiManager.NETWORK_STATE_CHANGED_ACTION.equals(action)) {
+                NetworkInfo info = intent.getParcelableExtra(WifiManager.EXTRA_NETWORK_INFO);
+                if (info == null) {
+                    return;
+                }
+                if (info.isConnected()) {
+                    onConnected();
+                } else if (info.getDetailedState() == NetworkInfo.DetailedState.DISCONNECTED) {
+                    maybeStartAttempt("disconnect");
+                }
+            }
+        }
+    };
+
+    /**
+     * Start timing a reconnect and try the learned channels, unless WiFi is
+     * off, already connected or an attempt is running
+     */
+    private void maybeStartAttempt(String trigger) {
+        if (mCache == null || mMode != MODE_IDLE || !mWifiManager.isWifiEnabled()) {
+            return;
+        }
+        WifiInfo info = mWifiManager.getConnectionInfo();
+        if (info != null && info.getSupplicantState() == SupplicantState.COMPLETED) {
+            return;
+        }
+
+        mAttemptStart = SystemClock.elapsedRealtime();
+        mTrigger = trigger;
+        mHandler.postDelayed(mAttemptTimeout, ATTEMPT_TIMEOUT_MS);
+
+        int[] frequencies = mCache.getLearnedFrequencies(getSavedNetworks(), MAX_FAST_CHANNELS);
+        if (frequencies.length == 0 || mWifiScanner == null
+                || ++mAttempts % BASELINE_INTERVAL == 0) {
+            Log.d(TAG, "Reconnect (" + trigger + "): timing the framework alone");
+            mMode = MODE_BASELINE;
+            mPath = PATH_BASELINE;
+            return;
+        }
+
+        WifiScanner.ScanSettings settings = new WifiScanner.ScanSettings();
+        settings.band = WifiScanner.WIFI_BAND_UNSPECIFIED;
+        settings.channels = new WifiScanner.ChannelSpec[frequencies.length];
+        for (int i = 0; i < frequencies.length; i++) {
+            settings.channels[i] = new WifiScanner.ChannelSpec(frequencies[i]);
+        }
+        settings.reportEvents = WifiScanner.REPORT_EVENT_AFTER_EACH_SCAN;
+
+        Log.d(TAG, "Reconnect (" + trigger + "): scanning " + frequencies.length
+                + " learned channels");
+        mMode = MODE_SCANNING;
+        mPath = PATH_FAST;
+        mWifiScanner.startScan(settings, mScanListener);
+        mHandler.postDelayed(mStepTimeout, SCAN_TIMEOUT_MS);
+    }
+
+    private final WifiScanner.ScanListener mScanListener = new WifiScanner.ScanListener() {
+        @Override
+        public void onSuccess() {
+        }
+
+        @Override
+        public void onFailure(int reason, String description) {
+            mHandler.post(() -> {
+                if (mMode == MODE_SCANNING) {
+                    startFullScan("scan failed: " + description);
+                }
+            });
+        }
+
+        @Override
+        public void onPeriodChanged(int periodInMs) {
+        }
+
+        @Override
+        public void onResults(final WifiScanner.ScanData[] results) {
+            mHandler.post(() -> onScanResults(results));
+        }
+
+        @Override
+        public void onFullResult(ScanResult fullScanResult) {
+        }
+    };
+
+    /**
+     * Pick the best saved network among the learned-channel results and
+     * connect to it
+     */
+    private void onScanResults(WifiScanner.ScanData[] results) {
+        if (mMode != MODE_SCANNING) {
+            return;
+        }
+        mHandler.removeCallbacks(mStepTimeout);
+
+        List<WifiConfiguration> configs = mWifiManager.getConfiguredNetworks();
+        WifiConfiguration bestConfig = null;
+        ScanResult best = null;
+        float bestScore = -1f;
+        if (configs != null && results != null) {
+            for (WifiScanner.ScanData data : results) {
+                for (ScanResult result : data.getResults()) {
+                    String network = "\"" + result.SSID + "\"";
+                    for (WifiConfiguration config : configs) {
+                        if (!network.equals(config.SSID)) {
+                            continue;
+                        }
+                        float score = mCache.score(network, result.BSSID, result.level);
+                        if (score > bestScore) {
+                            bestScore = score;
+                            best = result;
+                            bestConfig = config;
+                        }
+                    }
+                }
+            }
+        }
+
+        if (best == null) {
+            startFullScan("no saved network on learned channels");
+            return;
+        }
+
+        WifiInfo info = mWifiManager.getConnectionInfo();
+        if (info != null && isAssociating(info.getSupplicantState())) {
+            // The framework beat us to it; keep timing, don't interrupt it.
+            // The connection is not the fast path's.
+            Log.d(TAG, "Framework already connecting, not overriding");
+            mPath = PATH_FALLBACK;
+            mConnectIssued = false;
+        } else {
+            Log.d(TAG, "Connecting to " + bestConfig.SSID + " via " + best.BSSID
+                    + " (" + best.frequency + " MHz, score " + bestScore + ")");
+            mWifiManager.connect(bestConfig.networkId, null);
+            mConnectIssued = true;
+        }
+        mPendingNetwork = bestConfig.SSID;
+        mPendingBssid = best.BSSID;
+        mMode = MODE_CONNECTING;
+        mHandler.postDelayed(mStepTimeout, CONNECT_TIMEOUT_MS);
+    }
+
+    private static boolean isAssociating(SupplicantState state) {
+        return state == SupplicantState.ASSOCIATING
+                || state == SupplicantState.ASSOCIATED
+                || state == SupplicantState.AUTHENTICATING
+                || state == SupplicantState.FOUR_WAY_HANDSHAKE
+                || state == SupplicantState.GROUP_HANDSHAKE;
+    }
+
+    /**
+     * Hand over to the framework's normal full-band scan and connection
+     */
+    private void startFullScan(String reason) {
+        Log.d(TAG, "Full scan: " + reason);
+        mHandler.removeCallbacks(mStepTimeout);
+        mMode = MODE_FULL_SCAN;
+        mPath = PATH_FALLBACK;
+        mWifiManager.startScan();
+    }
+
+    private final Runnable mStepTimeout = () -> {
+        if (mMode == MODE_CONNECTING) {
+            WifiInfo info = mWifiManager.getConnectionInfo();
+            SupplicantState state = info != null ? info.getSupplicantState() : null;
+            if (state == SupplicantState.COMPLETED || isAssociating(state)) {
+                // Slow, or the framework is connecting on its own, which
+                // says nothing against the BSS; wait for the result
+                Log.d(TAG, "Still connecting, not falling back");
+                if (!mConnectIssued || !mPendingBssid.equalsIgnoreCase(info.getBSSID())) {
+                    mPath = PATH_FALLBACK;
+                }
+                return;
+            }
+            if (mConnectIssued) {
+                mCache.recordFailure(mPendingNetwork, mPendingBssid);
+                mCache.save(System.currentTimeMillis());
+            }
+            startFullScan(mPendingBssid + " did not connect");
+        } else if (mMode == MODE_SCANNING) {
+            startFullScan("learned channel scan timed out");
+        }
+    };
+
+    private final Runnable mAttemptTimeout = () -> {
+        Log.i(TAG, "Reconnect (" + mTrigger + ") not connected after "
+                + ATTEMPT_TIMEOUT_MS + " ms");
+        finishAttempt();
+    };
+
+    private void onConnected() {
+        WifiInfo info = mWifiManager.getConnectionInfo();
+        if (mCache == null || info == null || info.getBSSID() == null
+                || info.getFrequency() <= 0) {
+            return;
+        }
+
+        int latencyMs = -1;
+        if (mMode != MODE_IDLE) {
+            latencyMs = (int) (SystemClock.elapsedRealtime() - mAttemptStart);
+            Log.i(TAG, "Reconnected (" + mTrigger + ") to " + info.getSSID() + " in "
+                    + latencyMs + " ms via " + pathName(mPath));
+            recordReconnect(latencyMs, mPath);
+        }
+        mCache.recordSuccess(info.getSSID(), info.getBSSID(), info.getFrequency(),
+                latencyMs, System.currentTimeMillis());
+        mCache.save(System.currentTimeMillis());
+        finishAttempt();
+    }
+
+    private void finishAttempt() {
+        mHandler.removeCallbacks(mStepTimeout);
+        mHandler.removeCallbacks(mAttemptTimeout);
+        mMode = MODE_IDLE;
+        mConnectIssued = false;
+        mPendingNetwork = null;
+        mPendingBssid = null;
+    }
+
+    private void recordReconnect(int latencyMs, int path) {
+        String count;
+        String total;
+        if (path == PATH_FAST) {
+            count = PREF_FAST_COUNT;
+            total = PREF_FAST_TOTAL_MS;
+        } else if (path == PATH_FALLBACK) {
+            count = PREF_FALLBACK_COUNT;
+            total = PREF_FALLBACK_TOTAL_MS;
+        } else {
+            count = PREF_BASELINE_COUNT;
+            total = PREF_BASELINE_TOTAL_MS;
+        }
+        mPrefs.edit()
+                .putInt(PREF_LAST_MS, latencyMs)
+                .putBoolean(PREF_LAST_FAST, path == PATH_FAST)
+                .putInt(count, mPrefs.getInt(count, 0) + 1)
+                .putLong(total, mPrefs.getLong(total, 0) + latencyMs)
+                .apply();
+    }
+
+    private static String pathName(int path) {
+        if (path == PATH_FAST) {
+            return "learned channels";
+        }
+        return path == PATH_FALLBACK ? "fallback" : "framework alone";
+    }
+
+    private void dumpBucket(StringBuilder sb, String name, String countKey, String totalKey) {
+        int count = mPrefs.getInt(countKey, 0);
+        sb.append(name).append(": ").append(count).append(" reconnects, avg ")
+                .append(count > 0 ? mPrefs.getLong(totalKey, 0) / count : 0)
+                .append(" ms\n");
+    }
+
+    private List<String> getSavedNetworks() {
+        List<String> networks = new ArrayList<>();
+        List<WifiConfiguration> configs = mWifiManager.getConfiguredNetworks();
+        if (configs != null) {
+            for (WifiConfiguration config : configs) {
+                if (config.SSID != null) {
+                    networks.add(config.SSID);
+                }
+            }
+        }
+        return networks;
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        // Render on the reconnect thread, the cache is not thread safe
+        final StringBuilder sb = new StringBuilder(4096);
+        final CountDownLatch done = new CountDownLatch(1);
+        mHandler.post(() -> {
+            dumpLocked(sb);
+            done.countDown();
+        });
+        try {
+            done.await(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pw.print(sb);
+    }
+
+    private void dumpLocked(StringBuilder sb) {
+        sb.append("mode=").append(mMode).append(" trigger=").append(mTrigger).append('\n');
+        sb.append("last=").append(mPrefs.getInt(PREF_LAST_MS, -1)).append(" ms ")
+                .append(mPrefs.getBoolean(PREF_LAST_FAST, false) ? "fast" : "full").append('\n');
+        dumpBucket(sb, "fast", PREF_FAST_COUNT, PREF_FAST_TOTAL_MS);
+        dumpBucket(sb, "fallback", PREF_FALLBACK_COUNT, PREF_FALLBACK_TOTAL_MS);
+        dumpBucket(sb, "baseline", PREF_BASELINE_COUNT, PREF_BASELINE_TOTAL_MS);
+        if (mCache == null) {
+            return;
+        }
+        for (String network : mCache.getNetworks()) {
+            sb.append(network).append('\n');
+            for (WifiNetworkCache.Bss bss : mCache.getBss(network)) {
+                sb.append("  ").append(bss.bssid).append(' ').append(bss.frequency)
+                        .append(" MHz ok=").append(bss.successes)
+                        .append(" fail=").append(bss.failures)
+                        .append(" latency=").append(bss.latencyMs).append(" ms\n");
+            }
+        }
+    }
+}
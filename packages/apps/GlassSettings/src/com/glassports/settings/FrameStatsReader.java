@@ -0,0 +1,212 @@
+/*
+ * GlassPorts Frame Stats Reader
+ * Frame durations of another process from gfxinfo framestats
+ */
+
+package com.glassports.settings;
+
+import android.os.IBinder;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the timings HWUI keeps for the last 120 frames of each window of a
+ * process, through the same dump as "dumpsys gfxinfo PID framestats", and
+ * reduces the frames that are new since the last read to a count, an
+ * average and a maximum. A frame lasts from its intended vsync to
+ * FrameCompleted, so input, animation, layout, draw and the GPU all count
+ * and a frame that misses its vsync shows as longer than one.
+ *
+ * Only frames HWUI renders are covered: an app drawing into a SurfaceView
+ * or its own GL surface reports nothing for that surface. Needs DUMP.
+ */
+class FrameStatsReader {
+    private static final String TAG = "GlassFrameStats";
+
+    private static final String SECTION = "---PROFILEDATA---";
+    private static final String COLUMN_FLAGS = "Flags";
+    private static final String COLUMN_INTENDED_VSYNC = "IntendedVsync";
+    private static final String COLUMN_FRAME_COMPLETED = "FrameCompleted";
+
+    private final byte[] mBuffer = new byte[8192];
+    private final StringBuilder mText = new StringBuilder(32 * 1024);
+    private IBinder mGfxInfo;
+    private int mPid;
+    /** Newest frame already counted, by intended vsync */
+    private long mLastVsyncNanos;
+
+    // Frames of the latest read
+    private int mFrameCount;
+    private long mAvgFrameNanos;
+    private long mMaxFrameNanos;
+
+    /**
+     * Read the frames pid completed since the last call. The first read of
+     * a process only notes where its history ends.
+     *
+     * @return whether there are results for pid
+     */
+    boolean read(int pid) {
+        if (pid <= 0 || !dump(pid)) {
+            mPid = 0;
+            return false;
+        }
+        boolean first = pid != mPid;
+        if (first) {
+            mPid = pid;
+            mLastVsyncNanos = 0;
+        }
+        parse(mText);
+        return !first;
+    }
+
+    /** @return frames completed between the last two reads */
+    int getFrameCount() {
+        return mFrameCount;
+    }
+
+    long getAverageFrameNanos() {
+        return mAvgFrameNanos;
+    }
+
+    long getMaxFrameNanos() {
+        return mMaxFrameNanos;
+    }
+
+    private boolean dump(int pid) {
+        if (mGfxInfo == null) {
+            mGfxInfo = ServiceManager.getService("gfxinfo");
+            if (mGfxInfo == null) {
+                return false;
+            }
+        }
+        mText.setLength(0);
+        try {
+            ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
+            try (InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pipe[0])) {
+                try {
+                    // Async, as the output can be larger than the pipe
+                    mGfxInfo.dumpAsync(pipe[1].getFileDescriptor(),
+                            new String[] { String.valueOf(pid), "framestats" });
+                } finally {
+                    pipe[1].close();
+                }
+                int n;
+                while ((n = in.read(mBuffer)) > 0) {
+                    // The dump is ASCII
+                    for (int i = 0; i < n; i++) {
+                        mText.append((char) mBuffer[i]);
+                    }
+                }
+            }
+            return true;
+        } catch (IOException | RemoteException e) {
+            Log.w(TAG, "gfxinfo dump failed: " + e);
+            mGfxInfo = null;
+            return false;
+        }
+    }
+
+    /**
+     * Reduce the PROFILEDATA rows newer than mLastVsyncNanos. Each window
+     * has its own section, each starting with a header naming the columns.
+     */
+    private void parse(CharSequence text) {
+        boolean inSection = false;
+        // Columns of the current section, -1 until its header is read
+        int flagsColumn = -1;
+        int vsyncColumn = -1;
+        int completedColumn = -1;
+        boolean header = false;
+        long newest = mLastVsyncNanos;
+        long sum = 0;
+        long max = 0;
+        int count = 0;
+
+        int length = text.length();
+        int pos = 0;
+        while (pos < length) {
+            int end = pos;
+            while (end < length && text.charAt(end) != '\n') {
+                end++;
+            }
+            if (startsWith(text, pos, end, SECTION)) {
+                inSection = !inSection;
+                header = inSection;
+                flagsColumn = vsyncColumn = completedColumn = -1;
+            } else if (header) {
+                header = false;
+                String[] columns = text.subSequence(pos, end).toString().split(",");
+                for (int i = 0; i < columns.length; i++) {
+                    if (COLUMN_FLAGS.equals(columns[i])) {
+                        flagsColumn = i;
+                    } else if (COLUMN_INTENDED_VSYNC.equals(columns[i])) {
+                        vsyncColumn = i;
+                    } else if (COLUMN_FRAME_COMPLETED.equals(columns[i])) {
+                        completedColumn = i;
+                    }
+                }
+            } else if (inSection && flagsColumn >= 0 && vsyncColumn >= 0
+                    && completedColumn >= 0) {
+                // Non-zero flags mark frames gfxinfo says to ignore
+                long vsync = field(text, pos, end, vsyncColumn);
+                long duration = field(text, pos, end, completedColumn) - vsync;
+                if (field(text, pos, end, flagsColumn) == 0 && vsync > mLastVsyncNanos
+                        && duration > 0) {
+                    sum += duration;
+                    max = Math.max(max, duration);
+                    count++;
+                    newest = Math.max(newest, vsync);
+                }
+            }
+            pos = end + 1;
+        }
+
+        mLastVsyncNanos = newest;
+        mFrameCount = count;
+        mAvgFrameNanos = count > 0 ? sum / count : 0;
+        mMaxFrameNanos = max;
+    }
+
+    private static boolean startsWith(CharSequence text, int start, int end, String prefix) {
+        if (end - start < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (text.charAt(start + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the numeric field at column of a comma separated line, or -1
+     */
+    private static long field(CharSequence text, int start, int end, int column) {
+        int pos = start;
+        for (int i = 0; i < column; i++) {
+            while (pos < end && text.charAt(pos) != ',') {
+                pos++;
+            }
+            pos++;
+        }
+        if (pos >= end) {
+            return -1;
+        }
+        long value = 0;
+        for (; pos < end; pos++) {
+            char c = text.charAt(pos);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
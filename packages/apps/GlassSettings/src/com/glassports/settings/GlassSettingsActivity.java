@@ -6,8 +6,22 @@
 package com.glassports.settings;
 
 import android.app.Activity;
+import android.bluetooth.BluetoothAdapter;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.ServiceConnection;
+import android.database.ContentObserver;
+import android.net.wifi.WifiManager;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.SystemClock;
+import android.provider.Settings;
+import android.util.Log;
+import android.view.Choreographer;
 import android.view.GestureDetector;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
@@ -20,31 +34,103 @@ import android.widget.TextView;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.glassports.wifiap.WifiApManager;
+import com.glassports.wifiap.WifiApSnapshot;
+
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 
 /**
  * GlassPorts Settings
  * Main settings menu optimized for Glass interface
+ *
+ * Every settings page is a SettingsScreen view hierarchy hosted in this one
+ * activity, so opening a page swaps views instead of starting an activity.
+ * The manifest keeps the old per-page activity names as aliases of this
+ * activity; launching one opens its screen directly.
  */
 public class GlassSettingsActivity extends Activity implements
         GestureDetector.OnGestureListener {
 
+    private static final String TAG = "GlassSettings";
+
     private static final int SWIPE_THRESHOLD = 100;
     private static final int SWIPE_VELOCITY_THRESHOLD = 100;
 
+    /** Same as the launcher's transition boost */
+    private static final int TRANSITION_BOOST_KHZ = 1008000;
+    private static final long TRANSITION_BOOST_MS = 300;
+
+    /** Partial-update payload: only the summary line changed */
+    private static final Object PAYLOAD_SUMMARY = new Object();
+
+    /** Bursts of state broadcasts are coalesced into one refresh */
+    private static final long SUMMARY_REFRESH_DELAY_MS = 150;
+
+    /** Screens kept inflated after being closed, least recently used evicted first */
+    private static final int MAX_CACHED_SCREENS = 3;
+
     private RecyclerView mSettingsList;
     private SettingsAdapter mAdapter;
     private List<SettingsItem> mItems;
     private GestureDetector mGestureDetector;
     private int mCurrentPosition = 0;
 
+    private Handler mHandler;
+    private SettingsSnapshot mSnapshot;
+    private boolean mRefreshRunning;
+    private boolean mRefreshPending;
+    private WifiApManager mWifiApManager;
+    private PerformanceProfileService mProfileService;
+    /** Latest hotspot snapshot, read by the summary loader */
+    private volatile WifiApSnapshot mWifiApSnapshot;
+
+    private View mMainContent;
+    private ViewGroup mScreenContainer;
+    private GestureDetector mCloseGestureDetector;
+    private final LinkedHashMap<SettingsItem, SettingsScreen> mScreens =
+            new LinkedHashMap<>(MAX_CACHED_SCREENS + 1, 0.75f, true);
+    private SettingsScreen mCurrentScreen;
+    private boolean mFinishOnClose;
+    private boolean mResumed;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_settings);
 
         mGestureDetector = new GestureDetector(this, this);
+        mCloseGestureDetector = new GestureDetector(this,
+                new GestureDetector.SimpleOnGestureListener() {
+                    @Override
+                    public boolean onFling(MotionEvent e1, MotionEvent e2,
+                                           float velocityX, float velocityY) {
+                        if (e1 == null || e2 == null || mCurrentScreen == null) {
+                            return false;
+                        }
+                        float diffY = e2.getY() - e1.getY();
+                        if (diffY > SWIPE_THRESHOLD
+                                && Math.abs(velocityY) > SWIPE_VELOCITY_THRESHOLD
+                                && Math.abs(diffY) > Math.abs(e2.getX() - e1.getX())) {
+                            closeScreen(mCurrentScreen);
+                            return true;
+                        }
+                        return false;
+                    }
+                });
+        mHandler = new Handler();
+        mWifiApManager = new WifiApManager(this);
+        mWifiApManager.setSnapshotListener(snapshot -> {
+            mWifiApSnapshot = snapshot;
+            requestSummaryRefresh();
+        });
+        bindService(new Intent(this, PerformanceProfileService.class), mProfileConnection,
+                Context.BIND_AUTO_CREATE);
+
+        mMainContent = findViewById(R.id.main_content);
+        mScreenContainer = findViewById(R.id.screen_container);
 
         mSettingsList = findViewById(R.id.settings_list);
         mSettingsList.setLayoutManager(new LinearLayoutManager(
@@ -52,10 +138,149 @@ public class GlassSettingsActivity extends Activity implements
 
         initSettingsItems();
 
+        // Show the last known summaries until live ones arrive
+        mSnapshot = SettingsSnapshot.load(this, "cards");
+        for (SettingsItem item : mItems) {
+            item.summary = mSnapshot.getString(item.title, item.summary);
+        }
+
         mAdapter = new SettingsAdapter(mItems);
         mSettingsList.setAdapter(mAdapter);
+
+        // Launched through a screen's alias: show that screen from the first frame
+        SettingsItem target = findIntentTarget(getIntent());
+        if (target != null) {
+            mFinishOnClose = true;
+            openScreen(target);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        unbindService(mProfileConnection);
+        mCurrentScreen = null;
+        for (SettingsScreen screen : mScreens.values()) {
+            screen.performDestroy();
+        }
+        mScreens.clear();
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mResumed = true;
+        if (mCurrentScreen != null) {
+            mCurrentScreen.onResume();
+        }
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(WifiManager.WIFI_STATE_CHANGED_ACTION);
+        filter.addAction(WifiManager.NETWORK_STATE_CHANGED_ACTION);
+        filter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
+        registerReceiver(mStateReceiver, filter);
+        // Hotspot state and stations come as snapshots
+        mWifiApManager.bind();
+        getContentResolver().registerContentObserver(
+                Settings.System.getUriFor(Settings.System.SCREEN_BRIGHTNESS),
+                false, mSettingsObserver);
+        getContentResolver().registerContentObserver(
+                Settings.System.getUriFor(Settings.System.SCREEN_BRIGHTNESS_MODE),
+                false, mSettingsObserver);
+
+        requestSummaryRefresh();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        mResumed = false;
+        if (mCurrentScreen != null) {
+            mCurrentScreen.onPause();
+        }
+        unregisterReceiver(mStateReceiver);
+        mWifiApManager.unbind();
+        getContentResolver().unregisterContentObserver(mSettingsObserver);
+        mHandler.removeCallbacks(mRefreshSummaries);
+    }
+
+    /**
+     * Schedule a summary refresh, coalescing with any already scheduled
+     */
+    private void requestSummaryRefresh() {
+        mHandler.removeCallbacks(mRefreshSummaries);
+        mHandler.postDelayed(mRefreshSummaries, SUMMARY_REFRESH_DELAY_MS);
+    }
+
+    /**
+     * Compute all live summaries on the shared executor, then rebind only
+     * the cards whose text changed
+     */
+    private final Runnable mRefreshSummaries = new Runnable() {
+        @Override
+        public void run() {
+            if (mRefreshRunning) {
+                // Run once more when the current pass finishes
+                mRefreshPending = true;
+                return;
+            }
+            mRefreshRunning = true;
+
+            final Context context = getApplicationContext();
+            final List<SettingsItem> items = new ArrayList<>(mItems);
+            SettingsExecutor.execute(() -> {
+                final String[] summaries = new String[items.size()];
+                for (int i = 0; i < items.size(); i++) {
+                    SummaryLoader loader = items.get(i).summaryLoader;
+                    if (loader != null) {
+                        try {
+                            summaries[i] = loader.load(context);
+                        } catch (RuntimeException e) {
+                            // Keep the previous summary if a service is unavailable
+                        }
+                    }
+                }
+                mHandler.post(() -> applySummaries(items, summaries));
+            });
+        }
+    };
+
+    private void applySummaries(List<SettingsItem> items, String[] summaries) {
+        mRefreshRunning = false;
+        if (isDestroyed()) {
+            return;
+        }
+
+        for (int i = 0; i < summaries.length; i++) {
+            SettingsItem item = items.get(i);
+            if (summaries[i] != null && !summaries[i].equals(item.summary)) {
+                item.summary = summaries[i];
+                mSnapshot.putString(item.title, item.summary);
+                mAdapter.notifyItemChanged(i, PAYLOAD_SUMMARY);
+            }
+        }
+        mSnapshot.saveAsync();
+
+        if (mRefreshPending) {
+            mRefreshPending = false;
+            requestSummaryRefresh();
+        }
     }
 
+    private final BroadcastReceiver mStateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            requestSummaryRefresh();
+        }
+    };
+
+    private final ContentObserver mSettingsObserver = new ContentObserver(new Handler()) {
+        @Override
+        public void onChange(boolean selfChange) {
+            requestSummaryRefresh();
+        }
+    };
+
     /**
      * Initialize settings items
      */
@@ -67,42 +292,72 @@ public class GlassSettingsActivity extends Activity implements
                 getString(R.string.wifi_title),
                 getString(R.string.wifi_summary),
                 R.drawable.ic_wifi,
-                WifiSettingsActivity.class));
+                WifiSettingsScreen::new, ".WifiSettingsActivity",
+                SettingsSummaries::wifi));
 
         // WiFi AP - Primary feature for GlassPorts
         mItems.add(new SettingsItem(
                 getString(R.string.wifi_ap_title),
                 getString(R.string.wifi_ap_summary),
                 R.drawable.ic_wifi_tethering,
-                WifiApSettingsActivity.class));
+                WifiApSettingsScreen::new, ".WifiApSettingsActivity",
+                context -> SettingsSummaries.wifiAp(context, mWifiApSnapshot)));
 
         // Bluetooth
         mItems.add(new SettingsItem(
                 getString(R.string.bluetooth_title),
                 getString(R.string.bluetooth_summary),
                 R.drawable.ic_bluetooth,
-                BluetoothSettingsActivity.class));
+                BluetoothSettingsScreen::new, ".BluetoothSettingsActivity",
+                SettingsSummaries::bluetooth));
 
         // Display
         mItems.add(new SettingsItem(
                 getString(R.string.display_title),
                 getString(R.string.display_summary),
                 R.drawable.ic_display,
-                DisplaySettingsActivity.class));
+                DisplaySettingsScreen::new, ".DisplaySettingsActivity",
+                SettingsSummaries::display));
+
+        // Battery
+        mItems.add(new SettingsItem(
+                getString(R.string.battery_title),
+                getString(R.string.battery_summary),
+                R.drawable.ic_battery,
+                BatterySettingsScreen::new, ".BatterySettingsActivity",
+                SettingsSummaries::battery));
+
+        // Storage
+        mItems.add(new SettingsItem(
+                getString(R.string.storage_title),
+                getString(R.string.storage_summary),
+                R.drawable.ic_storage,
+                StorageSettingsScreen::new, ".StorageSettingsActivity",
+                SettingsSummaries::storage));
+
+        // Performance profiles
+        mItems.add(new SettingsItem(
+                getString(R.string.performance_title),
+                getString(R.string.performance_summary),
+                R.drawable.ic_performance,
+                PerformanceSettingsScreen::new, ".PerformanceSettingsActivity",
+                SettingsSummaries::performance));
 
         // Developer Options
         mItems.add(new SettingsItem(
                 getString(R.string.developer_title),
                 getString(R.string.developer_summary),
                 R.drawable.ic_developer,
-                DeveloperSettingsActivity.class));
+                DeveloperSettingsScreen::new, ".DeveloperSettingsActivity",
+                null));
 
         // About
         mItems.add(new SettingsItem(
                 getString(R.string.about_title),
                 getString(R.string.about_summary),
                 R.drawable.ic_about,
-                AboutSettingsActivity.class));
+                AboutSettingsScreen::new, ".AboutSettingsActivity",
+                null));
     }
 
     /**
@@ -110,19 +365,167 @@ public class GlassSettingsActivity extends Activity implements
      */
     private void openSetting(int position) {
         if (position >= 0 && position < mItems.size()) {
-            SettingsItem item = mItems.get(position);
-            Intent intent = new Intent(this, item.activityClass);
-            startActivity(intent);
+            openScreen(mItems.get(position));
+        }
+    }
+
+    /**
+     * Find the screen an intent addresses through one of the manifest
+     * aliases, or null for the card list
+     */
+    private SettingsItem findIntentTarget(Intent intent) {
+        ComponentName component = intent.getComponent();
+        if (component == null) {
+            return null;
+        }
+        String name = component.getShortClassName();
+        for (SettingsItem item : mItems) {
+            if (item.alias.equals(name)) {
+                return item;
+            }
         }
+        return null;
+    }
+
+    /**
+     * Show an item's screen in place of the card list. A cached screen only
+     * has its visibility flipped; otherwise it is created and cached,
+     * evicting the least recently used screen beyond MAX_CACHED_SCREENS.
+     */
+    private void openScreen(SettingsItem item) {
+        if (mCurrentScreen != null) {
+            return;
+        }
+        final long start = SystemClock.uptimeMillis();
+
+        SettingsScreen screen = mScreens.get(item);
+        final boolean cached = screen != null;
+        if (!cached) {
+            requestCpuBoost();
+            screen = item.screenFactory.create(this);
+            screen.performCreate();
+            mScreens.put(item, screen);
+            trimScreens();
+        }
+
+        mCurrentScreen = screen;
+        mMainContent.setVisibility(View.GONE);
+        screen.getView().setVisibility(View.VISIBLE);
+        screen.getView().requestFocus();
+        if (mResumed) {
+            screen.onResume();
+        }
+
+        final String name = item.title;
+        Choreographer.getInstance().postFrameCallback(frameTimeNanos ->
+                Log.d(TAG, "Opened " + name + (cached ? " (cached)" : "") + " in "
+                        + (SystemClock.uptimeMillis() - start) + " ms"));
+    }
+
+    /**
+     * Hide a screen and return to the card list; ignored if the screen is
+     * not showing. A screen deep-linked into finishes the activity instead,
+     * returning to whatever launched it.
+     */
+    void closeScreen(SettingsScreen screen) {
+        if (screen != mCurrentScreen) {
+            return;
+        }
+        if (mResumed) {
+            screen.onPause();
+        }
+        mCurrentScreen = null;
+        if (mFinishOnClose) {
+            finish();
+            return;
+        }
+        screen.getView().setVisibility(View.GONE);
+        mMainContent.setVisibility(View.VISIBLE);
+        mSettingsList.requestFocus();
+        if (mResumed) {
+            requestSummaryRefresh();
+        }
+    }
+
+    private void trimScreens() {
+        Iterator<SettingsScreen> it = mScreens.values().iterator();
+        while (mScreens.size() > MAX_CACHED_SCREENS && it.hasNext()) {
+            SettingsScreen screen = it.next();
+            if (screen != mCurrentScreen) {
+                it.remove();
+                screen.performDestroy();
+            }
+        }
+    }
+
+    ViewGroup getScreenContainer() {
+        return mScreenContainer;
+    }
+
+    /**
+     * Ramp the CPU for the transition. PerformanceProfileService owns the
+     * limits and runs in this process, so no round trip to the launcher.
+     */
+    private void requestCpuBoost() {
+        if (mProfileService != null) {
+            mProfileService.boost(TRANSITION_BOOST_KHZ, TRANSITION_BOOST_MS);
+        }
+    }
+
+    private final ServiceConnection mProfileConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            mProfileService = ((PerformanceProfileService.ProfileBinder) service).getService();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mProfileService = null;
+        }
+    };
+
+    @Override
+    public boolean dispatchTouchEvent(MotionEvent event) {
+        SettingsScreen screen = mCurrentScreen;
+        if (screen == null) {
+            return super.dispatchTouchEvent(event);
+        }
+        if (screen.dispatchTouchEvent(event)) {
+            return true;
+        }
+
+        // Fling down leaves any screen, even over views that take touches
+        if (mCloseGestureDetector.onTouchEvent(event) && mCurrentScreen != screen) {
+            MotionEvent cancel = MotionEvent.obtain(event);
+            cancel.setAction(MotionEvent.ACTION_CANCEL);
+            super.dispatchTouchEvent(cancel);
+            cancel.recycle();
+            return true;
+        }
+        return super.dispatchTouchEvent(event);
     }
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
+        if (mCurrentScreen != null) {
+            return mCurrentScreen.onTouchEvent(event) || super.onTouchEvent(event);
+        }
         return mGestureDetector.onTouchEvent(event) || super.onTouchEvent(event);
     }
 
     @Override
     public boolean onKeyDown(int keyCode, KeyEvent event) {
+        if (mCurrentScreen != null) {
+            if (mCurrentScreen.onKeyDown(keyCode, event)) {
+                return true;
+            }
+            if (keyCode == KeyEvent.KEYCODE_BACK) {
+                closeScreen(mCurrentScreen);
+                return true;
+            }
+            return super.onKeyDown(keyCode, event);
+        }
+
         switch (keyCode) {
             case KeyEvent.KEYCODE_DPAD_LEFT:
                 if (mCurrentPosition > 0) {
@@ -210,6 +613,20 @@ public class GlassSettingsActivity extends Activity implements
         return false;
     }
 
+    /**
+     * Computes a card's live summary, called on a background thread
+     */
+    interface SummaryLoader {
+        String load(Context context);
+    }
+
+    /**
+     * Builds a card's screen the first time it is opened
+     */
+    interface ScreenFactory {
+        SettingsScreen create(GlassSettingsActivity host);
+    }
+
     /**
      * Settings item holder
      */
@@ -217,14 +634,20 @@ public class GlassSettingsActivity extends Activity implements
         String title;
         String summary;
         int iconRes;
-        Class<? extends Activity> activityClass;
+        ScreenFactory screenFactory;
+        /** Manifest alias that deep-links straight to this screen */
+        String alias;
+        SummaryLoader summaryLoader;
 
         SettingsItem(String title, String summary, int iconRes,
-                     Class<? extends Activity> activityClass) {
+                     ScreenFactory screenFactory, String alias,
+                     SummaryLoader summaryLoader) {
             this.title = title;
             this.summary = summary;
             this.iconRes = iconRes;
-            this.activityClass = activityClass;
+            this.screenFactory = screenFactory;
+            this.alias = alias;
+            this.summaryLoader = summaryLoader;
         }
     }
 
@@ -258,6 +681,15 @@ public class GlassSettingsActivity extends Activity implements
             });
         }
 
+        @Override
+        public void onBindViewHolder(ViewHolder holder, int position, List<Object> payloads) {
+            if (payloads.contains(PAYLOAD_SUMMARY)) {
+                holder.summary.setText(mItems.get(position).summary);
+                return;
+            }
+            onBindViewHolder(holder, position);
+        }
+
         @Override
         public int getItemCount() {
             return mItems.size();
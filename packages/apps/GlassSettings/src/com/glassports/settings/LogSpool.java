@@ -0,0 +1,213 @@
+/*
+ * GlassPorts Log Spool
+ * Size-capped rotating compressed log files
+ */
+
+package com.glassports.settings;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams log text through a gzip compressor into a ring of segment files.
+ *
+ * Compressed output collects in a batchBytes buffer and reaches the file
+ * as one write when the buffer fills, so the eMMC sees a few large writes
+ * instead of one per log line. When the current segment reaches
+ * segmentBytes it is finished and a new one started; only the newest
+ * maxSegments are kept, capping the spool at roughly their product.
+ *
+ * flush() pushes everything written so far to disk with a gzip sync
+ * flush, so a segment cut short by a crash or power loss still
+ * decompresses up to the last flush. Segments are named spool-NNNNNN.gz
+ * with an increasing sequence number, which continues across restarts.
+ *
+ * Pure Java and not thread safe; LogSpoolService serializes access.
+ */
+public class LogSpool {
+    private static final String PREFIX = "spool-";
+    private static final String SUFFIX = ".gz";
+
+    private final File mDir;
+    private final int mSegmentBytes;
+    private final int mMaxSegments;
+    private final int mBatchBytes;
+
+    private int mSequence;
+    private File mSegment;
+    private CountingOutputStream mCounter;
+    private GZIPOutputStream mOut;
+
+    private long mBytesIn;
+    private long mBytesOut;
+    private int mFileWrites;
+
+    public LogSpool(File dir, int segmentBytes, int maxSegments, int batchBytes) {
+        mDir = dir;
+        mSegmentBytes = segmentBytes;
+        mMaxSegments = maxSegments;
+        mBatchBytes = batchBytes;
+    }
+
+    /**
+     * Append raw log bytes, rotating to a new segment when the current one
+     * is full
+     */
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        if (mOut == null) {
+            openSegment();
+        }
+        mOut.write(buffer, offset, length);
+        mBytesIn += length;
+        if (mCounter.count >= mSegmentBytes) {
+            closeSegment();
+        }
+    }
+
+    /**
+     * Write everything buffered so far to the current segment
+     */
+    public void flush() throws IOException {
+        if (mOut != null) {
+            mOut.flush();
+        }
+    }
+
+    /**
+     * Finish the current segment; the next write starts a new one
+     */
+    public void close() throws IOException {
+        if (mOut != null) {
+            closeSegment();
+        }
+    }
+
+    /**
+     * Segment files, oldest first. The last one may still be open.
+     */
+    public File[] getSegments() {
+        File[] files = mDir.listFiles((dir, name) ->
+                name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (files == null) {
+            return new File[0];
+        }
+        // Zero-padded sequence numbers sort lexically
+        Arrays.sort(files);
+        return files;
+    }
+
+    public long getBytesIn() {
+        return mBytesIn;
+    }
+
+    public long getBytesOut() {
+        return mBytesOut;
+    }
+
+    public int getFileWrites() {
+        return mFileWrites;
+    }
+
+    private void openSegment() throws IOException {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            throw new IOException("Cannot create " + mDir);
+        }
+        if (mSegment == null) {
+            // First segment since start: continue after the newest on disk
+            File[] existing = getSegments();
+            if (existing.length > 0) {
+                mSequence = parseSequence(existing[existing.length - 1]) + 1;
+            }
+        }
+
+        mSegment = new File(mDir, String.format(Locale.US, "%s%06d%s",
+                PREFIX, mSequence++, SUFFIX));
+        mCounter = new CountingOutputStream(
+                new BufferedOutputStream(new SegmentOutputStream(mSegment), mBatchBytes));
+        mOut = new GZIPOutputStream(mCounter, 8192, true) {
+            {
+                // Logs compress well even at the fastest level, and the
+                // spool must not compete with the foreground for CPU
+                def.setLevel(Deflater.BEST_SPEED);
+            }
+        };
+        prune();
+    }
+
+    private void closeSegment() throws IOException {
+        try {
+            mOut.close();
+        } finally {
+            mOut = null;
+            mCounter = null;
+        }
+    }
+
+    /**
+     * Keep only the newest mMaxSegments files, including the open one
+     */
+    private void prune() {
+        File[] files = getSegments();
+        for (int i = 0; i < files.length - mMaxSegments; i++) {
+            files[i].delete();
+        }
+    }
+
+    private static int parseSequence(File file) {
+        String name = file.getName();
+        try {
+            return Integer.parseInt(name.substring(PREFIX.length(),
+                    name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Counts compressed bytes on their way into the batch buffer
+     */
+    private class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+            mBytesOut++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+            mBytesOut += len;
+        }
+    }
+
+    /**
+     * Counts the writes that actually reach the file
+     */
+    private class SegmentOutputStream extends FileOutputStream {
+        SegmentOutputStream(File file) throws IOException {
+            super(file);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            mFileWrites++;
+        }
+    }
+}
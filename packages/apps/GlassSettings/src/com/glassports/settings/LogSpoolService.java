@@ -0,0 +1,538 @@
+/*
+ * GlassPorts Log Spool Service
+ * Continuous compressed logcat and kernel log capture for field diagnostics
+ */
+
+package com.glassports.settings;
+
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Process;
+import android.os.StatFs;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Log Spool Service
+ *
+ * While enabled in Developer settings, pipes logcat (main, system, crash
+ * and the kernel buffer, which logd fills from /dev/kmsg) into a LogSpool
+ * under /data/misc/glassports/logs: about 8MB of gzip segments holding the
+ * most recent logs, written in 64KB batches. The spool is flushed every
+ * few minutes and at shutdown, so a unit that misbehaved in the field can
+ * be examined afterwards without having had ADB attached.
+ *
+ * Export bundles the spool with a snapshot of system metrics into one zip
+ * next to it. Headless use:
+ *   adb shell am startservice -a com.glassports.settings.action.EXPORT_LOGS \
+ *       -n com.glassports.settings/.LogSpoolService
+ *   adb logcat -s GlassLogSpool      # prints the bundle path when done
+ */
+public class LogSpoolService extends Service {
+    private static final String TAG = "GlassLogSpool";
+
+    public static final String PREF_LOG_SPOOL = "log_spool_enabled";
+
+    public static final String ACTION_EXPORT_LOGS =
+            "com.glassports.settings.action.EXPORT_LOGS";
+
+    private static final String SPOOL_DIR = "/data/misc/glassports/logs";
+
+    private static final int SEGMENT_BYTES = 1024 * 1024;
+    private static final int MAX_SEGMENTS = 8;
+    private static final int BATCH_BYTES = 64 * 1024;
+    private static final int MAX_EXPORTS = 2;
+
+    private static final long FLUSH_INTERVAL_MS = 5 * 60 * 1000;
+    private static final long RESTART_DELAY_MS = 1000;
+
+    /** "MM-dd HH:mm:ss.SSS" at the start of each threadtime line */
+    private static final String TIMESTAMP_PATTERN = "dd-dd dd:dd:dd.ddd";
+
+    private static final String[] LOGCAT_COMMAND = {
+        "/system/bin/logcat", "-b", "main,system,crash,kernel", "-v", "threadtime"
+    };
+
+    /** Raw system files copied into the export bundle as-is */
+    private static final String[] METRIC_FILES = {
+        "/proc/meminfo", "/proc/loadavg", "/proc/vmstat", "/proc/stat",
+        "/proc/interrupts", "/sys/block/zram0/mm_stat",
+    };
+
+    private final IBinder mBinder = new LogSpoolBinder();
+    private final Object mSpoolLock = new Object();
+    private LogSpool mSpool;
+    /** Guarded by mSpoolLock; once set, nothing more is written */
+    private boolean mSpoolClosed;
+    private File mDir;
+
+    private HandlerThread mThread;
+    private Handler mWorker;
+    private Handler mMainHandler;
+    private Thread mReader;
+    private volatile boolean mSpooling;
+    /** Guards mLogcat, so a logcat started during stopSpooling is not missed */
+    private final Object mLogcatLock = new Object();
+    private java.lang.Process mLogcat;
+    private int mLogcatStarts;
+
+    // Reader thread only: timestamp of the last complete line spooled
+    private final byte[] mLastStamp = new byte[TIMESTAMP_PATTERN.length()];
+    private boolean mHaveLastStamp;
+    private final byte[] mLineStamp = new byte[TIMESTAMP_PATTERN.length()];
+    /** Stamp bytes of the current line matched so far, -1 if it has none */
+    private int mLinePos;
+    private boolean mExporting;
+
+    /**
+     * Export completion, called on the main thread
+     */
+    public interface ExportCallback {
+        /**
+         * @param bundle zip written, or null if the export failed
+         */
+        void onExported(File bundle);
+    }
+
+    public class LogSpoolBinder extends Binder {
+        public LogSpoolService getService() {
+            return LogSpoolService.this;
+        }
+    }
+
+    public static boolean isEnabled(Context context) {
+        return context.getSharedPreferences("developer", MODE_PRIVATE)
+                .getBoolean(PREF_LOG_SPOOL, false);
+    }
+
+    public static void setEnabled(Context context, boolean enabled) {
+        context.getSharedPreferences("developer", MODE_PRIVATE).edit()
+                .putBoolean(PREF_LOG_SPOOL, enabled).apply();
+        Intent intent = new Intent(context, LogSpoolService.class);
+        if (enabled) {
+            context.startService(intent);
+        } else {
+            context.stopService(intent);
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mDir = new File(SPOOL_DIR);
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            // Fall back to app storage if the shared directory is missing
+            mDir = new File(getFilesDir(), "logs");
+        }
+        mSpool = new LogSpool(mDir, SEGMENT_BYTES, MAX_SEGMENTS, BATCH_BYTES);
+
+        mThread = new HandlerThread("LogSpool", Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mWorker = new Handler(mThread.getLooper());
+        mMainHandler = new Handler(Looper.getMainLooper());
+
+        registerReceiver(mShutdownReceiver, new IntentFilter(Intent.ACTION_SHUTDOWN));
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_EXPORT_LOGS.equals(intent.getAction())) {
+            export(null);
+        }
+        if (isEnabled(this)) {
+            startSpooling();
+        } else if (!mExporting) {
+            stopSelf();
+        }
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        unregisterReceiver(mShutdownReceiver);
+        stopSpooling();
+        mWorker.post(() -> {
+            synchronized (mSpoolLock) {
+                closeSpool();
+            }
+            mThread.quitSafely();
+        });
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
+    }
+
+    public boolean isSpooling() {
+        return mSpooling;
+    }
+
+    /**
+     * Compressed size of the spool on disk
+     */
+    public long getSpoolBytes() {
+        long total = 0;
+        for (File file : mSpool.getSegments()) {
+            total += file.length();
+        }
+        return total;
+    }
+
+    private void startSpooling() {
+        if (mSpooling) {
+            return;
+        }
+        mSpooling = true;
+        mReader = new Thread(this::readLoop, "LogSpoolReader");
+        mReader.start();
+        mWorker.postDelayed(mFlushRunnable, FLUSH_INTERVAL_MS);
+        Log.i(TAG, "Spooling logs to " + mDir);
+    }
+
+    private void stopSpooling() {
+        if (!mSpooling) {
+            return;
+        }
+        synchronized (mLogcatLock) {
+            mSpooling = false;
+            if (mLogcat != null) {
+                // Ends the reader's blocking read
+                mLogcat.destroy();
+            }
+        }
+        mWorker.removeCallbacks(mFlushRunnable);
+        Log.i(TAG, "Stopped spooling logs");
+    }
+
+    /**
+     * Copy logcat output into the spool until spooling stops, restarting
+     * logcat if it exits
+     */
+    private void readLoop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        byte[] buffer = new byte[16 * 1024];
+        while (mSpooling) {
+            java.lang.Process logcat;
+            synchronized (mLogcatLock) {
+                if (!mSpooling) {
+                    return;
+                }
+                try {
+                    logcat = new ProcessBuilder(logcatCommand())
+                            .redirectErrorStream(true)
+                            .start();
+                } catch (IOException e) {
+                    Log.e(TAG, "Cannot start logcat: " + e.getMessage());
+                    return;
+                }
+                mLogcat = logcat;
+                mLogcatStarts++;
+            }
+            // A restart begins at a line start
+            mLinePos = 0;
+
+            try (InputStream in = logcat.getInputStream()) {
+                int len;
+                while (mSpooling && (len = in.read(buffer)) > 0) {
+                    synchronized (mSpoolLock) {
+                        if (mSpoolClosed) {
+                            return;
+                        }
+                        mSpool.write(buffer, 0, len);
+                    }
+                    trackTimestamp(buffer, len);
+                }
+            } catch (IOException e) {
+                if (mSpooling) {
+                    Log.w(TAG, "Log spool write failed: " + e.getMessage());
+                }
+            } finally {
+                synchronized (mLogcatLock) {
+                    logcat.destroy();
+                    mLogcat = null;
+                }
+            }
+
+            if (mSpooling) {
+                SystemClock.sleep(RESTART_DELAY_MS);
+            }
+        }
+    }
+
+    /**
+     * Remember the timestamp of the last line that ended in data, as logged
+     * rather than when it was read, which can be much later
+     */
+    private void trackTimestamp(byte[] data, int len) {
+        for (int i = 0; i < len; i++) {
+            byte b = data[i];
+            if (b == '\n') {
+                if (mLinePos >= mLineStamp.length) {
+                    System.arraycopy(mLineStamp, 0, mLastStamp, 0, mLastStamp.length);
+                    mHaveLastStamp = true;
+                }
+                mLinePos = 0;
+            } else if (mLinePos >= 0 && mLinePos < mLineStamp.length) {
+                char expected = TIMESTAMP_PATTERN.charAt(mLinePos);
+                if (expected == 'd' ? b >= '0' && b <= '9' : b == expected) {
+                    mLineStamp[mLinePos++] = b;
+                } else {
+                    // No stamp, e.g. "--------- beginning of main"
+                    mLinePos = -1;
+                }
+            }
+        }
+    }
+
+    /**
+     * The first logcat dumps the whole buffer, which holds the boot; later
+     * restarts resume from the last line spooled. -T includes lines logged
+     * at that very time, so a line or two can appear twice, but none is lost.
+     */
+    private String[] logcatCommand() {
+        if (!mHaveLastStamp) {
+            return LOGCAT_COMMAND;
+        }
+        String[] command = Arrays.copyOf(LOGCAT_COMMAND, LOGCAT_COMMAND.length + 2);
+        command[command.length - 2] = "-T";
+        command[command.length - 1] = new String(mLastStamp, StandardCharsets.US_ASCII);
+        return command;
+    }
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushSpool();
+            mWorker.postDelayed(this, FLUSH_INTERVAL_MS);
+        }
+    };
+
+    private final BroadcastReceiver mShutdownReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            // Called on the main thread while shutdown waits; keep it short
+            synchronized (mSpoolLock) {
+                closeSpool();
+            }
+        }
+    };
+
+    private void flushSpool() {
+        synchronized (mSpoolLock) {
+            try {
+                mSpool.flush();
+            } catch (IOException e) {
+                Log.w(TAG, "Log spool flush failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Close for good; a later write would otherwise open a new segment.
+     * Call with mSpoolLock held.
+     */
+    private void closeSpool() {
+        mSpoolClosed = true;
+        try {
+            mSpool.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Log spool close failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Bundle the spool and current system metrics into a zip
+     *
+     * @param callback notified when the bundle is written, may be null
+     */
+    public void export(final ExportCallback callback) {
+        mExporting = true;
+        mWorker.post(() -> {
+            final File bundle = writeBundle();
+            mMainHandler.post(() -> {
+                mExporting = false;
+                if (callback != null) {
+                    callback.onExported(bundle);
+                }
+                if (!mSpooling) {
+                    stopSelf();
+                }
+            });
+        });
+    }
+
+    private File writeBundle() {
+        String name = "logs-" + Build.ID.replaceAll("[^A-Za-z0-9._-]", "_") + "-"
+                + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date())
+                + ".zip";
+        File bundle = new File(mDir, name);
+        mDir.mkdirs();
+
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(bundle))) {
+            // Segments are already compressed; don't spend CPU on them again
+            zip.setLevel(Deflater.NO_COMPRESSION);
+            synchronized (mSpoolLock) {
+                mSpool.flush();
+                for (File segment : mSpool.getSegments()) {
+                    copyToZip(zip, "spool/" + segment.getName(), segment);
+                }
+            }
+
+            zip.setLevel(Deflater.DEFAULT_COMPRESSION);
+            zip.putNextEntry(new ZipEntry("metrics.txt"));
+            zip.write(collectMetrics().getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+            for (String path : METRIC_FILES) {
+                File file = new File(path);
+                if (file.canRead()) {
+                    copyToZip(zip, path.substring(1), file);
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to export logs: " + e.getMessage());
+            bundle.delete();
+            return null;
+        }
+
+        pruneExports();
+        Log.i(TAG, "Exported logs to " + bundle + " (" + bundle.length() + " bytes)");
+        return bundle;
+    }
+
+    private static void copyToZip(ZipOutputStream zip, String name, File file)
+            throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        // Proc files report a size of 0, so read until EOF
+        try (FileInputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[16 * 1024];
+            int len;
+            while ((len = in.read(buffer)) > 0) {
+                zip.write(buffer, 0, len);
+            }
+        }
+        zip.closeEntry();
+    }
+
+    private String collectMetrics() {
+        StringBuilder sb = new StringBuilder(2048);
+        sb.append("build.fingerprint=").append(Build.FINGERPRINT).append('\n');
+        sb.append("glassports.version=").append(getString(R.string.glassports_version))
+                .append('\n');
+        sb.append("kernel=").append(SysfsUtils.read("/proc/version")).append('\n');
+        sb.append("time=").append(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.US)
+                .format(new Date())).append('\n');
+        sb.append("uptime.ms=").append(SystemClock.uptimeMillis()).append('\n');
+        sb.append("elapsed.ms=").append(SystemClock.elapsedRealtime()).append('\n');
+
+        sb.append("performance.profile=").append(getSharedPreferences("performance",
+                MODE_PRIVATE).getString("profile", PerformanceProfile.DEFAULT_ID)).append('\n');
+        for (int i = 0; i < PerfSampler.MAX_CPUS; i++) {
+            String cpufreq = "/sys/devices/system/cpu/cpu" + i + "/cpufreq/";
+            sb.append("cpu").append(i).append(".governor=")
+                    .append(SysfsUtils.read(cpufreq + "scaling_governor")).append('\n');
+            sb.append("cpu").append(i).append(".freq_khz=")
+                    .append(SysfsUtils.read(cpufreq + "scaling_cur_freq")).append('\n');
+            sb.append("cpu").append(i).append(".max_freq_khz=")
+                    .append(SysfsUtils.read(cpufreq + "scaling_max_freq")).append('\n');
+        }
+
+        File[] zones = new File("/sys/class/thermal").listFiles();
+        if (zones != null) {
+            Arrays.sort(zones);
+            for (File zone : zones) {
+                if (zone.getName().startsWith("thermal_zone")) {
+                    sb.append(zone.getName()).append('.')
+                            .append(SysfsUtils.read(zone.getPath() + "/type")).append('=')
+                            .append(SysfsUtils.read(zone.getPath() + "/temp")).append('\n');
+                }
+            }
+        }
+
+        Intent battery = registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery != null) {
+            sb.append("battery.level=")
+                    .append(battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1)).append('\n');
+            sb.append("battery.status=")
+                    .append(battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1)).append('\n');
+            sb.append("battery.plugged=")
+                    .append(battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, -1)).append('\n');
+            sb.append("battery.temperature=")
+                    .append(battery.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, -1))
+                    .append('\n');
+            sb.append("battery.voltage_mv=")
+                    .append(battery.getIntExtra(BatteryManager.EXTRA_VOLTAGE, -1)).append('\n');
+        }
+
+        StatFs data = new StatFs(Environment.getDataDirectory().getPath());
+        sb.append("data.free_bytes=").append(data.getAvailableBytes()).append('\n');
+        sb.append("data.total_bytes=").append(data.getTotalBytes()).append('\n');
+
+        synchronized (mSpoolLock) {
+            appendSpoolStats(sb);
+        }
+        return sb.toString();
+    }
+
+    private void appendSpoolStats(StringBuilder sb) {
+        sb.append("spool.enabled=").append(mSpooling).append('\n');
+        sb.append("spool.bytes_in=").append(mSpool.getBytesIn()).append('\n');
+        sb.append("spool.bytes_out=").append(mSpool.getBytesOut()).append('\n');
+        sb.append("spool.file_writes=").append(mSpool.getFileWrites()).append('\n');
+        sb.append("spool.segments=").append(mSpool.getSegments().length).append('\n');
+        sb.append("spool.logcat_starts=").append(mLogcatStarts).append('\n');
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        StringBuilder sb = new StringBuilder(512);
+        synchronized (mSpoolLock) {
+            appendSpoolStats(sb);
+        }
+        sb.append("spool.dir=").append(mDir).append('\n');
+        sb.append("spool.disk_bytes=").append(getSpoolBytes()).append('\n');
+        pw.print(sb);
+    }
+
+    private void pruneExports() {
+        File[] files = mDir.listFiles((dir, name) ->
+                name.startsWith("logs-") && name.endsWith(".zip"));
+        if (files == null || files.length <= MAX_EXPORTS) {
+            return;
+        }
+        // Sort by age; the build id in the name breaks lexical order
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (int i = 0; i < files.length - MAX_EXPORTS; i++) {
+            files[i].delete();
+        }
+    }
+}
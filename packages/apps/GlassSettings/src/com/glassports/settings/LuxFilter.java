@@ -0,0 +1,126 @@
+/*
+ * GlassPorts Lux Filter
+ * Low-pass filter with hysteresis for ambient light samples
+ */
+
+package com.glassports.settings;
+
+/**
+ * Smooths raw light sensor samples into a stable ambient lux value.
+ *
+ * Samples go through an exponential low-pass filter whose time constant is
+ * short when getting brighter (stepping outdoors must not leave the prism
+ * unreadable) and long when getting darker (a passing shadow should not
+ * dim it). The filtered value only becomes the new ambient lux once it has
+ * stayed outside a hysteresis band around the current ambient for a
+ * debounce period, so flicker and head movement do not cause brightness
+ * changes.
+ *
+ * Plain Java, so it can run against recorded lux traces off-device.
+ */
+public final class LuxFilter {
+
+    public static final long DEFAULT_BRIGHTEN_TAU_MS = 1000;
+    public static final long DEFAULT_DARKEN_TAU_MS = 6000;
+    public static final float DEFAULT_BRIGHTEN_HYSTERESIS = 0.10f;
+    public static final float DEFAULT_DARKEN_HYSTERESIS = 0.20f;
+    public static final long DEFAULT_BRIGHTEN_DEBOUNCE_MS = 2000;
+    public static final long DEFAULT_DARKEN_DEBOUNCE_MS = 8000;
+
+    private final long mBrightenTauMs;
+    private final long mDarkenTauMs;
+    private final float mBrightenHysteresis;
+    private final float mDarkenHysteresis;
+    private final long mBrightenDebounceMs;
+    private final long mDarkenDebounceMs;
+
+    private boolean mHasSample;
+    private long mLastSampleTimeMs;
+    private float mFilteredLux;
+    private float mAmbientLux;
+    private long mOutsideBandSinceMs = -1;
+
+    public LuxFilter() {
+        this(DEFAULT_BRIGHTEN_TAU_MS, DEFAULT_DARKEN_TAU_MS,
+                DEFAULT_BRIGHTEN_HYSTERESIS, DEFAULT_DARKEN_HYSTERESIS,
+                DEFAULT_BRIGHTEN_DEBOUNCE_MS, DEFAULT_DARKEN_DEBOUNCE_MS);
+    }
+
+    public LuxFilter(long brightenTauMs, long darkenTauMs,
+                     float brightenHysteresis, float darkenHysteresis,
+                     long brightenDebounceMs, long darkenDebounceMs) {
+        mBrightenTauMs = brightenTauMs;
+        mDarkenTauMs = darkenTauMs;
+        mBrightenHysteresis = brightenHysteresis;
+        mDarkenHysteresis = darkenHysteresis;
+        mBrightenDebounceMs = brightenDebounceMs;
+        mDarkenDebounceMs = darkenDebounceMs;
+    }
+
+    /**
+     * Feed one sensor sample
+     *
+     * @param timeMs sample time on a monotonic clock
+     * @return true if the ambient lux changed
+     */
+    public boolean addSample(long timeMs, float lux) {
+        if (lux < 0f || Float.isNaN(lux)) {
+            return false;
+        }
+
+        if (!mHasSample) {
+            // First sample after a reset is taken as is
+            mHasSample = true;
+            mLastSampleTimeMs = timeMs;
+            mFilteredLux = lux;
+            mAmbientLux = lux;
+            mOutsideBandSinceMs = -1;
+            return true;
+        }
+
+        long dt = Math.max(0, timeMs - mLastSampleTimeMs);
+        mLastSampleTimeMs = timeMs;
+        long tau = lux > mFilteredLux ? mBrightenTauMs : mDarkenTauMs;
+        float alpha = 1f - (float) Math.exp(-(double) dt / tau);
+        mFilteredLux += alpha * (lux - mFilteredLux);
+
+        boolean brighter = mFilteredLux > mAmbientLux * (1f + mBrightenHysteresis);
+        boolean darker = mFilteredLux < mAmbientLux * (1f - mDarkenHysteresis);
+        if (!brighter && !darker) {
+            mOutsideBandSinceMs = -1;
+            return false;
+        }
+
+        if (mOutsideBandSinceMs < 0) {
+            mOutsideBandSinceMs = timeMs;
+        }
+        long debounce = brighter ? mBrightenDebounceMs : mDarkenDebounceMs;
+        if (timeMs - mOutsideBandSinceMs < debounce) {
+            return false;
+        }
+
+        mAmbientLux = mFilteredLux;
+        mOutsideBandSinceMs = -1;
+        return true;
+    }
+
+    public boolean hasAmbientLux() {
+        return mHasSample;
+    }
+
+    public float getAmbientLux() {
+        return mAmbientLux;
+    }
+
+    public float getFilteredLux() {
+        return mFilteredLux;
+    }
+
+    /**
+     * Forget all history, e.g. when the screen turns off
+     */
+    public void reset() {
+        mHasSample = false;
+        mOutsideBandSinceMs = -1;
+    }
+}
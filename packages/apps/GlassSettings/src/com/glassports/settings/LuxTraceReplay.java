@@ -0,0 +1,101 @@
+/*
+ * GlassPorts Lux Trace Replay
+ * Runs the auto-brightness logic over a recorded lux trace
+ */
+
+package com.glassports.settings;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Desktop tool for tuning auto-brightness against real traces.
+ *
+ * Traces are the "time_ms,lux" lines printed by
+ *   adb shell dumpsys activity service com.glassports.settings/.AutoBrightnessService
+ *
+ * Build and run on any JVM:
+ *   javac -d out BrightnessCurve.java LuxFilter.java \
+ *       AutoBrightnessController.java LuxTraceReplay.java
+ *   java -cp out com.glassports.settings.LuxTraceReplay trace.csv [adjustment] [curve]
+ *
+ * Prints every backlight write and a summary line.
+ */
+public final class LuxTraceReplay {
+
+    /**
+     * Receives each backlight write of a replay
+     */
+    interface WriteListener {
+        /**
+         * @param timeMs time since the first sample
+         */
+        void onWrite(long timeMs, float lux, float ambientLux, int level);
+    }
+
+    static final class Summary {
+        int samples;
+        int writes;
+        long durationMs;
+    }
+
+    private LuxTraceReplay() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: LuxTraceReplay trace.csv [adjustment] [lux:level,...]");
+            System.exit(2);
+        }
+        float adjustment = args.length > 1 ? Float.parseFloat(args[1]) : 0f;
+        BrightnessCurve curve = args.length > 2
+                ? BrightnessCurve.parse(args[2]) : BrightnessCurve.createDefault();
+
+        AutoBrightnessController controller =
+                new AutoBrightnessController(new LuxFilter(), curve);
+        controller.setAdjustment(adjustment);
+
+        Summary summary;
+        try (BufferedReader reader = new BufferedReader(new FileReader(args[0]))) {
+            summary = replay(reader, controller, (timeMs, lux, ambientLux, level) ->
+                    System.out.printf("%d,%.1f,%.1f,%d%n", timeMs, lux, ambientLux, level));
+        }
+
+        double minutes = summary.samples > 0 ? summary.durationMs / 60000.0 : 0;
+        System.out.printf("# %d samples over %.1f min, %d brightness writes%n",
+                summary.samples, minutes, summary.writes);
+    }
+
+    /**
+     * Feed every "time_ms,lux" line of a trace to controller. Blank lines
+     * and lines not starting with a digit are skipped.
+     */
+    static Summary replay(BufferedReader reader, AutoBrightnessController controller,
+            WriteListener listener) throws IOException {
+        Summary summary = new Summary();
+        long firstMs = -1;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#") || !Character.isDigit(line.charAt(0))) {
+                continue;
+            }
+            String[] fields = line.split(",");
+            long timeMs = Long.parseLong(fields[0].trim());
+            float lux = Float.parseFloat(fields[1].trim());
+            if (firstMs < 0) {
+                firstMs = timeMs;
+            }
+            summary.durationMs = timeMs - firstMs;
+            summary.samples++;
+
+            int level = controller.onLuxSample(timeMs, lux);
+            if (level >= 0) {
+                summary.writes++;
+                listener.onWrite(timeMs - firstMs, lux, controller.getAmbientLux(), level);
+            }
+        }
+        return summary;
+    }
+}
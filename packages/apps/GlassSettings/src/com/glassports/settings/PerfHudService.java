@@ -0,0 +1,237 @@
+/*
+ * GlassPorts Performance HUD
+ * System overlay showing live CPU, memory and thermal state
+ */
+
+package com.glassports.settings;
+
+import android.app.ActivityManager;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.PixelFormat;
+import android.os.Build;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Gravity;
+import android.view.WindowManager;
+import android.widget.TextView;
+
+import java.util.List;
+
+/**
+ * Performance HUD Service
+ *
+ * Draws a small non-touchable overlay on top of every app with the
+ * foreground app's frame durations, per-core CPU load and frequency,
+ * foreground process RSS and temperature. Frame durations come from the
+ * app's own HWUI frame history through FrameStatsReader.
+ * Sampling runs on its own thread at 1-2 Hz. The thread CPU time of a
+ * whole sampling round, from finding the foreground process to
+ * formatting the text, is measured, and the period is stretched so it
+ * stays within OVERHEAD_BUDGET_PERCENT of one core, up to MAX_PERIOD_MS.
+ * A HUD that cannot keep to the budget at that rate says so rather than
+ * going stale. The framestats dump also costs the foreground app and
+ * system_server some CPU, which this thread cannot measure.
+ */
+public class PerfHudService extends Service {
+    private static final String TAG = "GlassPerfHud";
+
+    public static final String PREF_PERF_HUD = "perf_hud_enabled";
+
+    /** Sampler may use at most this share of one core */
+    private static final int OVERHEAD_BUDGET_PERCENT = 1;
+    private static final long MIN_PERIOD_MS = 500;   // 2 Hz
+    private static final long MAX_PERIOD_MS = 1000;  // 1 Hz
+
+    private WindowManager mWindowManager;
+    private ActivityManager mActivityManager;
+    private TextView mOverlay;
+
+    private HandlerThread mSamplerThread;
+    private Handler mSamplerHandler;
+    private Handler mMainHandler;
+    private final PerfSampler mSampler = new PerfSampler();
+    private final FrameStatsReader mFrames = new FrameStatsReader();
+
+    // Sampler thread only
+    private long mPeriodMs = MIN_PERIOD_MS;
+    /** Smoothed CPU cost of one whole sampling round */
+    private long mAvgCostNanos;
+    private boolean mHaveFrames;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        mWindowManager = (WindowManager) getSystemService(Context.WINDOW_SERVICE);
+        mActivityManager = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
+        mMainHandler = new Handler(Looper.getMainLooper());
+
+        addOverlay();
+
+        mSamplerThread = new HandlerThread("PerfHudSampler");
+        mSamplerThread.start();
+        mSamplerHandler = new Handler(mSamplerThread.getLooper());
+        mSamplerHandler.post(mSampleRunnable);
+
+        Log.i(TAG, "Performance HUD started");
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mSamplerHandler.removeCallbacksAndMessages(null);
+        mSamplerThread.quitSafely();
+        if (mOverlay != null) {
+            mWindowManager.removeView(mOverlay);
+            mOverlay = null;
+        }
+        Log.i(TAG, "Performance HUD stopped");
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        return START_STICKY;
+    }
+
+    /**
+     * Add the overlay window in the top left corner of the prism
+     */
+    @SuppressWarnings("deprecation")
+    private void addOverlay() {
+        int type = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                ? WindowManager.LayoutParams.TYPE_APPLICATION_OVERLAY
+                : WindowManager.LayoutParams.TYPE_SYSTEM_OVERLAY;
+
+        WindowManager.LayoutParams params = new WindowManager.LayoutParams(
+                WindowManager.LayoutParams.WRAP_CONTENT,
+                WindowManager.LayoutParams.WRAP_CONTENT,
+                type,
+                WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE
+                        | WindowManager.LayoutParams.FLAG_NOT_TOUCHABLE
+                        | WindowManager.LayoutParams.FLAG_LAYOUT_IN_SCREEN,
+                PixelFormat.TRANSLUCENT);
+        params.gravity = Gravity.TOP | Gravity.START;
+
+        mOverlay = new TextView(this);
+        mOverlay.setTextColor(0xFF00FF00);
+        mOverlay.setBackgroundColor(0x99000000);
+        mOverlay.setTextSize(9);
+        mOverlay.setTypeface(android.graphics.Typeface.MONOSPACE);
+        mOverlay.setPadding(4, 2, 4, 2);
+
+        mWindowManager.addView(mOverlay, params);
+    }
+
+    /**
+     * Sampler loop, runs on the sampler thread
+     */
+    private final Runnable mSampleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            long startCpu = Debug.threadCpuTimeNanos();
+            long startWall = SystemClock.elapsedRealtimeNanos();
+
+            int pid = getForegroundPid();
+            mSampler.sample(pid);
+            mHaveFrames = mFrames.read(pid);
+            final String text = formatSample();
+            mMainHandler.post(() -> {
+                if (mOverlay != null) {
+                    mOverlay.setText(text);
+                }
+            });
+
+            long cost = Debug.threadCpuTimeNanos() - startCpu;
+            if (cost <= 0) {
+                // Thread CPU clock unavailable, fall back to wall time
+                cost = SystemClock.elapsedRealtimeNanos() - startWall;
+            }
+            mAvgCostNanos = mAvgCostNanos == 0 ? cost : (mAvgCostNanos * 7 + cost) / 8;
+
+            // Keep the round inside its CPU budget. Worked in ns and
+            // rounded up, so sub-millisecond costs still count.
+            long budgetNanos = mAvgCostNanos * 100 / OVERHEAD_BUDGET_PERCENT;
+            long period = (budgetNanos + 999999) / 1000000;
+            mPeriodMs = Math.min(MAX_PERIOD_MS, Math.max(MIN_PERIOD_MS, period));
+
+            mSamplerHandler.postDelayed(this, mPeriodMs);
+        }
+    };
+
+    private String formatSample() {
+        StringBuilder sb = new StringBuilder(128);
+
+        sb.append("frame ");
+        if (!mHaveFrames) {
+            sb.append('-');
+        } else if (mFrames.getFrameCount() == 0) {
+            sb.append("idle");
+        } else {
+            sb.append(mFrames.getAverageFrameNanos() / 100000 / 10f).append('/');
+            sb.append(mFrames.getMaxFrameNanos() / 100000 / 10f).append("ms x");
+            sb.append(mFrames.getFrameCount());
+        }
+
+        for (int i = 0; i < PerfSampler.MAX_CPUS; i++) {
+            sb.append("\ncpu").append(i).append(' ');
+            int load = mSampler.getCpuLoad(i);
+            int freq = mSampler.getCpuFreqKhz(i);
+            if (freq < 0) {
+                sb.append("off");
+                continue;
+            }
+            sb.append(load < 0 ? "-" : String.valueOf(load)).append("% ");
+            sb.append(freq / 1000).append("MHz");
+        }
+
+        long rss = mSampler.getRssKb();
+        sb.append("\nrss ").append(rss < 0 ? "-" : (rss / 1024) + "MB");
+
+        int temp = mSampler.getTemperatureDeciC();
+        sb.append("\ntemp ");
+        if (temp == Integer.MIN_VALUE) {
+            sb.append('-');
+        } else {
+            sb.append(temp / 10).append('.').append(Math.abs(temp % 10)).append('C');
+        }
+
+        // Cost of the previous rounds; this one is still running
+        long costUs = mAvgCostNanos / 1000;
+        sb.append("\nhud ").append(costUs).append("us/").append(mPeriodMs).append("ms");
+        if (mAvgCostNanos * 100 / OVERHEAD_BUDGET_PERCENT > mPeriodMs * 1000000) {
+            sb.append(" over");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Find the pid of the foreground app process
+     */
+    private int getForegroundPid() {
+        List<ActivityManager.RunningAppProcessInfo> processes =
+                mActivityManager.getRunningAppProcesses();
+        if (processes == null) {
+            return 0;
+        }
+        for (ActivityManager.RunningAppProcessInfo info : processes) {
+            if (info.importance
+                    == ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND
+                    && info.pid != android.os.Process.myPid()) {
+                return info.pid;
+            }
+        }
+        return 0;
+    }
+}
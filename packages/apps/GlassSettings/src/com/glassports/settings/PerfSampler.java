@@ -0,0 +1,255 @@
+/*
+ * GlassPorts Performance Sampler
+ * Lightweight /proc and /sys reader for the performance HUD
+ */
+
+package com.glassports.settings;
+
+import android.os.Debug;
+import android.os.SystemClock;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Samples per-core CPU utilisation, CPU frequency, temperature and the RSS
+ * of a process. Reads are done into a preallocated buffer so a sample does
+ * not allocate, and the CPU time spent sampling is measured so callers can
+ * keep the sampler inside an explicit overhead budget.
+ */
+public class PerfSampler {
+
+    /** OMAP4430 has two Cortex-A9 cores */
+    public static final int MAX_CPUS = 2;
+
+    private static final String PROC_STAT = "/proc/stat";
+    private static final String CPUFREQ_CUR =
+            "/sys/devices/system/cpu/cpu%d/cpufreq/scaling_cur_freq";
+    private static final String THERMAL_TEMP = "/sys/class/thermal/thermal_zone0/temp";
+    private static final int PAGE_SIZE = 4096;
+
+    private final byte[] mBuffer = new byte[4096];
+    private final String[] mFreqPaths = new String[MAX_CPUS];
+
+    private final long[] mLastTotal = new long[MAX_CPUS];
+    private final long[] mLastIdle = new long[MAX_CPUS];
+
+    // Latest sample
+    private final int[] mCpuLoad = new int[MAX_CPUS];
+    private final int[] mCpuFreqKhz = new int[MAX_CPUS];
+    private int mTemperatureDeciC;
+    private long mRssKb;
+
+    // Overhead accounting
+    private long mLastCostNanos;
+    private long mAvgCostNanos;
+    private long mSampleCount;
+
+    public PerfSampler() {
+        for (int i = 0; i < MAX_CPUS; i++) {
+            mFreqPaths[i] = String.format(CPUFREQ_CUR, i);
+            mCpuLoad[i] = -1;
+        }
+    }
+
+    /**
+     * Take one sample.
+     *
+     * @param pid process to report RSS for, or 0 to skip
+     */
+    public void sample(int pid) {
+        long startCpu = Debug.threadCpuTimeNanos();
+        long startWall = SystemClock.elapsedRealtimeNanos();
+
+        sampleCpuLoad();
+        for (int i = 0; i < MAX_CPUS; i++) {
+            // Offline cores have no cpufreq node
+            mCpuFreqKhz[i] = (int) readLong(mFreqPaths[i], -1);
+        }
+
+        long temp = readLong(THERMAL_TEMP, Long.MIN_VALUE);
+        if (temp == Long.MIN_VALUE) {
+            mTemperatureDeciC = Integer.MIN_VALUE;
+        } else {
+            // OMAP bandgap reports millidegrees, some kernels report degrees
+            mTemperatureDeciC = (int) (temp > 1000 ? temp / 100 : temp * 10);
+        }
+
+        mRssKb = pid > 0 ? readRssKb(pid) : -1;
+
+        long cost = Debug.threadCpuTimeNanos() - startCpu;
+        if (cost <= 0) {
+            // Thread CPU clock unavailable, fall back to wall time
+            cost = SystemClock.elapsedRealtimeNanos() - startWall;
+        }
+        mLastCostNanos = cost;
+        mAvgCostNanos = mSampleCount == 0 ? cost : (mAvgCostNanos * 7 + cost) / 8;
+        mSampleCount++;
+    }
+
+    public int getCpuLoad(int cpu) {
+        return mCpuLoad[cpu];
+    }
+
+    public int getCpuFreqKhz(int cpu) {
+        return mCpuFreqKhz[cpu];
+    }
+
+    /**
+     * @return temperature in tenths of a degree C, or Integer.MIN_VALUE if unknown
+     */
+    public int getTemperatureDeciC() {
+        return mTemperatureDeciC;
+    }
+
+    public long getRssKb() {
+        return mRssKb;
+    }
+
+    public long getLastCostNanos() {
+        return mLastCostNanos;
+    }
+
+    /**
+     * @return smoothed CPU cost of one sample in nanoseconds
+     */
+    public long getAverageCostNanos() {
+        return mAvgCostNanos;
+    }
+
+    /**
+     * Parse the per-core lines of /proc/stat and update utilisation
+     */
+    private void sampleCpuLoad() {
+        int len = readFile(PROC_STAT);
+        for (int i = 0; i < MAX_CPUS; i++) {
+            mCpuLoad[i] = -1;
+        }
+        if (len <= 0) {
+            return;
+        }
+
+        int pos = 0;
+        while (pos < len) {
+            int lineEnd = pos;
+            while (lineEnd < len && mBuffer[lineEnd] != '\n') {
+                lineEnd++;
+            }
+
+            // Per-core lines look like "cpuN user nice system idle iowait irq softirq ..."
+            if (lineEnd - pos > 4 && mBuffer[pos] == 'c' && mBuffer[pos + 1] == 'p'
+                    && mBuffer[pos + 2] == 'u' && mBuffer[pos + 3] >= '0'
+                    && mBuffer[pos + 3] <= '9') {
+                int cpu = mBuffer[pos + 3] - '0';
+                if (cpu < MAX_CPUS) {
+                    parseCpuLine(cpu, pos + 4, lineEnd);
+                }
+            } else if (mBuffer[pos] != 'c') {
+                // cpu lines come first, nothing useful after them
+                break;
+            }
+            pos = lineEnd + 1;
+        }
+    }
+
+    private void parseCpuLine(int cpu, int pos, int end) {
+        long total = 0;
+        long idle = 0;
+        int field = 0;
+        long value = 0;
+        boolean inNumber = false;
+
+        for (int i = pos; i <= end; i++) {
+            byte b = i < end ? mBuffer[i] : (byte) ' ';
+            if (b >= '0' && b <= '9') {
+                value = value * 10 + (b - '0');
+                inNumber = true;
+            } else if (inNumber) {
+                total += value;
+                // idle and iowait
+                if (field == 3 || field == 4) {
+                    idle += value;
+                }
+                field++;
+                value = 0;
+                inNumber = false;
+            }
+        }
+
+        long dTotal = total - mLastTotal[cpu];
+        long dIdle = idle - mLastIdle[cpu];
+        if (mLastTotal[cpu] != 0 && dTotal > 0) {
+            mCpuLoad[cpu] = (int) (100 * (dTotal - dIdle) / dTotal);
+        }
+        mLastTotal[cpu] = total;
+        mLastIdle[cpu] = idle;
+    }
+
+    /**
+     * Resident set size from /proc/pid/statm (second field, in pages)
+     */
+    private long readRssKb(int pid) {
+        int len = readFile("/proc/" + pid + "/statm");
+        if (len <= 0) {
+            return -1;
+        }
+        int i = 0;
+        while (i < len && mBuffer[i] != ' ') {
+            i++;
+        }
+        long pages = parseLong(i + 1, len, -1);
+        return pages < 0 ? -1 : pages * (PAGE_SIZE / 1024);
+    }
+
+    private long readLong(String path, long defValue) {
+        int len = readFile(path);
+        if (len <= 0) {
+            return defValue;
+        }
+        return parseLong(0, len, defValue);
+    }
+
+    private long parseLong(int pos, int end, long defValue) {
+        long value = 0;
+        boolean negative = false;
+        boolean found = false;
+        for (int i = pos; i < end; i++) {
+            byte b = mBuffer[i];
+            if (b == '-' && !found) {
+                negative = true;
+            } else if (b >= '0' && b <= '9') {
+                value = value * 10 + (b - '0');
+                found = true;
+            } else if (found) {
+                break;
+            }
+        }
+        if (!found) {
+            return defValue;
+        }
+        return negative ? -value : value;
+    }
+
+    private int readFile(String path) {
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(path);
+            int total = 0;
+            int n;
+            while (total < mBuffer.length
+                    && (n = in.read(mBuffer, total, mBuffer.length - total)) > 0) {
+                total += n;
+            }
+            return total;
+        } catch (IOException e) {
+            return -1;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * GlassPorts Performance Profiles
+ * CPU governor, frequency and memory settings applied as one unit
+ */
+
+package com.glassports.settings;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A named set of CPU governor, frequency limit, governor tunable, zram and
+ * swappiness values. OMAP4430 runs both Cortex-A9 cores from one clock at
+ * 300, 600, 800 or 1008 MHz.
+ */
+public class PerformanceProfile {
+
+    public static final String ID_BATTERY = "battery";
+    public static final String ID_BALANCED = "balanced";
+    public static final String ID_SUSTAINED = "sustained";
+
+    /** Matches the values init.glass.rc applies at boot */
+    public static final String DEFAULT_ID = ID_BALANCED;
+
+    public final String id;
+    public final int titleRes;
+    public final int summaryRes;
+    public final String governor;
+    public final int minFreqKhz;
+    public final int maxFreqKhz;
+    public final Map<String, String> tunables;
+    public final int zramSizeMb;
+    public final int zramStreams;
+    public final int swappiness;
+
+    private PerformanceProfile(Builder builder) {
+        id = builder.mId;
+        titleRes = builder.mTitleRes;
+        summaryRes = builder.mSummaryRes;
+        governor = builder.mGovernor;
+        minFreqKhz = builder.mMinFreqKhz;
+        maxFreqKhz = builder.mMaxFreqKhz;
+        tunables = Collections.unmodifiableMap(builder.mTunables);
+        zramSizeMb = builder.mZramSizeMb;
+        zramStreams = builder.mZramStreams;
+        swappiness = builder.mSwappiness;
+    }
+
+    private static final PerformanceProfile[] PROFILES = {
+            // Long idle periods: cap at 600 MHz, ramp late, swap eagerly
+            new Builder(ID_BATTERY, R.string.profile_battery_title,
+                    R.string.profile_battery_summary)
+                    .governor("interactive")
+                    .frequency(300000, 600000)
+                    .tunable("hispeed_freq", "600000")
+                    .tunable("go_hispeed_load", "99")
+                    .tunable("timer_rate", "40000")
+                    .tunable("min_sample_time", "40000")
+                    .zram(384, 1)
+                    .swappiness(100)
+                    .build(),
+
+            new Builder(ID_BALANCED, R.string.profile_balanced_title,
+                    R.string.profile_balanced_summary)
+                    .governor("interactive")
+                    .frequency(300000, 1008000)
+                    .tunable("hispeed_freq", "800000")
+                    .tunable("go_hispeed_load", "85")
+                    .tunable("timer_rate", "20000")
+                    .tunable("min_sample_time", "80000")
+                    .zram(256, 2)
+                    .swappiness(60)
+                    .build(),
+
+            // Hotspot or camera sessions: hold 600-800 MHz, which the
+            // device can sustain without hitting thermal throttling
+            new Builder(ID_SUSTAINED, R.string.profile_sustained_title,
+                    R.string.profile_sustained_summary)
+                    .governor("interactive")
+                    .frequency(600000, 800000)
+                    .tunable("hispeed_freq", "800000")
+                    .tunable("go_hispeed_load", "70")
+                    .tunable("timer_rate", "20000")
+                    .tunable("min_sample_time", "80000")
+                    .zram(256, 2)
+                    .swappiness(40)
+                    .build(),
+    };
+
+    /**
+     * @return all built-in profiles, in display order
+     */
+    public static PerformanceProfile[] getProfiles() {
+        return PROFILES.clone();
+    }
+
+    /**
+     * @return profile with the given id, or null
+     */
+    public static PerformanceProfile get(String id) {
+        for (PerformanceProfile profile : PROFILES) {
+            if (profile.id.equals(id)) {
+                return profile;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Builder for profiles
+     */
+    static class Builder {
+        private final String mId;
+        private final int mTitleRes;
+        private final int mSummaryRes;
+        private String mGovernor = "interactive";
+        private int mMinFreqKhz;
+        private int mMaxFreqKhz;
+        private final Map<String, String> mTunables = new LinkedHashMap<>();
+        private int mZramSizeMb;
+        private int mZramStreams;
+        private int mSwappiness;
+
+        Builder(String id, int titleRes, int summaryRes) {
+            mId = id;
+            mTitleRes = titleRes;
+            mSummaryRes = summaryRes;
+        }
+
+        Builder governor(String governor) {
+            mGovernor = governor;
+            return this;
+        }
+
+        Builder frequency(int minKhz, int maxKhz) {
+            mMinFreqKhz = minKhz;
+            mMaxFreqKhz = maxKhz;
+            return this;
+        }
+
+        Builder tunable(String name, String value) {
+            mTunables.put(name, value);
+            return this;
+        }
+
+        Builder zram(int sizeMb, int streams) {
+            mZramSizeMb = sizeMb;
+            mZramStreams = streams;
+            return this;
+        }
+
+        Builder swappiness(int swappiness) {
+            mSwappiness = swappiness;
+            return this;
+        }
+
+        PerformanceProfile build() {
+            return new PerformanceProfile(this);
+        }
+    }
+}
@@ -0,0 +1,503 @@
+/*
+ * GlassPorts Performance Profile Service
+ * Applies CPU governor, frequency, zram and swappiness profiles at runtime
+ */
+
+package com.glassports.settings;
+
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.util.Log;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Service for switching performance profiles.
+ *
+ * A profile is applied as one unit: the current values of every node it
+ * touches are captured first, then the new values are written and read
+ * back. If any write or read-back fails the captured values are restored,
+ * so the device is never left half way between two profiles. zram is
+ * resized last, through init; if that fails the old size and stream
+ * count are put back the same way.
+ *
+ * The service is the only writer of scaling_min_freq and scaling_max_freq.
+ * The limits it writes are the active profile's, with the ceiling lowered
+ * to ThermalService's cap and the floor raised by the launcher's CpuBoost
+ * or this app's screen transitions for the length of a boost. They ask
+ * through setThermalCap, the ACTION_CPU_BOOST messenger and boost instead
+ * of writing the nodes, so a boost
+ * ending cannot put back a floor from before a profile change and a
+ * profile change cannot lift a thermal cap.
+ */
+public class PerformanceProfileService extends Service {
+    private static final String TAG = "GlassPerfProfile";
+
+    public static final String ACTION_RESTORE_PROFILE =
+            "com.glassports.settings.action.RESTORE_PROFILE";
+
+    /** Bind action for the boost messenger, used by the launcher */
+    public static final String ACTION_CPU_BOOST =
+            "com.glassports.settings.action.CPU_BOOST";
+    /** Messenger request: arg1 floor in kHz, arg2 duration in ms, 0 to end */
+    public static final int MSG_BOOST = 1;
+
+    private static final String PREFS = "performance";
+    private static final String PREF_PROFILE = "profile";
+    private static final String PREF_MEASURE_PREFIX = "measure_";
+
+    private static final String CPU_PATH = "/sys/devices/system/cpu/cpu%d/cpufreq/";
+    private static final String TUNABLE_PATH = "/sys/devices/system/cpu/cpufreq/%s/%s";
+    private static final String SWAPPINESS = "/proc/sys/vm/swappiness";
+    private static final String ZRAM_DISKSIZE = "/sys/block/zram0/disksize";
+    private static final String ZRAM_STREAMS = "/sys/block/zram0/max_comp_streams";
+
+    private static final String PROP_ZRAM_SIZE = "sys.glassports.zram.size";
+    private static final String PROP_ZRAM_STREAMS = "sys.glassports.zram.streams";
+    private static final String PROP_ZRAM_APPLY = "sys.glassports.zram.apply";
+    private static final long ZRAM_TIMEOUT_MS = 30000;
+
+    private static final int CPU_COUNT = PerfSampler.MAX_CPUS;
+    private static final int LOWEST_FREQ_KHZ = 300000;
+    /** Longest boost honoured, so a client that dies mid-boost cannot pin the floor */
+    private static final long MAX_BOOST_MS = 1000;
+
+    private HandlerThread mWorkerThread;
+    private Handler mWorker;
+    private HandlerThread mLimitsThread;
+    private Handler mLimits;
+    private Messenger mBoostMessenger;
+    private Handler mMainHandler;
+    private SharedPreferences mPrefs;
+
+    private final IBinder mBinder = new ProfileBinder();
+
+    // Frequency limit inputs, guarded by mLimitsLock. Held from the first
+    // limit write of a profile change through its read-back.
+    private final Object mLimitsLock = new Object();
+    private PerformanceProfile mProfile;
+    private int mThermalCapKhz = ThermalPolicy.UNLIMITED;
+    private int mBoostFloorKhz;
+
+    private volatile int mEffectiveMinKhz;
+    private volatile int mEffectiveMaxKhz;
+
+    /**
+     * Called on the main thread when a profile change finishes
+     */
+    public interface ApplyCallback {
+        void onProfileApplied(String id, boolean success);
+    }
+
+    /**
+     * Called on the main thread when a workload measurement finishes
+     */
+    public interface MeasureCallback {
+        void onMeasured(String id, ProfileWorkload.Result result);
+    }
+
+    /**
+     * Binder class for local service binding
+     */
+    public class ProfileBinder extends Binder {
+        public PerformanceProfileService getService() {
+            return PerformanceProfileService.this;
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mPrefs = getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mWorkerThread = new HandlerThread("PerfProfileWorker");
+        mWorkerThread.start();
+        mWorker = new Handler(mWorkerThread.getLooper());
+        // Boosts and caps must not wait behind a zram resize or a
+        // measurement on the worker
+        mLimitsThread = new HandlerThread("PerfLimits");
+        mLimitsThread.start();
+        mLimits = new Handler(mLimitsThread.getLooper(), this::handleLimitsMessage);
+        mBoostMessenger = new Messenger(mLimits);
+
+        PerformanceProfile profile = PerformanceProfile.get(getActiveProfileId());
+        mProfile = profile != null ? profile
+                : PerformanceProfile.get(PerformanceProfile.DEFAULT_ID);
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mWorkerThread.quitSafely();
+        mLimits.post(mBoostExpiry);
+        mLimitsThread.quitSafely();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        if (ACTION_CPU_BOOST.equals(intent.getAction())) {
+            return mBoostMessenger.getBinder();
+        }
+        return mBinder;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_RESTORE_PROFILE.equals(intent.getAction())) {
+            String id = getActiveProfileId();
+            if (!PerformanceProfile.DEFAULT_ID.equals(id)) {
+                // init already applied the default profile
+                applyProfile(id, (profileId, success) -> stopSelf(startId));
+                return START_NOT_STICKY;
+            }
+        }
+        stopSelf(startId);
+        return START_NOT_STICKY;
+    }
+
+    /**
+     * @return id of the last successfully applied profile
+     */
+    public String getActiveProfileId() {
+        return mPrefs.getString(PREF_PROFILE, PerformanceProfile.DEFAULT_ID);
+    }
+
+    /**
+     * @return last measurement for a profile, or null if never measured
+     */
+    public ProfileWorkload.Result getMeasurement(String id) {
+        String value = mPrefs.getString(PREF_MEASURE_PREFIX + id, null);
+        if (value == null) {
+            return null;
+        }
+        String[] parts = value.split(",");
+        try {
+            return new ProfileWorkload.Result(Float.parseFloat(parts[0]),
+                    Float.parseFloat(parts[1]), Long.parseLong(parts[2]));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return scaling_min_freq last written, 0 before the first write
+     */
+    public int getEffectiveMinFreqKhz() {
+        return mEffectiveMinKhz;
+    }
+
+    /**
+     * @return scaling_max_freq last written, 0 before the first write
+     */
+    public int getEffectiveMaxFreqKhz() {
+        return mEffectiveMaxKhz;
+    }
+
+    /**
+     * Lower the ceiling to capKhz, or ThermalPolicy.UNLIMITED for the
+     * profile's. Writes the limits again even if the cap is unchanged, in
+     * case something outside this service wrote over them.
+     */
+    public void setThermalCap(int capKhz) {
+        synchronized (mLimitsLock) {
+            mThermalCapKhz = capKhz;
+            applyLimitsLocked();
+        }
+    }
+
+    /**
+     * Raise the floor to floorKhz for durationMs, for callers in this
+     * process. Same as a MSG_BOOST through the messenger.
+     */
+    public void boost(int floorKhz, long durationMs) {
+        mLimits.obtainMessage(MSG_BOOST, floorKhz, (int) durationMs).sendToTarget();
+    }
+
+    private boolean handleLimitsMessage(Message msg) {
+        if (msg.what != MSG_BOOST) {
+            return false;
+        }
+        mLimits.removeCallbacks(mBoostExpiry);
+        synchronized (mLimitsLock) {
+            mBoostFloorKhz = msg.arg2 > 0 ? msg.arg1 : 0;
+            applyLimitsLocked();
+        }
+        if (msg.arg2 > 0) {
+            mLimits.postDelayed(mBoostExpiry, Math.min(msg.arg2, MAX_BOOST_MS));
+        }
+        return true;
+    }
+
+    private final Runnable mBoostExpiry = () -> {
+        synchronized (mLimitsLock) {
+            if (mBoostFloorKhz != 0) {
+                mBoostFloorKhz = 0;
+                applyLimitsLocked();
+            }
+        }
+    };
+
+    /**
+     * Apply a profile on the worker thread
+     */
+    public void applyProfile(final String id, final ApplyCallback callback) {
+        mWorker.post(() -> {
+            PerformanceProfile profile = PerformanceProfile.get(id);
+            boolean success = profile != null && applyAtomically(profile);
+            if (success) {
+                mPrefs.edit().putString(PREF_PROFILE, id).apply();
+            }
+            if (callback != null) {
+                mMainHandler.post(() -> callback.onProfileApplied(id, success));
+            }
+        });
+    }
+
+    /**
+     * Run the built-in workload under the active profile
+     */
+    public void measureActiveProfile(final MeasureCallback callback) {
+        mWorker.post(() -> {
+            final String id = getActiveProfileId();
+            final ProfileWorkload.Result result = ProfileWorkload.run();
+            Log.i(TAG, "Profile " + id + ": cpu=" + result.cpuMops + " Mops/s, mem="
+                    + result.memoryMbps + " MB/s");
+            mPrefs.edit().putString(PREF_MEASURE_PREFIX + id, result.cpuMops + ","
+                    + result.memoryMbps + "," + result.elapsedMs).apply();
+            if (callback != null) {
+                mMainHandler.post(() -> callback.onMeasured(id, result));
+            }
+        });
+    }
+
+    private boolean applyAtomically(PerformanceProfile profile) {
+        Log.i(TAG, "Applying profile " + profile.id);
+        Map<String, String> saved = captureNodes(profile);
+        long savedZramBytes = SysfsUtils.readLong(ZRAM_DISKSIZE, -1);
+        long savedZramStreams = SysfsUtils.readLong(ZRAM_STREAMS, -1);
+        boolean zramChanged = false;
+        PerformanceProfile previous;
+
+        boolean ok;
+        synchronized (mLimitsLock) {
+            previous = mProfile;
+            ok = writeCpu(profile)
+                    && SysfsUtils.write(SWAPPINESS, String.valueOf(profile.swappiness))
+                    && verify(profile);
+            if (ok) {
+                // Caps and boosts from here on build on the new profile
+                mProfile = profile;
+            }
+        }
+
+        long zramBytes = profile.zramSizeMb * 1024L * 1024L;
+        if (ok && !zramMatches(zramBytes, profile.zramStreams)) {
+            zramChanged = true;
+            ok = applyZram(zramBytes, profile.zramStreams);
+        }
+
+        if (!ok) {
+            Log.e(TAG, "Profile " + profile.id + " failed, restoring previous values");
+            synchronized (mLimitsLock) {
+                mProfile = previous;
+                restoreNodes(saved);
+                applyLimitsLocked();
+            }
+            // A reset that timed out may still complete, so put the old
+            // size back even if the new one was never seen
+            if (zramChanged && savedZramBytes > 0 && savedZramStreams > 0
+                    && !applyZram(savedZramBytes, (int) savedZramStreams)) {
+                Log.e(TAG, "Could not restore zram to " + savedZramBytes + " bytes");
+            }
+        }
+        return ok;
+    }
+
+    /**
+     * Save the current value of every node the profile writes. The
+     * frequency limits are not saved: a restore writes the previous
+     * profile's effective limits, which takes in caps and boosts that
+     * changed since.
+     */
+    private Map<String, String> captureNodes(PerformanceProfile profile) {
+        // Insertion order is the restore order: governor, tunables
+        Map<String, String> saved = new LinkedHashMap<>();
+        for (int cpu = 0; cpu < CPU_COUNT; cpu++) {
+            saveNode(saved, String.format(CPU_PATH, cpu) + "scaling_governor");
+        }
+        for (String name : profile.tunables.keySet()) {
+            saveNode(saved, String.format(TUNABLE_PATH, profile.governor, name));
+        }
+        saveNode(saved, SWAPPINESS);
+        return saved;
+    }
+
+    private static void saveNode(Map<String, String> saved, String path) {
+        String value = SysfsUtils.read(path);
+        if (value != null) {
+            saved.put(path, value);
+        }
+    }
+
+    private void restoreNodes(Map<String, String> saved) {
+        for (Map.Entry<String, String> entry : saved.entrySet()) {
+            SysfsUtils.write(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Ceiling for a profile: its own, lowered to the thermal cap
+     */
+    private int effectiveMaxKhzLocked(PerformanceProfile profile) {
+        int maxKhz = profile.maxFreqKhz;
+        if (mThermalCapKhz != ThermalPolicy.UNLIMITED) {
+            maxKhz = Math.min(maxKhz, mThermalCapKhz);
+        }
+        return maxKhz;
+    }
+
+    /**
+     * Floor for a profile: its own, raised by an active boost, never above
+     * the ceiling
+     */
+    private int effectiveMinKhzLocked(PerformanceProfile profile) {
+        int minKhz = Math.max(profile.minFreqKhz, mBoostFloorKhz);
+        return Math.min(minKhz, effectiveMaxKhzLocked(profile));
+    }
+
+    private boolean applyLimitsLocked() {
+        return writeLimits(effectiveMinKhzLocked(mProfile), effectiveMaxKhzLocked(mProfile));
+    }
+
+    /**
+     * Write the limits to every online core, skipping cores that already
+     * have them
+     */
+    private boolean writeLimits(int minKhz, int maxKhz) {
+        boolean ok = true;
+        for (int cpu = 0; cpu < CPU_COUNT; cpu++) {
+            String base = String.format(CPU_PATH, cpu);
+            if (!new File(base).exists()) {
+                // Offline core, it picks up the policy when it comes back
+                continue;
+            }
+            long currentMin = SysfsUtils.readLong(base + "scaling_min_freq", -1);
+            long currentMax = SysfsUtils.readLong(base + "scaling_max_freq", -1);
+            if (currentMin == minKhz && currentMax == maxKhz) {
+                continue;
+            }
+            // Lower the floor before moving the ceiling so min <= max holds
+            // at every step
+            if (currentMin > maxKhz || currentMin < 0) {
+                ok &= SysfsUtils.write(base + "scaling_min_freq",
+                        String.valueOf(LOWEST_FREQ_KHZ));
+            }
+            ok &= SysfsUtils.write(base + "scaling_max_freq", String.valueOf(maxKhz))
+                    & SysfsUtils.write(base + "scaling_min_freq", String.valueOf(minKhz));
+        }
+        mEffectiveMinKhz = minKhz;
+        mEffectiveMaxKhz = maxKhz;
+        return ok;
+    }
+
+    /**
+     * Write the profile's governor, limits and tunables. Called with
+     * mLimitsLock held.
+     */
+    private boolean writeCpu(PerformanceProfile profile) {
+        for (int cpu = 0; cpu < CPU_COUNT; cpu++) {
+            String base = String.format(CPU_PATH, cpu);
+            if (new File(base).exists()
+                    && !SysfsUtils.write(base + "scaling_governor", profile.governor)) {
+                return false;
+            }
+        }
+        if (!writeLimits(effectiveMinKhzLocked(profile), effectiveMaxKhzLocked(profile))) {
+            return false;
+        }
+        for (Map.Entry<String, String> entry : profile.tunables.entrySet()) {
+            if (!SysfsUtils.write(String.format(TUNABLE_PATH, profile.governor,
+                    entry.getKey()), entry.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read back every CPU and VM value that was written. The limits are
+     * checked against the effective ones, which is what writeCpu wrote
+     * while thermal mitigation or a boost is active. Called with
+     * mLimitsLock held.
+     */
+    private boolean verify(PerformanceProfile profile) {
+        String minKhz = String.valueOf(effectiveMinKhzLocked(profile));
+        String maxKhz = String.valueOf(effectiveMaxKhzLocked(profile));
+        for (int cpu = 0; cpu < CPU_COUNT; cpu++) {
+            String base = String.format(CPU_PATH, cpu);
+            if (!new File(base).exists()) {
+                continue;
+            }
+            if (!verifyNode(base + "scaling_governor", profile.governor)
+                    || !verifyNode(base + "scaling_min_freq", minKhz)
+                    || !verifyNode(base + "scaling_max_freq", maxKhz)) {
+                return false;
+            }
+        }
+        for (Map.Entry<String, String> entry : profile.tunables.entrySet()) {
+            if (!verifyNode(String.format(TUNABLE_PATH, profile.governor, entry.getKey()),
+                    entry.getValue())) {
+                return false;
+            }
+        }
+        return verifyNode(SWAPPINESS, String.valueOf(profile.swappiness));
+    }
+
+    private static boolean verifyNode(String path, String expected) {
+        String actual = SysfsUtils.read(path);
+        if (!expected.equals(actual)) {
+            Log.e(TAG, "Verify failed for " + path + ": expected " + expected
+                    + ", read " + actual);
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean zramMatches(long sizeBytes, int streams) {
+        return SysfsUtils.readLong(ZRAM_DISKSIZE, -1) == sizeBytes
+                && SysfsUtils.readLong(ZRAM_STREAMS, -1) == streams;
+    }
+
+    /**
+     * Resize zram through init, which can swapoff, reset and mkswap the
+     * device. Swapped pages are faulted back into RAM during the swapoff.
+     */
+    private boolean applyZram(long sizeBytes, int streams) {
+        SystemProperties.set(PROP_ZRAM_SIZE, String.valueOf(sizeBytes));
+        SystemProperties.set(PROP_ZRAM_STREAMS, String.valueOf(streams));
+        SystemProperties.set(PROP_ZRAM_APPLY, String.valueOf(SystemClock.elapsedRealtime()));
+
+        long deadline = SystemClock.elapsedRealtime() + ZRAM_TIMEOUT_MS;
+        while (SystemClock.elapsedRealtime() < deadline) {
+            if (zramMatches(sizeBytes, streams)) {
+                return true;
+            }
+            SystemClock.sleep(250);
+        }
+        Log.e(TAG, "zram did not reach " + sizeBytes + " bytes/" + streams + " streams");
+        return false;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * GlassPorts Performance Settings
+ */
+
+package com.glassports.settings;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.view.KeyEvent;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.LinearLayout;
+import android.widget.RadioButton;
+import android.widget.TextView;
+
+/**
+ * Performance Settings Screen
+ * Select a system performance profile and measure its effect
+ */
+public class PerformanceSettingsScreen extends SettingsScreen {
+
+    private static final String KEY_PROFILE = "profile";
+
+    private PerformanceProfileService mService;
+    private ThermalService mThermalService;
+    private SettingsSnapshot mSnapshot;
+    private final PerformanceProfile[] mProfiles = PerformanceProfile.getProfiles();
+    private final View[] mRows = new View[mProfiles.length];
+
+    private TextView mStatusText;
+    private TextView mMeasureResult;
+    private TextView mThermalState;
+    private boolean mBusy;
+
+    public PerformanceSettingsScreen(GlassSettingsActivity host) {
+        super(host);
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_performance_settings);
+
+        mStatusText = findViewById(R.id.profile_status);
+        mMeasureResult = findViewById(R.id.measure_result);
+        mThermalState = findViewById(R.id.thermal_state);
+
+        LinearLayout list = findViewById(R.id.profile_list);
+        LayoutInflater inflater = LayoutInflater.from(this);
+        for (int i = 0; i < mProfiles.length; i++) {
+            final PerformanceProfile profile = mProfiles[i];
+            View row = inflater.inflate(R.layout.item_profile, list, false);
+            ((TextView) row.findViewById(R.id.profile_title)).setText(profile.titleRes);
+            row.setOnClickListener(v -> applyProfile(profile));
+            list.addView(row);
+            mRows[i] = row;
+        }
+
+        findViewById(R.id.measure_row).setOnClickListener(v -> measure());
+
+        // Draw the first frame from the last known profile until the
+        // service is bound
+        mSnapshot = SettingsSnapshot.load(this, "performance");
+        showActiveProfile(mSnapshot.getString(KEY_PROFILE, PerformanceProfile.DEFAULT_ID));
+
+        bindService(new Intent(this, PerformanceProfileService.class), mConnection,
+                Context.BIND_AUTO_CREATE);
+        bindService(new Intent(this, ThermalService.class), mThermalConnection,
+                Context.BIND_AUTO_CREATE);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (mThermalService != null) {
+            showThermalState(mThermalService.getLevel(), mThermalService.getTemperatureMc());
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        unbindService(mConnection);
+        if (mThermalService != null) {
+            mThermalService.removeListener(mThermalListener);
+        }
+        unbindService(mThermalConnection);
+    }
+
+    private void updateState() {
+        if (mService == null) {
+            return;
+        }
+        String activeId = mService.getActiveProfileId();
+        showActiveProfile(activeId);
+        mSnapshot.putString(KEY_PROFILE, activeId);
+        mSnapshot.saveAsync();
+    }
+
+    private void showActiveProfile(String activeId) {
+        for (int i = 0; i < mProfiles.length; i++) {
+            PerformanceProfile profile = mProfiles[i];
+            View row = mRows[i];
+            ((RadioButton) row.findViewById(R.id.profile_selected))
+                    .setChecked(profile.id.equals(activeId));
+
+            String summary = getString(profile.summaryRes);
+            ProfileWorkload.Result result =
+                    mService != null ? mService.getMeasurement(profile.id) : null;
+            if (result != null) {
+                summary += "\n" + formatResult(result);
+            }
+            ((TextView) row.findViewById(R.id.profile_summary)).setText(summary);
+
+            if (profile.id.equals(activeId) && !mBusy) {
+                mStatusText.setText(getString(R.string.profile_applied,
+                        getString(profile.titleRes)));
+            }
+        }
+    }
+
+    private void applyProfile(final PerformanceProfile profile) {
+        if (mService == null || mBusy) {
+            return;
+        }
+        mBusy = true;
+        mStatusText.setText(R.string.profile_applying);
+        mService.applyProfile(profile.id, (id, success) -> {
+            mBusy = false;
+            updateState();
+            if (!success) {
+                mStatusText.setText(getString(R.string.profile_failed,
+                        getString(profile.titleRes)));
+            }
+        });
+    }
+
+    private void measure() {
+        if (mService == null || mBusy) {
+            return;
+        }
+        mBusy = true;
+        mMeasureResult.setText(R.string.profile_measuring);
+        mService.measureActiveProfile((id, result) -> {
+            mBusy = false;
+            mMeasureResult.setText(formatResult(result));
+            updateState();
+        });
+    }
+
+    private void showThermalState(int level, int tempMc) {
+        if (tempMc == Integer.MIN_VALUE) {
+            mThermalState.setText(R.string.thermal_unknown);
+            return;
+        }
+        String[] levels = getResources().getStringArray(R.array.thermal_levels);
+        mThermalState.setText(getString(R.string.thermal_state, tempMc / 1000f, levels[level]));
+    }
+
+    private final ThermalService.ThermalListener mThermalListener = this::showThermalState;
+
+    private String formatResult(ProfileWorkload.Result result) {
+        return getString(R.string.profile_measure_result, result.cpuMops, result.memoryMbps);
+    }
+
+    private final ServiceConnection mConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            mService = ((PerformanceProfileService.ProfileBinder) service).getService();
+            updateState();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mService = null;
+        }
+    };
+
+    private final ServiceConnection mThermalConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            mThermalService = ((ThermalService.ThermalBinder) service).getService();
+            mThermalService.addListener(mThermalListener);
+            showThermalState(mThermalService.getLevel(), mThermalService.getTemperatureMc());
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mThermalService = null;
+        }
+    };
+
+    @Override
+    public boolean onKeyDown(int keyCode, KeyEvent event) {
+        if (keyCode == KeyEvent.KEYCODE_BACK) {
+            finish();
+            return true;
+        }
+        return super.onKeyDown(keyCode, event);
+    }
+}
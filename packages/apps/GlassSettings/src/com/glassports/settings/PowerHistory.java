@@ -0,0 +1,220 @@
+/*
+ * GlassPorts Power History
+ * Fixed-size binary ring file of battery and radio state samples
+ */
+
+package com.glassports.settings;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Power history ring file.
+ *
+ * Layout, little endian:
+ *   header (32 bytes): magic "GPPH", version, record size, capacity,
+ *                      next write slot, record count, reserved
+ *   capacity records (12 bytes each):
+ *     int   time, seconds since the epoch
+ *     short battery current, mA (negative while discharging)
+ *     short battery voltage, mV
+ *     short battery temperature, 0.1 C
+ *     byte  battery level, percent
+ *     byte  FLAG_* state bits
+ *
+ * The file is preallocated to its full size, so the writer only ever
+ * overwrites 12 record bytes and 8 header bytes, and readers can map it
+ * once and index records in place without decoding them into objects.
+ * The record is written before the header, so a crash at worst loses the
+ * newest sample.
+ */
+public final class PowerHistory {
+    private static final String TAG = "GlassPowerHistory";
+
+    public static final int FLAG_SCREEN_ON = 1;
+    public static final int FLAG_CHARGING = 1 << 1;
+    public static final int FLAG_WIFI_ON = 1 << 2;
+    public static final int FLAG_WIFI_CONNECTED = 1 << 3;
+    public static final int FLAG_HOTSPOT_ON = 1 << 4;
+
+    private static final int MAGIC = 0x48505047; // "GPPH" read little endian
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 12;
+
+    private static final int OFFSET_NEXT = 16;
+    private static final int OFFSET_COUNT = 20;
+
+    /** About a week at the screen-off rate, a few days of active use */
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    private PowerHistory() {
+    }
+
+    /**
+     * Appends samples to the ring. Not thread safe; use from one thread.
+     */
+    public static final class Writer {
+        private final RandomAccessFile mFile;
+        private final FileChannel mChannel;
+        private final int mCapacity;
+        private final ByteBuffer mRecord =
+                ByteBuffer.allocateDirect(RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private final ByteBuffer mIndex =
+                ByteBuffer.allocateDirect(8).order(ByteOrder.LITTLE_ENDIAN);
+        private int mNext;
+        private int mCount;
+
+        /**
+         * Open the ring, creating or recreating it if missing or incompatible
+         */
+        public Writer(File file, int capacity) throws IOException {
+            mFile = new RandomAccessFile(file, "rw");
+            mChannel = mFile.getChannel();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            boolean valid = mChannel.size() == HEADER_SIZE + (long) capacity * RECORD_SIZE
+                    && mChannel.read(header, 0) == HEADER_SIZE
+                    && header.getInt(0) == MAGIC
+                    && header.getInt(4) == VERSION
+                    && header.getInt(8) == RECORD_SIZE
+                    && header.getInt(12) == capacity;
+            mCapacity = capacity;
+            if (valid) {
+                mNext = header.getInt(OFFSET_NEXT);
+                mCount = header.getInt(OFFSET_COUNT);
+                valid = mNext >= 0 && mNext < capacity && mCount >= 0 && mCount <= capacity;
+            }
+            if (!valid) {
+                Log.i(TAG, "Creating power history " + file + ", " + capacity + " records");
+                mFile.setLength(0);
+                mFile.setLength(HEADER_SIZE + (long) capacity * RECORD_SIZE);
+                header.clear();
+                header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putInt(capacity)
+                        .putInt(0).putInt(0).putLong(0);
+                header.flip();
+                mChannel.write(header, 0);
+                mNext = 0;
+                mCount = 0;
+            }
+        }
+
+        public void append(long timeMs, int currentMa, int voltageMv, int tempDeciC,
+                           int level, int flags) throws IOException {
+            mRecord.clear();
+            mRecord.putInt((int) (timeMs / 1000));
+            mRecord.putShort(clampShort(currentMa));
+            mRecord.putShort(clampShort(voltageMv));
+            mRecord.putShort(clampShort(tempDeciC));
+            mRecord.put((byte) Math.max(0, Math.min(100, level)));
+            mRecord.put((byte) flags);
+            mRecord.flip();
+            mChannel.write(mRecord, HEADER_SIZE + (long) mNext * RECORD_SIZE);
+
+            mNext = (mNext + 1) % mCapacity;
+            mCount = Math.min(mCount + 1, mCapacity);
+            mIndex.clear();
+            mIndex.putInt(mNext).putInt(mCount);
+            mIndex.flip();
+            mChannel.write(mIndex, OFFSET_NEXT);
+        }
+
+        public void close() {
+            try {
+                mFile.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        private static short clampShort(int value) {
+            return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+        }
+    }
+
+    /**
+     * Read-only memory map of the ring; index 0 is the oldest sample.
+     * Accessors read straight from the mapping and allocate nothing.
+     */
+    public static final class Reader {
+        private final MappedByteBuffer mBuffer;
+        private final int mCapacity;
+
+        private Reader(MappedByteBuffer buffer) {
+            mBuffer = buffer;
+            mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+            mCapacity = mBuffer.getInt(12);
+        }
+
+        /**
+         * Map a ring file
+         *
+         * @return the reader, or null if the file is missing or not a ring
+         */
+        public static Reader open(File file) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                FileChannel channel = raf.getChannel();
+                if (channel.size() < HEADER_SIZE) {
+                    return null;
+                }
+                // The mapping stays valid after the channel is closed
+                MappedByteBuffer buffer = channel.map(
+                        FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                        || buffer.getInt(8) != RECORD_SIZE
+                        || channel.size() != HEADER_SIZE + (long) buffer.getInt(12) * RECORD_SIZE) {
+                    return null;
+                }
+                return new Reader(buffer);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Number of samples; re-read on every call, so the map follows the
+         * writer without being reopened
+         */
+        public int size() {
+            return Math.min(mBuffer.getInt(OFFSET_COUNT), mCapacity);
+        }
+
+        public long getTimeMs(int index) {
+            return (mBuffer.getInt(offset(index)) & 0xFFFFFFFFL) * 1000;
+        }
+
+        public int getCurrentMa(int index) {
+            return mBuffer.getShort(offset(index) + 4);
+        }
+
+        public int getVoltageMv(int index) {
+            return mBuffer.getShort(offset(index) + 6);
+        }
+
+        public int getTempDeciC(int index) {
+            return mBuffer.getShort(offset(index) + 8);
+        }
+
+        public int getLevel(int index) {
+            return mBuffer.get(offset(index) + 10);
+        }
+
+        public int getFlags(int index) {
+            return mBuffer.get(offset(index) + 11) & 0xFF;
+        }
+
+        private int offset(int index) {
+            int count = size();
+            int next = mBuffer.getInt(OFFSET_NEXT);
+            int slot = (next - count + index + mCapacity) % mCapacity;
+            return HEADER_SIZE + slot * RECORD_SIZE;
+        }
+    }
+}
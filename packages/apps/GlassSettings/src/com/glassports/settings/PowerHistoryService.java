@@ -0,0 +1,281 @@
+/*
+ * GlassPorts Power History Service
+ * Records battery and radio state into the power history ring
+ */
+
+package com.glassports.settings;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.glassports.wifiap.WifiApManager;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Power History Service
+ *
+ * Samples /sys/class/power_supply and screen, WiFi and hotspot state at an
+ * adaptive rate: every 30 s with the screen on, every 5 min with it off,
+ * and 15 s after any sample that moved noticeably, so drain events get
+ * detail while idle periods cost a wakeup every few minutes. State
+ * changes (screen, charger, WiFi, hotspot) are recorded immediately.
+ * Samples go into PowerHistory, a fixed-size ring file.
+ *
+ * The hotspot is GlassPorts' own WifiApService, not the framework's
+ * tethering, so its state comes from WifiApManager and its changes from
+ * the service's broadcast.
+ */
+public class PowerHistoryService extends Service {
+    private static final String TAG = "GlassPowerHistory";
+
+    public static final String HISTORY_FILE = "power_history";
+
+    private static final String ACTION_SAMPLE = "com.glassports.settings.action.POWER_SAMPLE";
+    private static final String ACTION_WIFI_AP_STATE_CHANGED =
+            "com.glassports.wifiap.WIFI_AP_STATE_CHANGED";
+
+    private static final String POWER_SUPPLY = "/sys/class/power_supply";
+
+    private static final long FAST_INTERVAL_MS = 15 * 1000;
+    private static final long SCREEN_ON_INTERVAL_MS = 30 * 1000;
+    private static final long SCREEN_OFF_INTERVAL_MS = 5 * 60 * 1000;
+
+    /** Current change that makes the next sample come sooner */
+    private static final int CURRENT_STEP_MA = 50;
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private AlarmManager mAlarmManager;
+    private PowerManager mPowerManager;
+    private WifiManager mWifiManager;
+    private WifiApManager mWifiApManager;
+    /** Set on the main thread from WifiApManager */
+    private volatile boolean mHotspotOn;
+    /** Alarm before API 24, which has no OnAlarmListener */
+    private PendingIntent mAlarmIntent;
+    private AlarmManager.OnAlarmListener mAlarmListener;
+    private PowerHistory.Writer mWriter;
+
+    private String mBatteryPath;
+    private int mLastLevel = -1;
+    private int mLastCurrentMa;
+    private int mLastFlags = -1;
+
+    public static File getHistoryFile(Context context) {
+        return new File(context.getFilesDir(), HISTORY_FILE);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        mAlarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+        mPowerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        mWifiManager = (WifiManager) getSystemService(Context.WIFI_SERVICE);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            mAlarmIntent = PendingIntent.getService(this, 0,
+                    new Intent(this, PowerHistoryService.class).setAction(ACTION_SAMPLE),
+                    PendingIntent.FLAG_UPDATE_CURRENT);
+        } else {
+            mAlarmListener = this::sample;
+        }
+
+        mThread = new HandlerThread("PowerHistory");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_SCREEN_OFF);
+        filter.addAction(Intent.ACTION_POWER_CONNECTED);
+        filter.addAction(Intent.ACTION_POWER_DISCONNECTED);
+        filter.addAction(WifiManager.WIFI_STATE_CHANGED_ACTION);
+        filter.addAction(WifiManager.NETWORK_STATE_CHANGED_ACTION);
+        filter.addAction(ACTION_WIFI_AP_STATE_CHANGED);
+        registerReceiver(mStateReceiver, filter, null, mHandler);
+
+        mWifiApManager = new WifiApManager(this);
+        mWifiApManager.setWifiApStateListener(state -> {
+            mHotspotOn = mWifiApManager.isWifiApEnabled();
+            scheduleSample();
+        });
+        mWifiApManager.bind();
+
+        mHandler.post(() -> {
+            mBatteryPath = findBattery();
+            try {
+                mWriter = new PowerHistory.Writer(getHistoryFile(this),
+                        PowerHistory.DEFAULT_CAPACITY);
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot open power history: " + e.getMessage());
+                stopSelf();
+                return;
+            }
+            sample();
+        });
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_SAMPLE.equals(intent.getAction())) {
+            mHandler.post(mSampleRunnable);
+        }
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        unregisterReceiver(mStateReceiver);
+        mWifiApManager.setWifiApStateListener(null);
+        mWifiApManager.unbind();
+        cancelAlarm();
+        mHandler.post(() -> {
+            if (mWriter != null) {
+                mWriter.close();
+            }
+            mThread.quitSafely();
+        });
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    /**
+     * Record one sample and schedule the next, runs on the sampler thread
+     */
+    private void sample() {
+        if (mWriter == null) {
+            return;
+        }
+
+        int level = -1;
+        int currentMa = 0;
+        int voltageMv = 0;
+        int tempDeciC = 0;
+        if (mBatteryPath != null) {
+            level = (int) SysfsUtils.readLong(mBatteryPath + "/capacity", -1);
+            // Kernel reports uA and uV; sign convention is positive when charging
+            currentMa = (int) (SysfsUtils.readLong(mBatteryPath + "/current_now", 0) / 1000);
+            voltageMv = (int) (SysfsUtils.readLong(mBatteryPath + "/voltage_now", 0) / 1000);
+            tempDeciC = (int) SysfsUtils.readLong(mBatteryPath + "/temp", 0);
+        }
+        int flags = readFlags();
+
+        try {
+            mWriter.append(System.currentTimeMillis(), currentMa, voltageMv, tempDeciC,
+                    level, flags);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to record sample: " + e.getMessage());
+        }
+
+        boolean moved = mLastLevel >= 0
+                && (level != mLastLevel || flags != mLastFlags
+                        || Math.abs(currentMa - mLastCurrentMa) >= CURRENT_STEP_MA);
+        mLastLevel = level;
+        mLastCurrentMa = currentMa;
+        mLastFlags = flags;
+
+        long interval;
+        if (moved) {
+            interval = FAST_INTERVAL_MS;
+        } else if ((flags & PowerHistory.FLAG_SCREEN_ON) != 0) {
+            interval = SCREEN_ON_INTERVAL_MS;
+        } else {
+            interval = SCREEN_OFF_INTERVAL_MS;
+        }
+
+        cancelAlarm();
+        long when = SystemClock.elapsedRealtime() + interval;
+        if (mAlarmIntent != null) {
+            mAlarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, when, mAlarmIntent);
+        } else {
+            mAlarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, when, TAG, mAlarmListener,
+                    mHandler);
+        }
+    }
+
+    private void cancelAlarm() {
+        if (mAlarmIntent != null) {
+            mAlarmManager.cancel(mAlarmIntent);
+        } else {
+            mAlarmManager.cancel(mAlarmListener);
+        }
+    }
+
+    private int readFlags() {
+        int flags = 0;
+        if (mPowerManager.isInteractive()) {
+            flags |= PowerHistory.FLAG_SCREEN_ON;
+        }
+        if (mBatteryPath != null) {
+            String status = SysfsUtils.read(mBatteryPath + "/status");
+            if ("Charging".equals(status) || "Full".equals(status)) {
+                flags |= PowerHistory.FLAG_CHARGING;
+            }
+        }
+        if (mWifiManager.isWifiEnabled()) {
+            flags |= PowerHistory.FLAG_WIFI_ON;
+            WifiInfo info = mWifiManager.getConnectionInfo();
+            if (info != null && info.getNetworkId() != -1) {
+                flags |= PowerHistory.FLAG_WIFI_CONNECTED;
+            }
+        }
+        if (mHotspotOn) {
+            flags |= PowerHistory.FLAG_HOTSPOT_ON;
+        }
+        return flags;
+    }
+
+    /**
+     * Find the power supply of type Battery
+     */
+    private static String findBattery() {
+        String[] supplies = new File(POWER_SUPPLY).list();
+        if (supplies != null) {
+            for (String supply : supplies) {
+                String path = POWER_SUPPLY + "/" + supply;
+                if ("Battery".equals(SysfsUtils.read(path + "/type"))) {
+                    return path;
+                }
+            }
+        }
+        Log.w(TAG, "No battery power supply found");
+        return null;
+    }
+
+    /**
+     * Sample shortly; bursts of state changes collapse into one sample
+     */
+    private void scheduleSample() {
+        mHandler.removeCallbacks(mSampleRunnable);
+        mHandler.postDelayed(mSampleRunnable, 500);
+    }
+
+    private final BroadcastReceiver mStateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            scheduleSample();
+        }
+    };
+
+    private final Runnable mSampleRunnable = this::sample;
+}
@@ -0,0 +1,124 @@
+/*
+ * GlassPorts Power History Chart
+ */
+
+package com.glassports.settings;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Chart of battery level over a time window, drawn straight from the
+ * mapped PowerHistory ring. Screen-on periods are shaded and hotspot
+ * periods are marked along the bottom edge. Drawing allocates nothing.
+ */
+public class PowerHistoryView extends View {
+
+    private static final long DEFAULT_WINDOW_MS = 24 * 60 * 60 * 1000L;
+
+    /** A gap longer than this (device off) breaks the line */
+    private static final long MAX_GAP_MS = 30 * 60 * 1000L;
+
+    private final Paint mLevelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mScreenPaint = new Paint();
+    private final Paint mHotspotPaint = new Paint();
+    private final Paint mGridPaint = new Paint();
+    private final Path mLevelPath = new Path();
+
+    private PowerHistory.Reader mReader;
+    private long mWindowMs = DEFAULT_WINDOW_MS;
+
+    public PowerHistoryView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+
+        float density = getResources().getDisplayMetrics().density;
+        mLevelPaint.setColor(0xFFFFFFFF);
+        mLevelPaint.setStyle(Paint.Style.STROKE);
+        mLevelPaint.setStrokeWidth(2 * density);
+        mScreenPaint.setColor(0xFF303030);
+        mHotspotPaint.setColor(0xFF4FC3F7);
+        mGridPaint.setColor(0xFF606060);
+        mGridPaint.setStrokeWidth(density);
+    }
+
+    public void setReader(PowerHistory.Reader reader) {
+        mReader = reader;
+        invalidate();
+    }
+
+    public void setWindow(long windowMs) {
+        mWindowMs = windowMs;
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        float width = getWidth();
+        float height = getHeight();
+        float barHeight = height / 20;
+        float chartHeight = height - barHeight;
+
+        // 0, 50 and 100 percent
+        canvas.drawLine(0, 0, width, 0, mGridPaint);
+        canvas.drawLine(0, chartHeight / 2, width, chartHeight / 2, mGridPaint);
+        canvas.drawLine(0, chartHeight, width, chartHeight, mGridPaint);
+
+        PowerHistory.Reader reader = mReader;
+        if (reader == null) {
+            return;
+        }
+        int size = reader.size();
+        if (size == 0) {
+            return;
+        }
+
+        long end = System.currentTimeMillis();
+        long start = end - mWindowMs;
+        float scale = width / mWindowMs;
+
+        mLevelPath.reset();
+        boolean penDown = false;
+        long prevTime = 0;
+        for (int i = 0; i < size; i++) {
+            long time = reader.getTimeMs(i);
+            if (time < start) {
+                continue;
+            }
+            float x = (time - start) * scale;
+
+            // Shade the interval up to the next sample by its state
+            if (i + 1 < size) {
+                long next = Math.min(reader.getTimeMs(i + 1), end);
+                if (next - time <= MAX_GAP_MS) {
+                    float nextX = (next - start) * scale;
+                    int flags = reader.getFlags(i);
+                    if ((flags & PowerHistory.FLAG_SCREEN_ON) != 0) {
+                        canvas.drawRect(x, 0, nextX, chartHeight, mScreenPaint);
+                    }
+                    if ((flags & PowerHistory.FLAG_HOTSPOT_ON) != 0) {
+                        canvas.drawRect(x, chartHeight, nextX, height, mHotspotPaint);
+                    }
+                }
+            }
+
+            int level = reader.getLevel(i);
+            if (level < 0) {
+                penDown = false;
+                continue;
+            }
+            float y = chartHeight - chartHeight * level / 100f;
+            if (penDown && time - prevTime <= MAX_GAP_MS) {
+                mLevelPath.lineTo(x, y);
+            } else {
+                mLevelPath.moveTo(x, y);
+            }
+            penDown = true;
+            prevTime = time;
+        }
+        canvas.drawPath(mLevelPath, mLevelPaint);
+    }
+}
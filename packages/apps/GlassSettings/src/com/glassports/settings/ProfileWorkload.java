@@ -0,0 +1,116 @@
+/*
+ * GlassPorts Profile Workload
+ * Short CPU and memory workload used to compare performance profiles
+ */
+
+package com.glassports.settings;
+
+import android.os.SystemClock;
+
+/**
+ * Fixed-duration CPU and memory workload. The CPU phase runs one integer
+ * hashing loop per core, the memory phase copies a buffer larger than the
+ * L2 cache, so both scale with the frequency and governor behaviour a
+ * profile selects.
+ */
+public class ProfileWorkload {
+
+    private static final long CPU_PHASE_MS = 2000;
+    private static final long MEMORY_PHASE_MS = 1000;
+    private static final int MEMORY_BUFFER_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * Workload result
+     */
+    public static class Result {
+        /** Million hash iterations per second, all cores */
+        public final float cpuMops;
+        /** Copy bandwidth in MB/s */
+        public final float memoryMbps;
+        /** Wall time of the whole run */
+        public final long elapsedMs;
+
+        Result(float cpuMops, float memoryMbps, long elapsedMs) {
+            this.cpuMops = cpuMops;
+            this.memoryMbps = memoryMbps;
+            this.elapsedMs = elapsedMs;
+        }
+    }
+
+    /**
+     * Run the workload on the calling thread plus one helper per extra core
+     */
+    public static Result run() {
+        long start = SystemClock.elapsedRealtime();
+        float cpu = runCpuPhase(Runtime.getRuntime().availableProcessors());
+        float memory = runMemoryPhase();
+        return new Result(cpu, memory, SystemClock.elapsedRealtime() - start);
+    }
+
+    private static float runCpuPhase(int threads) {
+        final long[] iterations = new long[threads];
+        Thread[] workers = new Thread[threads - 1];
+
+        for (int i = 0; i < workers.length; i++) {
+            final int slot = i + 1;
+            workers[i] = new Thread(() -> iterations[slot] = hashLoop(CPU_PHASE_MS));
+            workers[i].start();
+        }
+        iterations[0] = hashLoop(CPU_PHASE_MS);
+
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        long total = 0;
+        for (long count : iterations) {
+            total += count;
+        }
+        return total / (CPU_PHASE_MS * 1000f);
+    }
+
+    /**
+     * xorshift + multiply loop, checking the clock every 64k iterations
+     */
+    private static long hashLoop(long durationMs) {
+        long deadline = SystemClock.uptimeMillis() + durationMs;
+        long x = 0x9E3779B97F4A7C15L;
+        long count = 0;
+        while (true) {
+            for (int i = 0; i < 65536; i++) {
+                x ^= x << 13;
+                x ^= x >>> 7;
+                x ^= x << 17;
+                x *= 0x2545F4914F6CDD1DL;
+            }
+            count += 65536;
+            if (SystemClock.uptimeMillis() >= deadline) {
+                break;
+            }
+        }
+        // Keep the loop from being optimised away
+        return x == 0 ? count + 1 : count;
+    }
+
+    private static float runMemoryPhase() {
+        byte[] src = new byte[MEMORY_BUFFER_BYTES];
+        byte[] dst = new byte[MEMORY_BUFFER_BYTES];
+        for (int i = 0; i < src.length; i += 4096) {
+            src[i] = (byte) i;
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        long deadline = start + MEMORY_PHASE_MS;
+        long copied = 0;
+        while (SystemClock.elapsedRealtime() < deadline) {
+            System.arraycopy(src, 0, dst, 0, src.length);
+            copied += src.length;
+        }
+        long elapsed = Math.max(1, SystemClock.elapsedRealtime() - start);
+        return copied / (1024f * 1024f) * 1000f / elapsed;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * GlassPorts Settings background executor
+ */
+
+package com.glassports.settings;
+
+import android.os.Process;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared background executor for live state queries and snapshot writes.
+ * Two threads match the two cores; idle threads exit so the settings
+ * process holds no threads while nothing is pending.
+ */
+public final class SettingsExecutor {
+
+    private static final int THREADS = 2;
+    private static final long KEEP_ALIVE_SECONDS = 5;
+
+    private static final AtomicInteger sThreadCount = new AtomicInteger();
+
+    private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(
+            THREADS, THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            r -> new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                r.run();
+            }, "SettingsBg-" + sThreadCount.incrementAndGet()));
+
+    static {
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private SettingsExecutor() {
+    }
+
+    public static Executor get() {
+        return sExecutor;
+    }
+
+    public static void execute(Runnable task) {
+        sExecutor.execute(task);
+    }
+}
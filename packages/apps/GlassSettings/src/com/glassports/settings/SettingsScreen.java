@@ -0,0 +1,122 @@
+/*
+ * GlassPorts Settings Screen
+ * A settings page hosted as a view inside GlassSettingsActivity
+ */
+
+package com.glassports.settings;
+
+import android.content.ContextWrapper;
+import android.os.Bundle;
+import android.view.KeyEvent;
+import android.view.LayoutInflater;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * Base class for settings pages.
+ *
+ * Opening a separate activity per page costs a window, a theme inflation
+ * and a transition on every entry. Pages are instead view hierarchies
+ * swapped in and out of the single GlassSettingsActivity window, which
+ * keeps the most recently used ones alive so re-entering is only a
+ * visibility change.
+ *
+ * The class mirrors the subset of the Activity API the pages use. It is a
+ * ContextWrapper around the host activity, so receivers, services, dialogs
+ * and inflation behave as they did in an activity. Lifecycle:
+ *   onCreate   once, when first opened
+ *   onResume   each time it is shown while the host is resumed
+ *   onPause    each time it is hidden or the host pauses
+ *   onDestroy  when evicted from the cache or the host is destroyed
+ */
+public abstract class SettingsScreen extends ContextWrapper {
+
+    private final GlassSettingsActivity mHost;
+    private View mView;
+    private boolean mDestroyed;
+
+    protected SettingsScreen(GlassSettingsActivity host) {
+        super(host);
+        mHost = host;
+    }
+
+    protected void onCreate(Bundle savedInstanceState) {
+    }
+
+    protected void onResume() {
+    }
+
+    protected void onPause() {
+    }
+
+    protected void onDestroy() {
+    }
+
+    /**
+     * @return true if the key was handled
+     */
+    public boolean onKeyDown(int keyCode, KeyEvent event) {
+        return false;
+    }
+
+    /**
+     * Sees every touch event before the page's views do
+     *
+     * @return true to consume the event
+     */
+    public boolean dispatchTouchEvent(MotionEvent event) {
+        return false;
+    }
+
+    /**
+     * Touch events no view on the page handled
+     */
+    public boolean onTouchEvent(MotionEvent event) {
+        return false;
+    }
+
+    public void setContentView(int layoutRes) {
+        mView = LayoutInflater.from(this).inflate(layoutRes, mHost.getScreenContainer(), false);
+    }
+
+    public <T extends View> T findViewById(int id) {
+        return mView.findViewById(id);
+    }
+
+    /**
+     * Leave this page and return to wherever it was opened from
+     */
+    public void finish() {
+        mHost.closeScreen(this);
+    }
+
+    public boolean isDestroyed() {
+        return mDestroyed || mHost.isDestroyed();
+    }
+
+    public GlassSettingsActivity getHost() {
+        return mHost;
+    }
+
+    View getView() {
+        return mView;
+    }
+
+    final void performCreate() {
+        onCreate(null);
+        if (mView == null) {
+            throw new IllegalStateException(getClass().getSimpleName()
+                    + " did not call setContentView");
+        }
+        ViewGroup container = mHost.getScreenContainer();
+        mView.setVisibility(View.GONE);
+        container.addView(mView);
+    }
+
+    final void performDestroy() {
+        mDestroyed = true;
+        onDestroy();
+        mHost.getScreenContainer().removeView(mView);
+    }
+}
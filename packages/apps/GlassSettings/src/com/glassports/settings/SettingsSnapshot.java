@@ -0,0 +1,332 @@
+/*
+ * GlassPorts Settings Snapshot
+ * Last known state of a settings screen, used to draw its first frame
+ */
+
+package com.glassports.settings;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Small typed key/value snapshot stored in one file per screen.
+ *
+ * Screens read the snapshot synchronously in onCreate so the first frame
+ * shows the last known state, then query live state in the background and
+ * write back any differences. Files are written through AtomicFile, so a
+ * crash mid-write leaves the previous snapshot in place, and carry a CRC32
+ * so a damaged file is discarded instead of showing garbage.
+ *
+ * Every load of a file in this process returns the same snapshot, so two
+ * instances of a screen share their values and a save always encodes the
+ * latest of them. Saves of a file are serialized, in this process by a
+ * lock and across processes by a FileLock, and each stamps the file with
+ * the next sequence number. A load or save that finds a higher sequence
+ * on disk than it last saw takes the values from there, except for keys
+ * changed here and not yet saved, so a stale writer cannot put back older
+ * values over newer ones.
+ *
+ * Snapshots are plain files; do not put secrets in them.
+ */
+public class SettingsSnapshot {
+    private static final String TAG = "GlassSettingsSnapshot";
+
+    private static final int MAGIC = 0x47505353; // "GPSS"
+    /** Version 2 adds the sequence number */
+    private static final int VERSION = 2;
+
+    private static final byte TYPE_BOOLEAN = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_STRING = 3;
+
+    /** The one snapshot of each file, by path */
+    private static final Map<String, SettingsSnapshot> sSnapshots = new HashMap<>();
+
+    private final AtomicFile mFile;
+    /** Taken with a FileLock on it to read or write mFile */
+    private final File mLockFile;
+    private final Object mFileLock = new Object();
+    private final Map<String, Object> mValues = new HashMap<>();
+    /** Keys changed since the last save */
+    private final Set<String> mDirtyKeys = new HashSet<>();
+    /** Sequence number of the file as last read or written, -1 for none */
+    private long mSeq = -1;
+
+    private SettingsSnapshot(File file) {
+        mFile = new AtomicFile(file);
+        mLockFile = new File(file.getPath() + ".lock");
+    }
+
+    /**
+     * Load the snapshot for a screen. Missing or corrupt snapshots load empty.
+     */
+    public static SettingsSnapshot load(Context context, String screen) {
+        File file = new File(new File(context.getFilesDir(), "snapshots"), screen);
+        SettingsSnapshot snapshot;
+        synchronized (sSnapshots) {
+            snapshot = sSnapshots.get(file.getPath());
+            if (snapshot == null) {
+                snapshot = new SettingsSnapshot(file);
+                sSnapshots.put(file.getPath(), snapshot);
+            }
+        }
+        // Picks up saves from other processes since the last load
+        snapshot.sync(false);
+        return snapshot;
+    }
+
+    public synchronized boolean getBoolean(String key, boolean defValue) {
+        Object value = mValues.get(key);
+        return value instanceof Boolean ? (Boolean) value : defValue;
+    }
+
+    public synchronized int getInt(String key, int defValue) {
+        Object value = mValues.get(key);
+        return value instanceof Integer ? (Integer) value : defValue;
+    }
+
+    public synchronized String getString(String key, String defValue) {
+        Object value = mValues.get(key);
+        return value instanceof String ? (String) value : defValue;
+    }
+
+    public synchronized boolean contains(String key) {
+        return mValues.containsKey(key);
+    }
+
+    public void putBoolean(String key, boolean value) {
+        put(key, value);
+    }
+
+    public void putInt(String key, int value) {
+        put(key, value);
+    }
+
+    public void putString(String key, String value) {
+        if (value != null) {
+            put(key, value);
+        }
+    }
+
+    public synchronized void remove(String key) {
+        if (mValues.remove(key) != null) {
+            mDirtyKeys.add(key);
+        }
+    }
+
+    private synchronized void put(String key, Object value) {
+        if (!value.equals(mValues.get(key))) {
+            mValues.put(key, value);
+            mDirtyKeys.add(key);
+        }
+    }
+
+    /**
+     * Write the snapshot on the background executor if anything changed
+     */
+    public void saveAsync() {
+        synchronized (this) {
+            if (mDirtyKeys.isEmpty()) {
+                return;
+            }
+        }
+        SettingsExecutor.execute(() -> sync(true));
+    }
+
+    /**
+     * Merge in the file if another writer saved it since, then write it if
+     * save and anything changed. Holds the file locks throughout.
+     */
+    private void sync(boolean save) {
+        synchronized (mFileLock) {
+            mFile.getBaseFile().getParentFile().mkdirs();
+            try (RandomAccessFile lockFile = new RandomAccessFile(mLockFile, "rw");
+                    FileChannel channel = lockFile.getChannel();
+                    FileLock lock = channel.lock()) {
+                read();
+                if (save) {
+                    write();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to lock " + mLockFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void read() {
+        byte[] data;
+        try {
+            data = mFile.readFully();
+        } catch (FileNotFoundException e) {
+            return;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read " + mFile.getBaseFile() + ": " + e.getMessage());
+            return;
+        }
+
+        if (data.length < 8) {
+            discard("truncated");
+            return;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 8);
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            in.skipBytes(data.length - 8);
+            if (in.readLong() != crc.getValue()) {
+                discard("checksum mismatch");
+                return;
+            }
+
+            in = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - 8));
+            int version = in.readInt() == MAGIC ? in.readUnsignedByte() : -1;
+            if (version != 1 && version != VERSION) {
+                discard("unknown format");
+                return;
+            }
+            long seq = version >= 2 ? in.readLong() : 0;
+            int count = in.readUnsignedShort();
+            Map<String, Object> values = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                byte type = in.readByte();
+                switch (type) {
+                    case TYPE_BOOLEAN:
+                        values.put(key, in.readBoolean());
+                        break;
+                    case TYPE_INT:
+                        values.put(key, in.readInt());
+                        break;
+                    case TYPE_STRING:
+                        values.put(key, in.readUTF());
+                        break;
+                    default:
+                        discard("unknown type " + type);
+                        return;
+                }
+            }
+            synchronized (this) {
+                if (seq > mSeq) {
+                    merge(values);
+                    mSeq = seq;
+                }
+            }
+        } catch (IOException e) {
+            discard(e.getMessage());
+        }
+    }
+
+    /**
+     * Take values saved by another writer, keeping unsaved changes
+     */
+    private void merge(Map<String, Object> values) {
+        Iterator<String> it = mValues.keySet().iterator();
+        while (it.hasNext()) {
+            String key = it.next();
+            if (!values.containsKey(key) && !mDirtyKeys.contains(key)) {
+                it.remove();
+            }
+        }
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            if (!mDirtyKeys.contains(entry.getKey())) {
+                mValues.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void discard(String reason) {
+        Log.w(TAG, "Discarding snapshot " + mFile.getBaseFile() + ": " + reason);
+        mFile.delete();
+    }
+
+    /**
+     * Called with the file locks held, after read
+     */
+    private void write() {
+        long seq;
+        byte[] payload;
+        Set<String> saved;
+        synchronized (this) {
+            if (mDirtyKeys.isEmpty()) {
+                return;
+            }
+            seq = Math.max(mSeq, 0) + 1;
+            payload = encode(seq);
+            saved = new HashSet<>(mDirtyKeys);
+            mDirtyKeys.clear();
+        }
+
+        FileOutputStream out = null;
+        try {
+            out = mFile.startWrite();
+            out.write(payload);
+            mFile.finishWrite(out);
+            synchronized (this) {
+                mSeq = seq;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + mFile.getBaseFile() + ": " + e.getMessage());
+            mFile.failWrite(out);
+            synchronized (this) {
+                mDirtyKeys.addAll(saved);
+            }
+        }
+    }
+
+    /**
+     * Encode all values followed by a CRC32 of the encoded bytes
+     */
+    private byte[] encode(long seq) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(seq);
+            out.writeShort(mValues.size());
+            for (Map.Entry<String, Object> entry : mValues.entrySet()) {
+                out.writeUTF(entry.getKey());
+                Object value = entry.getValue();
+                if (value instanceof Boolean) {
+                    out.writeByte(TYPE_BOOLEAN);
+                    out.writeBoolean((Boolean) value);
+                } else if (value instanceof Integer) {
+                    out.writeByte(TYPE_INT);
+                    out.writeInt((Integer) value);
+                } else {
+                    out.writeByte(TYPE_STRING);
+                    out.writeUTF((String) value);
+                }
+            }
+            out.flush();
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeLong(crc.getValue());
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw
+            throw new IllegalStateException(e);
+        }
+    }
+}
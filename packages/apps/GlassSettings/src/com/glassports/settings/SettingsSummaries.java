@@ -0,0 +1,107 @@
+/*
+ * GlassPorts Settings Summaries
+ * Live one-line state for the main settings cards
+ */
+
+package com.glassports.settings;
+
+import android.bluetooth.BluetoothAdapter;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+import android.os.BatteryManager;
+import android.os.Environment;
+import android.os.StatFs;
+import android.provider.Settings;
+import android.text.format.Formatter;
+
+import com.glassports.wifiap.WifiApSnapshot;
+
+/**
+ * Computes the live summary line of each settings card. Every method may
+ * block on binder calls or file reads and must run off the main thread.
+ */
+public final class SettingsSummaries {
+
+    private SettingsSummaries() {
+    }
+
+    public static String wifi(Context context) {
+        WifiManager wifi = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+        if (!wifi.isWifiEnabled()) {
+            return context.getString(R.string.wifi_off);
+        }
+        WifiInfo info = wifi.getConnectionInfo();
+        if (info == null || info.getNetworkId() == -1) {
+            return context.getString(R.string.wifi_not_connected);
+        }
+        String ssid = info.getSSID();
+        if (ssid != null && ssid.length() > 1 && ssid.startsWith("\"") && ssid.endsWith("\"")) {
+            ssid = ssid.substring(1, ssid.length() - 1);
+        }
+        return context.getString(R.string.wifi_connected_to, ssid);
+    }
+
+    /**
+     * @param snapshot latest from WifiApManager, null while not yet bound
+     * @return null to keep the previous summary until there is a snapshot
+     */
+    public static String wifiAp(Context context, WifiApSnapshot snapshot) {
+        if (snapshot == null) {
+            return null;
+        }
+        if (!snapshot.isEnabled()) {
+            return context.getString(R.string.wifi_ap_off);
+        }
+        int clients = snapshot.stations.size();
+        return context.getResources().getQuantityString(
+                R.plurals.wifi_ap_clients, clients, clients);
+    }
+
+    public static String bluetooth(Context context) {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        return context.getString(adapter != null && adapter.isEnabled()
+                ? R.string.bluetooth_on : R.string.bluetooth_off);
+    }
+
+    public static String display(Context context) {
+        if (AutoBrightnessService.isAutomatic(context)) {
+            return context.getString(R.string.display_auto_summary);
+        }
+        int brightness = Settings.System.getInt(context.getContentResolver(),
+                Settings.System.SCREEN_BRIGHTNESS, 128);
+        return context.getString(R.string.display_brightness_summary,
+                (brightness * 100) / 255);
+    }
+
+    public static String battery(Context context) {
+        // Sticky broadcast, returned without registering a receiver
+        Intent battery = context.registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null) {
+            return context.getString(R.string.battery_summary);
+        }
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, 0);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+        return context.getString(R.string.battery_level_summary,
+                level * 100 / Math.max(1, scale));
+    }
+
+    public static String storage(Context context) {
+        StatFs data = new StatFs(Environment.getDataDirectory().getPath());
+        return context.getString(R.string.storage_free_summary,
+                Formatter.formatShortFileSize(context, data.getAvailableBytes()));
+    }
+
+    public static String performance(Context context) {
+        String id = context.getSharedPreferences("performance", Context.MODE_PRIVATE)
+                .getString("profile", PerformanceProfile.DEFAULT_ID);
+        PerformanceProfile profile = PerformanceProfile.get(id);
+        if (profile == null) {
+            return context.getString(R.string.performance_summary);
+        }
+        return context.getString(R.string.profile_applied, context.getString(profile.titleRes));
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * GlassPorts Storage Cache
+ * Per-directory size cache keyed on directory mtime
+ */
+
+package com.glassports.settings;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Remembers, for every directory scanned, its mtime, the bytes used by the
+ * files directly inside it and the names of its subdirectories.
+ *
+ * A directory's mtime changes whenever an entry is added, removed or
+ * renamed, so while it is unchanged the listing and per-file stats can be
+ * skipped and only the subdirectories need a stat. Files growing in place
+ * do not touch the directory mtime; entries older than MAX_AGE_MS are
+ * rescanned to bound that error. Stored like SettingsSnapshot: AtomicFile
+ * with a CRC32 trailer, discarded if damaged.
+ */
+public class StorageCache {
+    private static final String TAG = "GlassStorageCache";
+
+    private static final int MAGIC = 0x47505343; // "GPSC"
+    private static final int VERSION = 1;
+
+    private static final long MAX_AGE_MS = 24 * 60 * 60 * 1000L;
+
+    private static final String[] NO_SUBDIRS = new String[0];
+
+    static final class Entry {
+        final long mtime;
+        final long bytes;
+        final String[] subdirs;
+        final long scannedAt;
+        volatile boolean seen;
+
+        Entry(long mtime, long bytes, String[] subdirs, long scannedAt) {
+            this.mtime = mtime;
+            this.bytes = bytes;
+            this.subdirs = subdirs;
+            this.scannedAt = scannedAt;
+        }
+    }
+
+    private final AtomicFile mFile;
+    private final Map<String, Entry> mEntries = new ConcurrentHashMap<>();
+
+    private StorageCache(File file) {
+        mFile = new AtomicFile(file);
+    }
+
+    /**
+     * Load the cache from disk. Must not be called on the main thread.
+     */
+    public static StorageCache load(Context context) {
+        StorageCache cache = new StorageCache(new File(context.getFilesDir(), "storage_cache"));
+        cache.read();
+        return cache;
+    }
+
+    /**
+     * Cached entry for a directory if its mtime still matches
+     */
+    Entry get(String path, long mtime, long now) {
+        Entry entry = mEntries.get(path);
+        if (entry == null || entry.mtime != mtime || now - entry.scannedAt > MAX_AGE_MS) {
+            return null;
+        }
+        entry.seen = true;
+        return entry;
+    }
+
+    void put(String path, long mtime, long bytes, String[] subdirs, long now) {
+        Entry entry = new Entry(mtime, bytes, subdirs.length == 0 ? NO_SUBDIRS : subdirs, now);
+        entry.seen = true;
+        mEntries.put(path, entry);
+    }
+
+    void remove(String path) {
+        mEntries.remove(path);
+    }
+
+    /**
+     * Start a full scan; directories not visited by the next save are dropped
+     */
+    void beginScan() {
+        for (Entry entry : mEntries.values()) {
+            entry.seen = false;
+        }
+    }
+
+    /**
+     * Drop entries for directories that no longer exist and write the cache
+     */
+    public void save() {
+        mEntries.values().removeIf(entry -> !entry.seen);
+
+        byte[] payload = encode();
+        mFile.getBaseFile().getParentFile().mkdirs();
+        FileOutputStream out = null;
+        try {
+            out = mFile.startWrite();
+            out.write(payload);
+            mFile.finishWrite(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + mFile.getBaseFile() + ": " + e.getMessage());
+            mFile.failWrite(out);
+        }
+    }
+
+    private void read() {
+        byte[] data;
+        try {
+            data = mFile.readFully();
+        } catch (FileNotFoundException e) {
+            return;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read " + mFile.getBaseFile() + ": " + e.getMessage());
+            return;
+        }
+
+        if (data.length < 8) {
+            discard("truncated");
+            return;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 8);
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            in.skipBytes(data.length - 8);
+            if (in.readLong() != crc.getValue()) {
+                discard("checksum mismatch");
+                return;
+            }
+
+            in = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - 8));
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                discard("unknown format");
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long mtime = in.readLong();
+                long bytes = in.readLong();
+                long scannedAt = in.readLong();
+                String[] subdirs = new String[in.readInt()];
+                for (int j = 0; j < subdirs.length; j++) {
+                    subdirs[j] = in.readUTF();
+                }
+                mEntries.put(path, new Entry(mtime, bytes, subdirs, scannedAt));
+            }
+        } catch (IOException e) {
+            mEntries.clear();
+            discard(e.getMessage());
+        }
+    }
+
+    private void discard(String reason) {
+        Log.w(TAG, "Discarding cache " + mFile.getBaseFile() + ": " + reason);
+        mFile.delete();
+    }
+
+    private byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * 1024);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+
+            // Snapshot the map so the count matches the entries written
+            Map<String, Entry> entries = new HashMap<>(mEntries);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.mtime);
+                out.writeLong(entry.bytes);
+                out.writeLong(entry.scannedAt);
+                out.writeInt(entry.subdirs.length);
+                for (String subdir : entry.subdirs) {
+                    out.writeUTF(subdir);
+                }
+            }
+            out.flush();
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeLong(crc.getValue());
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * GlassPorts Storage Settings
+ */
+
+package com.glassports.settings;
+
+import android.app.usage.StorageStats;
+import android.app.usage.StorageStatsManager;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Process;
+import android.os.StatFs;
+import android.os.UserHandle;
+import android.text.format.Formatter;
+import android.util.Log;
+import android.view.KeyEvent;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Storage Settings Screen
+ * Break down eMMC usage into apps, media, other files and system
+ *
+ * The first frame shows the totals from the last visit. Totals then climb
+ * live while DirectorySizer walks the trees in the background; thanks to
+ * StorageCache, a revisit only lists the directories that changed. From
+ * API 26 apps are sized by StorageStatsManager instead, which can see
+ * their private data under /data/data.
+ */
+public class StorageSettingsScreen extends SettingsScreen {
+    private static final String TAG = "GlassStorageSettings";
+
+    private static final long UI_UPDATE_MS = 200;
+    private static final int MAX_APP_ROWS = 5;
+
+    private static final int CATEGORY_APPS = 0;
+    private static final int CATEGORY_MEDIA = 1;
+    private static final int CATEGORY_OTHER = 2;
+    private static final int CATEGORY_SYSTEM = 3;
+    private static final int CATEGORY_FREE = 4;
+    private static final int CATEGORY_COUNT = 5;
+
+    private static final String[] SNAPSHOT_KEYS = {
+            "apps", "media", "other", "system", "free"
+    };
+    private static final int[] CATEGORY_TITLES = {
+            R.string.storage_apps, R.string.storage_media, R.string.storage_other,
+            R.string.storage_system, R.string.storage_free
+    };
+
+    /** Top-level external storage directories counted as media */
+    private static final Set<String> MEDIA_DIRS = new HashSet<>(Arrays.asList(
+            Environment.DIRECTORY_DCIM, Environment.DIRECTORY_PICTURES,
+            Environment.DIRECTORY_MOVIES, Environment.DIRECTORY_MUSIC));
+
+    /** External storage directory holding app-specific files */
+    private static final String APP_EXTERNAL_DIR = "Android";
+
+    /** One scan at a time; a second visit waits and then hits the cache */
+    private static final Object sScanLock = new Object();
+    private static StorageCache sCache;
+
+    private final AtomicLong[] mTotals = new AtomicLong[CATEGORY_COUNT];
+    private final TextView[] mSizeViews = new TextView[CATEGORY_COUNT];
+
+    private TextView mStatusText;
+    private LinearLayout mAppList;
+    private Handler mHandler;
+    private SettingsSnapshot mSnapshot;
+    private volatile boolean mScanning;
+
+    private String[] mAppLabels;
+    /** Per-app running totals; their sum is the apps category */
+    private volatile AtomicLong[] mAppTotals;
+
+    public StorageSettingsScreen(GlassSettingsActivity host) {
+        super(host);
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_storage_settings);
+
+        mStatusText = findViewById(R.id.storage_status);
+        mAppList = findViewById(R.id.storage_app_list);
+        mHandler = new Handler();
+
+        // Draw the first frame from the last known totals
+        mSnapshot = SettingsSnapshot.load(this, "storage");
+        LinearLayout list = findViewById(R.id.storage_list);
+        LayoutInflater inflater = LayoutInflater.from(this);
+        for (int i = 0; i < CATEGORY_COUNT; i++) {
+            View row = inflater.inflate(R.layout.item_storage, list, false);
+            ((TextView) row.findViewById(R.id.storage_title)).setText(CATEGORY_TITLES[i]);
+            mSizeViews[i] = row.findViewById(R.id.storage_size);
+            list.addView(row);
+
+            long kb = mSnapshot.getInt(SNAPSHOT_KEYS[i], -1);
+            mSizeViews[i].setText(kb < 0 ? "" : formatSize(kb * 1024));
+            mTotals[i] = new AtomicLong();
+        }
+
+        mStatusText.setText(R.string.storage_calculating);
+        mScanning = true;
+        SettingsExecutor.execute(this::scan);
+        mHandler.postDelayed(mUpdateRunnable, UI_UPDATE_MS);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mHandler.removeCallbacks(mUpdateRunnable);
+    }
+
+    /**
+     * Size every category, runs on SettingsExecutor
+     */
+    private void scan() {
+        synchronized (sScanLock) {
+            long start = System.currentTimeMillis();
+            if (sCache == null) {
+                sCache = StorageCache.load(getApplicationContext());
+            }
+            sCache.beginScan();
+
+            StatFs data = new StatFs(Environment.getDataDirectory().getPath());
+            mTotals[CATEGORY_FREE].set(data.getAvailableBytes());
+            StatFs system = new StatFs(Environment.getRootDirectory().getPath());
+            mTotals[CATEGORY_SYSTEM].set(system.getTotalBytes() - system.getFreeBytes());
+
+            List<String> roots = new ArrayList<>();
+            List<AtomicLong> totals = new ArrayList<>();
+            addApps(roots, totals);
+            addExternalRoots(roots, totals);
+
+            DirectorySizer sizer = new DirectorySizer(sCache);
+            sizer.sizeAll(roots.toArray(new String[roots.size()]),
+                    totals.toArray(new AtomicLong[totals.size()]));
+            sCache.save();
+
+            Log.i(TAG, "Sized " + roots.size() + " trees in "
+                    + (System.currentTimeMillis() - start) + "ms, "
+                    + sizer.getScannedCount() + " directories listed, "
+                    + sizer.getCachedCount() + " cached");
+        }
+
+        mScanning = false;
+        mHandler.post(() -> {
+            if (isDestroyed()) {
+                return;
+            }
+            mHandler.removeCallbacks(mUpdateRunnable);
+            updateViews();
+            showLargestApps();
+            for (int i = 0; i < CATEGORY_COUNT; i++) {
+                mSnapshot.putInt(SNAPSHOT_KEYS[i], (int) (getTotal(i) / 1024));
+            }
+            mSnapshot.saveAsync();
+        });
+    }
+
+    /**
+     * Installed apps' code, data and cache, from StorageStatsManager; every
+     * app gets its own running total, which together make up the apps
+     * category. The data figure covers the app's external files and cache
+     * and the code figure its OBBs, so Android/ is not walked for them.
+     * Before API 26, or for an app the stats service cannot answer for,
+     * its code and external directories are walked instead.
+     */
+    private void addApps(List<String> roots, List<AtomicLong> totals) {
+        PackageManager pm = getPackageManager();
+        StorageStatsManager stats = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                ? getSystemService(StorageStatsManager.class) : null;
+        UserHandle user = Process.myUserHandle();
+        List<ApplicationInfo> apps = pm.getInstalledApplications(0);
+        String external = Environment.getExternalStorageDirectory().getPath();
+        Set<Integer> sharedUids = new HashSet<>();
+
+        String[] labels = new String[apps.size()];
+        AtomicLong[] appTotals = new AtomicLong[apps.size()];
+        for (int i = 0; i < apps.size(); i++) {
+            labels[i] = apps.get(i).loadLabel(pm).toString();
+            appTotals[i] = new AtomicLong();
+        }
+        mAppLabels = labels;
+        mAppTotals = appTotals;
+
+        for (int i = 0; i < apps.size(); i++) {
+            ApplicationInfo app = apps.get(i);
+
+            // Every package of a shared uid gets the stats of the whole
+            // uid, so count them once, against the first package listed
+            String[] uidPackages = pm.getPackagesForUid(app.uid);
+            if (uidPackages != null && uidPackages.length > 1 && !sharedUids.add(app.uid)) {
+                continue;
+            }
+
+            if (stats != null) {
+                try {
+                    // Code in the system image is left out by the service
+                    StorageStats appStats = stats.queryStatsForPackage(app.storageUuid,
+                            app.packageName, user);
+                    appTotals[i].addAndGet(appStats.getAppBytes() + appStats.getDataBytes());
+                    continue;
+                } catch (PackageManager.NameNotFoundException | IOException
+                        | SecurityException e) {
+                    Log.w(TAG, "No storage stats for " + app.packageName + ": "
+                            + e.getMessage());
+                }
+            }
+
+            // System app code is part of the system image
+            if ((app.flags & ApplicationInfo.FLAG_SYSTEM) == 0
+                    || (app.flags & ApplicationInfo.FLAG_UPDATED_SYSTEM_APP) != 0) {
+                roots.add(new File(app.sourceDir).getParent());
+                totals.add(appTotals[i]);
+            }
+            roots.add(external + "/" + APP_EXTERNAL_DIR + "/data/" + app.packageName);
+            totals.add(appTotals[i]);
+            roots.add(external + "/" + APP_EXTERNAL_DIR + "/obb/" + app.packageName);
+            totals.add(appTotals[i]);
+        }
+    }
+
+    /**
+     * Media folders and everything else on external storage
+     */
+    private void addExternalRoots(List<String> roots, List<AtomicLong> totals) {
+        File external = Environment.getExternalStorageDirectory();
+        File[] children = external.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String name = child.getName();
+            if (APP_EXTERNAL_DIR.equals(name)) {
+                continue;
+            }
+            if (child.isDirectory()) {
+                roots.add(child.getPath());
+                totals.add(mTotals[MEDIA_DIRS.contains(name) ? CATEGORY_MEDIA : CATEGORY_OTHER]);
+            } else {
+                mTotals[CATEGORY_OTHER].addAndGet(child.length());
+            }
+        }
+    }
+
+    /**
+     * Publish partial totals while the walk runs
+     */
+    private final Runnable mUpdateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            updateViews();
+            if (mScanning) {
+                mHandler.postDelayed(this, UI_UPDATE_MS);
+            }
+        }
+    };
+
+    private void updateViews() {
+        for (int i = 0; i < CATEGORY_COUNT; i++) {
+            mSizeViews[i].setText(formatSize(getTotal(i)));
+        }
+        if (mScanning) {
+            return;
+        }
+        long used = 0;
+        for (int i = 0; i < CATEGORY_COUNT; i++) {
+            if (i != CATEGORY_FREE) {
+                used += getTotal(i);
+            }
+        }
+        mStatusText.setText(getString(R.string.storage_used, formatSize(used),
+                formatSize(mTotals[CATEGORY_FREE].get())));
+    }
+
+    private long getTotal(int category) {
+        if (category != CATEGORY_APPS) {
+            return mTotals[category].get();
+        }
+        AtomicLong[] appTotals = mAppTotals;
+        long total = 0;
+        if (appTotals != null) {
+            for (AtomicLong appTotal : appTotals) {
+                total += appTotal.get();
+            }
+        }
+        return total;
+    }
+
+    private void showLargestApps() {
+        if (mAppTotals == null) {
+            return;
+        }
+        Integer[] order = new Integer[mAppTotals.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(mAppTotals[b].get(), mAppTotals[a].get()));
+
+        mAppList.removeAllViews();
+        LayoutInflater inflater = LayoutInflater.from(this);
+        for (int i = 0; i < Math.min(MAX_APP_ROWS, order.length); i++) {
+            long bytes = mAppTotals[order[i]].get();
+            if (bytes == 0) {
+                break;
+            }
+            View row = inflater.inflate(R.layout.item_storage, mAppList, false);
+            ((TextView) row.findViewById(R.id.storage_title)).setText(mAppLabels[order[i]]);
+            ((TextView) row.findViewById(R.id.storage_size)).setText(formatSize(bytes));
+            mAppList.addView(row);
+        }
+        findViewById(R.id.storage_app_header).setVisibility(
+                mAppList.getChildCount() > 0 ? View.VISIBLE : View.GONE);
+    }
+
+    private String formatSize(long bytes) {
+        return Formatter.formatShortFileSize(this, bytes);
+    }
+
+    @Override
+    public boolean onKeyDown(int keyCode, KeyEvent event) {
+        if (keyCode == KeyEvent.KEYCODE_BACK) {
+            finish();
+            return true;
+        }
+        return super.onKeyDown(keyCode, event);
+    }
+}
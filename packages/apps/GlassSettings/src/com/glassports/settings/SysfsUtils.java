@@ -0,0 +1,87 @@
+/*
+ * GlassPorts sysfs helpers
+ */
+
+package com.glassports.settings;
+
+import android.util.Log;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Small helpers for reading and writing single-value sysfs and procfs nodes
+ */
+public final class SysfsUtils {
+    private static final String TAG = "GlassSysfs";
+
+    private SysfsUtils() {
+    }
+
+    /**
+     * Read a node and strip the trailing newline
+     *
+     * @return node contents, or null if it cannot be read
+     */
+    public static String read(String path) {
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(path);
+            byte[] buf = new byte[256];
+            int len = in.read(buf);
+            if (len < 0) {
+                return "";
+            }
+            return new String(buf, 0, len, StandardCharsets.US_ASCII).trim();
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Read a node as a long
+     */
+    public static long readLong(String path, long defValue) {
+        String value = read(path);
+        if (value == null) {
+            return defValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defValue;
+        }
+    }
+
+    /**
+     * Write a value to a node
+     *
+     * @return true if the kernel accepted the write
+     */
+    public static boolean write(String path, String value) {
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(path);
+            out.write(value.getBytes(StandardCharsets.US_ASCII));
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + value + " to " + path + ": " + e.getMessage());
+            return false;
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static void closeQuietly(java.io.Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * GlassPorts Thermal Policy
+ * Graded thermal mitigation control loop
+ */
+
+package com.glassports.settings;
+
+/**
+ * Turns SoC temperature samples into a mitigation level.
+ *
+ * Samples are smoothed with an exponential filter and the rate of change
+ * is tracked alongside, so the level is chosen from the temperature
+ * predicted LOOKAHEAD_MS ahead: a hotspot plus camera ramp is caught while
+ * there is still headroom, instead of after the kernel's own trip points
+ * start clamping the CPU. Raising the level happens on the sample that
+ * crosses a threshold and may skip levels. Lowering goes one level at a
+ * time, only once the predicted temperature is HYSTERESIS below the
+ * level's threshold and the level has been held for MIN_DWELL_MS, so the
+ * device does not oscillate around a trip point.
+ *
+ * Each level carries its limits: a CPU frequency cap, a display
+ * brightness cap and a hotspot bandwidth cap. Transitions and time spent
+ * at each level are kept for the state history.
+ *
+ * Plain Java, so ThermalTraceReplay can drive it with simulated or
+ * recorded temperatures off-device.
+ */
+public final class ThermalPolicy {
+
+    public static final int LEVEL_NONE = 0;
+    public static final int LEVEL_LIGHT = 1;
+    public static final int LEVEL_MODERATE = 2;
+    public static final int LEVEL_SEVERE = 3;
+    public static final int LEVEL_CRITICAL = 4;
+    public static final int LEVEL_COUNT = 5;
+
+    private static final String[] LEVEL_NAMES = {
+            "none", "light", "moderate", "severe", "critical"};
+
+    /** No limit for a CPU or bandwidth cap */
+    public static final int UNLIMITED = 0;
+
+    /**
+     * Entry thresholds in millidegrees, well under the OMAP4 bandgap trip
+     * points so mitigation is gradual rather than a hard clamp
+     */
+    private static final int[] DEFAULT_THRESHOLDS_MC = {
+            Integer.MIN_VALUE, 58000, 64000, 70000, 76000};
+
+    /** scaling_max_freq per level, matching the OMAP4430 OPPs */
+    private static final int[] CPU_CAP_KHZ = {UNLIMITED, 800000, 600000, 600000, 300000};
+
+    /** Backlight ceiling per level, 0-255 */
+    private static final int[] BRIGHTNESS_CAP = {255, 255, 160, 96, 48};
+
+    /**
+     * Hotspot egress rate per level in kbit/s. init.glass.rc has a fixed
+     * tc action for each value; add one there when adding a rate here.
+     */
+    private static final int[] AP_RATE_KBPS = {UNLIMITED, UNLIMITED, 8000, 2000, 512};
+
+    public static final long DEFAULT_TAU_MS = 5000;
+    public static final long DEFAULT_LOOKAHEAD_MS = 10000;
+    public static final int DEFAULT_HYSTERESIS_MC = 3000;
+    public static final long DEFAULT_MIN_DWELL_MS = 30000;
+
+    /** Transitions kept for the history */
+    public static final int HISTORY_SIZE = 64;
+
+    private final int[] mThresholdsMc;
+    private final long mTauMs;
+    private final long mLookaheadMs;
+    private final int mHysteresisMc;
+    private final long mMinDwellMs;
+
+    private boolean mHasSample;
+    private long mLastTimeMs;
+    private float mFilteredMc;
+    /** Filtered slope in millidegrees per second */
+    private float mSlopeMcPerS;
+
+    private int mLevel = LEVEL_NONE;
+    private long mLevelSinceMs;
+    private final long[] mTimeAtLevelMs = new long[LEVEL_COUNT];
+
+    // Transition ring
+    private final long[] mHistoryTimeMs = new long[HISTORY_SIZE];
+    private final int[] mHistoryFrom = new int[HISTORY_SIZE];
+    private final int[] mHistoryTo = new int[HISTORY_SIZE];
+    private final int[] mHistoryTempMc = new int[HISTORY_SIZE];
+    private int mHistoryNext;
+    private int mHistoryCount;
+
+    public ThermalPolicy() {
+        this(DEFAULT_THRESHOLDS_MC, DEFAULT_TAU_MS, DEFAULT_LOOKAHEAD_MS,
+                DEFAULT_HYSTERESIS_MC, DEFAULT_MIN_DWELL_MS);
+    }
+
+    /**
+     * @param thresholdsMc entry threshold for each level, ascending; the
+     *                     first entry is ignored
+     */
+    public ThermalPolicy(int[] thresholdsMc, long tauMs, long lookaheadMs,
+                         int hysteresisMc, long minDwellMs) {
+        if (thresholdsMc.length != LEVEL_COUNT) {
+            throw new IllegalArgumentException("Need " + LEVEL_COUNT + " thresholds");
+        }
+        mThresholdsMc = thresholdsMc.clone();
+        mThresholdsMc[LEVEL_NONE] = Integer.MIN_VALUE;
+        mTauMs = tauMs;
+        mLookaheadMs = lookaheadMs;
+        mHysteresisMc = hysteresisMc;
+        mMinDwellMs = minDwellMs;
+    }
+
+    /**
+     * Feed one temperature sample
+     *
+     * @param timeMs sample time on a monotonic clock
+     * @param tempMc hottest zone in millidegrees Celsius
+     * @return true if the mitigation level changed
+     */
+    public boolean addSample(long timeMs, int tempMc) {
+        if (!mHasSample) {
+            mHasSample = true;
+            mLastTimeMs = timeMs;
+            mLevelSinceMs = timeMs;
+            mFilteredMc = tempMc;
+            mSlopeMcPerS = 0f;
+            return updateLevel(timeMs, tempMc);
+        }
+
+        long dt = timeMs - mLastTimeMs;
+        if (dt <= 0) {
+            return false;
+        }
+        mLastTimeMs = timeMs;
+        mTimeAtLevelMs[mLevel] += dt;
+
+        float alpha = 1f - (float) Math.exp(-(double) dt / mTauMs);
+        float previous = mFilteredMc;
+        mFilteredMc += alpha * (tempMc - mFilteredMc);
+        float slope = (mFilteredMc - previous) * 1000f / dt;
+        mSlopeMcPerS += alpha * (slope - mSlopeMcPerS);
+
+        return updateLevel(timeMs, tempMc);
+    }
+
+    private boolean updateLevel(long timeMs, int tempMc) {
+        // Only look ahead on the way up; a cooling trend never raises the level
+        float predicted = mFilteredMc
+                + Math.max(0f, mSlopeMcPerS) * mLookaheadMs / 1000f;
+
+        int target = LEVEL_NONE;
+        for (int level = LEVEL_COUNT - 1; level > LEVEL_NONE; level--) {
+            if (predicted >= mThresholdsMc[level]) {
+                target = level;
+                break;
+            }
+        }
+
+        if (target > mLevel) {
+            setLevel(timeMs, target, tempMc);
+            return true;
+        }
+
+        if (mLevel > LEVEL_NONE
+                && predicted < mThresholdsMc[mLevel] - mHysteresisMc
+                && timeMs - mLevelSinceMs >= mMinDwellMs) {
+            setLevel(timeMs, mLevel - 1, tempMc);
+            return true;
+        }
+        return false;
+    }
+
+    private void setLevel(long timeMs, int level, int tempMc) {
+        mHistoryTimeMs[mHistoryNext] = timeMs;
+        mHistoryFrom[mHistoryNext] = mLevel;
+        mHistoryTo[mHistoryNext] = level;
+        mHistoryTempMc[mHistoryNext] = tempMc;
+        mHistoryNext = (mHistoryNext + 1) % HISTORY_SIZE;
+        mHistoryCount = Math.min(mHistoryCount + 1, HISTORY_SIZE);
+
+        mLevel = level;
+        mLevelSinceMs = timeMs;
+    }
+
+    public int getLevel() {
+        return mLevel;
+    }
+
+    public int getFilteredTempMc() {
+        return Math.round(mFilteredMc);
+    }
+
+    public float getSlopeMcPerS() {
+        return mSlopeMcPerS;
+    }
+
+    public int getThresholdMc(int level) {
+        return mThresholdsMc[level];
+    }
+
+    /**
+     * @return milliseconds spent at a level since the first sample
+     */
+    public long getTimeAtLevelMs(int level) {
+        return mTimeAtLevelMs[level];
+    }
+
+    public static int getCpuCapKhz(int level) {
+        return CPU_CAP_KHZ[level];
+    }
+
+    public static int getBrightnessCap(int level) {
+        return BRIGHTNESS_CAP[level];
+    }
+
+    public static int getApRateKbps(int level) {
+        return AP_RATE_KBPS[level];
+    }
+
+    public static String getLevelName(int level) {
+        return LEVEL_NAMES[level];
+    }
+
+    /**
+     * @return number of transitions in the history, oldest first
+     */
+    public int getHistoryCount() {
+        return mHistoryCount;
+    }
+
+    private int historyIndex(int i) {
+        return (mHistoryNext - mHistoryCount + i + HISTORY_SIZE) % HISTORY_SIZE;
+    }
+
+    public long getHistoryTimeMs(int i) {
+        return mHistoryTimeMs[historyIndex(i)];
+    }
+
+    public int getHistoryFrom(int i) {
+        return mHistoryFrom[historyIndex(i)];
+    }
+
+    public int getHistoryTo(int i) {
+        return mHistoryTo[historyIndex(i)];
+    }
+
+    public int getHistoryTempMc(int i) {
+        return mHistoryTempMc[historyIndex(i)];
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * GlassPorts Thermal Service
+ * Graded thermal mitigation for sustained workloads
+ */
+
+package com.glassports.settings;
+
+import android.app.Service;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.provider.Settings;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thermal Service
+ *
+ * Glass sits against the wearer's head, and the hotspot plus camera can
+ * keep the OMAP4430 hot enough for the kernel to clamp the CPU without
+ * warning. This service samples the thermal zones, runs them through
+ * ThermalPolicy and applies the limits of the resulting level before the
+ * kernel trip points are reached:
+ *   CPU        ceiling cap, requested from PerformanceProfileService,
+ *              which owns the frequency limits and goes back to the
+ *              active profile's when the cap is lifted
+ *   display    THERMAL_BRIGHTNESS_CAP, which AutoBrightnessService honours;
+ *              in manual mode the user's level is lowered and put back later
+ *   hotspot    egress rate on the AP interface, shaped by init with tc
+ *
+ * Sampling runs on the uptime clock, so it stops while the device is
+ * suspended and cannot be heating. Recent samples are kept in a ring and
+ * printed by dumpsys as a trace ThermalTraceReplay can replay off-device.
+ */
+public class ThermalService extends Service {
+    private static final String TAG = "GlassThermal";
+
+    /** Settings.System key, 0-255, owned by this service */
+    public static final String THERMAL_BRIGHTNESS_CAP = "glassports_thermal_brightness_cap";
+
+    private static final String THERMAL_ROOT = "/sys/class/thermal";
+    /** Only the rates in ThermalPolicy have an init action */
+    private static final String PROP_AP_RATE = "sys.glassports.thermal.ap_kbps";
+    /** Changed after every rate write, so init applies a repeated rate */
+    private static final String PROP_AP_APPLY = "sys.glassports.thermal.ap_apply";
+
+    private static final long IDLE_INTERVAL_MS = 10 * 1000;
+    private static final long ACTIVE_INTERVAL_MS = 2 * 1000;
+    /** Sample at the active rate this close to the first threshold */
+    private static final int WATCH_MARGIN_MC = 5000;
+
+    /** Temperature trace ring, about an hour at the idle rate */
+    private static final int TRACE_SIZE = 512;
+
+    private final IBinder mBinder = new ThermalBinder();
+    private final List<ThermalListener> mListeners = new ArrayList<>();
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private Handler mMainHandler;
+    private volatile PerformanceProfileService mProfileService;
+
+    // Only touched on the thermal thread
+    private final ThermalPolicy mPolicy = new ThermalPolicy();
+    private String[] mZones;
+    private int mAppliedLevel = -1;
+    private int mSavedBrightness = -1;
+    private int mCappedBrightness = -1;
+    private final long[] mTraceTimes = new long[TRACE_SIZE];
+    private final int[] mTraceTemps = new int[TRACE_SIZE];
+    private int mTraceNext;
+    private int mTraceCount;
+
+    // Published for the UI
+    private volatile int mLevel = ThermalPolicy.LEVEL_NONE;
+    private volatile int mTempMc = Integer.MIN_VALUE;
+
+    /**
+     * Called on the main thread when the mitigation level changes
+     */
+    public interface ThermalListener {
+        void onThermalLevelChanged(int level, int tempMc);
+    }
+
+    public class ThermalBinder extends Binder {
+        public ThermalService getService() {
+            return ThermalService.this;
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mThread = new HandlerThread("Thermal");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        bindService(new Intent(this, PerformanceProfileService.class), mProfileConnection,
+                Context.BIND_AUTO_CREATE);
+        mHandler.post(() -> {
+            mZones = findZones();
+            if (mZones.length == 0) {
+                Log.w(TAG, "No thermal zones, mitigation disabled");
+                return;
+            }
+            sample();
+        });
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mHandler.removeCallbacks(mSampleRunnable);
+        mHandler.post(() -> {
+            // Never leave the device capped without a service to lift it
+            apply(ThermalPolicy.LEVEL_NONE);
+            unbindService(mProfileConnection);
+            mThread.quitSafely();
+        });
+    }
+
+    private final ServiceConnection mProfileConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            mProfileService = ((PerformanceProfileService.ProfileBinder) service).getService();
+            // Caps applied before the bind, or before the service restarted
+            mHandler.post(() -> {
+                if (mAppliedLevel >= 0) {
+                    applyCpuCap(ThermalPolicy.getCpuCapKhz(mAppliedLevel));
+                }
+            });
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mProfileService = null;
+        }
+    };
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
+    }
+
+    public int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * @return hottest zone in millidegrees, or Integer.MIN_VALUE before
+     * the first sample
+     */
+    public int getTemperatureMc() {
+        return mTempMc;
+    }
+
+    public void addListener(ThermalListener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(ThermalListener listener) {
+        mListeners.remove(listener);
+    }
+
+    private final Runnable mSampleRunnable = this::sample;
+
+    /**
+     * Read the zones, update the policy, apply and schedule the next sample
+     */
+    private void sample() {
+        int tempMc = readHottestZone();
+        if (tempMc == Integer.MIN_VALUE) {
+            mHandler.postDelayed(mSampleRunnable, IDLE_INTERVAL_MS);
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+
+        mTraceTimes[mTraceNext] = now;
+        mTraceTemps[mTraceNext] = tempMc;
+        mTraceNext = (mTraceNext + 1) % TRACE_SIZE;
+        mTraceCount = Math.min(mTraceCount + 1, TRACE_SIZE);
+
+        final boolean changed = mPolicy.addSample(now, tempMc);
+        final int level = mPolicy.getLevel();
+        mTempMc = tempMc;
+        mLevel = level;
+        if (changed) {
+            Log.i(TAG, "Thermal level " + ThermalPolicy.getLevelName(level) + " at "
+                    + tempMc / 1000f + "C");
+        }
+        // Re-applied on every sample: the framework may have written over
+        // the caps since the last one
+        apply(level);
+
+        if (changed) {
+            final int temp = tempMc;
+            mMainHandler.post(() -> {
+                for (ThermalListener listener : new ArrayList<>(mListeners)) {
+                    listener.onThermalLevelChanged(level, temp);
+                }
+            });
+        }
+
+        boolean watching = level > ThermalPolicy.LEVEL_NONE
+                || mPolicy.getFilteredTempMc() >= mPolicy.getThresholdMc(
+                        ThermalPolicy.LEVEL_LIGHT) - WATCH_MARGIN_MC;
+        mHandler.postDelayed(mSampleRunnable,
+                watching ? ACTIVE_INTERVAL_MS : IDLE_INTERVAL_MS);
+    }
+
+    private void apply(int level) {
+        boolean levelChanged = level != mAppliedLevel;
+        if (levelChanged || level > ThermalPolicy.LEVEL_NONE) {
+            applyCpuCap(ThermalPolicy.getCpuCapKhz(level));
+        }
+        if (levelChanged) {
+            applyBrightnessCap(ThermalPolicy.getBrightnessCap(level));
+            int rate = ThermalPolicy.getApRateKbps(level);
+            if (mAppliedLevel < 0 || rate != ThermalPolicy.getApRateKbps(mAppliedLevel)) {
+                SystemProperties.set(PROP_AP_RATE, String.valueOf(rate));
+                SystemProperties.set(PROP_AP_APPLY,
+                        String.valueOf(SystemClock.elapsedRealtime()));
+            }
+        }
+        mAppliedLevel = level;
+    }
+
+    /**
+     * Ask for the CPU ceiling to be capped, or lifted with
+     * ThermalPolicy.UNLIMITED. Dropped until PerformanceProfileService is
+     * bound; the connection applies the current level.
+     */
+    private void applyCpuCap(int capKhz) {
+        PerformanceProfileService service = mProfileService;
+        if (service != null) {
+            service.setThermalCap(capKhz);
+        }
+    }
+
+    /**
+     * Publish the brightness cap; in manual mode also lower the user's
+     * level, remembering it so it can be restored when the cap lifts
+     */
+    private void applyBrightnessCap(int cap) {
+        Settings.System.putInt(getContentResolver(), THERMAL_BRIGHTNESS_CAP, cap);
+        if (AutoBrightnessService.isAutomatic(this)) {
+            mSavedBrightness = -1;
+            return;
+        }
+
+        int current = Settings.System.getInt(getContentResolver(),
+                Settings.System.SCREEN_BRIGHTNESS, 255);
+        if (mSavedBrightness >= 0 && current != mCappedBrightness) {
+            // The user moved the slider while capped, keep their choice
+            mSavedBrightness = -1;
+        }
+        int wanted = mSavedBrightness >= 0 ? mSavedBrightness : current;
+        int target = Math.min(wanted, cap);
+        if (target != current) {
+            if (mSavedBrightness < 0) {
+                mSavedBrightness = current;
+            }
+            Settings.System.putInt(getContentResolver(),
+                    Settings.System.SCREEN_BRIGHTNESS, target);
+        }
+        mCappedBrightness = target;
+        if (target == wanted) {
+            mSavedBrightness = -1;
+        }
+    }
+
+    /**
+     * @return hottest zone in millidegrees, or Integer.MIN_VALUE if none
+     * could be read
+     */
+    private int readHottestZone() {
+        int hottest = Integer.MIN_VALUE;
+        for (String zone : mZones) {
+            long value = SysfsUtils.readLong(zone, Long.MIN_VALUE);
+            if (value == Long.MIN_VALUE) {
+                continue;
+            }
+            // Older OMAP kernels report whole degrees
+            if (value < 1000) {
+                value *= 1000;
+            }
+            hottest = Math.max(hottest, (int) value);
+        }
+        return hottest;
+    }
+
+    private static String[] findZones() {
+        List<String> zones = new ArrayList<>();
+        File[] dirs = new File(THERMAL_ROOT).listFiles();
+        if (dirs != null) {
+            for (File dir : dirs) {
+                File temp = new File(dir, "temp");
+                if (dir.getName().startsWith("thermal_zone") && temp.canRead()) {
+                    zones.add(temp.getPath());
+                    Log.i(TAG, "Thermal zone " + dir.getName() + ": "
+                            + SysfsUtils.read(dir.getPath() + "/type"));
+                }
+            }
+        }
+        return zones.toArray(new String[0]);
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        // Render on the thermal thread so the dump is consistent
+        final StringBuilder sb = new StringBuilder(16 * 1024);
+        final CountDownLatch done = new CountDownLatch(1);
+        mHandler.post(() -> {
+            dumpLocked(sb);
+            done.countDown();
+        });
+        try {
+            done.await(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pw.print(sb);
+    }
+
+    private void dumpLocked(StringBuilder sb) {
+        long now = SystemClock.uptimeMillis();
+        sb.append("# level=").append(ThermalPolicy.getLevelName(mPolicy.getLevel()))
+                .append(" filtered=").append(mPolicy.getFilteredTempMc())
+                .append(" slope=").append(mPolicy.getSlopeMcPerS()).append("mC/s")
+                .append(" cpuCap=").append(ThermalPolicy.getCpuCapKhz(mPolicy.getLevel()))
+                .append(" brightnessCap=")
+                .append(ThermalPolicy.getBrightnessCap(mPolicy.getLevel()))
+                .append(" apKbps=").append(ThermalPolicy.getApRateKbps(mPolicy.getLevel()))
+                .append('\n');
+        for (int level = 0; level < ThermalPolicy.LEVEL_COUNT; level++) {
+            sb.append("# ").append(ThermalPolicy.getLevelName(level)).append(": ")
+                    .append(mPolicy.getTimeAtLevelMs(level) / 1000).append(" s\n");
+        }
+        sb.append("# history (ms ago, from, to, temp_mc)\n");
+        for (int i = 0; i < mPolicy.getHistoryCount(); i++) {
+            sb.append("# ").append(now - mPolicy.getHistoryTimeMs(i)).append(", ")
+                    .append(ThermalPolicy.getLevelName(mPolicy.getHistoryFrom(i))).append(", ")
+                    .append(ThermalPolicy.getLevelName(mPolicy.getHistoryTo(i))).append(", ")
+                    .append(mPolicy.getHistoryTempMc(i)).append('\n');
+        }
+        sb.append("# time_ms,temp_mc\n");
+        int start = (mTraceNext - mTraceCount + TRACE_SIZE) % TRACE_SIZE;
+        for (int i = 0; i < mTraceCount; i++) {
+            int index = (start + i) % TRACE_SIZE;
+            sb.append(mTraceTimes[index]).append(',').append(mTraceTemps[index]).append('\n');
+        }
+    }
+}
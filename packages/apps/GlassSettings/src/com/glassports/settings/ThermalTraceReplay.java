@@ -0,0 +1,134 @@
+/*
+ * GlassPorts Thermal Trace Replay
+ * Runs the thermal policy over recorded or simulated temperatures
+ */
+
+package com.glassports.settings;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Desktop tool for tuning ThermalPolicy.
+ *
+ * Traces are the "time_ms,temp_mc" lines printed by
+ *   adb shell dumpsys activity service com.glassports.settings/.ThermalService
+ *
+ * Without a trace, "--simulate" runs the policy in closed loop against a
+ * first-order model of the SoC heating under a hotspot plus camera load,
+ * where each mitigation level scales the dissipated power down.
+ *
+ * Build and run on any JVM:
+ *   javac -d out ThermalPolicy.java ThermalTraceReplay.java
+ *   java -cp out com.glassports.settings.ThermalTraceReplay trace.csv
+ *   java -cp out com.glassports.settings.ThermalTraceReplay --simulate [minutes]
+ *
+ * Prints every level change and the time spent at each level.
+ */
+public final class ThermalTraceReplay {
+
+    // Simulated device: steady state is ambient + watts * resistance
+    private static final float SIM_AMBIENT_C = 30f;
+    private static final float SIM_RESISTANCE_C_PER_W = 22f;
+    private static final float SIM_TAU_S = 90f;
+    private static final float SIM_LOAD_W = 2.2f;
+    private static final float SIM_IDLE_W = 0.4f;
+    private static final long SIM_PERIOD_MS = 2000;
+    /** Share of the load left at each mitigation level */
+    private static final float[] SIM_LOAD_SCALE = {1f, 0.85f, 0.65f, 0.55f, 0.35f};
+
+    /**
+     * Receives each level change of a replay
+     */
+    interface LevelListener {
+        /**
+         * @param timeMs time since the first sample
+         */
+        void onLevelChanged(long timeMs, int tempMc, int filteredMc, int level);
+    }
+
+    static final class Summary {
+        int samples;
+        long durationMs;
+    }
+
+    private ThermalTraceReplay() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: ThermalTraceReplay trace.csv | --simulate [minutes]");
+            System.exit(2);
+        }
+
+        ThermalPolicy policy = new ThermalPolicy();
+        LevelListener printer = (timeMs, tempMc, filteredMc, level) ->
+                System.out.printf("%d,%d,%d,%s%n", timeMs, tempMc, filteredMc,
+                        ThermalPolicy.getLevelName(level));
+        Summary summary;
+
+        if ("--simulate".equals(args[0])) {
+            long durationMs = (args.length > 1 ? Long.parseLong(args[1]) : 30) * 60000L;
+            float tempC = SIM_AMBIENT_C + SIM_IDLE_W * SIM_RESISTANCE_C_PER_W;
+            summary = new Summary();
+            for (long t = 0; t <= durationMs; t += SIM_PERIOD_MS) {
+                float watts = SIM_IDLE_W
+                        + SIM_LOAD_W * SIM_LOAD_SCALE[policy.getLevel()];
+                float target = SIM_AMBIENT_C + watts * SIM_RESISTANCE_C_PER_W;
+                tempC += (target - tempC) * (1f - (float) Math.exp(
+                        -SIM_PERIOD_MS / 1000f / SIM_TAU_S));
+                sample(policy, t, 0, Math.round(tempC * 1000f), printer);
+                summary.durationMs = t;
+                summary.samples++;
+            }
+        } else {
+            try (BufferedReader reader = new BufferedReader(new FileReader(args[0]))) {
+                summary = replay(reader, policy, printer);
+            }
+        }
+
+        double minutes = summary.samples > 0 ? summary.durationMs / 60000.0 : 0;
+        System.out.printf("# %d samples over %.1f min, %d level changes%n",
+                summary.samples, minutes, policy.getHistoryCount());
+        for (int level = 0; level < ThermalPolicy.LEVEL_COUNT; level++) {
+            System.out.printf("# %-8s %7.1f s%n", ThermalPolicy.getLevelName(level),
+                    policy.getTimeAtLevelMs(level) / 1000.0);
+        }
+    }
+
+    /**
+     * Feed every "time_ms,temp_mc" line of a trace to policy. Blank lines
+     * and lines not starting with a digit are skipped.
+     */
+    static Summary replay(BufferedReader reader, ThermalPolicy policy, LevelListener listener)
+            throws IOException {
+        Summary summary = new Summary();
+        long firstMs = -1;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || !Character.isDigit(line.charAt(0))) {
+                continue;
+            }
+            String[] fields = line.split(",");
+            long timeMs = Long.parseLong(fields[0].trim());
+            int tempMc = Integer.parseInt(fields[1].trim());
+            if (firstMs < 0) {
+                firstMs = timeMs;
+            }
+            summary.durationMs = timeMs - firstMs;
+            summary.samples++;
+            sample(policy, timeMs, firstMs, tempMc, listener);
+        }
+        return summary;
+    }
+
+    private static void sample(ThermalPolicy policy, long timeMs, long firstMs, int tempMc,
+            LevelListener listener) {
+        if (policy.addSample(timeMs, tempMc)) {
+            listener.onLevelChanged(timeMs - firstMs, tempMc, policy.getFilteredTempMc(),
+                    policy.getLevel());
+        }
+    }
+}
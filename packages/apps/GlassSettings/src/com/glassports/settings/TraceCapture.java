@@ -0,0 +1,136 @@
+/*
+ * GlassPorts Trace Capture
+ * Continuous system trace into the kernel ring buffer with on-demand snapshots
+ */
+
+package com.glassports.settings;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.util.Log;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Controls the glass_trace_* init services.
+ *
+ * While capture is on, atrace keeps the sched, freq, gfx, view and binder
+ * categories running in the ftrace buffer, which overwrites its oldest
+ * events so the last few seconds are always in memory. A snapshot dumps
+ * that buffer once, compressed, as a single sequential file write; at most
+ * MAX_SNAPSHOTS files are kept so repeated snapshots cannot fill the eMMC.
+ */
+public class TraceCapture {
+    private static final String TAG = "GlassTraceCapture";
+
+    public static final String ACTION_TRACE_SNAPSHOT =
+            "com.glassports.settings.action.TRACE_SNAPSHOT";
+
+    private static final String PROP_TRACE = "sys.glassports.trace";
+    private static final String PROP_TRACE_DUMP = "sys.glassports.trace.dump";
+    private static final String PROP_DUMP_SVC = "init.svc.glass_trace_dump";
+
+    private static final File TRACE_DIR = new File("/data/misc/glassports/trace");
+    private static final File DUMP_FILE = new File(TRACE_DIR, "snapshot.ctrace");
+
+    private static final int MAX_SNAPSHOTS = 5;
+    private static final long DUMP_TIMEOUT_MS = 20000;
+    private static final long DUMP_POLL_MS = 200;
+
+    private static final Object sSnapshotLock = new Object();
+
+    /**
+     * Snapshot completion callback, called on the main thread
+     */
+    public interface SnapshotCallback {
+        /**
+         * @param file saved snapshot, or null if the snapshot failed
+         */
+        void onSnapshotSaved(File file);
+    }
+
+    public static boolean isRunning() {
+        return "1".equals(SystemProperties.get(PROP_TRACE, "0"));
+    }
+
+    public static void start() {
+        Log.i(TAG, "Starting trace capture");
+        SystemProperties.set(PROP_TRACE, "1");
+    }
+
+    public static void stop() {
+        Log.i(TAG, "Stopping trace capture");
+        SystemProperties.set(PROP_TRACE, "0");
+    }
+
+    /**
+     * Save the current contents of the trace buffer
+     *
+     * @param callback notified when the snapshot is written, may be null
+     */
+    public static void snapshot(final SnapshotCallback callback) {
+        final Handler handler = new Handler(Looper.getMainLooper());
+        new Thread(() -> {
+            final File file = isRunning() ? dumpBuffer() : null;
+            if (callback != null) {
+                handler.post(() -> callback.onSnapshotSaved(file));
+            }
+        }, "TraceSnapshot").start();
+    }
+
+    /**
+     * Ask init to dump the buffer and wait for atrace to finish writing
+     */
+    private static File dumpBuffer() {
+        synchronized (sSnapshotLock) {
+            DUMP_FILE.delete();
+
+            // Any new value fires the property trigger
+            SystemProperties.set(PROP_TRACE_DUMP, String.valueOf(SystemClock.elapsedRealtime()));
+
+            long deadline = SystemClock.elapsedRealtime() + DUMP_TIMEOUT_MS;
+            while (!DUMP_FILE.exists()
+                    || "running".equals(SystemProperties.get(PROP_DUMP_SVC))) {
+                if (SystemClock.elapsedRealtime() > deadline) {
+                    Log.e(TAG, "Timed out waiting for trace dump");
+                    return null;
+                }
+                SystemClock.sleep(DUMP_POLL_MS);
+            }
+
+            String name = "trace-" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US)
+                    .format(new Date()) + ".ctrace";
+            File saved = new File(TRACE_DIR, name);
+            if (!DUMP_FILE.renameTo(saved)) {
+                Log.e(TAG, "Failed to save trace snapshot " + saved);
+                return null;
+            }
+
+            pruneSnapshots();
+            Log.i(TAG, "Saved trace snapshot " + saved + " (" + saved.length() + " bytes)");
+            return saved;
+        }
+    }
+
+    /**
+     * Keep only the newest MAX_SNAPSHOTS files
+     */
+    private static void pruneSnapshots() {
+        File[] files = TRACE_DIR.listFiles((dir, name) ->
+                name.startsWith("trace-") && name.endsWith(".ctrace"));
+        if (files == null || files.length <= MAX_SNAPSHOTS) {
+            return;
+        }
+        // Names embed the timestamp, so lexical order is oldest first
+        Arrays.sort(files);
+        for (int i = 0; i < files.length - MAX_SNAPSHOTS; i++) {
+            files[i].delete();
+        }
+    }
+}
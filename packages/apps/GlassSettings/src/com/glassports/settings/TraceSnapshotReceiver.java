@@ -0,0 +1,24 @@
+/*
+ * GlassPorts Trace Snapshot Receiver
+ */
+
+package com.glassports.settings;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Saves a trace snapshot on ACTION_TRACE_SNAPSHOT, so capture can be
+ * triggered from a key binding or adb without opening Developer settings
+ */
+public class TraceSnapshotReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (TraceCapture.ACTION_TRACE_SNAPSHOT.equals(intent.getAction())) {
+            final PendingResult result = goAsync();
+            TraceCapture.snapshot(file -> result.finish());
+        }
+    }
+}
@@ -5,7 +5,6 @@
 
 package com.glassports.settings;
 
-import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.BroadcastReceiver;
 import android.content.Context;
@@ -32,11 +31,19 @@ import java.lang.reflect.Method;
  * WiFi Access Point Settings
  * Allows users to enable/disable WiFi AP and configure SSID/password
  */
-public class WifiApSettingsActivity extends Activity implements
+public class WifiApSettingsScreen extends SettingsScreen implements
         GestureDetector.OnGestureListener {
 
     private static final String TAG = "GlassWifiApSettings";
     private static final String PROP_WIFI_AP_SSID = "ro.wifi.ap.ssid";
+    private static final String DEFAULT_PASSWORD = "glassports";
+
+    // Snapshot keys
+    private static final String KEY_ENABLED = "enabled";
+    private static final String KEY_SSID = "ssid";
+    private static final String KEY_PASSWORD_LENGTH = "password_length";
+    /** Plaintext passphrase written by older builds, removed on load */
+    private static final String KEY_PASSWORD = "password";
 
     private WifiManager mWifiManager;
     private GestureDetector mGestureDetector;
@@ -48,9 +55,17 @@ public class WifiApSettingsActivity extends Activity implements
     private TextView mPasswordText;
     private ImageView mStatusIcon;
 
-    private String mSsid = "GlassPorts";
-    private String mPassword = "glassports";
-    private boolean mApEnabled = false;
+    private SettingsSnapshot mSnapshot;
+    private String mSsid;
+    /** Passphrase from the framework, null until refreshState reads it */
+    private String mPassword;
+    private int mPasswordLength;
+    private boolean mApEnabled;
+    private boolean mUpdating;
+
+    public WifiApSettingsScreen(GlassSettingsActivity host) {
+        super(host);
+    }
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -67,11 +82,21 @@ public class WifiApSettingsActivity extends Activity implements
         mPasswordText = findViewById(R.id.wifi_ap_password);
         mStatusIcon = findViewById(R.id.wifi_ap_icon);
 
-        // Load saved SSID
-        mSsid = SystemProperties.get(PROP_WIFI_AP_SSID, "GlassPorts");
+        // Draw the first frame from the last known state
+        mSnapshot = SettingsSnapshot.load(this, "wifi_ap");
+        mSsid = mSnapshot.getString(KEY_SSID,
+                SystemProperties.get(PROP_WIFI_AP_SSID, "GlassPorts"));
+        // Only the length is kept, to draw the mask until the real
+        // passphrase is read from the framework
+        mSnapshot.remove(KEY_PASSWORD);
+        mPasswordLength = mSnapshot.getInt(KEY_PASSWORD_LENGTH, DEFAULT_PASSWORD.length());
+        mApEnabled = mSnapshot.getBoolean(KEY_ENABLED, false);
 
         // Setup switch listener
         mApSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (mUpdating) {
+                return;
+            }
             if (isChecked) {
                 enableWifiAp();
             } else {
@@ -85,7 +110,8 @@ public class WifiApSettingsActivity extends Activity implements
         // Setup password click
         findViewById(R.id.password_row).setOnClickListener(v -> showPasswordDialog());
 
-        updateState();
+        updateViews();
+        refreshState();
 
         // Register for WiFi AP state changes
         IntentFilter filter = new IntentFilter("android.net.wifi.WIFI_AP_STATE_CHANGED");
@@ -98,12 +124,47 @@ public class WifiApSettingsActivity extends Activity implements
         unregisterReceiver(mReceiver);
     }
 
+    /**
+     * Query live AP state in the background and reconcile the screen with it
+     */
+    private void refreshState() {
+        SettingsExecutor.execute(() -> {
+            final boolean enabled = isWifiApEnabled();
+            final WifiConfiguration config = getWifiApConfiguration();
+            mHandler.post(() -> {
+                if (isDestroyed()) {
+                    return;
+                }
+                mApEnabled = enabled;
+                if (config != null) {
+                    if (config.SSID != null) {
+                        mSsid = config.SSID;
+                    }
+                    if (config.preSharedKey != null) {
+                        mPassword = config.preSharedKey;
+                        mPasswordLength = mPassword.length();
+                    }
+                }
+                updateViews();
+                saveSnapshot();
+            });
+        });
+    }
+
+    private void saveSnapshot() {
+        mSnapshot.putBoolean(KEY_ENABLED, mApEnabled);
+        mSnapshot.putString(KEY_SSID, mSsid);
+        mSnapshot.putInt(KEY_PASSWORD_LENGTH, mPasswordLength);
+        mSnapshot.saveAsync();
+    }
+
     /**
      * Update UI state
      */
-    private void updateState() {
-        mApEnabled = isWifiApEnabled();
+    private void updateViews() {
+        mUpdating = true;
         mApSwitch.setChecked(mApEnabled);
+        mUpdating = false;
 
         if (mApEnabled) {
             mStatusText.setText(R.string.wifi_ap_on);
@@ -114,18 +175,15 @@ public class WifiApSettingsActivity extends Activity implements
         }
 
         mSsidText.setText(mSsid);
-        mPasswordText.setText(maskPassword(mPassword));
+        mPasswordText.setText(maskPassword(mPasswordLength));
     }
 
     /**
      * Mask password for display
      */
-    private String maskPassword(String password) {
-        if (password == null || password.length() == 0) {
-            return "";
-        }
+    private String maskPassword(int length) {
         StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < password.length(); i++) {
+        for (int i = 0; i < length; i++) {
             sb.append('*');
         }
         return sb.toString();
@@ -140,10 +198,14 @@ public class WifiApSettingsActivity extends Activity implements
             mWifiManager.setWifiEnabled(false);
         }
 
-        WifiConfiguration config = new WifiConfiguration();
-        config.SSID = mSsid;
-        config.preSharedKey = mPassword;
-        config.allowedKeyManagement.set(WifiConfiguration.KeyMgmt.WPA_PSK);
+        // Without the passphrase, start with the framework's saved config
+        WifiConfiguration config = null;
+        if (mPassword != null) {
+            config = new WifiConfiguration();
+            config.SSID = mSsid;
+            config.preSharedKey = mPassword;
+            config.allowedKeyManagement.set(WifiConfiguration.KeyMgmt.WPA_PSK);
+        }
 
         setWifiApEnabled(config, true);
         mStatusText.setText(R.string.wifi_ap_enabling);
@@ -171,6 +233,19 @@ public class WifiApSettingsActivity extends Activity implements
         }
     }
 
+    /**
+     * Get the framework AP configuration using reflection
+     */
+    private WifiConfiguration getWifiApConfiguration() {
+        try {
+            Method method = mWifiManager.getClass().getMethod("getWifiApConfiguration");
+            return (WifiConfiguration) method.invoke(mWifiManager);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     /**
      * Check if WiFi AP is enabled using reflection
      */
@@ -200,7 +275,8 @@ public class WifiApSettingsActivity extends Activity implements
             String newSsid = input.getText().toString().trim();
             if (!newSsid.isEmpty()) {
                 mSsid = newSsid;
-                updateState();
+                updateViews();
+                saveSnapshot();
 
                 // If AP is enabled, restart with new config
                 if (mApEnabled) {
@@ -230,7 +306,9 @@ public class WifiApSettingsActivity extends Activity implements
             String newPassword = input.getText().toString();
             if (newPassword.length() >= 8) {
                 mPassword = newPassword;
-                updateState();
+                mPasswordLength = newPassword.length();
+                updateViews();
+                saveSnapshot();
 
                 // If AP is enabled, restart with new config
                 if (mApEnabled) {
@@ -250,8 +328,7 @@ public class WifiApSettingsActivity extends Activity implements
     private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
-            int state = intent.getIntExtra("wifi_state", -1);
-            mHandler.post(() -> updateState());
+            refreshState();
         }
     };
 
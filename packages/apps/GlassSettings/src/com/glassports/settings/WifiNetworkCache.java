@@ -0,0 +1,351 @@
+/*
+ * GlassPorts WiFi Network Cache
+ * Learned access points and channels for saved networks
+ */
+
+package com.glassports.settings;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Remembers, for every saved network, the access points it was reached
+ * through: BSSID, channel frequency, when it last connected, how often
+ * connecting succeeded or failed, and a moving average of how long it
+ * took.
+ *
+ * FastReconnectService scans only the learned frequencies first and ranks
+ * candidates with score(), so the usual case of coming back to a known
+ * access point costs a scan of one or two channels instead of the whole
+ * band. Entries not used for MAX_AGE_MS are dropped. Stored like
+ * SettingsSnapshot: AtomicFile with a CRC32 trailer, discarded if damaged.
+ * Not thread safe; FastReconnectService only uses it on its own thread.
+ */
+public class WifiNetworkCache {
+    private static final String TAG = "GlassWifiCache";
+
+    private static final int MAGIC = 0x47505743; // "GPWC"
+    private static final int VERSION = 1;
+
+    private static final long MAX_AGE_MS = 30L * 24 * 60 * 60 * 1000;
+    private static final int MAX_NETWORKS = 32;
+    private static final int MAX_BSS_PER_NETWORK = 4;
+
+    /** Latency assumed for an access point never connected through */
+    private static final int UNKNOWN_LATENCY_MS = 4000;
+    /** Weight of the newest connect time in the moving average */
+    private static final float LATENCY_WEIGHT = 0.3f;
+
+    static final class Bss {
+        final String bssid;
+        int frequency;
+        long lastConnected;
+        int successes;
+        int failures;
+        int latencyMs;
+
+        Bss(String bssid, int frequency) {
+            this.bssid = bssid;
+            this.frequency = frequency;
+        }
+    }
+
+    private final AtomicFile mFile;
+    private final Map<String, List<Bss>> mNetworks = new HashMap<>();
+
+    private WifiNetworkCache(File file) {
+        mFile = new AtomicFile(file);
+    }
+
+    /**
+     * Load the cache from disk. Must not be called on the main thread.
+     */
+    public static WifiNetworkCache load(Context context) {
+        WifiNetworkCache cache = new WifiNetworkCache(
+                new File(context.getFilesDir(), "wifi_cache"));
+        cache.read();
+        return cache;
+    }
+
+    /**
+     * Record a successful association
+     *
+     * @param network   saved network key, the quoted SSID
+     * @param latencyMs time from the reconnect trigger to connected, or -1
+     *                  if the connection was not one we timed
+     */
+    public void recordSuccess(String network, String bssid, int frequency,
+                              int latencyMs, long now) {
+        Bss bss = getOrCreate(network, bssid);
+        bss.frequency = frequency;
+        bss.lastConnected = now;
+        bss.successes++;
+        if (latencyMs >= 0) {
+            bss.latencyMs = bss.latencyMs == 0 ? latencyMs
+                    : Math.round(bss.latencyMs + LATENCY_WEIGHT * (latencyMs - bss.latencyMs));
+        }
+    }
+
+    /**
+     * Record an attempt on an access point that did not connect in time
+     */
+    public void recordFailure(String network, String bssid) {
+        List<Bss> list = mNetworks.get(network);
+        if (list == null) {
+            return;
+        }
+        for (Bss bss : list) {
+            if (bss.bssid.equals(bssid)) {
+                bss.failures++;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Frequencies to scan first, best access point's channel first
+     *
+     * @param networks saved network keys to consider
+     * @param max      most frequencies to return
+     */
+    public int[] getLearnedFrequencies(List<String> networks, int max) {
+        List<Bss> all = new ArrayList<>();
+        for (String network : networks) {
+            List<Bss> list = mNetworks.get(network);
+            if (list != null) {
+                all.addAll(list);
+            }
+        }
+        all.sort((a, b) -> Float.compare(score(b, 0), score(a, 0)));
+
+        int[] frequencies = new int[Math.min(max, all.size())];
+        int count = 0;
+        for (Bss bss : all) {
+            if (count == frequencies.length) {
+                break;
+            }
+            boolean seen = false;
+            for (int i = 0; i < count; i++) {
+                seen |= frequencies[i] == bss.frequency;
+            }
+            if (!seen) {
+                frequencies[count++] = bss.frequency;
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(frequencies, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Rank a scanned access point. Higher is better: success rate divided
+     * by expected connect time, with signal strength breaking ties between
+     * access points with similar history.
+     */
+    public float score(String network, String bssid, int rssi) {
+        List<Bss> list = mNetworks.get(network);
+        if (list != null) {
+            for (Bss bss : list) {
+                if (bss.bssid.equals(bssid)) {
+                    return score(bss, rssi);
+                }
+            }
+        }
+        return score(null, rssi);
+    }
+
+    private static float score(Bss bss, int rssi) {
+        // Laplace smoothing, an unknown access point starts at 50%
+        float successRate = 0.5f;
+        int latencyMs = UNKNOWN_LATENCY_MS;
+        if (bss != null) {
+            successRate = (bss.successes + 1f) / (bss.successes + bss.failures + 2f);
+            if (bss.latencyMs > 0) {
+                latencyMs = bss.latencyMs;
+            }
+        }
+        float signal = rssi == 0 ? 0f : Math.max(0, Math.min(60, rssi + 100)) / 60f;
+        return successRate * 1000f / (1000f + latencyMs) + 0.1f * signal;
+    }
+
+    public boolean isEmpty() {
+        return mNetworks.isEmpty();
+    }
+
+    List<Bss> getBss(String network) {
+        return mNetworks.get(network);
+    }
+
+    Iterable<String> getNetworks() {
+        return mNetworks.keySet();
+    }
+
+    private Bss getOrCreate(String network, String bssid) {
+        List<Bss> list = mNetworks.get(network);
+        if (list == null) {
+            if (mNetworks.size() >= MAX_NETWORKS) {
+                evictOldestNetwork();
+            }
+            list = new ArrayList<>(MAX_BSS_PER_NETWORK);
+            mNetworks.put(network, list);
+        }
+        for (Bss bss : list) {
+            if (bss.bssid.equals(bssid)) {
+                return bss;
+            }
+        }
+        if (list.size() >= MAX_BSS_PER_NETWORK) {
+            Bss oldest = list.get(0);
+            for (Bss bss : list) {
+                if (bss.lastConnected < oldest.lastConnected) {
+                    oldest = bss;
+                }
+            }
+            list.remove(oldest);
+        }
+        Bss bss = new Bss(bssid, 0);
+        list.add(bss);
+        return bss;
+    }
+
+    private void evictOldestNetwork() {
+        String oldest = null;
+        long oldestTime = Long.MAX_VALUE;
+        for (Map.Entry<String, List<Bss>> entry : mNetworks.entrySet()) {
+            long last = 0;
+            for (Bss bss : entry.getValue()) {
+                last = Math.max(last, bss.lastConnected);
+            }
+            if (last < oldestTime) {
+                oldestTime = last;
+                oldest = entry.getKey();
+            }
+        }
+        mNetworks.remove(oldest);
+    }
+
+    /**
+     * Drop expired entries and write the cache
+     */
+    public void save(long now) {
+        mNetworks.values().removeIf(list -> {
+            list.removeIf(bss -> now - bss.lastConnected > MAX_AGE_MS);
+            return list.isEmpty();
+        });
+
+        byte[] payload = encode();
+        mFile.getBaseFile().getParentFile().mkdirs();
+        FileOutputStream out = null;
+        try {
+            out = mFile.startWrite();
+            out.write(payload);
+            mFile.finishWrite(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + mFile.getBaseFile() + ": " + e.getMessage());
+            mFile.failWrite(out);
+        }
+    }
+
+    private void read() {
+        byte[] data;
+        try {
+            data = mFile.readFully();
+        } catch (FileNotFoundException e) {
+            return;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read " + mFile.getBaseFile() + ": " + e.getMessage());
+            return;
+        }
+
+        if (data.length < 8) {
+            discard("truncated");
+            return;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 8);
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            in.skipBytes(data.length - 8);
+            if (in.readLong() != crc.getValue()) {
+                discard("checksum mismatch");
+                return;
+            }
+
+            in = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - 8));
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                discard("unknown format");
+                return;
+            }
+            int networks = in.readInt();
+            for (int i = 0; i < networks; i++) {
+                String network = in.readUTF();
+                int count = in.readInt();
+                List<Bss> list = new ArrayList<>(MAX_BSS_PER_NETWORK);
+                for (int j = 0; j < count; j++) {
+                    Bss bss = new Bss(in.readUTF(), in.readInt());
+                    bss.lastConnected = in.readLong();
+                    bss.successes = in.readInt();
+                    bss.failures = in.readInt();
+                    bss.latencyMs = in.readInt();
+                    list.add(bss);
+                }
+                mNetworks.put(network, list);
+            }
+        } catch (IOException e) {
+            mNetworks.clear();
+            discard(e.getMessage());
+        }
+    }
+
+    private void discard(String reason) {
+        Log.w(TAG, "Discarding cache " + mFile.getBaseFile() + ": " + reason);
+        mFile.delete();
+    }
+
+    private byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(mNetworks.size());
+            for (Map.Entry<String, List<Bss>> entry : mNetworks.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (Bss bss : entry.getValue()) {
+                    out.writeUTF(bss.bssid);
+                    out.writeInt(bss.frequency);
+                    out.writeLong(bss.lastConnected);
+                    out.writeInt(bss.successes);
+                    out.writeInt(bss.failures);
+                    out.writeInt(bss.latencyMs);
+                }
+            }
+            out.flush();
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeLong(crc.getValue());
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw
+            throw new IllegalStateException(e);
+        }
+    }
+}
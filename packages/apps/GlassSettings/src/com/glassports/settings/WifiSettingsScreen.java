@@ -5,11 +5,11 @@
 
 package com.glassports.settings;
 
-import android.app.Activity;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.net.wifi.ScanResult;
 import android.net.wifi.WifiConfiguration;
 import android.net.wifi.WifiManager;
@@ -27,16 +27,25 @@ import java.util.ArrayList;
 import java.util.List;
 
 /**
- * WiFi Settings Activity
+ * WiFi Settings Screen
  * Allows connecting to WiFi networks
  */
-public class WifiSettingsActivity extends Activity {
+public class WifiSettingsScreen extends SettingsScreen {
+
+    private static final String KEY_ENABLED = "enabled";
 
     private WifiManager mWifiManager;
     private Switch mWifiSwitch;
     private TextView mStatusText;
+    private TextView mReconnectText;
     private RecyclerView mNetworkList;
     private Handler mHandler;
+    private SettingsSnapshot mSnapshot;
+    private boolean mUpdating;
+
+    public WifiSettingsScreen(GlassSettingsActivity host) {
+        super(host);
+    }
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -48,21 +57,29 @@ public class WifiSettingsActivity extends Activity {
 
         mWifiSwitch = findViewById(R.id.wifi_switch);
         mStatusText = findViewById(R.id.wifi_status);
+        mReconnectText = findViewById(R.id.wifi_reconnect);
         mNetworkList = findViewById(R.id.network_list);
 
         mNetworkList.setLayoutManager(new LinearLayoutManager(this));
 
         mWifiSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (mUpdating) {
+                return;
+            }
             mWifiManager.setWifiEnabled(isChecked);
-            updateState();
+            refreshState();
         });
 
+        // Draw the first frame from the last known state
+        mSnapshot = SettingsSnapshot.load(this, "wifi");
+        updateViews(mSnapshot.getBoolean(KEY_ENABLED, false));
+
         IntentFilter filter = new IntentFilter();
         filter.addAction(WifiManager.WIFI_STATE_CHANGED_ACTION);
         filter.addAction(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION);
         registerReceiver(mReceiver, filter);
 
-        updateState();
+        refreshState();
     }
 
     @Override
@@ -71,16 +88,47 @@ public class WifiSettingsActivity extends Activity {
         unregisterReceiver(mReceiver);
     }
 
-    private void updateState() {
-        boolean enabled = mWifiManager.isWifiEnabled();
+    /**
+     * Query live WiFi state in the background and reconcile the screen with it
+     */
+    private void refreshState() {
+        SettingsExecutor.execute(() -> {
+            final boolean enabled = mWifiManager.isWifiEnabled();
+            if (enabled) {
+                mWifiManager.startScan();
+            }
+            SharedPreferences prefs = getSharedPreferences(FastReconnectService.PREFS,
+                    Context.MODE_PRIVATE);
+            final int reconnectMs = prefs.getInt(FastReconnectService.PREF_LAST_MS, -1);
+            final boolean reconnectFast = prefs.getBoolean(FastReconnectService.PREF_LAST_FAST,
+                    false);
+            mHandler.post(() -> {
+                if (isDestroyed()) {
+                    return;
+                }
+                updateViews(enabled);
+                updateReconnect(reconnectMs, reconnectFast);
+                mSnapshot.putBoolean(KEY_ENABLED, enabled);
+                mSnapshot.saveAsync();
+            });
+        });
+    }
+
+    private void updateViews(boolean enabled) {
+        mUpdating = true;
         mWifiSwitch.setChecked(enabled);
+        mUpdating = false;
+        mStatusText.setText(enabled ? R.string.wifi_on : R.string.wifi_off);
+    }
 
-        if (enabled) {
-            mStatusText.setText(R.string.wifi_on);
-            mWifiManager.startScan();
-        } else {
-            mStatusText.setText(R.string.wifi_off);
+    private void updateReconnect(int reconnectMs, boolean fast) {
+        if (reconnectMs < 0) {
+            mReconnectText.setVisibility(View.GONE);
+            return;
         }
+        mReconnectText.setText(getString(fast ? R.string.wifi_reconnect_fast
+                : R.string.wifi_reconnect_full, reconnectMs / 1000f));
+        mReconnectText.setVisibility(View.VISIBLE);
     }
 
     private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
@@ -89,7 +137,7 @@ public class WifiSettingsActivity extends Activity {
             String action = intent.getAction();
             if (WifiManager.WIFI_STATE_CHANGED_ACTION.equals(action) ||
                     WifiManager.SCAN_RESULTS_AVAILABLE_ACTION.equals(action)) {
-                mHandler.post(() -> updateState());
+                refreshState();
             }
         }
     };
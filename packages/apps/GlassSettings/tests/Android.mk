@@ -0,0 +1,24 @@
+#
+# GlassPorts Settings host tests
+# Plain JVM tests for the classes without Android dependencies
+#
+
+LOCAL_PATH := $(call my-dir)
+
+include $(CLEAR_VARS)
+
+LOCAL_MODULE := GlassSettingsHostTests
+LOCAL_MODULE_TAGS := tests
+
+LOCAL_SRC_FILES := \
+    $(call all-java-files-under, src) \
+    ../src/com/glassports/settings/AutoBrightnessController.java \
+    ../src/com/glassports/settings/BrightnessCurve.java \
+    ../src/com/glassports/settings/LuxFilter.java \
+    ../src/com/glassports/settings/LuxTraceReplay.java \
+    ../src/com/glassports/settings/ThermalPolicy.java \
+    ../src/com/glassports/settings/ThermalTraceReplay.java
+
+LOCAL_STATIC_JAVA_LIBRARIES := junit-host
+
+include $(BUILD_HOST_JAVA_LIBRARY)
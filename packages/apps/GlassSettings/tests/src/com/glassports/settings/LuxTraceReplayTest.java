@@ -0,0 +1,166 @@
+/*
+ * GlassPorts Lux Trace Replay Test
+ * Auto-brightness levels and hysteresis over synthetic lux traces
+ */
+
+package com.glassports.settings;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+public class LuxTraceReplayTest {
+    private static final long PERIOD_MS = 200;
+
+    /** Default curve points */
+    private static final int LEVEL_50_LUX = 60;
+    private static final int LEVEL_200_LUX = 110;
+    private static final int LEVEL_20000_LUX = 255;
+
+    private final StringBuilder mTrace = new StringBuilder();
+    private final List<long[]> mWrites = new ArrayList<>();
+    private long mTimeMs;
+    private AutoBrightnessController mController;
+
+    @Before
+    public void setUp() {
+        mController = new AutoBrightnessController(new LuxFilter(),
+                BrightnessCurve.createDefault());
+        mTrace.append("# time_ms,lux\n");
+    }
+
+    @Test
+    public void steadyLightWritesOnce() throws IOException {
+        hold(200f, 60000);
+
+        LuxTraceReplay.Summary summary = replay();
+        assertEquals(300, summary.samples);
+        assertEquals(1, summary.writes);
+        assertWrite(0, 0, LEVEL_200_LUX);
+    }
+
+    @Test
+    public void flickerInsideHysteresisIsIgnored() throws IOException {
+        hold(200f, 10000);
+        for (int i = 0; i < 300; i++) {
+            hold(i % 2 == 0 ? 190f : 210f, PERIOD_MS);
+        }
+
+        assertEquals(1, replay().writes);
+        assertEquals(200f, mController.getAmbientLux(), 0f);
+    }
+
+    @Test
+    public void briefShadowIsIgnored() throws IOException {
+        hold(1000f, 10000);
+        // Shorter than the darkening debounce
+        hold(100f, 3000);
+        hold(1000f, 20000);
+
+        assertEquals(1, replay().writes);
+        assertEquals(1000f, mController.getAmbientLux(), 0f);
+    }
+
+    @Test
+    public void imperceptibleChangeIsNotWritten() throws IOException {
+        hold(5000f, 10000);
+        // Past the brightening hysteresis, but a step of a few levels at the top
+        hold(5600f, 30000);
+
+        LuxTraceReplay.Summary summary = replay();
+        assertEquals(1, summary.writes);
+        // The ambient moved, the backlight did not
+        assertTrue(mController.getAmbientLux()
+                > 5000f * (1f + LuxFilter.DEFAULT_BRIGHTEN_HYSTERESIS));
+    }
+
+    @Test
+    public void brighteningFollowsAfterDebounce() throws IOException {
+        hold(200f, 10000);
+        long stepMs = mTimeMs;
+        hold(20000f, 30000);
+
+        replay();
+        assertTrue(mWrites.size() > 1);
+        long firstMs = mWrites.get(1)[0];
+        assertTrue("brightened at " + firstMs,
+                firstMs >= stepMs + LuxFilter.DEFAULT_BRIGHTEN_DEBOUNCE_MS
+                && firstMs < stepMs + 2 * LuxFilter.DEFAULT_BRIGHTEN_DEBOUNCE_MS);
+        assertMonotonic(1, true);
+        int last = lastLevel();
+        assertFalse("ended at " + last,
+                AutoBrightnessController.isPerceptible(last, LEVEL_20000_LUX));
+    }
+
+    @Test
+    public void darkeningWaitsLongerThanBrightening() throws IOException {
+        hold(1000f, 10000);
+        long stepMs = mTimeMs;
+        hold(50f, 120000);
+
+        replay();
+        assertTrue(mWrites.size() > 1);
+        long firstMs = mWrites.get(1)[0];
+        assertTrue("darkened at " + firstMs,
+                firstMs >= stepMs + LuxFilter.DEFAULT_DARKEN_DEBOUNCE_MS);
+        assertMonotonic(1, false);
+        int last = lastLevel();
+        assertFalse("ended at " + last,
+                AutoBrightnessController.isPerceptible(last, LEVEL_50_LUX));
+    }
+
+    @Test
+    public void adjustmentAppliesImmediately() throws IOException {
+        hold(200f, 10000);
+        replay();
+
+        int brighter = mController.setAdjustment(1f);
+        assertTrue(brighter > LEVEL_200_LUX);
+        int darker = mController.setAdjustment(-1f);
+        assertTrue(darker < LEVEL_200_LUX);
+        assertEquals(LEVEL_200_LUX, mController.setAdjustment(0f));
+    }
+
+    /**
+     * Append samples of lux every PERIOD_MS for durationMs
+     */
+    private void hold(float lux, long durationMs) {
+        for (long end = mTimeMs + durationMs; mTimeMs < end; mTimeMs += PERIOD_MS) {
+            mTrace.append(mTimeMs).append(',').append(lux).append('\n');
+        }
+    }
+
+    private LuxTraceReplay.Summary replay() throws IOException {
+        return LuxTraceReplay.replay(
+                new BufferedReader(new StringReader(mTrace.toString())), mController,
+                (timeMs, lux, ambientLux, level) -> mWrites.add(new long[] {timeMs, level}));
+    }
+
+    private int lastLevel() {
+        return (int) mWrites.get(mWrites.size() - 1)[1];
+    }
+
+    private void assertWrite(int index, long timeMs, int level) {
+        assertEquals(timeMs, mWrites.get(index)[0]);
+        assertEquals(level, mWrites.get(index)[1]);
+    }
+
+    /**
+     * Writes from index on only move one way
+     */
+    private void assertMonotonic(int index, boolean up) {
+        for (int i = index; i < mWrites.size(); i++) {
+            long step = mWrites.get(i)[1] - mWrites.get(i - 1)[1];
+            assertTrue("write " + i + " went " + step, up ? step > 0 : step < 0);
+        }
+    }
+}
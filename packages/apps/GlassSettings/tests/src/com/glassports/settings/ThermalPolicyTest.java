@@ -0,0 +1,167 @@
+/*
+ * GlassPorts Thermal Policy Test
+ * Mitigation levels and hysteresis over replayed temperature traces
+ */
+
+package com.glassports.settings;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+public class ThermalPolicyTest {
+    /** ThermalService's polling period while warm */
+    private static final long PERIOD_MS = 2000;
+
+    private static final int LIGHT_MC = 58000;
+    private static final int SEVERE_MC = 70000;
+
+    private final StringBuilder mTrace = new StringBuilder();
+    private long mTimeMs;
+    private int mTempMc;
+    private ThermalPolicy mPolicy;
+
+    @Before
+    public void setUp() {
+        mPolicy = new ThermalPolicy();
+    }
+
+    @Test
+    public void coolDeviceStaysUnmitigated() throws IOException {
+        hold(50000, 600000);
+
+        ThermalTraceReplay.Summary summary = replay();
+        assertEquals(300, summary.samples);
+        assertEquals(ThermalPolicy.LEVEL_NONE, mPolicy.getLevel());
+        assertEquals(0, mPolicy.getHistoryCount());
+        assertEquals(summary.durationMs, mPolicy.getTimeAtLevelMs(ThermalPolicy.LEVEL_NONE));
+    }
+
+    @Test
+    public void hotStartSkipsLevels() throws IOException {
+        hold(72000, 10000);
+
+        replay();
+        assertEquals(ThermalPolicy.LEVEL_SEVERE, mPolicy.getLevel());
+        assertEquals(1, mPolicy.getHistoryCount());
+        assertTransition(0, ThermalPolicy.LEVEL_NONE, ThermalPolicy.LEVEL_SEVERE);
+    }
+
+    @Test
+    public void rampIsCaughtBeforeThreshold() throws IOException {
+        hold(50000, 10000);
+        // 0.1 C/s, a hotspot plus camera ramp
+        ramp(62000, 100);
+
+        replay();
+        assertTrue(mPolicy.getHistoryCount() >= 1);
+        assertTransition(0, ThermalPolicy.LEVEL_NONE, ThermalPolicy.LEVEL_LIGHT);
+        assertTrue("raised at " + mPolicy.getHistoryTempMc(0),
+                mPolicy.getHistoryTempMc(0) < LIGHT_MC);
+    }
+
+    @Test
+    public void oscillationAroundThresholdChangesLevelOnce() throws IOException {
+        hold(50000, 10000);
+        ramp(57000, 100);
+        for (int i = 0; i < 300; i++) {
+            hold(i % 2 == 0 ? 56000 : 59000, PERIOD_MS);
+        }
+
+        replay();
+        assertEquals(1, mPolicy.getHistoryCount());
+        assertEquals(ThermalPolicy.LEVEL_LIGHT, mPolicy.getLevel());
+    }
+
+    @Test
+    public void coolingInsideHysteresisHoldsLevel() throws IOException {
+        hold(60000, 10000);
+        // Under the threshold, but not by the hysteresis
+        hold(LIGHT_MC - ThermalPolicy.DEFAULT_HYSTERESIS_MC + 1000, 600000);
+
+        replay();
+        assertEquals(ThermalPolicy.LEVEL_LIGHT, mPolicy.getLevel());
+        assertEquals(1, mPolicy.getHistoryCount());
+
+        hold(LIGHT_MC - ThermalPolicy.DEFAULT_HYSTERESIS_MC - 1000, 60000);
+        replay();
+        assertEquals(ThermalPolicy.LEVEL_NONE, mPolicy.getLevel());
+    }
+
+    @Test
+    public void stepsDownOneLevelPerDwell() throws IOException {
+        hold(80000, 10000);
+        hold(40000, 600000);
+
+        replay();
+        assertEquals(ThermalPolicy.LEVEL_NONE, mPolicy.getLevel());
+        assertEquals(ThermalPolicy.LEVEL_COUNT, mPolicy.getHistoryCount());
+        assertTransition(0, ThermalPolicy.LEVEL_NONE, ThermalPolicy.LEVEL_CRITICAL);
+        for (int i = 1; i < mPolicy.getHistoryCount(); i++) {
+            assertTransition(i, ThermalPolicy.LEVEL_COUNT - i, ThermalPolicy.LEVEL_COUNT - i - 1);
+            long heldMs = mPolicy.getHistoryTimeMs(i) - mPolicy.getHistoryTimeMs(i - 1);
+            assertTrue("held " + heldMs + " ms", heldMs >= ThermalPolicy.DEFAULT_MIN_DWELL_MS);
+        }
+    }
+
+    @Test
+    public void levelIsHeldForDwellAfterSpike() throws IOException {
+        hold(SEVERE_MC + 1000, PERIOD_MS);
+        hold(40000, 120000);
+
+        replay();
+        assertEquals(ThermalPolicy.LEVEL_NONE, mPolicy.getLevel());
+        assertTransition(0, ThermalPolicy.LEVEL_NONE, ThermalPolicy.LEVEL_SEVERE);
+        assertTransition(1, ThermalPolicy.LEVEL_SEVERE, ThermalPolicy.LEVEL_MODERATE);
+        assertTrue(mPolicy.getHistoryTimeMs(1) - mPolicy.getHistoryTimeMs(0)
+                >= ThermalPolicy.DEFAULT_MIN_DWELL_MS);
+    }
+
+    /**
+     * Append samples at tempMc every PERIOD_MS for durationMs
+     */
+    private void hold(int tempMc, long durationMs) {
+        mTempMc = tempMc;
+        for (long end = mTimeMs + durationMs; mTimeMs < end; mTimeMs += PERIOD_MS) {
+            append();
+        }
+    }
+
+    /**
+     * Append samples moving from the last temperature to tempMc at
+     * mcPerS millidegrees per second
+     */
+    private void ramp(int tempMc, int mcPerS) {
+        int step = (int) (mcPerS * PERIOD_MS / 1000);
+        while (step > 0 ? mTempMc < tempMc : mTempMc > tempMc) {
+            mTempMc += step;
+            append();
+            mTimeMs += PERIOD_MS;
+        }
+    }
+
+    private void append() {
+        mTrace.append(mTimeMs).append(',').append(mTempMc).append('\n');
+    }
+
+    /**
+     * Replay the samples appended since the last replay
+     */
+    private ThermalTraceReplay.Summary replay() throws IOException {
+        String trace = mTrace.toString();
+        mTrace.setLength(0);
+        return ThermalTraceReplay.replay(new BufferedReader(new StringReader(trace)), mPolicy,
+                (timeMs, tempMc, filteredMc, level) -> { });
+    }
+
+    private void assertTransition(int i, int from, int to) {
+        assertEquals(from, mPolicy.getHistoryFrom(i));
+        assertEquals(to, mPolicy.getHistoryTo(i));
+    }
+}
@@ -11,20 +11,47 @@ LOCAL_MODULE := GlassWifiApService
 LOCAL_MODULE_TAGS := optional
 LOCAL_MODULE_CLASS := JAVA_LIBRARIES
 
-LOCAL_SRC_FILES := $(call all-java-files-under, src)
+LOCAL_SRC_FILES := \
+    $(call all-java-files-under, src) \
+    $(call all-Iaidl-files-under, src)
+
+LOCAL_AIDL_INCLUDES := $(LOCAL_PATH)/src
 
 LOCAL_JAVA_LIBRARIES := \
     framework \
     services
 
 LOCAL_STATIC_JAVA_LIBRARIES := \
-    android-support-v4
+    android-support-v4 \
+    android.hardware.wifi.hostapd-V1.0-java \
+    android.hidl.manager-V1.0-java
 
 LOCAL_CERTIFICATE := platform
 LOCAL_PRIVILEGED_MODULE := true
 
 include $(BUILD_JAVA_LIBRARY)
 
+# Client side for other apps: WifiApManager and the binder interface.
+# WifiApService is only on the compile classpath; WifiApManager uses its
+# constants, which are inlined.
+include $(CLEAR_VARS)
+
+LOCAL_MODULE := glass-wifiap-client
+LOCAL_MODULE_TAGS := optional
+
+LOCAL_SRC_FILES := \
+    src/com/glassports/wifiap/WifiApManager.java \
+    src/com/glassports/wifiap/WifiApSnapshot.java \
+    src/com/glassports/wifiap/StationInfo.java \
+    src/com/glassports/wifiap/IWifiApService.aidl \
+    src/com/glassports/wifiap/IWifiApCallback.aidl
+
+LOCAL_AIDL_INCLUDES := $(LOCAL_PATH)/src
+
+LOCAL_JAVA_LIBRARIES := GlassWifiApService
+
+include $(BUILD_STATIC_JAVA_LIBRARY)
+
 # Also build the native helper
 include $(CLEAR_VARS)
 
@@ -33,7 +60,9 @@ LOCAL_MODULE_TAGS := optional
 LOCAL_MODULE_CLASS := SHARED_LIBRARIES
 
 LOCAL_SRC_FILES := \
-    jni/wifi_ap_control.c
+    jni/wifi_ap_control.c \
+    jni/hostapd_ctrl_jni.c \
+    jni/hostapd_ctrl.c
 
 LOCAL_C_INCLUDES := \
     $(JNI_H_INCLUDE) \
@@ -47,3 +76,29 @@ LOCAL_SHARED_LIBRARIES := \
 LOCAL_CFLAGS := -Wall -Werror
 
 include $(BUILD_SHARED_LIBRARY)
+
+# Host build of the hostapd JNI and a fake hostapd, for HostapdMonitorTest
+include $(CLEAR_VARS)
+
+LOCAL_MODULE := libglasswifiap
+LOCAL_MODULE_TAGS := tests
+LOCAL_SRC_FILES := \
+    jni/hostapd_ctrl_jni.c \
+    jni/hostapd_ctrl.c
+LOCAL_C_INCLUDES := $(JNI_H_INCLUDE)
+LOCAL_SHARED_LIBRARIES := liblog
+LOCAL_CFLAGS := -Wall -Werror -D_GNU_SOURCE
+
+include $(BUILD_HOST_SHARED_LIBRARY)
+
+include $(CLEAR_VARS)
+
+LOCAL_MODULE := glass_fake_hostapd
+LOCAL_MODULE_TAGS := optional
+LOCAL_SRC_FILES := tools/fake_hostapd.c
+LOCAL_CFLAGS := -Wall -Werror
+
+include $(BUILD_HOST_EXECUTABLE)
+
+# Host tests
+include $(call all-makefiles-under,$(LOCAL_PATH))
@@ -0,0 +1,202 @@
+/*
+ * GlassPorts hostapd Control Interface Client
+ * Minimal client for the hostapd ctrl_interface datagram socket
+ */
+
+#include "hostapd_ctrl.h"
+
+#include <errno.h>
+#include <poll.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+#include <sys/socket.h>
+#include <sys/un.h>
+
+struct hostapd_ctrl {
+    int fd;
+    struct sockaddr_un local;
+};
+
+/*
+ * hostapd answers to the sender's address, so the client socket needs a
+ * path of its own. Bind it in the control directory, which hostapd can
+ * always write to.
+ */
+static int bind_local(struct hostapd_ctrl *ctrl, const char *ctrl_path) {
+    static int counter;
+    char dir[sizeof(ctrl->local.sun_path)];
+    const char *slash = strrchr(ctrl_path, '/');
+    size_t dir_len = slash != NULL ? (size_t)(slash - ctrl_path) : 0;
+    int tries;
+
+    if (dir_len == 0) {
+        strcpy(dir, ".");
+    } else if (dir_len < sizeof(dir)) {
+        memcpy(dir, ctrl_path, dir_len);
+        dir[dir_len] = '\0';
+    } else {
+        errno = ENAMETOOLONG;
+        return -1;
+    }
+
+    ctrl->local.sun_family = AF_UNIX;
+    for (tries = 0; tries < 2; tries++) {
+        int n = snprintf(ctrl->local.sun_path, sizeof(ctrl->local.sun_path),
+                "%s/glassap-%d-%d", dir, (int)getpid(), __sync_fetch_and_add(&counter, 1));
+        if (n < 0 || (size_t)n >= sizeof(ctrl->local.sun_path)) {
+            errno = ENAMETOOLONG;
+            return -1;
+        }
+        if (bind(ctrl->fd, (struct sockaddr *)&ctrl->local, sizeof(ctrl->local)) == 0) {
+            return 0;
+        }
+        if (errno != EADDRINUSE) {
+            return -1;
+        }
+        /* Left over from a previous process with our pid */
+        unlink(ctrl->local.sun_path);
+    }
+    return -1;
+}
+
+struct hostapd_ctrl *hostapd_ctrl_open(const char *ctrl_path) {
+    struct hostapd_ctrl *ctrl;
+    struct sockaddr_un dest;
+    int saved_errno;
+
+    if (strlen(ctrl_path) >= sizeof(dest.sun_path)) {
+        errno = ENAMETOOLONG;
+        return NULL;
+    }
+
+    ctrl = calloc(1, sizeof(*ctrl));
+    if (ctrl == NULL) {
+        return NULL;
+    }
+    ctrl->fd = socket(AF_UNIX, SOCK_DGRAM | SOCK_CLOEXEC, 0);
+    if (ctrl->fd < 0) {
+        free(ctrl);
+        return NULL;
+    }
+
+    if (bind_local(ctrl, ctrl_path) < 0) {
+        saved_errno = errno;
+        close(ctrl->fd);
+        free(ctrl);
+        errno = saved_errno;
+        return NULL;
+    }
+
+    memset(&dest, 0, sizeof(dest));
+    dest.sun_family = AF_UNIX;
+    strcpy(dest.sun_path, ctrl_path);
+    if (connect(ctrl->fd, (struct sockaddr *)&dest, sizeof(dest)) < 0) {
+        saved_errno = errno;
+        hostapd_ctrl_close(ctrl);
+        errno = saved_errno;
+        return NULL;
+    }
+
+    return ctrl;
+}
+
+void hostapd_ctrl_close(struct hostapd_ctrl *ctrl) {
+    if (ctrl == NULL) {
+        return;
+    }
+    unlink(ctrl->local.sun_path);
+    close(ctrl->fd);
+    free(ctrl);
+}
+
+int hostapd_ctrl_request(struct hostapd_ctrl *ctrl, const char *cmd,
+                         char *reply, size_t *reply_len, int timeout_ms) {
+    struct pollfd pfd;
+    ssize_t n;
+
+    if (send(ctrl->fd, cmd, strlen(cmd), 0) < 0) {
+        return -1;
+    }
+
+    pfd.fd = ctrl->fd;
+    pfd.events = POLLIN;
+    for (;;) {
+        int ret = poll(&pfd, 1, timeout_ms);
+        if (ret < 0) {
+            if (errno == EINTR) {
+                continue;
+            }
+            return -1;
+        }
+        if (ret == 0) {
+            return -2;
+        }
+
+        n = recv(ctrl->fd, reply, *reply_len - 1, 0);
+        if (n < 0) {
+            return -1;
+        }
+        if (n > 0 && reply[0] == '<') {
+            /* Event message on an attached connection, not our reply */
+            continue;
+        }
+        reply[n] = '\0';
+        *reply_len = (size_t)n;
+        return 0;
+    }
+}
+
+int hostapd_ctrl_attach(struct hostapd_ctrl *ctrl) {
+    char reply[16];
+    size_t len = sizeof(reply);
+
+    if (hostapd_ctrl_request(ctrl, "ATTACH", reply, &len, 2000) != 0) {
+        return -1;
+    }
+    if (strncmp(reply, "OK", 2) != 0) {
+        errno = EPROTO;
+        return -1;
+    }
+    return 0;
+}
+
+int hostapd_ctrl_recv(struct hostapd_ctrl *ctrl, char *buf, size_t *len,
+                      int wake_fd) {
+    struct pollfd pfds[2];
+    ssize_t n;
+
+    pfds[0].fd = ctrl->fd;
+    pfds[0].events = POLLIN;
+    pfds[1].fd = wake_fd;
+    pfds[1].events = POLLIN;
+
+    for (;;) {
+        if (poll(pfds, wake_fd >= 0 ? 2 : 1, -1) < 0) {
+            if (errno == EINTR) {
+                continue;
+            }
+            return -1;
+        }
+        if (wake_fd >= 0 && (pfds[1].revents & (POLLIN | POLLHUP))) {
+            return 1;
+        }
+        if (pfds[0].revents & (POLLERR | POLLHUP)) {
+            errno = ECONNRESET;
+            return -1;
+        }
+        if (pfds[0].revents & POLLIN) {
+            n = recv(ctrl->fd, buf, *len - 1, 0);
+            if (n < 0) {
+                if (errno == EINTR) {
+                    continue;
+                }
+                return -1;
+            }
+            buf[n] = '\0';
+            *len = (size_t)n;
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * GlassPorts hostapd Control Interface Client
+ * Minimal client for the hostapd ctrl_interface datagram socket
+ */
+
+#ifndef GLASS_HOSTAPD_CTRL_H
+#define GLASS_HOSTAPD_CTRL_H
+
+#include <stddef.h>
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+/* hostapd replies and events fit in this; larger ones are truncated */
+#define HOSTAPD_CTRL_BUF_SIZE 4096
+
+struct hostapd_ctrl;
+
+/*
+ * Connect to the control socket at ctrl_path, e.g.
+ * /data/misc/wifi/hostapd/wlan0. The local end is bound next to it, so
+ * the caller needs write access to that directory.
+ *
+ * Returns NULL on failure with errno set.
+ */
+struct hostapd_ctrl *hostapd_ctrl_open(const char *ctrl_path);
+
+/*
+ * Close the connection and remove the local socket
+ */
+void hostapd_ctrl_close(struct hostapd_ctrl *ctrl);
+
+/*
+ * Send a command and wait up to timeout_ms for its reply. Unsolicited
+ * event messages that arrive in between are discarded, so use a separate
+ * connection for ATTACH.
+ *
+ * On success reply holds a NUL-terminated string, *reply_len its length.
+ * Returns 0 on success, -1 on error, -2 on timeout.
+ */
+int hostapd_ctrl_request(struct hostapd_ctrl *ctrl, const char *cmd,
+                         char *reply, size_t *reply_len, int timeout_ms);
+
+/*
+ * Register this connection for event messages
+ *
+ * Returns 0 on success, -1 on error.
+ */
+int hostapd_ctrl_attach(struct hostapd_ctrl *ctrl);
+
+/*
+ * Block until an event arrives or wake_fd becomes readable. Nothing is
+ * polled: the thread sleeps in poll() until either happens.
+ *
+ * On an event buf holds a NUL-terminated message such as
+ * "<3>AP-STA-CONNECTED 02:00:00:00:01:00", *len its length.
+ * Returns 0 on an event, 1 if woken through wake_fd, -1 on error.
+ */
+int hostapd_ctrl_recv(struct hostapd_ctrl *ctrl, char *buf, size_t *len,
+                      int wake_fd);
+
+#ifdef __cplusplus
+}
+#endif
+
+#endif /* GLASS_HOSTAPD_CTRL_H */
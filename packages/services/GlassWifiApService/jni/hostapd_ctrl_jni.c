@@ -0,0 +1,214 @@
+/*
+ * GlassPorts hostapd Control JNI
+ * WifiApNative methods that only talk to hostapd's control socket
+ *
+ * Split from wifi_ap_control.c so the same code also builds for the host,
+ * where HostapdMonitorTest drives it against glass_fake_hostapd. The
+ * functions keep their JNI names, so the host library needs no
+ * registration.
+ */
+
+#include <jni.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <pthread.h>
+#include <stdio.h>
+#include <string.h>
+#include <unistd.h>
+
+#define LOG_TAG "GlassWifiApJNI"
+#include <cutils/log.h>
+
+#include "hostapd_ctrl.h"
+#include "hostapd_ctrl_jni.h"
+
+#define HOSTAPD_CTRL_PATH "/data/misc/wifi/hostapd/wlan0"
+
+/*
+ * Event connection to hostapd. Only the thread blocked in
+ * waitHostapdEvent uses g_monitor; other threads wake it through the pipe,
+ * which g_monitor_lock guards.
+ */
+static struct hostapd_ctrl *g_monitor;
+static int g_wake_pipe[2] = { -1, -1 };
+static pthread_mutex_t g_monitor_lock = PTHREAD_MUTEX_INITIALIZER;
+
+/*
+ * hostapd's control socket. It moves when hostapd is configured over HIDL,
+ * which writes its own config; callers copy it under g_ctrl_path_lock.
+ */
+static char g_ctrl_path[108] = HOSTAPD_CTRL_PATH;
+static pthread_mutex_t g_ctrl_path_lock = PTHREAD_MUTEX_INITIALIZER;
+
+static struct hostapd_ctrl *open_ctrl(void) {
+    char path[sizeof(g_ctrl_path)];
+
+    pthread_mutex_lock(&g_ctrl_path_lock);
+    memcpy(path, g_ctrl_path, sizeof(path));
+    pthread_mutex_unlock(&g_ctrl_path_lock);
+    return hostapd_ctrl_open(path);
+}
+
+/*
+ * JNI: Get connected station count
+ */
+JNIEXPORT jint JNICALL
+Java_com_glassports_wifiap_WifiApNative_getConnectedStationCount(JNIEnv *env, jclass clazz) {
+    char reply[HOSTAPD_CTRL_BUF_SIZE];
+    char cmd[32] = "STA-FIRST";
+    struct hostapd_ctrl *ctrl;
+    int count = 0;
+
+    ctrl = open_ctrl();
+    if (ctrl == NULL) {
+        return 0;
+    }
+
+    /* Each STA reply starts with the station's MAC on its own line */
+    while (count < 64) {
+        size_t len = sizeof(reply);
+        char *newline;
+        if (hostapd_ctrl_request(ctrl, cmd, reply, &len, 1000) != 0
+                || len == 0 || strncmp(reply, "FAIL", 4) == 0) {
+            break;
+        }
+        newline = strchr(reply, '\n');
+        if (newline != NULL) {
+            *newline = '\0';
+        }
+        snprintf(cmd, sizeof(cmd), "STA-NEXT %.17s", reply);
+        count++;
+    }
+
+    hostapd_ctrl_close(ctrl);
+    return count;
+}
+
+/*
+ * JNI: Set the path of hostapd's control socket
+ */
+JNIEXPORT void JNICALL
+Java_com_glassports_wifiap_WifiApNative_setHostapdCtrlPath(
+        JNIEnv *env, jclass clazz, jstring path) {
+    const char *path_str = (*env)->GetStringUTFChars(env, path, NULL);
+
+    if (strlen(path_str) < sizeof(g_ctrl_path)) {
+        pthread_mutex_lock(&g_ctrl_path_lock);
+        strcpy(g_ctrl_path, path_str);
+        pthread_mutex_unlock(&g_ctrl_path_lock);
+    } else {
+        ALOGE("hostapd control path too long: %s", path_str);
+    }
+    (*env)->ReleaseStringUTFChars(env, path, path_str);
+}
+
+/*
+ * JNI: Send a command to hostapd and return its reply
+ */
+JNIEXPORT jstring JNICALL
+Java_com_glassports_wifiap_WifiApNative_hostapdCommand(
+        JNIEnv *env, jclass clazz, jstring command) {
+    char reply[HOSTAPD_CTRL_BUF_SIZE];
+    size_t len = sizeof(reply);
+    struct hostapd_ctrl *ctrl;
+    const char *cmd;
+    int ret;
+
+    ctrl = open_ctrl();
+    if (ctrl == NULL) {
+        return NULL;
+    }
+
+    cmd = (*env)->GetStringUTFChars(env, command, NULL);
+    ret = hostapd_ctrl_request(ctrl, cmd, reply, &len, 2000);
+    if (ret != 0) {
+        ALOGW("hostapd command %s failed: %d", cmd, ret);
+    }
+    (*env)->ReleaseStringUTFChars(env, command, cmd);
+    hostapd_ctrl_close(ctrl);
+
+    return ret == 0 ? (*env)->NewStringUTF(env, reply) : NULL;
+}
+
+/*
+ * JNI: Connect to hostapd and ATTACH for events
+ */
+JNIEXPORT jboolean JNICALL
+Java_com_glassports_wifiap_WifiApNative_openHostapdMonitor(JNIEnv *env, jclass clazz) {
+    struct hostapd_ctrl *ctrl;
+    int wake_pipe[2];
+
+    if (g_monitor != NULL) {
+        ALOGE("hostapd monitor already open");
+        return JNI_FALSE;
+    }
+
+    ctrl = open_ctrl();
+    if (ctrl == NULL) {
+        ALOGE("Failed to connect to hostapd: %s", strerror(errno));
+        return JNI_FALSE;
+    }
+    if (hostapd_ctrl_attach(ctrl) < 0) {
+        ALOGE("Failed to attach to hostapd: %s", strerror(errno));
+        hostapd_ctrl_close(ctrl);
+        return JNI_FALSE;
+    }
+    if (pipe2(wake_pipe, O_CLOEXEC) < 0) {
+        hostapd_ctrl_close(ctrl);
+        return JNI_FALSE;
+    }
+
+    pthread_mutex_lock(&g_monitor_lock);
+    g_monitor = ctrl;
+    g_wake_pipe[0] = wake_pipe[0];
+    g_wake_pipe[1] = wake_pipe[1];
+    pthread_mutex_unlock(&g_monitor_lock);
+    return JNI_TRUE;
+}
+
+/*
+ * JNI: Block until the next hostapd event. Returns null once the monitor
+ * is closed or the connection fails, after releasing it.
+ */
+JNIEXPORT jstring JNICALL
+Java_com_glassports_wifiap_WifiApNative_waitHostapdEvent(JNIEnv *env, jclass clazz) {
+    char event[HOSTAPD_CTRL_BUF_SIZE];
+    size_t len = sizeof(event);
+    int ret;
+
+    if (g_monitor == NULL) {
+        return NULL;
+    }
+
+    ret = hostapd_ctrl_recv(g_monitor, event, &len, g_wake_pipe[0]);
+    if (ret == 0) {
+        return (*env)->NewStringUTF(env, event);
+    }
+    if (ret < 0) {
+        ALOGW("hostapd monitor failed: %s", strerror(errno));
+    }
+
+    pthread_mutex_lock(&g_monitor_lock);
+    hostapd_ctrl_close(g_monitor);
+    g_monitor = NULL;
+    close(g_wake_pipe[0]);
+    close(g_wake_pipe[1]);
+    g_wake_pipe[0] = g_wake_pipe[1] = -1;
+    pthread_mutex_unlock(&g_monitor_lock);
+    return NULL;
+}
+
+/*
+ * JNI: Wake the thread in waitHostapdEvent so it closes the monitor
+ */
+JNIEXPORT void JNICALL
+Java_com_glassports_wifiap_WifiApNative_closeHostapdMonitor(JNIEnv *env, jclass clazz) {
+    pthread_mutex_lock(&g_monitor_lock);
+    if (g_wake_pipe[1] >= 0) {
+        char c = 1;
+        if (write(g_wake_pipe[1], &c, 1) < 0) {
+            ALOGW("Failed to wake hostapd monitor: %s", strerror(errno));
+        }
+    }
+    pthread_mutex_unlock(&g_monitor_lock);
+}
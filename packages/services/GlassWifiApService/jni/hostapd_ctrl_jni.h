@@ -0,0 +1,39 @@
+/*
+ * GlassPorts hostapd Control JNI
+ * WifiApNative methods backed by hostapd's control socket
+ */
+
+#ifndef GLASS_HOSTAPD_CTRL_JNI_H
+#define GLASS_HOSTAPD_CTRL_JNI_H
+
+#include <jni.h>
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+JNIEXPORT jint JNICALL
+Java_com_glassports_wifiap_WifiApNative_getConnectedStationCount(JNIEnv *env, jclass clazz);
+
+JNIEXPORT void JNICALL
+Java_com_glassports_wifiap_WifiApNative_setHostapdCtrlPath(
+        JNIEnv *env, jclass clazz, jstring path);
+
+JNIEXPORT jstring JNICALL
+Java_com_glassports_wifiap_WifiApNative_hostapdCommand(
+        JNIEnv *env, jclass clazz, jstring command);
+
+JNIEXPORT jboolean JNICALL
+Java_com_glassports_wifiap_WifiApNative_openHostapdMonitor(JNIEnv *env, jclass clazz);
+
+JNIEXPORT jstring JNICALL
+Java_com_glassports_wifiap_WifiApNative_waitHostapdEvent(JNIEnv *env, jclass clazz);
+
+JNIEXPORT void JNICALL
+Java_com_glassports_wifiap_WifiApNative_closeHostapdMonitor(JNIEnv *env, jclass clazz);
+
+#ifdef __cplusplus
+}
+#endif
+
+#endif /* GLASS_HOSTAPD_CTRL_JNI_H */
@@ -4,6 +4,8 @@
  */
 
 #include <jni.h>
+#include <errno.h>
+#include <fcntl.h>
 #include <stdio.h>
 #include <stdlib.h>
 #include <string.h>
@@ -12,45 +14,56 @@
 #include <sys/socket.h>
 #include <sys/ioctl.h>
 #include <net/if.h>
+#include <sys/system_properties.h>
 #include <linux/wireless.h>
 
 #define LOG_TAG "GlassWifiApJNI"
 #include <cutils/log.h>
 #include <cutils/properties.h>
 
+#include "hostapd_ctrl_jni.h"
+
 #define WIFI_AP_INTERFACE "wlan0"
-#define HOSTAPD_CONF_FILE "/data/misc/wifi/hostapd/hostapd.conf"
 
 /*
- * Write hostapd configuration file
+ * Properties waitApProperties follows, as bits of its result. Must match
+ * ApPropertyWatcher.
  */
-static int write_hostapd_config(const char *ssid, const char *password, int channel) {
-    FILE *fp = fopen(HOSTAPD_CONF_FILE, "w");
-    if (fp == NULL) {
-        ALOGE("Failed to open hostapd config file");
-        return -1;
-    }
+#define AP_PROP_ENABLED      (1 << 0) /* sys.wifi.ap.enabled=1 */
+#define AP_PROP_HOSTAPD      (1 << 1) /* hostapd process alive */
+#define AP_PROP_HOSTAPD_HIDL (1 << 2) /* hostapd_hidl process alive */
 
-    fprintf(fp, "# GlassPorts WiFi AP Configuration\n");
-    fprintf(fp, "interface=%s\n", WIFI_AP_INTERFACE);
-    fprintf(fp, "driver=nl80211\n");
-    fprintf(fp, "ctrl_interface=/data/misc/wifi/hostapd\n");
-    fprintf(fp, "ssid=%s\n", ssid);
-    fprintf(fp, "channel=%d\n", channel);
-    fprintf(fp, "hw_mode=g\n");
-    fprintf(fp, "ieee80211n=1\n");
-    fprintf(fp, "wmm_enabled=1\n");
-    fprintf(fp, "wpa=2\n");
-    fprintf(fp, "wpa_key_mgmt=WPA-PSK\n");
-    fprintf(fp, "wpa_pairwise=CCMP\n");
-    fprintf(fp, "rsn_pairwise=CCMP\n");
-    fprintf(fp, "wpa_passphrase=%s\n", password);
-    fprintf(fp, "max_num_sta=4\n");
-    fprintf(fp, "ignore_broadcast_ssid=0\n");
-
-    fclose(fp);
-    ALOGI("Wrote hostapd config: ssid=%s, channel=%d", ssid, channel);
-    return 0;
+/*
+ * Last bits waitApProperties returned, -1 before the first call. Written
+ * only by the watcher thread.
+ */
+static int g_ap_props = -1;
+
+/*
+ * init sets init.svc.<name> when it starts a service and again when it
+ * reaps the process, so "stopped" is the exit notification
+ */
+static int is_service_alive(const char *prop) {
+    char value[PROPERTY_VALUE_MAX];
+    property_get(prop, value, "");
+    return strcmp(value, "running") == 0 || strcmp(value, "stopping") == 0;
+}
+
+static int read_ap_props(void) {
+    char value[PROPERTY_VALUE_MAX];
+    int props = 0;
+
+    property_get("sys.wifi.ap.enabled", value, "0");
+    if (strcmp(value, "1") == 0) {
+        props |= AP_PROP_ENABLED;
+    }
+    if (is_service_alive("init.svc.hostapd")) {
+        props |= AP_PROP_HOSTAPD;
+    }
+    if (is_service_alive("init.svc.hostapd_hidl")) {
+        props |= AP_PROP_HOSTAPD_HIDL;
+    }
+    return props;
 }
 
 /*
@@ -117,30 +130,19 @@ static int set_interface_up(const char *ifname, int up) {
 }
 
 /*
- * JNI: Configure and start WiFi AP
+ * JNI: Start WiFi AP from the config WifiApService wrote
  */
 JNIEXPORT jboolean JNICALL
-Java_com_glassports_wifiap_WifiApNative_startWifiAp(
-        JNIEnv *env, jclass clazz, jstring ssid, jstring password, jint channel) {
-
-    const char *ssid_str = (*env)->GetStringUTFChars(env, ssid, NULL);
-    const char *pass_str = (*env)->GetStringUTFChars(env, password, NULL);
-
-    ALOGI("Starting WiFi AP: ssid=%s, channel=%d", ssid_str, channel);
+Java_com_glassports_wifiap_WifiApNative_startWifiAp(JNIEnv *env, jclass clazz) {
+    ALOGI("Starting WiFi AP");
 
-    /* Write configuration */
-    if (write_hostapd_config(ssid_str, pass_str, channel) < 0) {
-        (*env)->ReleaseStringUTFChars(env, ssid, ssid_str);
-        (*env)->ReleaseStringUTFChars(env, password, pass_str);
-        return JNI_FALSE;
-    }
-
-    /* Set system property to trigger hostapd start */
+    /*
+     * Set system property to trigger hostapd start. The trigger only
+     * fires on a change, and a crashed hostapd leaves the property at 1.
+     */
+    property_set("sys.wifi.ap.enabled", "0");
     property_set("sys.wifi.ap.enabled", "1");
 
-    (*env)->ReleaseStringUTFChars(env, ssid, ssid_str);
-    (*env)->ReleaseStringUTFChars(env, password, pass_str);
-
     return JNI_TRUE;
 }
 
@@ -162,33 +164,61 @@ Java_com_glassports_wifiap_WifiApNative_stopWifiAp(JNIEnv *env, jclass clazz) {
  */
 JNIEXPORT jboolean JNICALL
 Java_com_glassports_wifiap_WifiApNative_isWifiApRunning(JNIEnv *env, jclass clazz) {
-    char value[PROPERTY_VALUE_MAX];
-    property_get("sys.wifi.ap.enabled", value, "0");
-    return strcmp(value, "1") == 0 ? JNI_TRUE : JNI_FALSE;
+    int props = __atomic_load_n(&g_ap_props, __ATOMIC_ACQUIRE);
+
+    /* The watcher keeps g_ap_props current once it runs */
+    if (props < 0) {
+        props = read_ap_props();
+    }
+    return (props & AP_PROP_ENABLED) != 0 ? JNI_TRUE : JNI_FALSE;
 }
 
 /*
- * JNI: Get connected station count
+ * JNI: Block until the watched properties differ from last_props and
+ * return them. Sleeps on the property area's serial, which every property
+ * write bumps, so nothing runs between changes.
  */
 JNIEXPORT jint JNICALL
-Java_com_glassports_wifiap_WifiApNative_getConnectedStationCount(JNIEnv *env, jclass clazz) {
-    /* Read from hostapd control interface */
-    /* For now, return 0 */
-    return 0;
+Java_com_glassports_wifiap_WifiApNative_waitApProperties(
+        JNIEnv *env, jclass clazz, jint last_props) {
+    for (;;) {
+        /* Taken before reading, so a write in between is not missed */
+        uint32_t serial = __system_property_area_serial();
+        int props = read_ap_props();
+
+        if (props != last_props) {
+            __atomic_store_n(&g_ap_props, props, __ATOMIC_RELEASE);
+            return props;
+        }
+        __system_property_wait(NULL, serial, &serial, NULL);
+    }
 }
 
+
 /*
  * JNI native method registration
  */
 static JNINativeMethod gMethods[] = {
-    {"startWifiAp", "(Ljava/lang/String;Ljava/lang/String;I)Z",
+    {"startWifiAp", "()Z",
             (void *)Java_com_glassports_wifiap_WifiApNative_startWifiAp},
     {"stopWifiAp", "()Z",
             (void *)Java_com_glassports_wifiap_WifiApNative_stopWifiAp},
     {"isWifiApRunning", "()Z",
             (void *)Java_com_glassports_wifiap_WifiApNative_isWifiApRunning},
+    {"waitApProperties", "(I)I",
+            (void *)Java_com_glassports_wifiap_WifiApNative_waitApProperties},
     {"getConnectedStationCount", "()I",
             (void *)Java_com_glassports_wifiap_WifiApNative_getConnectedStationCount},
+    {"setHostapdCtrlPath", "(Ljava/lang/String;)V",
+            (void *)Java_com_glassports_wifiap_WifiApNative_setHostapdCtrlPath},
+    {"hostapdCommand", "(Ljava/lang/String;)Ljava/lang/String;",
+            (void *)Java_com_glassports_wifiap_WifiApNative_hostapdCommand},
+    {"openHostapdMonitor", "()Z",
+            (void *)Java_com_glassports_wifiap_WifiApNative_openHostapdMonitor},
+    {"waitHostapdEvent", "()Ljava/lang/String;",
+            (void *)Java_com_glassports_wifiap_WifiApNative_waitHostapdEvent},
+    {"closeHostapdMonitor", "()V",
+            (void *)Java_com_glassports_wifiap_WifiApNative_closeHostapdMonitor},
 };
 
 /*
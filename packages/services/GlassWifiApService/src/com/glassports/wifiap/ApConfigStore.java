@@ -0,0 +1,167 @@
+/*
+ * GlassPorts WiFi AP Config Store
+ * Keeps the hotspot configuration and on/off state across reboots
+ */
+
+package com.glassports.wifiap;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Small key=value file holding what the user set and whether the AP was
+ * on, so the service starts from it instead of the build defaults.
+ *
+ * The file lives in device protected storage, which is readable before
+ * the user unlocks, so the AP can come back at LOCKED_BOOT_COMPLETED.
+ * save() writes through HostapdConfig.writeAtomically and only when a
+ * value changed, so a reboot mid-write leaves the previous complete
+ * file.
+ *
+ * Not thread safe; the service loads it in onCreate and saves from the
+ * state machine thread.
+ */
+class ApConfigStore {
+    static final String FILE_NAME = "wifi_ap.conf";
+
+    private static final String KEY_SSID = "ssid";
+    private static final String KEY_PASSWORD = "password";
+    private static final String KEY_CHANNEL = "channel";
+    private static final String KEY_ENABLED = "enabled";
+    private static final String KEY_LAST_CHANNEL = "last_channel";
+
+    private final File mFile;
+    /** Content on disk, null until loaded or saved */
+    private String mSaved;
+    private int mWrites;
+
+    String ssid;
+    String password;
+    /** Channel setting, WifiApService.CHANNEL_AUTO for automatic */
+    int channel;
+    boolean enabled;
+    /** Channel the AP last beaconed on, 0 if never */
+    int lastChannel;
+
+    ApConfigStore(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Read the file over the current values
+     *
+     * @return whether a file was read
+     */
+    boolean load() throws IOException {
+        if (!mFile.exists()) {
+            return false;
+        }
+        StringBuilder content = new StringBuilder(256);
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(mFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                content.append(line).append('\n');
+                int eq = line.indexOf('=');
+                if (line.startsWith("#") || eq <= 0) {
+                    continue;
+                }
+                set(line.substring(0, eq), unescape(line.substring(eq + 1)));
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad value in " + mFile, e);
+        }
+        mSaved = content.toString();
+        return true;
+    }
+
+    /**
+     * Write the current values unless the file already holds them
+     *
+     * @return whether the file was written
+     */
+    boolean save() throws IOException {
+        String content = render();
+        if (content.equals(mSaved)) {
+            return false;
+        }
+        File dir = mFile.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        HostapdConfig.writeAtomically(mFile, content.getBytes(StandardCharsets.UTF_8));
+        mSaved = content;
+        mWrites++;
+        return true;
+    }
+
+    int getWrites() {
+        return mWrites;
+    }
+
+    private void set(String key, String value) {
+        switch (key) {
+            case KEY_SSID:
+                ssid = value;
+                break;
+            case KEY_PASSWORD:
+                password = value;
+                break;
+            case KEY_CHANNEL:
+                channel = Integer.parseInt(value);
+                break;
+            case KEY_ENABLED:
+                enabled = Boolean.parseBoolean(value);
+                break;
+            case KEY_LAST_CHANNEL:
+                lastChannel = Integer.parseInt(value);
+                break;
+            default:
+                // Written by a later version; ignore
+                break;
+        }
+    }
+
+    private String render() {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("# GlassPorts WiFi AP state\n");
+        if (ssid != null) {
+            sb.append(KEY_SSID).append('=').append(escape(ssid)).append('\n');
+        }
+        if (password != null) {
+            sb.append(KEY_PASSWORD).append('=').append(escape(password)).append('\n');
+        }
+        sb.append(KEY_CHANNEL).append('=').append(channel).append('\n');
+        sb.append(KEY_ENABLED).append('=').append(enabled).append('\n');
+        sb.append(KEY_LAST_CHANNEL).append('=').append(lastChannel).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * Keep values on one line
+     */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                sb.append(next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
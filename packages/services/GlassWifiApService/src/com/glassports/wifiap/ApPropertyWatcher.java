@@ -0,0 +1,96 @@
+/*
+ * GlassPorts WiFi AP Property Watcher
+ * Follows the hotspot's system properties and hostapd's process state
+ */
+
+package com.glassports.wifiap;
+
+import android.util.Log;
+
+/**
+ * Keeps sys.wifi.ap.enabled and whether hostapd and hostapd_hidl are
+ * alive as bits, current without polling.
+ *
+ * A thread sleeps in WifiApNative.waitApProperties, which returns only
+ * when one of them changes. init updates init.svc.hostapd when it reaps
+ * the process, so a hostapd that crashed or that init stopped is seen
+ * as soon as init notices, whoever caused it. get() is a field read.
+ *
+ * A property wait cannot be interrupted, so the thread lives as long as
+ * the process; stop() only detaches the listener.
+ */
+class ApPropertyWatcher {
+    private static final String TAG = "GlassApPropertyWatcher";
+
+    // Bits, as in wifi_ap_control.c
+    static final int AP_ENABLED = 1 << 0;
+    static final int HOSTAPD = 1 << 1;
+    static final int HOSTAPD_HIDL = 1 << 2;
+
+    /**
+     * Called on the watcher thread
+     */
+    interface Listener {
+        void onApPropertiesChanged(int props);
+    }
+
+    private volatile Listener mListener;
+    private volatile int mProps;
+    private volatile int mChanges;
+    private Thread mThread;
+
+    /**
+     * Reads the properties once; they are followed from start()
+     */
+    ApPropertyWatcher(Listener listener) {
+        mListener = listener;
+        mProps = WifiApNative.waitApProperties(-1);
+    }
+
+    /**
+     * Follow the properties on a new thread. Changes since construction
+     * are reported.
+     */
+    void start() {
+        if (mThread != null) {
+            return;
+        }
+        mThread = new Thread(this::run, "WifiApPropertyWatcher");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    void stop() {
+        mListener = null;
+    }
+
+    int get() {
+        return mProps;
+    }
+
+    int getChanges() {
+        return mChanges;
+    }
+
+    static String toString(int props) {
+        return "ap.enabled=" + ((props & AP_ENABLED) != 0 ? 1 : 0)
+                + " hostapd=" + ((props & HOSTAPD) != 0 ? "alive" : "stopped")
+                + " hostapd_hidl=" + ((props & HOSTAPD_HIDL) != 0 ? "alive" : "stopped");
+    }
+
+    private void run() {
+        int props = mProps;
+        while (true) {
+            props = WifiApNative.waitApProperties(props);
+            mProps = props;
+            mChanges++;
+            Listener listener = mListener;
+            if (listener == null) {
+                // Detached; nothing left to tell
+                continue;
+            }
+            Log.d(TAG, toString(props));
+            listener.onApPropertiesChanged(props);
+        }
+    }
+}
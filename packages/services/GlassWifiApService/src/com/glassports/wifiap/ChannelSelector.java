@@ -0,0 +1,187 @@
+/*
+ * GlassPorts WiFi AP Channel Selector
+ * Picks the least congested 2.4 GHz channel for the hotspot
+ */
+
+package com.glassports.wifiap;
+
+import android.net.wifi.ScanResult;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scores channels 1-11 from a scan and picks the lowest score.
+ *
+ * A BSS adds to the score of every channel its 20 MHz signal overlaps,
+ * which on 2.4 GHz is up to four channels either side, weighted by how
+ * far apart the centres are and by how strong it is: a -40 dBm network on
+ * the same channel adds 60, one at -90 dBm two channels away adds 6.
+ * 0 means nothing is heard. Ties go to 1, 6 and 11, the channels
+ * neighbours are most likely to line up with.
+ *
+ * Selections are cached per environment, identified by the access point
+ * client WiFi is connected to or else by the strongest networks heard,
+ * and expire after CACHE_TTL_MS.
+ */
+class ChannelSelector {
+    static final int MIN_CHANNEL = 1;
+    static final int MAX_CHANNEL = 11;
+    static final int DEFAULT_CHANNEL = 6;
+
+    private static final int OVERLAP = 5;
+    private static final int NOISE_FLOOR_DBM = -100;
+    private static final int FINGERPRINT_SIZE = 3;
+
+    static final long CACHE_TTL_MS = 30 * 60 * 1000;
+    private static final int CACHE_SIZE = 8;
+
+    /**
+     * Outcome of one selection
+     */
+    static class Selection {
+        final int channel;
+        final int score;
+        /** Score of each channel, index 0 for channel 1 */
+        final int[] scores;
+        final int bssCount;
+        /** elapsedRealtime of the scan it came from */
+        final long time;
+
+        Selection(int channel, int score, int[] scores, int bssCount, long time) {
+            this.channel = channel;
+            this.score = score;
+            this.scores = scores;
+            this.bssCount = bssCount;
+            this.time = time;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(96);
+            sb.append("channel ").append(channel).append(" score ").append(score)
+                    .append(" from ").append(bssCount).append(" BSS, scores");
+            for (int score : scores) {
+                sb.append(' ').append(score);
+            }
+            return sb.toString();
+        }
+    }
+
+    private final Map<String, Selection> mCache =
+            new LinkedHashMap<String, Selection>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Selection> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private int mHits;
+    private int mMisses;
+
+    /**
+     * @return cached selection for the environment, or null if none is fresh
+     */
+    Selection getCached(String environment) {
+        Selection selection = environment != null ? mCache.get(environment) : null;
+        if (selection == null
+                || SystemClock.elapsedRealtime() - selection.time > CACHE_TTL_MS) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return selection;
+    }
+
+    /**
+     * Score the scan and cache the result for the environment
+     */
+    Selection select(String environment, List<ScanResult> results) {
+        int[] scores = new int[MAX_CHANNEL - MIN_CHANNEL + 1];
+        int bssCount = 0;
+        for (ScanResult result : results) {
+            int bssChannel = frequencyToChannel(result.frequency);
+            if (bssChannel < 0) {
+                continue;
+            }
+            bssCount++;
+            int strength = Math.max(0, result.level - NOISE_FLOOR_DBM);
+            for (int channel = MIN_CHANNEL; channel <= MAX_CHANNEL; channel++) {
+                int distance = Math.abs(channel - bssChannel);
+                if (distance < OVERLAP) {
+                    scores[channel - MIN_CHANNEL] += strength * (OVERLAP - distance) / OVERLAP;
+                }
+            }
+        }
+
+        int best = DEFAULT_CHANNEL;
+        for (int channel = MIN_CHANNEL; channel <= MAX_CHANNEL; channel++) {
+            int score = scores[channel - MIN_CHANNEL];
+            int bestScore = scores[best - MIN_CHANNEL];
+            if (score < bestScore || (score == bestScore && isPreferred(channel)
+                    && !isPreferred(best))) {
+                best = channel;
+            }
+        }
+
+        Selection selection = new Selection(best, scores[best - MIN_CHANNEL], scores,
+                bssCount, SystemClock.elapsedRealtime());
+        if (environment != null && bssCount > 0) {
+            mCache.put(environment, selection);
+        }
+        return selection;
+    }
+
+    int getHits() {
+        return mHits;
+    }
+
+    int getMisses() {
+        return mMisses;
+    }
+
+    /**
+     * Environment key for a connected BSSID, or the strongest networks in
+     * results if not connected
+     */
+    static String environment(String connectedBssid, List<ScanResult> results) {
+        if (connectedBssid != null && !"02:00:00:00:00:00".equals(connectedBssid)) {
+            return connectedBssid;
+        }
+        if (results == null || results.isEmpty()) {
+            return null;
+        }
+        List<ScanResult> sorted = new ArrayList<>(results);
+        Collections.sort(sorted, (a, b) -> b.level - a.level);
+        List<String> bssids = new ArrayList<>(FINGERPRINT_SIZE);
+        for (int i = 0; i < sorted.size() && bssids.size() < FINGERPRINT_SIZE; i++) {
+            if (sorted.get(i).BSSID != null) {
+                bssids.add(sorted.get(i).BSSID);
+            }
+        }
+        // Order-independent, so RSSI jitter does not change the key
+        Collections.sort(bssids);
+        return bssids.isEmpty() ? null : String.join(",", bssids);
+    }
+
+    /**
+     * @return 2.4 GHz channel, or -1 for other bands
+     */
+    static int frequencyToChannel(int frequency) {
+        if (frequency == 2484) {
+            return 14;
+        }
+        if (frequency >= 2412 && frequency <= 2472) {
+            return (frequency - 2407) / 5;
+        }
+        return -1;
+    }
+
+    private static boolean isPreferred(int channel) {
+        return channel == 1 || channel == 6 || channel == 11;
+    }
+}
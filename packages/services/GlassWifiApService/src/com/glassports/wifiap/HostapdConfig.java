@@ -0,0 +1,228 @@
+/*
+ * GlassPorts hostapd Config
+ * Renders hostapd.conf and writes it only when it changes
+ */
+
+package com.glassports.wifiap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Owns hostapd.conf for the config-file start path.
+ *
+ * write() renders nothing itself; callers pass render()'s output, which
+ * keeps the class free of Android dependencies so it runs on a plain JVM.
+ * The content is compared by SHA-256 with what is on disk and written
+ * only when it differs, through a temp file that is fsynced and renamed
+ * over the old one, so hostapd never reads a half-written file. The
+ * result says whether the running hostapd can take the change or needs
+ * a restart.
+ *
+ * A running hostapd never re-reads the file: ctrl_interface RELOAD only
+ * re-applies the config it holds in memory. A reloadable change is
+ * therefore applied as SET for each key in getChanges(), then RELOAD;
+ * the file is still written so the next start has the new values.
+ */
+class HostapdConfig {
+    /** Identical to the file on disk; nothing written */
+    static final int UNCHANGED = 0;
+    /** Only keys hostapd applies through SET and RELOAD differ */
+    static final int RELOAD = 1;
+    /** Something hostapd only reads at startup differs, or no file existed */
+    static final int RESTART = 2;
+
+    /** max_num_sta; StationStats keeps one slot per station */
+    static final int MAX_STATIONS = 4;
+
+    /** Keys SET followed by RELOAD applies to the running BSS */
+    private static final Set<String> RELOADABLE_KEYS = new HashSet<>(Arrays.asList(
+            "ssid", "wpa_passphrase", "ignore_broadcast_ssid", "max_num_sta"));
+
+    private final File mFile;
+    /** Reloadable keys the last RELOAD write changed, with new values */
+    private final Map<String, String> mChanges = new HashMap<>();
+    private int mWrites;
+    private int mSkipped;
+
+    HostapdConfig(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Full hostapd.conf for a WPA2-PSK access point
+     */
+    static String render(String iface, String ctrlDir, String ssid, String password,
+            int channel) {
+        if (hasLineBreak(ssid) || hasLineBreak(password)) {
+            // Would inject lines into the config
+            throw new IllegalArgumentException("SSID and password must be single line");
+        }
+        StringBuilder sb = new StringBuilder(512);
+        sb.append("# GlassPorts WiFi AP Configuration\n");
+        sb.append("interface=").append(iface).append('\n');
+        sb.append("driver=nl80211\n");
+        sb.append("ctrl_interface=").append(ctrlDir).append('\n');
+        sb.append("ctrl_interface_group=system\n");
+        sb.append("ssid=").append(ssid).append('\n');
+        sb.append("channel=").append(channel).append('\n');
+        sb.append("hw_mode=g\n");
+        sb.append("ieee80211n=1\n");
+        sb.append("wmm_enabled=1\n");
+        sb.append("wpa=2\n");
+        sb.append("wpa_key_mgmt=WPA-PSK\n");
+        sb.append("wpa_pairwise=CCMP\n");
+        sb.append("rsn_pairwise=CCMP\n");
+        sb.append("wpa_passphrase=").append(password).append('\n');
+        sb.append("max_num_sta=").append(MAX_STATIONS).append('\n');
+        sb.append("ignore_broadcast_ssid=0\n");
+        return sb.toString();
+    }
+
+    /**
+     * Write content unless the file already holds it
+     *
+     * @return UNCHANGED, RELOAD or RESTART
+     */
+    int write(String content) throws IOException {
+        byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        byte[] current = read();
+        mChanges.clear();
+        if (current != null && Arrays.equals(digest(current), digest(data))) {
+            mSkipped++;
+            return UNCHANGED;
+        }
+
+        int change = current == null ? RESTART
+                : classify(new String(current, StandardCharsets.UTF_8), content);
+        if (change == RELOAD) {
+            Map<String, String> oldParams = parse(new String(current, StandardCharsets.UTF_8));
+            for (Map.Entry<String, String> param : parse(content).entrySet()) {
+                if (!param.getValue().equals(oldParams.get(param.getKey()))) {
+                    mChanges.put(param.getKey(), param.getValue());
+                }
+            }
+        }
+        writeAtomically(mFile, data);
+        mWrites++;
+        return change;
+    }
+
+    /**
+     * @return after a RELOAD write, each changed key with its new value,
+     *         to SET on the running hostapd
+     */
+    Map<String, String> getChanges() {
+        return mChanges;
+    }
+
+    int getWrites() {
+        return mWrites;
+    }
+
+    int getSkipped() {
+        return mSkipped;
+    }
+
+    /**
+     * RELOAD if every differing key is reloadable, else RESTART
+     */
+    static int classify(String oldContent, String newContent) {
+        Map<String, String> oldParams = parse(oldContent);
+        Map<String, String> newParams = parse(newContent);
+        Set<String> keys = new HashSet<>(oldParams.keySet());
+        keys.addAll(newParams.keySet());
+        for (String key : keys) {
+            String oldValue = oldParams.get(key);
+            String newValue = newParams.get(key);
+            boolean same = oldValue == null ? newValue == null : oldValue.equals(newValue);
+            if (!same && !RELOADABLE_KEYS.contains(key)) {
+                return RESTART;
+            }
+        }
+        return RELOAD;
+    }
+
+    private static Map<String, String> parse(String content) {
+        Map<String, String> params = new HashMap<>();
+        for (String line : content.split("\n")) {
+            int eq = line.indexOf('=');
+            if (line.startsWith("#") || eq <= 0) {
+                continue;
+            }
+            params.put(line.substring(0, eq), line.substring(eq + 1));
+        }
+        return params;
+    }
+
+    private static boolean hasLineBreak(String s) {
+        return s.indexOf('\n') >= 0 || s.indexOf('\r') >= 0;
+    }
+
+    private static byte[] digest(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return file contents, or null if there is no file
+     */
+    private byte[] read() throws IOException {
+        if (!mFile.exists()) {
+            return null;
+        }
+        try (InputStream in = new FileInputStream(mFile)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+            byte[] buf = new byte[1024];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Replace file with data so a crash at any point leaves either the old
+     * or the new content
+     */
+    static void writeAtomically(File file, byte[] data) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(data);
+            out.getFD().sync();
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not rename " + temp + " to " + file);
+        }
+        // Make the rename itself durable
+        try (FileChannel dir = FileChannel.open(file.getParentFile().toPath(),
+                StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // Not every filesystem lets a directory be synced. A lost rename
+            // leaves the previous complete file
+        }
+    }
+}
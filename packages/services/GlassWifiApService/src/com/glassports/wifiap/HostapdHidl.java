@@ -0,0 +1,147 @@
+/*
+ * GlassPorts hostapd HIDL client
+ * Adds and removes the access point through IHostapd
+ */
+
+package com.glassports.wifiap;
+
+import android.hardware.wifi.hostapd.V1_0.HostapdStatus;
+import android.hardware.wifi.hostapd.V1_0.HostapdStatusCode;
+import android.hardware.wifi.hostapd.V1_0.IHostapd;
+import android.hidl.manager.V1_0.IServiceManager;
+import android.os.Build;
+import android.os.RemoteException;
+import android.os.SystemProperties;
+import android.util.Log;
+
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
+
+/**
+ * Talks to the hostapd_hidl init service, a hostapd started without a
+ * config file that serves android.hardware.wifi.hostapd@1.0::IHostapd.
+ *
+ * The daemon stays up while the AP is off, so enabling is a single
+ * addAccessPoint call: no process start, no config file round trip, and
+ * a config change is a remove and add on the running daemon. hostapd
+ * writes its own config for the interface and puts the control socket
+ * under CTRL_DIR. All methods are called on the state machine thread.
+ */
+class HostapdHidl {
+    private static final String TAG = "GlassHostapdHidl";
+
+    private static final String PROP_HOSTAPD_HIDL = "sys.wifi.ap.hidl";
+    private static final String PROP_HOSTAPD_HIDL_SVC = "init.svc.hostapd_hidl";
+    private static final String INSTANCE = "default";
+
+    /** Control socket directory of hostapd's HIDL-generated config */
+    static final String CTRL_DIR = "/data/vendor/wifi/hostapd/ctrl";
+
+    private IHostapd mHostapd;
+
+    /**
+     * @return whether this build has the interface and the device declares it
+     */
+    static boolean isSupported() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.P) {
+            return false;
+        }
+        try {
+            IServiceManager manager = IServiceManager.getService();
+            return manager != null && manager.getTransport(IHostapd.kInterfaceName, INSTANCE)
+                    != IServiceManager.Transport.EMPTY;
+        } catch (RemoteException | NoSuchElementException e) {
+            Log.w(TAG, "hwservicemanager unavailable: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Ask init for the daemon. Poll isReady until it registers.
+     */
+    void startDaemon() {
+        if (!isDaemonRunning()) {
+            // The trigger only fires on a change, and a crashed daemon
+            // leaves the property at 1
+            SystemProperties.set(PROP_HOSTAPD_HIDL, "0");
+            SystemProperties.set(PROP_HOSTAPD_HIDL, "1");
+        }
+    }
+
+    void stopDaemon() {
+        mHostapd = null;
+        SystemProperties.set(PROP_HOSTAPD_HIDL, "0");
+    }
+
+    boolean isDaemonRunning() {
+        return "running".equals(SystemProperties.get(PROP_HOSTAPD_HIDL_SVC, ""));
+    }
+
+    /**
+     * @return whether the daemon has registered IHostapd; does not block
+     */
+    boolean isReady() {
+        if (mHostapd != null) {
+            return true;
+        }
+        if (!isDaemonRunning()) {
+            return false;
+        }
+        try {
+            mHostapd = IHostapd.getService(INSTANCE, false);
+        } catch (RemoteException | NoSuchElementException e) {
+            // Not registered yet
+        }
+        return mHostapd != null;
+    }
+
+    /**
+     * Bring up a WPA2 access point on iface. Beacons are on once this
+     * returns true.
+     */
+    boolean addAccessPoint(String iface, String ssid, String password, int channel) {
+        IHostapd.IfaceParams ifaceParams = new IHostapd.IfaceParams();
+        ifaceParams.ifaceName = iface;
+        ifaceParams.hwModeParams.enable80211N = true;
+        ifaceParams.hwModeParams.enable80211AC = false;
+        ifaceParams.channelParams.enableAcs = false;
+        ifaceParams.channelParams.acsShouldExcludeDfs = false;
+        ifaceParams.channelParams.channel = channel;
+        ifaceParams.channelParams.band = IHostapd.Band.BAND_2_4_GHZ;
+
+        IHostapd.NetworkParams networkParams = new IHostapd.NetworkParams();
+        for (byte b : ssid.getBytes(StandardCharsets.UTF_8)) {
+            networkParams.ssid.add(b);
+        }
+        networkParams.isHidden = false;
+        networkParams.encryptionType = IHostapd.EncryptionType.WPA2;
+        networkParams.pskPassphrase = password;
+
+        return check("addAccessPoint", () -> mHostapd.addAccessPoint(ifaceParams, networkParams));
+    }
+
+    boolean removeAccessPoint(String iface) {
+        return check("removeAccessPoint", () -> mHostapd.removeAccessPoint(iface));
+    }
+
+    private interface HidlCall {
+        HostapdStatus call() throws RemoteException;
+    }
+
+    private boolean check(String method, HidlCall call) {
+        if (mHostapd == null) {
+            return false;
+        }
+        try {
+            HostapdStatus status = call.call();
+            if (status.code == HostapdStatusCode.SUCCESS) {
+                return true;
+            }
+            Log.e(TAG, method + " failed: " + status.code + " " + status.debugMessage);
+        } catch (RemoteException e) {
+            Log.e(TAG, method + " failed, hostapd died: " + e);
+            mHostapd = null;
+        }
+        return false;
+    }
+}
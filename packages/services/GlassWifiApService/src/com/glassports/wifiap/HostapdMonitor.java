@@ -0,0 +1,195 @@
+/*
+ * GlassPorts hostapd Monitor
+ * Live station table from hostapd control interface events
+ */
+
+package com.glassports.wifiap;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Keeps the table of stations associated with the hotspot.
+ *
+ * A thread ATTACHes to hostapd's control socket and sleeps in
+ * WifiApNative.waitHostapdEvent until hostapd reports AP-STA-CONNECTED or
+ * AP-STA-DISCONNECTED, so the table is current without polling. Stations
+ * that associated before the ATTACH are read once with STA-FIRST/STA-NEXT
+ * right after it; events that race with that listing are idempotent.
+ */
+class HostapdMonitor {
+    private static final String TAG = "GlassHostapdMonitor";
+
+    private static final String EVENT_STA_CONNECTED = "AP-STA-CONNECTED ";
+    private static final String EVENT_STA_DISCONNECTED = "AP-STA-DISCONNECTED ";
+    private static final String EVENT_TERMINATING = "CTRL-EVENT-TERMINATING";
+
+    /** hostapd max_num_sta is 4; this only bounds a misbehaving listing */
+    private static final int MAX_LISTED_STATIONS = 64;
+
+    /**
+     * Called on the monitor thread
+     */
+    interface Listener {
+        /** A station associated or left */
+        void onStationsChanged();
+
+        /** hostapd announced it is exiting */
+        void onHostapdTerminating();
+    }
+
+    private final Listener mListener;
+    /** MAC address to elapsedRealtime of association */
+    private final Map<String, Long> mStations = new LinkedHashMap<>();
+    private Thread mThread;
+    private volatile boolean mRunning;
+
+    HostapdMonitor(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Attach to hostapd on a new thread. hostapd must be running.
+     */
+    void start() {
+        if (mThread != null) {
+            return;
+        }
+        mRunning = true;
+        mThread = new Thread(this::run, "HostapdMonitor");
+        mThread.start();
+    }
+
+    /**
+     * Detach from hostapd and clear the station table
+     */
+    void stop() {
+        if (mThread == null) {
+            return;
+        }
+        mRunning = false;
+        WifiApNative.closeHostapdMonitor();
+        try {
+            mThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mThread = null;
+
+        synchronized (mStations) {
+            mStations.clear();
+        }
+    }
+
+    List<String> getStations() {
+        synchronized (mStations) {
+            return new ArrayList<>(mStations.keySet());
+        }
+    }
+
+    int getStationCount() {
+        synchronized (mStations) {
+            return mStations.size();
+        }
+    }
+
+    /**
+     * @return elapsedRealtime the station associated at, or -1 if unknown
+     */
+    long getConnectedSince(String mac) {
+        synchronized (mStations) {
+            Long since = mStations.get(mac);
+            return since != null ? since : -1;
+        }
+    }
+
+    private void run() {
+        if (!WifiApNative.openHostapdMonitor()) {
+            Log.e(TAG, "Could not attach to hostapd");
+            return;
+        }
+        if (!mRunning) {
+            // stop() ran before the monitor existed to be woken
+            WifiApNative.closeHostapdMonitor();
+        } else {
+            listStations();
+        }
+
+        String event;
+        while ((event = WifiApNative.waitHostapdEvent()) != null) {
+            handleEvent(event);
+        }
+        Log.d(TAG, "Detached from hostapd");
+    }
+
+    private void listStations() {
+        String reply = WifiApNative.hostapdCommand("STA-FIRST");
+        int listed = 0;
+        while (reply != null && !reply.isEmpty() && !reply.startsWith("FAIL")
+                && listed++ < MAX_LISTED_STATIONS) {
+            int newline = reply.indexOf('\n');
+            String mac = (newline >= 0 ? reply.substring(0, newline) : reply.trim())
+                    .toLowerCase(Locale.ROOT);
+            addStation(mac);
+            reply = WifiApNative.hostapdCommand("STA-NEXT " + mac);
+        }
+    }
+
+    private void handleEvent(String event) {
+        // Strip the "<level>" prefix
+        if (event.startsWith("<")) {
+            int end = event.indexOf('>');
+            if (end > 0) {
+                event = event.substring(end + 1);
+            }
+        }
+
+        if (event.startsWith(EVENT_STA_CONNECTED)) {
+            addStation(parseMac(event, EVENT_STA_CONNECTED.length()));
+        } else if (event.startsWith(EVENT_STA_DISCONNECTED)) {
+            removeStation(parseMac(event, EVENT_STA_DISCONNECTED.length()));
+        } else if (event.startsWith(EVENT_TERMINATING)) {
+            Log.i(TAG, "hostapd terminating");
+            mListener.onHostapdTerminating();
+        }
+    }
+
+    /**
+     * The MAC may be followed by more fields, e.g. p2p_dev_addr=...
+     */
+    private static String parseMac(String event, int start) {
+        int end = event.indexOf(' ', start);
+        return event.substring(start, end > 0 ? end : event.length()).toLowerCase(Locale.ROOT);
+    }
+
+    private void addStation(String mac) {
+        int count;
+        synchronized (mStations) {
+            if (mStations.containsKey(mac)) {
+                return;
+            }
+            mStations.put(mac, SystemClock.elapsedRealtime());
+            count = mStations.size();
+        }
+        Log.i(TAG, "Station connected: " + mac + " (" + count + " total)");
+        mListener.onStationsChanged();
+    }
+
+    private void removeStation(String mac) {
+        int count;
+        synchronized (mStations) {
+            if (mStations.remove(mac) == null) {
+                return;
+            }
+            count = mStations.size();
+        }
+        Log.i(TAG, "Station disconnected: " + mac + " (" + count + " total)");
+        mListener.onStationsChanged();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * GlassPorts WiFi AP Station Info
+ * Traffic and link statistics for one hotspot client
+ */
+
+package com.glassports.wifiap;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Snapshot of one station's counters, as of the last sample.
+ *
+ * Directions are from the hotspot's point of view: tx is sent to the
+ * station (its downloads), rx is received from it (its uploads).
+ */
+public class StationInfo implements Parcelable {
+    public final String mac;
+    public final long txBytes;
+    public final long rxBytes;
+    public final long txPackets;
+    public final long rxPackets;
+    /** Bytes per second over the last sample interval */
+    public final long txRate;
+    public final long rxRate;
+    /** dBm, 0 if unknown */
+    public final int signal;
+    /** Last transmit bitrate in kbit/s, 0 if unknown */
+    public final int txBitrateKbps;
+    public final int inactiveMs;
+    /** Time associated, in ms */
+    public final long connectedMs;
+
+    StationInfo(String mac, long txBytes, long rxBytes, long txPackets, long rxPackets,
+                long txRate, long rxRate, int signal, int txBitrateKbps, int inactiveMs,
+                long connectedMs) {
+        this.mac = mac;
+        this.txBytes = txBytes;
+        this.rxBytes = rxBytes;
+        this.txPackets = txPackets;
+        this.rxPackets = rxPackets;
+        this.txRate = txRate;
+        this.rxRate = rxRate;
+        this.signal = signal;
+        this.txBitrateKbps = txBitrateKbps;
+        this.inactiveMs = inactiveMs;
+        this.connectedMs = connectedMs;
+    }
+
+    private StationInfo(Parcel in) {
+        mac = in.readString();
+        txBytes = in.readLong();
+        rxBytes = in.readLong();
+        txPackets = in.readLong();
+        rxPackets = in.readLong();
+        txRate = in.readLong();
+        rxRate = in.readLong();
+        signal = in.readInt();
+        txBitrateKbps = in.readInt();
+        inactiveMs = in.readInt();
+        connectedMs = in.readLong();
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(mac);
+        dest.writeLong(txBytes);
+        dest.writeLong(rxBytes);
+        dest.writeLong(txPackets);
+        dest.writeLong(rxPackets);
+        dest.writeLong(txRate);
+        dest.writeLong(rxRate);
+        dest.writeInt(signal);
+        dest.writeInt(txBitrateKbps);
+        dest.writeInt(inactiveMs);
+        dest.writeLong(connectedMs);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Parcelable.Creator<StationInfo> CREATOR =
+            new Parcelable.Creator<StationInfo>() {
+        @Override
+        public StationInfo createFromParcel(Parcel in) {
+            return new StationInfo(in);
+        }
+
+        @Override
+        public StationInfo[] newArray(int size) {
+            return new StationInfo[size];
+        }
+    };
+
+    @Override
+    public String toString() {
+        return mac + " tx=" + txBytes + "B (" + txRate + "B/s) rx=" + rxBytes + "B ("
+                + rxRate + "B/s) pkts=" + txPackets + "/" + rxPackets
+                + " signal=" + signal + "dBm bitrate=" + txBitrateKbps
+                + "kbps inactive=" + inactiveMs + "ms connected=" + connectedMs / 1000 + "s";
+    }
+}
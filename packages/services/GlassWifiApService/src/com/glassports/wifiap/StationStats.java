@@ -0,0 +1,282 @@
+/*
+ * GlassPorts WiFi AP Station Stats
+ * Per-station traffic and link counters sampled from hostapd
+ */
+
+package com.glassports.wifiap;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Samples every associated station's counters from hostapd at a
+ * configurable interval.
+ *
+ * One STA-FIRST/STA-NEXT sweep per sample returns all stations with their
+ * counters, so a sample costs one control socket round trip per station
+ * and nothing while no station is associated. Counters live in
+ * preallocated primitive arrays, one slot per station; hostapd is
+ * configured with max_num_sta=MAX_STATIONS, so the slots always suffice.
+ * A slot is cleared when its station leaves.
+ */
+class StationStats {
+    static final int MAX_STATIONS = HostapdConfig.MAX_STATIONS;
+
+    static final long DEFAULT_INTERVAL_MS = 2000;
+    static final long MIN_INTERVAL_MS = 500;
+
+    private final HostapdMonitor mMonitor;
+    /** Run on the sampling thread after each sample */
+    private final Runnable mSampleListener;
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private volatile long mIntervalMs = DEFAULT_INTERVAL_MS;
+
+    // Slot arrays, guarded by this
+    private final String[] mMac = new String[MAX_STATIONS];
+    private final long[] mTxBytes = new long[MAX_STATIONS];
+    private final long[] mRxBytes = new long[MAX_STATIONS];
+    private final long[] mTxPackets = new long[MAX_STATIONS];
+    private final long[] mRxPackets = new long[MAX_STATIONS];
+    private final long[] mTxRate = new long[MAX_STATIONS];
+    private final long[] mRxRate = new long[MAX_STATIONS];
+    private final int[] mSignal = new int[MAX_STATIONS];
+    private final int[] mTxBitrateKbps = new int[MAX_STATIONS];
+    private final int[] mInactiveMs = new int[MAX_STATIONS];
+    private final long[] mSampleTime = new long[MAX_STATIONS];
+    /** Whether the slot's station was in the current sweep */
+    private final boolean[] mSeen = new boolean[MAX_STATIONS];
+
+    private long mSamples;
+
+    StationStats(HostapdMonitor monitor, Runnable sampleListener) {
+        mMonitor = monitor;
+        mSampleListener = sampleListener;
+    }
+
+    /**
+     * Start sampling; the AP must be enabled
+     */
+    synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+        mThread = new HandlerThread("WifiApStationStats", Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mHandler.post(mSampleRunnable);
+    }
+
+    /**
+     * Stop sampling and clear all slots
+     */
+    synchronized void stop() {
+        if (mThread == null) {
+            return;
+        }
+        mHandler.removeCallbacks(mSampleRunnable);
+        mThread.quitSafely();
+        mThread = null;
+        mHandler = null;
+        for (int i = 0; i < MAX_STATIONS; i++) {
+            clearSlot(i);
+        }
+    }
+
+    void setInterval(long intervalMs) {
+        mIntervalMs = Math.max(MIN_INTERVAL_MS, intervalMs);
+    }
+
+    long getInterval() {
+        return mIntervalMs;
+    }
+
+    /**
+     * Snapshot of the stations sampled last
+     */
+    synchronized List<StationInfo> getStations() {
+        List<StationInfo> stations = new ArrayList<>(MAX_STATIONS);
+        long now = SystemClock.elapsedRealtime();
+        for (int i = 0; i < MAX_STATIONS; i++) {
+            if (mMac[i] == null) {
+                continue;
+            }
+            long since = mMonitor.getConnectedSince(mMac[i]);
+            stations.add(new StationInfo(mMac[i], mTxBytes[i], mRxBytes[i],
+                    mTxPackets[i], mRxPackets[i], mTxRate[i], mRxRate[i], mSignal[i],
+                    mTxBitrateKbps[i], mInactiveMs[i], since >= 0 ? now - since : 0));
+        }
+        return stations;
+    }
+
+    synchronized long getSamples() {
+        return mSamples;
+    }
+
+    /**
+     * @return whether any station moved data in the last sample interval
+     */
+    synchronized boolean hasTraffic() {
+        for (int i = 0; i < MAX_STATIONS; i++) {
+            if (mMac[i] != null && (mTxRate[i] > 0 || mRxRate[i] > 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private final Runnable mSampleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mMonitor.getStationCount() > 0 || hasStations()) {
+                sample();
+                mSampleListener.run();
+            }
+            synchronized (StationStats.this) {
+                if (mHandler != null) {
+                    mHandler.postDelayed(this, mIntervalMs);
+                }
+            }
+        }
+    };
+
+    private synchronized boolean hasStations() {
+        for (int i = 0; i < MAX_STATIONS; i++) {
+            if (mMac[i] != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sweep hostapd's station list and update the slots
+     */
+    private void sample() {
+        long now = SystemClock.elapsedRealtime();
+        synchronized (this) {
+            for (int i = 0; i < MAX_STATIONS; i++) {
+                mSeen[i] = false;
+            }
+        }
+
+        String reply = WifiApNative.hostapdCommand("STA-FIRST");
+        int listed = 0;
+        while (reply != null && !reply.isEmpty() && !reply.startsWith("FAIL")
+                && listed++ < MAX_STATIONS) {
+            int newline = reply.indexOf('\n');
+            if (newline <= 0) {
+                break;
+            }
+            String mac = reply.substring(0, newline);
+            synchronized (this) {
+                update(mac, reply, newline + 1, now);
+            }
+            reply = WifiApNative.hostapdCommand("STA-NEXT " + mac);
+        }
+
+        synchronized (this) {
+            for (int i = 0; i < MAX_STATIONS; i++) {
+                if (!mSeen[i]) {
+                    clearSlot(i);
+                }
+            }
+            mSamples++;
+        }
+    }
+
+    private void update(String mac, String reply, int start, long now) {
+        int slot = findSlot(mac);
+        if (slot < 0) {
+            return;
+        }
+        mSeen[slot] = true;
+
+        long txBytes = parseField(reply, start, "tx_bytes=", mTxBytes[slot]);
+        long rxBytes = parseField(reply, start, "rx_bytes=", mRxBytes[slot]);
+        long elapsed = now - mSampleTime[slot];
+        if (mSampleTime[slot] > 0 && elapsed > 0) {
+            // A counter going backwards means hostapd reset the entry
+            mTxRate[slot] = txBytes >= mTxBytes[slot]
+                    ? (txBytes - mTxBytes[slot]) * 1000 / elapsed : 0;
+            mRxRate[slot] = rxBytes >= mRxBytes[slot]
+                    ? (rxBytes - mRxBytes[slot]) * 1000 / elapsed : 0;
+        }
+        mTxBytes[slot] = txBytes;
+        mRxBytes[slot] = rxBytes;
+        mTxPackets[slot] = parseField(reply, start, "tx_packets=", mTxPackets[slot]);
+        mRxPackets[slot] = parseField(reply, start, "rx_packets=", mRxPackets[slot]);
+        mSignal[slot] = (int) parseField(reply, start, "signal=", mSignal[slot]);
+        // hostapd reports rates in units of 100 kbit/s
+        mTxBitrateKbps[slot] = (int) parseField(reply, start, "tx_rate_info=",
+                mTxBitrateKbps[slot] / 100) * 100;
+        mInactiveMs[slot] = (int) parseField(reply, start, "inactive_msec=", mInactiveMs[slot]);
+        mSampleTime[slot] = now;
+    }
+
+    /**
+     * Slot already holding mac, or a free one
+     */
+    private int findSlot(String mac) {
+        int free = -1;
+        for (int i = 0; i < MAX_STATIONS; i++) {
+            if (mac.equalsIgnoreCase(mMac[i])) {
+                return i;
+            }
+            if (mMac[i] == null && free < 0) {
+                free = i;
+            }
+        }
+        if (free >= 0) {
+            mMac[free] = mac;
+        }
+        return free;
+    }
+
+    private void clearSlot(int i) {
+        mMac[i] = null;
+        mTxBytes[i] = mRxBytes[i] = 0;
+        mTxPackets[i] = mRxPackets[i] = 0;
+        mTxRate[i] = mRxRate[i] = 0;
+        mSignal[i] = mTxBitrateKbps[i] = mInactiveMs[i] = 0;
+        mSampleTime[i] = 0;
+    }
+
+    /**
+     * Leading integer of a "key=value" line, without splitting the reply.
+     * Values may carry a suffix, e.g. "tx_rate_info=650 mcs 7 shortGI".
+     */
+    static long parseField(String reply, int start, String key, long defValue) {
+        int index = start;
+        while (index < reply.length()) {
+            if (reply.startsWith(key, index)) {
+                int i = index + key.length();
+                boolean negative = i < reply.length() && reply.charAt(i) == '-';
+                if (negative) {
+                    i++;
+                }
+                long value = 0;
+                int digits = 0;
+                while (i < reply.length() && Character.isDigit(reply.charAt(i))) {
+                    value = value * 10 + (reply.charAt(i++) - '0');
+                    digits++;
+                }
+                if (digits == 0) {
+                    return defValue;
+                }
+                return negative ? -value : value;
+            }
+            int newline = reply.indexOf('\n', index);
+            if (newline < 0) {
+                break;
+            }
+            index = newline + 1;
+        }
+        return defValue;
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * GlassPorts WiFi AP Throughput Client
+ * Drives ThroughputServer from a hotspot client or over loopback
+ */
+
+package com.glassports.wifiap;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+/**
+ * Reference client for ThroughputServer's protocol. Plain Java, so it
+ * runs on any JVM:
+ *
+ *   java -cp classes com.glassports.wifiap.ThroughputClient HOST [PORT]
+ *
+ * runs every mode against HOST once and prints the client-side results.
+ * Started with "loopback" as HOST it first starts a server on an
+ * ephemeral port and also prints the server's per-client report.
+ */
+public class ThroughputClient {
+    private static final int BULK_BUFFER_SIZE = 64 * 1024;
+    private static final int UDP_TIMEOUT_MS = 1000;
+
+    private final InetSocketAddress mServer;
+
+    public ThroughputClient(InetSocketAddress server) {
+        mServer = server;
+    }
+
+    /**
+     * @return bytes received during a download of durationMs
+     */
+    public long download(int durationMs) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(mServer)) {
+            channel.write(request(ThroughputServer.MODE_DOWNLOAD, durationMs));
+            ByteBuffer buf = ByteBuffer.allocateDirect(BULK_BUFFER_SIZE);
+            long bytes = 0;
+            int n;
+            while ((n = channel.read(buf)) >= 0) {
+                bytes += n;
+                buf.clear();
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * @return bytes the server reports receiving
+     */
+    public long upload(long bytes) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(mServer)) {
+            channel.write(request(ThroughputServer.MODE_UPLOAD, 0));
+            ByteBuffer buf = ByteBuffer.allocateDirect(BULK_BUFFER_SIZE);
+            long left = bytes;
+            while (left > 0) {
+                buf.clear();
+                buf.limit((int) Math.min(left, BULK_BUFFER_SIZE));
+                left -= channel.write(buf);
+            }
+            channel.shutdownOutput();
+            ByteBuffer reply = ByteBuffer.allocate(8);
+            while (reply.hasRemaining() && channel.read(reply) >= 0) {
+                // Keep reading
+            }
+            reply.flip();
+            return reply.remaining() == 8 ? reply.getLong() : -1;
+        }
+    }
+
+    /**
+     * @return client-side round trips in ns
+     */
+    public long[] echoTcp(int count) throws IOException {
+        long[] rtt = new long[count];
+        try (SocketChannel channel = SocketChannel.open(mServer)) {
+            channel.socket().setTcpNoDelay(true);
+            channel.write(request(ThroughputServer.MODE_ECHO, 0));
+            ByteBuffer probe = ByteBuffer.allocateDirect(ThroughputServer.PROBE_SIZE);
+            for (int i = 0; i < count; i++) {
+                probe.clear();
+                long start = System.nanoTime();
+                probe.putLong(0, start);
+                while (probe.hasRemaining()) {
+                    channel.write(probe);
+                }
+                probe.clear();
+                while (probe.hasRemaining()) {
+                    if (channel.read(probe) < 0) {
+                        throw new IOException("closed during echo");
+                    }
+                }
+                rtt[i] = System.nanoTime() - start;
+            }
+        }
+        return rtt;
+    }
+
+    /**
+     * @return client-side round trips in ns, -1 for lost datagrams
+     */
+    public long[] echoUdp(int count) throws IOException {
+        long[] rtt = new long[count];
+        long cookie = cookie();
+        try (DatagramChannel channel = DatagramChannel.open();
+                Selector selector = register(channel)) {
+            channel.connect(mServer);
+            ByteBuffer datagram = ByteBuffer.allocate(ThroughputServer.PROBE_SIZE);
+            for (int i = 0; i < count; i++) {
+                datagram.clear();
+                datagram.put(ThroughputServer.MODE_ECHO).putInt(i).putLong(cookie);
+                datagram.position(ThroughputServer.PROBE_SIZE);
+                datagram.flip();
+                long start = System.nanoTime();
+                channel.write(datagram);
+                rtt[i] = receive(selector, channel, datagram) && datagram.getInt(1) == i
+                        ? System.nanoTime() - start : -1;
+            }
+        }
+        return rtt;
+    }
+
+    /**
+     * Ask for kbps of paced datagrams
+     *
+     * @return { datagrams received, highest sequence seen + 1 }, so the
+     *         difference is the loss
+     */
+    public int[] paced(int kbps) throws IOException {
+        int received = 0;
+        int highest = -1;
+        long cookie = cookie();
+        try (DatagramChannel channel = DatagramChannel.open();
+                Selector selector = register(channel)) {
+            channel.connect(mServer);
+            ByteBuffer request = ByteBuffer.allocate(ThroughputServer.DATAGRAM_HEADER_SIZE);
+            request.put(ThroughputServer.MODE_PACED).putInt(kbps).putLong(cookie);
+            request.flip();
+            channel.write(request);
+            ByteBuffer datagram = ByteBuffer.allocateDirect(ThroughputServer.DATAGRAM_SIZE);
+            // The stream ends by going quiet
+            while (receive(selector, channel, datagram)) {
+                received++;
+                highest = Math.max(highest, datagram.getInt(0));
+            }
+        }
+        return new int[] { received, highest + 1 };
+    }
+
+    /**
+     * Fetch the cookie the server wants in UDP requests from this address
+     */
+    private long cookie() throws IOException {
+        try (SocketChannel channel = SocketChannel.open(mServer)) {
+            channel.write(request(ThroughputServer.MODE_COOKIE, 0));
+            ByteBuffer reply = ByteBuffer.allocate(ThroughputServer.COOKIE_SIZE);
+            while (reply.hasRemaining()) {
+                if (channel.read(reply) < 0) {
+                    throw new IOException("closed before cookie");
+                }
+            }
+            reply.flip();
+            return reply.getLong();
+        }
+    }
+
+    /**
+     * Wait up to UDP_TIMEOUT_MS for a datagram, flipped for reading
+     */
+    private static boolean receive(Selector selector, DatagramChannel channel,
+            ByteBuffer datagram) throws IOException {
+        datagram.clear();
+        if (selector.select(UDP_TIMEOUT_MS) == 0) {
+            return false;
+        }
+        selector.selectedKeys().clear();
+        int n = channel.read(datagram);
+        datagram.flip();
+        return n > 0;
+    }
+
+    private static Selector register(DatagramChannel channel) throws IOException {
+        channel.configureBlocking(false);
+        Selector selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+        return selector;
+    }
+
+    private static ByteBuffer request(byte mode, int param) {
+        ByteBuffer request = ByteBuffer.allocate(ThroughputServer.REQUEST_SIZE);
+        request.put(mode).putInt(param);
+        request.flip();
+        return request;
+    }
+
+    private static String percentiles(long[] rtt) {
+        long[] sorted = rtt.clone();
+        Arrays.sort(sorted);
+        int lost = 0;
+        while (lost < sorted.length && sorted[lost] < 0) {
+            lost++;
+        }
+        int count = sorted.length - lost;
+        if (count == 0) {
+            return "all lost";
+        }
+        return "p50=" + sorted[lost + count * 50 / 100] / 1000
+                + "us p90=" + sorted[lost + count * 90 / 100] / 1000
+                + "us p99=" + sorted[lost + Math.min(count - 1, count * 99 / 100)] / 1000
+                + "us lost=" + lost;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: ThroughputClient HOST|loopback [PORT]");
+            System.exit(2);
+        }
+        ThroughputServer server = null;
+        String host = args[0];
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : ThroughputServer.DEFAULT_PORT;
+        if ("loopback".equals(host)) {
+            server = new ThroughputServer(args.length > 1 ? port : 0);
+            server.start(InetAddress.getLoopbackAddress());
+            host = "127.0.0.1";
+            port = server.getPort();
+        }
+
+        ThroughputClient client = new ThroughputClient(new InetSocketAddress(host, port));
+        try {
+            long start = System.nanoTime();
+            long bytes = client.download(2000);
+            long elapsed = System.nanoTime() - start;
+            System.out.println("download " + bytes + "B "
+                    + (long) (bytes * 8 * 1e6 / elapsed) + "kbps");
+
+            start = System.nanoTime();
+            long reported = client.upload(64L * 1024 * 1024);
+            elapsed = System.nanoTime() - start;
+            System.out.println("upload " + reported + "B "
+                    + (long) (reported * 8 * 1e6 / elapsed) + "kbps");
+
+            System.out.println("tcp echo " + percentiles(client.echoTcp(1000)));
+            System.out.println("udp echo " + percentiles(client.echoUdp(1000)));
+
+            int[] paced = client.paced(10000);
+            System.out.println("paced 10000kbps received " + paced[0] + "/" + paced[1]);
+        } finally {
+            if (server != null) {
+                StringBuilder sb = new StringBuilder();
+                server.dump(sb);
+                System.out.print(sb);
+                server.stop();
+            }
+        }
+    }
+}
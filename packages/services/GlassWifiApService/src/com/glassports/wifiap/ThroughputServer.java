@@ -0,0 +1,727 @@
+/*
+ * GlassPorts WiFi AP Throughput Server
+ * Non-blocking throughput and latency test endpoint for hotspot clients
+ */
+
+package com.glassports.wifiap;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test endpoint a client on the hotspot can measure the link against,
+ * without installing anything on the Glass side.
+ *
+ * One thread runs a Selector over a TCP and a UDP channel on the same
+ * port, both bound to the one address the caller names, e.g. the AP
+ * interface's, so nothing outside the hotspot can reach it. All
+ * payload moves through direct buffers allocated once, so a bulk test
+ * costs no per-packet garbage. Every request starts with a
+ * REQUEST_SIZE header: a mode byte and an int parameter, big-endian.
+ *
+ * TCP modes:
+ *   MODE_DOWNLOAD  server sends for param ms, then closes
+ *   MODE_UPLOAD    server discards until the client shuts down its output,
+ *                  then replies with the byte count as a long
+ *   MODE_ECHO      server echoes PROBE_SIZE probes. The client sends the
+ *                  next probe once the echo is back, so the time from an
+ *                  echo leaving to the next probe arriving is a round trip.
+ *   MODE_COOKIE    server replies with a COOKIE_SIZE cookie, then closes
+ *
+ * UDP source addresses can be forged, so the server only answers a
+ * datagram that carries a cookie it handed to the same address over TCP
+ * in the last COOKIE_LIFETIME_MS. A completed handshake shows the
+ * address is real, which keeps the server from being used to reflect or
+ * amplify traffic at someone else.
+ *
+ * UDP modes, one header followed by the cookie per datagram:
+ *   MODE_PACED     server sends DATAGRAM_SIZE datagrams at param kbit/s
+ *                  for PACED_DURATION_MS, each carrying its sequence number
+ *   MODE_ECHO      datagram echoed back, round trips measured as for TCP
+ *
+ * Results are kept per client address. Apart from logging it is pure
+ * Java, so it runs over loopback on any JVM; see ThroughputClient.
+ */
+class ThroughputServer {
+    private static final String TAG = "GlassWifiApTestServer";
+
+    static final int DEFAULT_PORT = 5209;
+
+    static final byte MODE_DOWNLOAD = 'D';
+    static final byte MODE_UPLOAD = 'U';
+    static final byte MODE_ECHO = 'E';
+    static final byte MODE_PACED = 'P';
+    static final byte MODE_COOKIE = 'C';
+
+    static final int REQUEST_SIZE = 5;
+    static final int COOKIE_SIZE = 8;
+    /** Header and cookie that start every datagram */
+    static final int DATAGRAM_HEADER_SIZE = REQUEST_SIZE + COOKIE_SIZE;
+    static final int PROBE_SIZE = 16;
+    static final int DATAGRAM_SIZE = 1400;
+    static final long PACED_DURATION_MS = 5000;
+
+    private static final int BULK_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_DOWNLOAD_MS = 60 * 1000;
+    private static final int MAX_PACED_KBPS = 100 * 1000;
+    /** Datagrams one pacing round may send to catch up */
+    private static final int MAX_PACED_BURST = 16;
+    private static final int MAX_CLIENTS = 16;
+    private static final long COOKIE_LIFETIME_MS = 30 * 1000;
+
+    private final int mPort;
+    private final SecureRandom mRandom = new SecureRandom();
+    private InetAddress mAddress;
+    private Selector mSelector;
+    private ServerSocketChannel mTcp;
+    private DatagramChannel mUdp;
+    private Thread mThread;
+    private volatile boolean mRunning;
+
+    // Shared by all sessions; only the selector thread touches them
+    private final ByteBuffer mBulk = ByteBuffer.allocateDirect(BULK_BUFFER_SIZE);
+    private final ByteBuffer mDatagram = ByteBuffer.allocateDirect(DATAGRAM_SIZE);
+
+    private final List<PacedStream> mPaced = new ArrayList<>();
+    /** UDP echo clients, for round trips */
+    private final Map<SocketAddress, long[]> mUdpEchoSent = new HashMap<>();
+    /** { cookie, expiry in System.nanoTime } per address it went to */
+    private final Map<InetAddress, long[]> mCookies = new HashMap<>();
+
+    /** Guarded by itself; oldest client is dropped beyond MAX_CLIENTS */
+    private final Map<String, ClientStats> mClients =
+            new LinkedHashMap<String, ClientStats>(MAX_CLIENTS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ClientStats> eldest) {
+            return size() > MAX_CLIENTS;
+        }
+    };
+
+    ThroughputServer(int port) {
+        mPort = port;
+    }
+
+    /**
+     * Bind both channels to address and start serving. A server running
+     * on another address is restarted on this one.
+     */
+    synchronized void start(InetAddress address) throws IOException {
+        if (mThread != null && mThread.isAlive()) {
+            if (address.equals(mAddress)) {
+                return;
+            }
+            stop();
+        }
+        mAddress = address;
+        mSelector = Selector.open();
+        try {
+            mTcp = ServerSocketChannel.open();
+            mTcp.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            mTcp.bind(new InetSocketAddress(address, mPort));
+            mTcp.configureBlocking(false);
+            mTcp.register(mSelector, SelectionKey.OP_ACCEPT);
+
+            // Same port as TCP, also when mPort is 0
+            mUdp = DatagramChannel.open();
+            mUdp.bind(new InetSocketAddress(address, mTcp.socket().getLocalPort()));
+            mUdp.configureBlocking(false);
+            mUdp.register(mSelector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            closeQuietly();
+            throw e;
+        }
+
+        // Bulk payload content does not matter; fill once
+        for (int i = 0; i < BULK_BUFFER_SIZE; i++) {
+            mBulk.put(i, (byte) i);
+        }
+        mRunning = true;
+        mThread = new Thread(this::run, "WifiApTestServer");
+        mThread.start();
+    }
+
+    synchronized void stop() {
+        if (mThread == null) {
+            return;
+        }
+        mRunning = false;
+        mSelector.wakeup();
+        try {
+            mThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mThread = null;
+    }
+
+    /**
+     * @return local port, useful when started on port 0
+     */
+    synchronized int getPort() {
+        try {
+            return mTcp != null ? ((InetSocketAddress) mTcp.getLocalAddress()).getPort() : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    List<ClientStats> getClients() {
+        synchronized (mClients) {
+            List<ClientStats> clients = new ArrayList<>(mClients.size());
+            for (ClientStats client : mClients.values()) {
+                clients.add(client.copy());
+            }
+            return clients;
+        }
+    }
+
+    void dump(StringBuilder sb) {
+        sb.append("test server address=").append(mAddress).append(" port=").append(getPort())
+                .append(" running=").append(mRunning).append('\n');
+        for (ClientStats client : getClients()) {
+            sb.append("  ").append(client).append('\n');
+        }
+    }
+
+    private void run() {
+        try {
+            while (mRunning) {
+                long waitMs = pacePaced();
+                mSelector.select(waitMs);
+                Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        handleKey(key);
+                    } catch (IOException e) {
+                        // One client going away must not stop the rest
+                        closeSession(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Test server stopped: " + e);
+        } finally {
+            closeQuietly();
+        }
+    }
+
+    private void handleKey(SelectionKey key) throws IOException {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.channel() == mTcp) {
+            SocketChannel channel = mTcp.accept();
+            if (channel != null) {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.register(mSelector, SelectionKey.OP_READ, new TcpSession(channel));
+            }
+        } else if (key.channel() == mUdp) {
+            readDatagrams();
+        } else {
+            TcpSession session = (TcpSession) key.attachment();
+            if (key.isReadable()) {
+                session.onReadable(key);
+            }
+            if (key.isValid() && key.isWritable()) {
+                session.onWritable(key);
+            }
+        }
+    }
+
+    private void closeSession(SelectionKey key) {
+        Object attachment = key.attachment();
+        if (attachment instanceof TcpSession) {
+            ((TcpSession) attachment).finish();
+        }
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            if (mSelector != null) {
+                for (SelectionKey key : mSelector.keys()) {
+                    closeSession(key);
+                }
+                mSelector.close();
+            }
+        } catch (IOException e) {
+            // Closing anyway
+        }
+        mPaced.clear();
+        mUdpEchoSent.clear();
+        mCookies.clear();
+        mRunning = false;
+    }
+
+    private ClientStats getClient(InetAddress address, String protocol, byte mode) {
+        String key = address.getHostAddress() + " " + protocol + " " + (char) mode;
+        synchronized (mClients) {
+            ClientStats client = mClients.get(key);
+            if (client == null) {
+                client = new ClientStats(address.getHostAddress(), protocol, (char) mode);
+                mClients.put(key, client);
+            }
+            return client;
+        }
+    }
+
+    /**
+     * One TCP connection, from request header to close
+     */
+    private class TcpSession {
+        private final SocketChannel mChannel;
+        private final ByteBuffer mHeader = ByteBuffer.allocate(REQUEST_SIZE);
+        /** Echo probe in flight, or the upload reply */
+        private final ByteBuffer mProbe = ByteBuffer.allocateDirect(PROBE_SIZE);
+        private ClientStats mStats;
+        private byte mMode;
+        private long mStart;
+        private long mDeadline;
+        private long mEchoSent;
+        private long mBytes;
+
+        TcpSession(SocketChannel channel) {
+            mChannel = channel;
+        }
+
+        void onReadable(SelectionKey key) throws IOException {
+            if (mHeader.hasRemaining()) {
+                if (mChannel.read(mHeader) < 0) {
+                    throw new IOException("closed before request");
+                }
+                if (mHeader.hasRemaining()) {
+                    return;
+                }
+                begin(key);
+                return;
+            }
+
+            switch (mMode) {
+                case MODE_UPLOAD:
+                    readUpload(key);
+                    break;
+                case MODE_ECHO:
+                    readProbe(key);
+                    break;
+                default:
+                    // Download clients only read; EOF ends the session
+                    mBulk.clear();
+                    if (mChannel.read(mBulk) < 0) {
+                        closeSession(key);
+                    }
+                    break;
+            }
+        }
+
+        private void begin(SelectionKey key) throws IOException {
+            mHeader.flip();
+            mMode = mHeader.get();
+            int param = mHeader.getInt();
+            InetAddress address = ((InetSocketAddress) mChannel.getRemoteAddress()).getAddress();
+            if (mMode == MODE_COOKIE) {
+                mProbe.clear();
+                mProbe.putLong(issueCookie(address));
+                mProbe.flip();
+                mChannel.write(mProbe);
+                if (mProbe.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                } else {
+                    closeSession(key);
+                }
+                return;
+            }
+            mStats = getClient(address, "tcp", mMode);
+            mStart = System.nanoTime();
+            synchronized (mClients) {
+                mStats.sessions++;
+            }
+
+            switch (mMode) {
+                case MODE_DOWNLOAD:
+                    int durationMs = Math.max(1, Math.min(param, MAX_DOWNLOAD_MS));
+                    mDeadline = mStart + durationMs * 1000000L;
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    break;
+                case MODE_UPLOAD:
+                case MODE_ECHO:
+                    mProbe.clear();
+                    break;
+                default:
+                    throw new IOException("unknown mode " + mMode);
+            }
+        }
+
+        void onWritable(SelectionKey key) throws IOException {
+            if (mMode == MODE_DOWNLOAD) {
+                if (System.nanoTime() >= mDeadline) {
+                    closeSession(key);
+                    return;
+                }
+                mBulk.clear();
+                mBytes += mChannel.write(mBulk);
+            } else if (mProbe.hasRemaining()) {
+                // Echo or upload reply that did not fit the socket buffer
+                mChannel.write(mProbe);
+                if (!mProbe.hasRemaining()) {
+                    wrote(key);
+                }
+            }
+        }
+
+        private void readUpload(SelectionKey key) throws IOException {
+            int n;
+            do {
+                mBulk.clear();
+                n = mChannel.read(mBulk);
+                if (n > 0) {
+                    mBytes += n;
+                }
+            } while (n > 0);
+            if (n < 0) {
+                // Client is done; report what arrived, then close
+                mProbe.clear();
+                mProbe.putLong(mBytes);
+                mProbe.flip();
+                mChannel.write(mProbe);
+                if (mProbe.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                } else {
+                    closeSession(key);
+                }
+            }
+        }
+
+        private void readProbe(SelectionKey key) throws IOException {
+            if (mChannel.read(mProbe) < 0) {
+                closeSession(key);
+                return;
+            }
+            if (mProbe.hasRemaining()) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (mEchoSent > 0) {
+                synchronized (mClients) {
+                    mStats.addRtt(now - mEchoSent);
+                }
+            }
+            mBytes += PROBE_SIZE;
+            mProbe.flip();
+            mChannel.write(mProbe);
+            if (mProbe.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_WRITE);
+            } else {
+                wrote(key);
+            }
+        }
+
+        /**
+         * A probe echo or upload reply went out in full
+         */
+        private void wrote(SelectionKey key) {
+            if (mMode == MODE_UPLOAD || mMode == MODE_COOKIE) {
+                closeSession(key);
+                return;
+            }
+            mEchoSent = System.nanoTime();
+            mProbe.clear();
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        void finish() {
+            if (mStats == null) {
+                return;
+            }
+            long elapsed = System.nanoTime() - mStart;
+            synchronized (mClients) {
+                mStats.addTransfer(mMode != MODE_DOWNLOAD ? mBytes : 0,
+                        mMode != MODE_UPLOAD ? mBytes : 0, elapsed);
+            }
+            mStats = null;
+        }
+    }
+
+    /**
+     * Datagrams sent to one client at a fixed rate
+     */
+    private static class PacedStream {
+        final SocketAddress address;
+        final ClientStats stats;
+        final long bytesPerSecond;
+        final long start;
+        final long end;
+        int sequence;
+        long bytes;
+
+        PacedStream(SocketAddress address, ClientStats stats, int kbps, long start) {
+            this.address = address;
+            this.stats = stats;
+            this.bytesPerSecond = kbps * 1000L / 8;
+            this.start = start;
+            this.end = start + PACED_DURATION_MS * 1000000L;
+        }
+
+        /** When the next datagram is due, in System.nanoTime */
+        long nextDue() {
+            return start + bytes * 1000000000L / bytesPerSecond;
+        }
+    }
+
+    private void readDatagrams() throws IOException {
+        SocketAddress from;
+        while (true) {
+            mDatagram.clear();
+            from = mUdp.receive(mDatagram);
+            if (from == null) {
+                return;
+            }
+            mDatagram.flip();
+            if (mDatagram.remaining() < DATAGRAM_HEADER_SIZE) {
+                continue;
+            }
+            byte mode = mDatagram.get(0);
+            int param = mDatagram.getInt(1);
+            InetAddress address = ((InetSocketAddress) from).getAddress();
+            long now = System.nanoTime();
+            if (!checkCookie(address, mDatagram.getLong(REQUEST_SIZE), now)) {
+                // Forged or stale source; answering could reflect at a victim
+                continue;
+            }
+
+            if (mode == MODE_PACED) {
+                startPaced(from, address, param, now);
+            } else if (mode == MODE_ECHO) {
+                ClientStats stats = getClient(address, "udp", mode);
+                long[] sent = mUdpEchoSent.get(from);
+                int length = mDatagram.remaining();
+                synchronized (mClients) {
+                    if (sent != null) {
+                        stats.addRtt(now - sent[0]);
+                    } else {
+                        stats.sessions++;
+                    }
+                    stats.addTransfer(length, length, 0);
+                }
+                mUdp.send(mDatagram, from);
+                if (sent == null) {
+                    if (mUdpEchoSent.size() >= MAX_CLIENTS) {
+                        mUdpEchoSent.clear();
+                    }
+                    sent = new long[1];
+                    mUdpEchoSent.put(from, sent);
+                }
+                sent[0] = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * @return a new cookie for address, valid for COOKIE_LIFETIME_MS
+     */
+    private long issueCookie(InetAddress address) {
+        if (mCookies.size() >= MAX_CLIENTS && !mCookies.containsKey(address)) {
+            mCookies.clear();
+        }
+        long cookie = mRandom.nextLong();
+        mCookies.put(address, new long[] {
+                cookie, System.nanoTime() + COOKIE_LIFETIME_MS * 1000000L });
+        return cookie;
+    }
+
+    private boolean checkCookie(InetAddress address, long cookie, long now) {
+        long[] issued = mCookies.get(address);
+        if (issued == null) {
+            return false;
+        }
+        if (now - issued[1] >= 0) {
+            mCookies.remove(address);
+            return false;
+        }
+        return issued[0] == cookie;
+    }
+
+    private void startPaced(SocketAddress from, InetAddress address, int kbps, long now) {
+        for (PacedStream stream : mPaced) {
+            if (stream.address.equals(from)) {
+                // Repeated request, e.g. the first one was lost
+                return;
+            }
+        }
+        if (kbps <= 0 || mPaced.size() >= MAX_CLIENTS) {
+            return;
+        }
+        ClientStats stats = getClient(address, "udp", MODE_PACED);
+        synchronized (mClients) {
+            stats.sessions++;
+        }
+        mPaced.add(new PacedStream(from, stats, Math.min(kbps, MAX_PACED_KBPS), now));
+    }
+
+    /**
+     * Send the datagrams that are due
+     *
+     * @return ms until the next one is due, 0 to wait for I/O only
+     */
+    private long pacePaced() throws IOException {
+        if (mPaced.isEmpty()) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        long nextDue = Long.MAX_VALUE;
+        Iterator<PacedStream> streams = mPaced.iterator();
+        while (streams.hasNext()) {
+            PacedStream stream = streams.next();
+            int burst = 0;
+            while (stream.nextDue() <= now && now < stream.end && burst++ < MAX_PACED_BURST) {
+                mDatagram.clear();
+                mDatagram.putInt(stream.sequence++);
+                mDatagram.putLong(now);
+                mDatagram.position(0).limit(DATAGRAM_SIZE);
+                if (mUdp.send(mDatagram, stream.address) == 0) {
+                    // Socket buffer full; try again next round
+                    stream.sequence--;
+                    break;
+                }
+                stream.bytes += DATAGRAM_SIZE;
+            }
+            if (now >= stream.end) {
+                synchronized (mClients) {
+                    stream.stats.addTransfer(0, stream.bytes, now - stream.start);
+                }
+                streams.remove();
+                continue;
+            }
+            nextDue = Math.min(nextDue, stream.nextDue());
+        }
+        if (nextDue == Long.MAX_VALUE) {
+            return 0;
+        }
+        // select(0) blocks forever, so never return 0 with streams running
+        return Math.max(1, (nextDue - System.nanoTime()) / 1000000L);
+    }
+
+    /**
+     * Results for one client address, protocol and mode
+     */
+    static class ClientStats {
+        private static final int RTT_SAMPLES = 1024;
+
+        final String address;
+        final String protocol;
+        final char mode;
+        int sessions;
+        long bytesIn;
+        long bytesOut;
+        /** Time spent transferring, summed over sessions */
+        long transferNanos;
+        /** Ring of the latest round trips, in ns */
+        private final long[] mRtt;
+        private int mRttCount;
+
+        ClientStats(String address, String protocol, char mode) {
+            this.address = address;
+            this.protocol = protocol;
+            this.mode = mode;
+            mRtt = new long[RTT_SAMPLES];
+        }
+
+        private ClientStats(ClientStats other) {
+            address = other.address;
+            protocol = other.protocol;
+            mode = other.mode;
+            sessions = other.sessions;
+            bytesIn = other.bytesIn;
+            bytesOut = other.bytesOut;
+            transferNanos = other.transferNanos;
+            mRtt = other.mRtt.clone();
+            mRttCount = other.mRttCount;
+        }
+
+        ClientStats copy() {
+            return new ClientStats(this);
+        }
+
+        void addTransfer(long in, long out, long nanos) {
+            bytesIn += in;
+            bytesOut += out;
+            transferNanos += nanos;
+        }
+
+        void addRtt(long nanos) {
+            mRtt[mRttCount % RTT_SAMPLES] = nanos;
+            mRttCount++;
+        }
+
+        int getRttCount() {
+            return mRttCount;
+        }
+
+        /**
+         * @return bits per second over the time spent transferring
+         */
+        long getThroughputBps() {
+            // In double, a long overflows after about a GB
+            return transferNanos > 0
+                    ? (long) ((bytesIn + bytesOut) * 8 * 1e9 / transferNanos) : 0;
+        }
+
+        /**
+         * @param percentile 0-100
+         * @return round trip in us over the retained samples, -1 if none
+         */
+        long getRttMicros(int percentile) {
+            int count = Math.min(mRttCount, RTT_SAMPLES);
+            if (count == 0) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(mRtt, count);
+            Arrays.sort(sorted);
+            int index = Math.min(count - 1, (int) ((long) percentile * count / 100));
+            return sorted[index] / 1000;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(128);
+            sb.append(address).append(' ').append(protocol).append(" mode=").append(mode)
+                    .append(" sessions=").append(sessions).append(" in=").append(bytesIn)
+                    .append("B out=").append(bytesOut).append('B');
+            if (transferNanos > 0) {
+                sb.append(" throughput=").append(getThroughputBps() / 1000).append("kbps");
+            }
+            if (mRttCount > 0) {
+                sb.append(" rtt(us) p50=").append(getRttMicros(50)).append(" p90=")
+                        .append(getRttMicros(90)).append(" p99=").append(getRttMicros(99))
+                        .append(" n=").append(mRttCount);
+            }
+            return sb.toString();
+        }
+    }
+}
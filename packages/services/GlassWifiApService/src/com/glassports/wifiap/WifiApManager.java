@@ -9,19 +9,36 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.RemoteException;
 import android.util.Log;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Manager class for controlling WiFi AP mode from applications.
- * Provides a simple interface to the WifiApService.
+ * Provides a simple interface to the WifiApService, in this or any
+ * other process.
+ *
+ * While bound, the manager keeps the latest WifiApSnapshot the service
+ * pushed and calls the listener on the main thread when the state
+ * changes. Snapshots are numbered, so one arriving late is ignored, and
+ * a reconnect resyncs with a single getSnapshot() call.
  */
 public class WifiApManager {
     private static final String TAG = "GlassWifiApManager";
 
+    private static final String SERVICE_PACKAGE = "com.glassports.wifiap";
+
     private Context mContext;
-    private WifiApService mService;
+    private IWifiApService mService;
     private boolean mBound = false;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    /** Latest snapshot, main thread only */
+    private WifiApSnapshot mSnapshot;
 
     /**
      * Listener interface for WiFi AP state changes
@@ -32,6 +49,15 @@ public class WifiApManager {
 
     private WifiApStateListener mListener;
 
+    /**
+     * Listener for every new snapshot, e.g. a station joining or leaving
+     */
+    public interface SnapshotListener {
+        void onSnapshot(WifiApSnapshot snapshot);
+    }
+
+    private SnapshotListener mSnapshotListener;
+
     /**
      * Create a new WifiApManager
      *
@@ -45,7 +71,8 @@ public class WifiApManager {
      * Bind to the WifiApService
      */
     public void bind() {
-        Intent intent = new Intent(mContext, WifiApService.class);
+        Intent intent = new Intent(WifiApService.ACTION_WIFI_AP_SERVICE);
+        intent.setPackage(SERVICE_PACKAGE);
         mContext.bindService(intent, mConnection, Context.BIND_AUTO_CREATE);
     }
 
@@ -54,7 +81,15 @@ public class WifiApManager {
      */
     public void unbind() {
         if (mBound) {
+            try {
+                if (mService != null) {
+                    mService.unregisterCallback(mCallback);
+                }
+            } catch (RemoteException e) {
+                // Service is gone, and the registration with it
+            }
             mContext.unbindService(mConnection);
+            mService = null;
             mBound = false;
         }
     }
@@ -77,11 +112,16 @@ public class WifiApManager {
      */
     public boolean enableWifiAp(String ssid, String password) {
         if (mBound && mService != null) {
-            return mService.enableWifiAp(ssid, password);
+            try {
+                return mService.enableWifiAp(ssid, password);
+            } catch (RemoteException e) {
+                Log.w(TAG, "WifiApService died, falling back to broadcast");
+            }
         }
 
         // Send broadcast if not bound
         Intent intent = new Intent(WifiApService.ACTION_WIFI_AP_ENABLE);
+        intent.setPackage(SERVICE_PACKAGE);
         if (ssid != null) {
             intent.putExtra(WifiApService.EXTRA_WIFI_AP_SSID, ssid);
         }
@@ -99,11 +139,16 @@ public class WifiApManager {
      */
     public boolean disableWifiAp() {
         if (mBound && mService != null) {
-            return mService.disableWifiAp();
+            try {
+                return mService.disableWifiAp();
+            } catch (RemoteException e) {
+                Log.w(TAG, "WifiApService died, falling back to broadcast");
+            }
         }
 
         // Send broadcast if not bound
         Intent intent = new Intent(WifiApService.ACTION_WIFI_AP_DISABLE);
+        intent.setPackage(SERVICE_PACKAGE);
         mContext.sendBroadcast(intent);
         return true;
     }
@@ -114,10 +159,7 @@ public class WifiApManager {
      * @return true if AP is enabled, false otherwise
      */
     public boolean isWifiApEnabled() {
-        if (mBound && mService != null) {
-            return mService.isWifiApEnabled();
-        }
-        return false;
+        return getWifiApState() == WifiApService.WIFI_AP_STATE_ENABLED;
     }
 
     /**
@@ -126,14 +168,144 @@ public class WifiApManager {
      * @return current state constant
      */
     public int getWifiApState() {
+        WifiApSnapshot snapshot = getSnapshot();
+        return snapshot != null ? snapshot.state : WifiApService.WIFI_AP_STATE_DISABLED;
+    }
+
+    /**
+     * Get the latest hotspot snapshot. Call on the main thread.
+     *
+     * @return snapshot, null if not bound
+     */
+    public WifiApSnapshot getSnapshot() {
+        return mBound ? mSnapshot : null;
+    }
+
+    /**
+     * Get the number of stations connected to the AP
+     *
+     * @return number of connected clients, 0 if not bound
+     */
+    public int getConnectedStationCount() {
+        return getConnectedStations().size();
+    }
+
+    /**
+     * Get the MAC addresses of stations connected to the AP
+     *
+     * @return connected stations, empty if not bound
+     */
+    public List<String> getConnectedStations() {
+        WifiApSnapshot snapshot = getSnapshot();
+        return snapshot != null ? snapshot.stations : Collections.<String>emptyList();
+    }
+
+    /**
+     * Get traffic and link statistics of the stations connected to the AP
+     *
+     * @return one entry per station, empty if not bound
+     */
+    public List<StationInfo> getStationStats() {
+        if (mBound && mService != null) {
+            try {
+                return mService.getStationStats();
+            } catch (RemoteException e) {
+                Log.w(TAG, "WifiApService died");
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Get the combined rate the AP sends to its stations
+     *
+     * @return bytes per second, 0 if not bound
+     */
+    public long getTxRate() {
+        long rate = 0;
+        for (StationInfo station : getStationStats()) {
+            rate += station.txRate;
+        }
+        return rate;
+    }
+
+    /**
+     * Get the combined rate the AP receives from its stations
+     *
+     * @return bytes per second, 0 if not bound
+     */
+    public long getRxRate() {
+        long rate = 0;
+        for (StationInfo station : getStationStats()) {
+            rate += station.rxRate;
+        }
+        return rate;
+    }
+
+    /**
+     * Set how often station statistics are sampled while the AP is up
+     *
+     * @param intervalMs sample interval in ms
+     */
+    public void setStationStatsInterval(long intervalMs) {
+        if (mBound && mService != null) {
+            try {
+                mService.setStationStatsInterval(intervalMs);
+            } catch (RemoteException e) {
+                Log.w(TAG, "WifiApService died");
+            }
+        }
+    }
+
+    /**
+     * Set how long the AP may run with no station before it turns itself off
+     *
+     * @param timeoutMs idle timeout in ms, 0 to never turn off
+     */
+    public void setIdleTimeout(long timeoutMs) {
+        if (mBound && mService != null) {
+            try {
+                mService.setIdleTimeout(timeoutMs);
+            } catch (RemoteException e) {
+                Log.w(TAG, "WifiApService died");
+            }
+        }
+    }
+
+    /**
+     * Serve the throughput and latency test protocol to hotspot clients
+     * while the AP is up. See ThroughputClient for the client side.
+     *
+     * @param enabled whether to serve
+     */
+    public void setTestServerEnabled(boolean enabled) {
+        if (mBound && mService != null) {
+            try {
+                mService.setTestServerEnabled(enabled);
+            } catch (RemoteException e) {
+                Log.w(TAG, "WifiApService died");
+            }
+        }
+    }
+
+    /**
+     * Get per-client throughput and round trip percentiles
+     *
+     * @return one line per client, empty if not bound
+     */
+    public String getTestServerReport() {
         if (mBound && mService != null) {
-            return mService.getWifiApState();
+            try {
+                return mService.getTestServerReport();
+            } catch (RemoteException e) {
+                Log.w(TAG, "WifiApService died");
+            }
         }
-        return WifiApService.WIFI_AP_STATE_DISABLED;
+        return "";
     }
 
     /**
-     * Set listener for WiFi AP state changes
+     * Set listener for WiFi AP state changes. Called on the main thread.
      *
      * @param listener Listener to receive state changes
      */
@@ -141,6 +313,42 @@ public class WifiApManager {
         mListener = listener;
     }
 
+    /**
+     * Set a listener for every snapshot, called on the main thread
+     *
+     * @param listener Listener to receive snapshots, or null
+     */
+    public void setSnapshotListener(SnapshotListener listener) {
+        mSnapshotListener = listener;
+    }
+
+    /**
+     * Take a snapshot unless a newer one has been seen. Main thread only.
+     */
+    private void onSnapshot(WifiApSnapshot snapshot) {
+        if (snapshot == null || (mSnapshot != null && snapshot.seq <= mSnapshot.seq)) {
+            return;
+        }
+        int oldState = mSnapshot != null ? mSnapshot.state : -1;
+        mSnapshot = snapshot;
+        if (mListener != null && snapshot.state != oldState) {
+            mListener.onWifiApStateChanged(snapshot.state);
+        }
+        if (mSnapshotListener != null) {
+            mSnapshotListener.onSnapshot(snapshot);
+        }
+    }
+
+    /**
+     * Receives service snapshots on a binder thread
+     */
+    private final IWifiApCallback.Stub mCallback = new IWifiApCallback.Stub() {
+        @Override
+        public void onSnapshot(final WifiApSnapshot snapshot) {
+            mMainHandler.post(() -> WifiApManager.this.onSnapshot(snapshot));
+        }
+    };
+
     /**
      * Service connection callbacks
      */
@@ -148,9 +356,16 @@ public class WifiApManager {
         @Override
         public void onServiceConnected(ComponentName name, IBinder service) {
             Log.d(TAG, "Connected to WifiApService");
-            WifiApService.WifiApBinder binder = (WifiApService.WifiApBinder) service;
-            mService = binder.getService();
+            mService = IWifiApService.Stub.asInterface(service);
             mBound = true;
+            // A restarted service numbers its snapshots from 0 again
+            mSnapshot = null;
+            try {
+                onSnapshot(mService.getSnapshot());
+                mService.registerCallback(mCallback);
+            } catch (RemoteException e) {
+                Log.w(TAG, "WifiApService died while connecting");
+            }
         }
 
         @Override
@@ -16,14 +16,11 @@ public class WifiApNative {
     }
 
     /**
-     * Start WiFi AP with specified configuration
+     * Start hostapd with the config already written to hostapd.conf
      *
-     * @param ssid     Network name
-     * @param password Network password
-     * @param channel  WiFi channel (1-11)
-     * @return true if AP started successfully
+     * @return true if the start was requested
      */
-    public static native boolean startWifiAp(String ssid, String password, int channel);
+    public static native boolean startWifiAp();
 
     /**
      * Stop WiFi AP
@@ -33,16 +30,62 @@ public class WifiApNative {
     public static native boolean stopWifiAp();
 
     /**
-     * Check if WiFi AP is currently running
+     * Check if WiFi AP is currently running. Once waitApProperties has
+     * run this reads the value it last saw, not the property.
      *
      * @return true if AP is running
      */
     public static native boolean isWifiApRunning();
 
+    /**
+     * Block until sys.wifi.ap.enabled or the liveness of hostapd or
+     * hostapd_hidl differs from lastProps
+     *
+     * @param lastProps bits from the previous call, -1 to return at once
+     * @return ApPropertyWatcher bits
+     */
+    public static native int waitApProperties(int lastProps);
+
     /**
      * Get number of connected stations
      *
      * @return number of connected clients
      */
     public static native int getConnectedStationCount();
+
+    /**
+     * Set where hostapd's control socket is, for the calls below
+     *
+     * @param path socket path, e.g. "/data/misc/wifi/hostapd/wlan0"
+     */
+    public static native void setHostapdCtrlPath(String path);
+
+    /**
+     * Send a control interface command to hostapd
+     *
+     * @param command command such as "STA-FIRST" or "STA 02:00:00:00:01:00"
+     * @return hostapd's reply, or null if hostapd could not be reached
+     */
+    public static native String hostapdCommand(String command);
+
+    /**
+     * Connect to hostapd and ATTACH for event messages
+     *
+     * @return true if attached
+     */
+    public static native boolean openHostapdMonitor();
+
+    /**
+     * Block until hostapd sends an event. Once closeHostapdMonitor is
+     * called or the connection fails, the monitor is released and null
+     * returned.
+     *
+     * @return raw event message, e.g. "<3>AP-STA-CONNECTED 02:00:00:00:01:00"
+     */
+    public static native String waitHostapdEvent();
+
+    /**
+     * Wake the thread blocked in waitHostapdEvent so it releases the monitor
+     */
+    public static native void closeHostapdMonitor();
 }
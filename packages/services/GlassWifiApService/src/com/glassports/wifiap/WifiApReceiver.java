@@ -0,0 +1,43 @@
+/*
+ * GlassPorts WiFi AP Receiver
+ * Starts WifiApService at boot and for enable/disable requests
+ */
+
+package com.glassports.wifiap;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+/**
+ * Manifest receiver, so requests reach WifiApService even when it is not
+ * running.
+ *
+ * At boot it only starts the service: WifiApService brings the AP back
+ * itself if ApConfigStore says it was on. LOCKED_BOOT_COMPLETED comes
+ * well before BOOT_COMPLETED on a device with a lock screen, so both are
+ * handled and the later one finds the service already up. Enable and
+ * disable requests are handed to onStartCommand with their extras.
+ */
+public class WifiApReceiver extends BroadcastReceiver {
+    private static final String TAG = "GlassWifiApReceiver";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        String action = intent.getAction();
+        Intent service = new Intent(context, WifiApService.class);
+
+        if (Intent.ACTION_LOCKED_BOOT_COMPLETED.equals(action)
+                || Intent.ACTION_BOOT_COMPLETED.equals(action)) {
+            Log.i(TAG, action + ", starting WifiApService");
+        } else if (WifiApService.ACTION_WIFI_AP_ENABLE.equals(action)
+                || WifiApService.ACTION_WIFI_AP_DISABLE.equals(action)) {
+            service.setAction(action);
+            service.putExtras(intent);
+        } else {
+            return;
+        }
+        context.startService(service);
+    }
+}
@@ -5,26 +5,90 @@
 
 package com.glassports.wifiap;
 
+import android.Manifest;
 import android.app.Service;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.net.wifi.ScanResult;
 import android.net.wifi.WifiConfiguration;
+import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
-import android.os.Binder;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
+import android.os.RemoteCallbackList;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.util.Log;
 
-import java.lang.reflect.Method;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Service for managing WiFi Access Point mode on Google Glass.
  * Provides functionality to enable/disable WiFi AP and configure AP settings.
+ *
+ * Requests only record the desired state; ApHandler drives the actual
+ * transitions on its own thread. A request is acted on once no other
+ * request has arrived for COALESCE_MS, and requests arriving while a
+ * transition is running wait for it to finish, then the handler moves
+ * straight to the latest desired state. Toggling the hotspot rapidly
+ * therefore costs at most one hostapd restart, and none if it ends where
+ * it started.
+ *
+ * Enabling picks the least congested channel unless one is set (see
+ * ChannelSelector), taking a quick scan first if client WiFi is on and no
+ * fresh selection is cached for the surroundings. It then turns client
+ * WiFi off, waits for the wlan driver interface,
+ * starts hostapd through WifiApNative and waits until it is running with
+ * its control socket open. Each phase has a timeout; a failed start is
+ * retried MAX_RETRIES times before the state goes to FAILED.
+ *
+ * Where the device declares IHostapd, hostapd is reached through
+ * HostapdHidl: a daemon that stays up adds and removes the access point
+ * on request. Otherwise, or if that path fails, the config file is
+ * written and hostapd started through sys.wifi.ap.enabled. Either way
+ * the transition ends when beacons are on, and the time from starting
+ * hostapd to that point is kept per path in dump.
+ *
+ * ApPropertyWatcher reports sys.wifi.ap.enabled and hostapd starting or
+ * exiting as they happen. Waits for hostapd to exit need no polling, a
+ * hostapd that dies or is stopped through the property by someone else
+ * moves the state to FAILED or DISABLED, and one started that way is
+ * adopted, so mWifiApState is always what is actually running.
+ *
+ * The configuration and whether the AP is wanted are saved in
+ * ApConfigStore. If the AP was on when the device went down, the service
+ * brings it back as soon as it starts, which WifiApReceiver makes happen
+ * at LOCKED_BOOT_COMPLETED. A restore reuses the last channel instead of
+ * scanning and waits longer for the driver; its time from boot to
+ * beacon is kept for dump.
+ *
+ * While the AP is up with no station associated it restarts the BSS with
+ * a longer beacon interval after IDLE_POWER_SAVE_MS, and turns itself off
+ * after the idle timeout. Time spent idle, with quiet stations and with
+ * traffic is kept for dump.
+ *
+ * Clients in any process bind with ACTION_WIFI_AP_SERVICE and talk
+ * IWifiApService. Every state or station change is pushed to registered
+ * IWifiApCallbacks as a numbered WifiApSnapshot; only settled states are
+ * also broadcast, for receivers that do not bind.
  */
 public class WifiApService extends Service {
     private static final String TAG = "GlassWifiApService";
@@ -36,6 +100,13 @@ public class WifiApService extends Service {
             "com.glassports.wifiap.WIFI_AP_ENABLE";
     public static final String ACTION_WIFI_AP_DISABLE =
             "com.glassports.wifiap.WIFI_AP_DISABLE";
+    public static final String ACTION_WIFI_AP_SERVICE =
+            "com.glassports.wifiap.WIFI_AP_SERVICE";
+
+    // Permissions
+    /** Signature permission for enable, disable and configuration requests */
+    public static final String PERMISSION_MANAGE_WIFI_AP =
+            "com.glassports.wifiap.permission.MANAGE_WIFI_AP";
 
     // Extras
     public static final String EXTRA_WIFI_AP_STATE = "wifi_ap_state";
@@ -52,20 +123,192 @@ public class WifiApService extends Service {
     // System properties
     private static final String PROP_WIFI_AP_ENABLED = "sys.wifi.ap.enabled";
     private static final String PROP_WIFI_AP_SSID = "ro.wifi.ap.ssid";
+    private static final String PROP_HOSTAPD_SVC = "init.svc.hostapd";
+
+    private static final String AP_INTERFACE = "wlan0";
+    private static final String DRIVER_PATH = "/sys/class/net/" + AP_INTERFACE;
+    private static final String HOSTAPD_DIR = "/data/misc/wifi/hostapd";
+    private static final String HOSTAPD_CTRL_PATH = HOSTAPD_DIR + "/" + AP_INTERFACE;
+    private static final String HOSTAPD_CONF_FILE = HOSTAPD_DIR + "/hostapd.conf";
+    private static final String HIDL_CTRL_PATH = HostapdHidl.CTRL_DIR + "/" + AP_INTERFACE;
+    /** mChannel value asking for ChannelSelector to pick */
+    public static final int CHANNEL_AUTO = 0;
+
+    // Transition timing
+    private static final long COALESCE_MS = 300;
+    private static final long POLL_MS = 100;
+    private static final long CLIENT_OFF_TIMEOUT_MS = 3000;
+    private static final long DRIVER_TIMEOUT_MS = 3000;
+    /** The wlan driver may still be loading when the AP is restored at boot */
+    private static final long BOOT_DRIVER_TIMEOUT_MS = 20000;
+    private static final long START_TIMEOUT_MS = 5000;
+    private static final long SCAN_TIMEOUT_MS = 3000;
+    private static final long HIDL_START_TIMEOUT_MS = 2000;
+    private static final long STOP_TIMEOUT_MS = 3000;
+    private static final long RETRY_DELAY_MS = 1000;
+    private static final int MAX_RETRIES = 2;
+
+    // Handler messages
+    private static final int MSG_RECONCILE = 1;
+    private static final int MSG_POLL = 2;
+    private static final int MSG_HOSTAPD_TERMINATING = 3;
+    private static final int MSG_STATIONS_CHANGED = 4;
+    private static final int MSG_STATS_SAMPLED = 5;
+    private static final int MSG_IDLE_POWER_SAVE = 6;
+    private static final int MSG_IDLE_TIMEOUT = 7;
+    private static final int MSG_PROPERTIES_CHANGED = 8;
+    private static final int MSG_TEST_SERVER = 9;
+
+    // Idle policy
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 10 * 60 * 1000;
+    private static final long IDLE_POWER_SAVE_MS = 60 * 1000;
+    private static final int BEACON_INTERVAL_TU = 100;
+    private static final int IDLE_BEACON_INTERVAL_TU = 300;
+
+    // AP activity levels, for time accounting
+    private static final int ACTIVITY_OFF = 0;
+    private static final int ACTIVITY_IDLE = 1;
+    private static final int ACTIVITY_QUIET = 2;
+    private static final int ACTIVITY_BUSY = 3;
+    private static final String[] ACTIVITY_NAMES = { "off", "idle", "quiet", "busy" };
+
+    // Transition phases
+    private static final int PHASE_NONE = 0;
+    private static final int PHASE_CLIENT_OFF = 1;
+    private static final int PHASE_DRIVER = 2;
+    private static final int PHASE_HOSTAPD_START = 3;
+    private static final int PHASE_RETRY_WAIT = 4;
+    private static final int PHASE_HOSTAPD_STOP = 5;
+    private static final int PHASE_HIDL_START = 6;
+    private static final int PHASE_SCAN = 7;
+    private static final int PHASE_HIDL_BEACON = 8;
+
+    // hostapd start paths, for time-to-beacon
+    private static final int PATH_FILE = 0;
+    private static final int PATH_HIDL = 1;
+    private static final String[] PATH_NAMES = { "file", "hidl" };
 
     private WifiManager mWifiManager;
-    private int mWifiApState = WIFI_AP_STATE_DISABLED;
-    private WifiConfiguration mApConfig;
+    private volatile int mWifiApState = WIFI_AP_STATE_DISABLED;
+    private HandlerThread mThread;
     private Handler mHandler;
+    private HostapdMonitor mHostapdMonitor;
+    private StationStats mStationStats;
+    private ApPropertyWatcher mPropertyWatcher;
+    private ApConfigStore mStore;
+    private final ThroughputServer mTestServer =
+            new ThroughputServer(ThroughputServer.DEFAULT_PORT);
+
+    private final RemoteCallbackList<IWifiApCallback> mCallbacks = new RemoteCallbackList<>();
+    /** Replaced on the state machine thread with every change */
+    private volatile WifiApSnapshot mSnapshot;
+    /** Last settled state broadcast, state machine thread only */
+    private int mBroadcastState = -1;
+    /** Latest automatic channel choice, null before the first */
+    private volatile ChannelSelector.Selection mChannelSelection;
+    private volatile long mScanResultsTime;
+
+    // Desired state, written by request methods on any thread
+    private final Object mLock = new Object();
+    private WifiConfiguration mApConfig;
+    private int mChannel = CHANNEL_AUTO;
+    private boolean mDesiredEnabled;
+    private int mRequestSeq;
+    private volatile long mIdleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+    private volatile boolean mTestServerEnabled;
 
     private final IBinder mBinder = new WifiApBinder();
 
     /**
-     * Binder class for local service binding
+     * IWifiApService for clients in this and other processes
      */
-    public class WifiApBinder extends Binder {
-        public WifiApService getService() {
-            return WifiApService.this;
+    private class WifiApBinder extends IWifiApService.Stub {
+        @Override
+        public boolean enableWifiAp(String ssid, String password) {
+            enforceChangePermission();
+            return WifiApService.this.enableWifiAp(ssid, password);
+        }
+
+        @Override
+        public boolean disableWifiAp() {
+            enforceChangePermission();
+            return WifiApService.this.disableWifiAp();
+        }
+
+        @Override
+        public void setWifiApConfiguration(String ssid, String password) {
+            enforceChangePermission();
+            WifiApService.this.setWifiApConfiguration(ssid, password);
+        }
+
+        @Override
+        public int getWifiApState() {
+            enforceAccessPermission();
+            return mWifiApState;
+        }
+
+        @Override
+        public WifiApSnapshot getSnapshot() {
+            enforceAccessPermission();
+            return mSnapshot;
+        }
+
+        @Override
+        public List<StationInfo> getStationStats() {
+            enforceAccessPermission();
+            return WifiApService.this.getStationStats();
+        }
+
+        @Override
+        public void setStationStatsInterval(long intervalMs) {
+            enforceChangePermission();
+            WifiApService.this.setStationStatsInterval(intervalMs);
+        }
+
+        @Override
+        public void setIdleTimeout(long timeoutMs) {
+            enforceChangePermission();
+            WifiApService.this.setIdleTimeout(timeoutMs);
+        }
+
+        @Override
+        public void setTestServerEnabled(boolean enabled) {
+            enforceChangePermission();
+            WifiApService.this.setTestServerEnabled(enabled);
+        }
+
+        @Override
+        public String getTestServerReport() {
+            enforceAccessPermission();
+            return WifiApService.this.getTestServerReport();
+        }
+
+        @Override
+        public void registerCallback(IWifiApCallback callback) {
+            enforceAccessPermission();
+            if (callback == null || !mCallbacks.register(callback)) {
+                return;
+            }
+            try {
+                callback.onSnapshot(mSnapshot);
+            } catch (RemoteException e) {
+                // Died already; the list drops it
+            }
+        }
+
+        @Override
+        public void unregisterCallback(IWifiApCallback callback) {
+            if (callback != null) {
+                mCallbacks.unregister(callback);
+            }
+        }
+
+        private void enforceChangePermission() {
+            enforceCallingOrSelfPermission(PERMISSION_MANAGE_WIFI_AP, TAG);
+        }
+
+        private void enforceAccessPermission() {
+            enforceCallingOrSelfPermission(Manifest.permission.ACCESS_WIFI_STATE, TAG);
         }
     }
 
@@ -75,16 +318,30 @@ public class WifiApService extends Service {
         Log.i(TAG, "GlassPorts WiFi AP Service starting");
 
         mWifiManager = (WifiManager) getSystemService(Context.WIFI_SERVICE);
-        mHandler = new ApHandler(Looper.getMainLooper());
+        mThread = new HandlerThread("WifiApStateMachine");
+        mThread.start();
+        mHandler = new ApHandler(mThread.getLooper());
+        mHostapdMonitor = new HostapdMonitor(mMonitorListener);
+        mStationStats = new StationStats(mHostapdMonitor,
+                () -> mHandler.sendEmptyMessage(MSG_STATS_SAMPLED));
+        mPropertyWatcher = new ApPropertyWatcher(
+                props -> mHandler.sendEmptyMessage(MSG_PROPERTIES_CHANGED));
 
-        // Initialize default AP configuration
+        // Saved AP configuration, or the defaults
         initApConfig();
 
-        // Register broadcast receiver
+        mSnapshot = new WifiApSnapshot(0, mWifiApState, mApConfig.SSID, 0,
+                Collections.emptyList());
+        // Checking for a running AP talks to hostapd, so not on this thread
+        mHandler.post(() -> ((ApHandler) mHandler).recover());
+        // Changes from here on queue behind the adopt or restore
+        mPropertyWatcher.start();
+
+        // WiFi events only. Enable and disable requests come through
+        // WifiApReceiver, which requires MANAGE_WIFI_AP of the sender
         IntentFilter filter = new IntentFilter();
-        filter.addAction(ACTION_WIFI_AP_ENABLE);
-        filter.addAction(ACTION_WIFI_AP_DISABLE);
         filter.addAction(WifiManager.WIFI_STATE_CHANGED_ACTION);
+        filter.addAction(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION);
         registerReceiver(mReceiver, filter);
 
         Log.i(TAG, "GlassPorts WiFi AP Service started");
@@ -94,6 +351,11 @@ public class WifiApService extends Service {
     public void onDestroy() {
         super.onDestroy();
         unregisterReceiver(mReceiver);
+        mCallbacks.kill();
+        mPropertyWatcher.stop();
+        mHandler.post(this::stopMonitoring);
+        mHandler.post(mTestServer::stop);
+        mThread.quitSafely();
         Log.i(TAG, "GlassPorts WiFi AP Service stopped");
     }
 
@@ -126,6 +388,27 @@ public class WifiApService extends Service {
         mApConfig.allowedKeyManagement.set(WifiConfiguration.KeyMgmt.WPA_PSK);
         mApConfig.allowedAuthAlgorithms.set(WifiConfiguration.AuthAlgorithm.OPEN);
         mApConfig.preSharedKey = "glassports";
+
+        // Device protected, so readable before the first unlock
+        mStore = new ApConfigStore(new File(createDeviceProtectedStorageContext().getFilesDir(),
+                ApConfigStore.FILE_NAME));
+        try {
+            if (!mStore.load()) {
+                return;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not load saved AP configuration, using defaults: " + e);
+            // Do not act on a partly read file
+            mStore.enabled = false;
+            return;
+        }
+        synchronized (mLock) {
+            updateConfigLocked(mStore.ssid, mStore.password);
+            if (mStore.channel == CHANNEL_AUTO || (mStore.channel >= ChannelSelector.MIN_CHANNEL
+                    && mStore.channel <= ChannelSelector.MAX_CHANNEL)) {
+                mChannel = mStore.channel;
+            }
+        }
     }
 
     /**
@@ -138,28 +421,12 @@ public class WifiApService extends Service {
     public boolean enableWifiAp(String ssid, String password) {
         Log.i(TAG, "Enabling WiFi AP mode");
 
-        // Update configuration if provided
-        if (ssid != null && !ssid.isEmpty()) {
-            mApConfig.SSID = ssid;
+        synchronized (mLock) {
+            updateConfigLocked(ssid, password);
+            mDesiredEnabled = true;
+            requestLocked();
         }
-        if (password != null && password.length() >= 8) {
-            mApConfig.preSharedKey = password;
-        }
-
-        // Disable WiFi client mode first
-        if (mWifiManager.isWifiEnabled()) {
-            Log.d(TAG, "Disabling WiFi client mode");
-            mWifiManager.setWifiEnabled(false);
-        }
-
-        // Enable AP mode
-        boolean result = setWifiApEnabled(mApConfig, true);
-        if (result) {
-            setWifiApState(WIFI_AP_STATE_ENABLING);
-            SystemProperties.set(PROP_WIFI_AP_ENABLED, "1");
-        }
-
-        return result;
+        return true;
     }
 
     /**
@@ -170,13 +437,11 @@ public class WifiApService extends Service {
     public boolean disableWifiAp() {
         Log.i(TAG, "Disabling WiFi AP mode");
 
-        boolean result = setWifiApEnabled(null, false);
-        if (result) {
-            setWifiApState(WIFI_AP_STATE_DISABLING);
-            SystemProperties.set(PROP_WIFI_AP_ENABLED, "0");
+        synchronized (mLock) {
+            mDesiredEnabled = false;
+            requestLocked();
         }
-
-        return result;
+        return true;
     }
 
     /**
@@ -197,22 +462,167 @@ public class WifiApService extends Service {
         return mWifiApState;
     }
 
+    /**
+     * Get the stations associated with the AP
+     *
+     * @return MAC addresses, in order of association
+     */
+    public List<String> getConnectedStations() {
+        return mHostapdMonitor.getStations();
+    }
+
+    /**
+     * Get the number of stations associated with the AP
+     *
+     * @return number of connected clients
+     */
+    public int getConnectedStationCount() {
+        return mHostapdMonitor.getStationCount();
+    }
+
+    /**
+     * Get traffic and link statistics of the associated stations, as of
+     * the last sample
+     *
+     * @return one entry per station, empty while the AP is off
+     */
+    public List<StationInfo> getStationStats() {
+        return mStationStats.getStations();
+    }
+
+    /**
+     * Get the combined rate the AP sends to its stations
+     *
+     * @return bytes per second over the last sample interval
+     */
+    public long getTxRate() {
+        long rate = 0;
+        for (StationInfo station : mStationStats.getStations()) {
+            rate += station.txRate;
+        }
+        return rate;
+    }
+
+    /**
+     * Get the combined rate the AP receives from its stations
+     *
+     * @return bytes per second over the last sample interval
+     */
+    public long getRxRate() {
+        long rate = 0;
+        for (StationInfo station : mStationStats.getStations()) {
+            rate += station.rxRate;
+        }
+        return rate;
+    }
+
+    /**
+     * Set how often station statistics are sampled while the AP is up
+     *
+     * @param intervalMs sample interval, at least 500 ms
+     */
+    public void setStationStatsInterval(long intervalMs) {
+        mStationStats.setInterval(intervalMs);
+    }
+
+    /**
+     * Set how long the AP may run with no station before it turns itself
+     * off. Applies from the next time it goes idle.
+     *
+     * @param timeoutMs idle timeout, 0 to never turn off
+     */
+    public void setIdleTimeout(long timeoutMs) {
+        mIdleTimeoutMs = Math.max(0, timeoutMs);
+        mHandler.post(() -> ((ApHandler) mHandler).updateActivity());
+    }
+
+    /**
+     * Serve the throughput and latency test protocol on port
+     * ThroughputServer.DEFAULT_PORT of the AP interface's address while
+     * the AP is up. Off by default.
+     *
+     * @param enabled whether to serve
+     */
+    public void setTestServerEnabled(boolean enabled) {
+        mTestServerEnabled = enabled;
+        mHandler.post(() -> ((ApHandler) mHandler).updateTestServer());
+    }
+
+    /**
+     * Get the test results of each client since the server was enabled
+     *
+     * @return one line per client address, protocol and mode
+     */
+    public String getTestServerReport() {
+        StringBuilder sb = new StringBuilder(256);
+        for (ThroughputServer.ClientStats client : mTestServer.getClients()) {
+            sb.append(client).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Set the AP channel. A running AP is restarted on it.
+     *
+     * @param channel 1-11, or CHANNEL_AUTO to pick the least congested
+     */
+    public void setWifiApChannel(int channel) {
+        if (channel != CHANNEL_AUTO && (channel < ChannelSelector.MIN_CHANNEL
+                || channel > ChannelSelector.MAX_CHANNEL)) {
+            throw new IllegalArgumentException("Invalid channel " + channel);
+        }
+        synchronized (mLock) {
+            mChannel = channel;
+            requestLocked();
+        }
+    }
+
+    /**
+     * Get the channel automatic selection chose last
+     *
+     * @return channel, or 0 if it has not run
+     */
+    public int getSelectedChannel() {
+        ChannelSelector.Selection selection = mChannelSelection;
+        return selection != null ? selection.channel : 0;
+    }
+
+    /**
+     * Get the congestion score of the channel automatic selection chose
+     * last. 0 means no other network was heard on or near it.
+     *
+     * @return score, or -1 if selection has not run
+     */
+    public int getSelectedChannelScore() {
+        ChannelSelector.Selection selection = mChannelSelection;
+        return selection != null ? selection.score : -1;
+    }
+
     /**
      * Get current AP configuration
      *
      * @return WifiConfiguration for current AP
      */
     public WifiConfiguration getWifiApConfiguration() {
-        return mApConfig;
+        synchronized (mLock) {
+            return new WifiConfiguration(mApConfig);
+        }
     }
 
     /**
-     * Update AP configuration
+     * Update AP configuration. A running AP is restarted with it.
      *
      * @param ssid     new SSID
      * @param password new password
      */
     public void setWifiApConfiguration(String ssid, String password) {
+        synchronized (mLock) {
+            updateConfigLocked(ssid, password);
+            requestLocked();
+        }
+    }
+
+    private void updateConfigLocked(String ssid, String password) {
         if (ssid != null && !ssid.isEmpty()) {
             mApConfig.SSID = ssid;
         }
@@ -222,28 +632,33 @@ public class WifiApService extends Service {
     }
 
     /**
-     * Use reflection to call setWifiApEnabled on WifiManager
+     * Schedule a reconcile once requests stop arriving for COALESCE_MS
      */
-    private boolean setWifiApEnabled(WifiConfiguration config, boolean enabled) {
-        try {
-            Method method = mWifiManager.getClass().getMethod(
-                    "setWifiApEnabled", WifiConfiguration.class, boolean.class);
-            return (Boolean) method.invoke(mWifiManager, config, enabled);
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to set WiFi AP enabled: " + e.getMessage());
-            return false;
-        }
+    private void requestLocked() {
+        mRequestSeq++;
+        mHandler.removeMessages(MSG_RECONCILE);
+        mHandler.sendEmptyMessageDelayed(MSG_RECONCILE, COALESCE_MS);
     }
 
     /**
-     * Update and broadcast WiFi AP state
+     * Update WiFi AP state and notify clients. Called on the state
+     * machine thread.
      */
     private void setWifiApState(int state) {
         mWifiApState = state;
+        ((ApHandler) mHandler).publishSnapshot();
+        ((ApHandler) mHandler).updateActivity();
+        ((ApHandler) mHandler).updateTestServer();
 
-        Intent intent = new Intent(ACTION_WIFI_AP_STATE_CHANGED);
-        intent.putExtra(EXTRA_WIFI_AP_STATE, state);
-        sendBroadcast(intent);
+        // Transitional states only go to callbacks
+        boolean settled = state == WIFI_AP_STATE_ENABLED || state == WIFI_AP_STATE_DISABLED
+                || state == WIFI_AP_STATE_FAILED;
+        if (settled && state != mBroadcastState) {
+            mBroadcastState = state;
+            Intent intent = new Intent(ACTION_WIFI_AP_STATE_CHANGED);
+            intent.putExtra(EXTRA_WIFI_AP_STATE, state);
+            sendBroadcast(intent, Manifest.permission.ACCESS_WIFI_STATE);
+        }
     }
 
     /**
@@ -254,29 +669,981 @@ public class WifiApService extends Service {
         public void onReceive(Context context, Intent intent) {
             String action = intent.getAction();
 
-            if (ACTION_WIFI_AP_ENABLE.equals(action)) {
-                String ssid = intent.getStringExtra(EXTRA_WIFI_AP_SSID);
-                String password = intent.getStringExtra(EXTRA_WIFI_AP_PASSWORD);
-                enableWifiAp(ssid, password);
-            } else if (ACTION_WIFI_AP_DISABLE.equals(action)) {
-                disableWifiAp();
-            } else if (WifiManager.WIFI_STATE_CHANGED_ACTION.equals(action)) {
-                // Handle WiFi state changes if needed
+            if (WifiManager.WIFI_STATE_CHANGED_ACTION.equals(action)) {
+                // Client WiFi going down may end the wait in PHASE_CLIENT_OFF
+                mHandler.sendEmptyMessage(MSG_POLL);
+            } else if (WifiManager.SCAN_RESULTS_AVAILABLE_ACTION.equals(action)) {
+                // Ends the wait in PHASE_SCAN
+                mScanResultsTime = SystemClock.elapsedRealtime();
+                mHandler.sendEmptyMessage(MSG_POLL);
             }
         }
     };
 
     /**
-     * Handler for AP state transitions
+     * Follow stations and sample their statistics while hostapd is up.
+     * Called on the state machine thread.
+     */
+    private void startMonitoring() {
+        mHostapdMonitor.start();
+        mStationStats.start();
+    }
+
+    private void stopMonitoring() {
+        mStationStats.stop();
+        mHostapdMonitor.stop();
+    }
+
+    private final HostapdMonitor.Listener mMonitorListener = new HostapdMonitor.Listener() {
+        @Override
+        public void onStationsChanged() {
+            mHandler.sendEmptyMessage(MSG_STATIONS_CHANGED);
+        }
+
+        @Override
+        public void onHostapdTerminating() {
+            mHandler.sendEmptyMessage(MSG_HOSTAPD_TERMINATING);
+        }
+    };
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        final StringBuilder sb = new StringBuilder(512);
+        final CountDownLatch done = new CountDownLatch(1);
+        mHandler.post(() -> {
+            ((ApHandler) mHandler).dump(sb);
+            done.countDown();
+        });
+        try {
+            done.await(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pw.print(sb);
+    }
+
+    /**
+     * Handler for AP state transitions. All fields are only touched on the
+     * state machine thread.
      */
     private class ApHandler extends Handler {
+        private int mPhase = PHASE_NONE;
+        private long mPhaseDeadline;
+        private long mTransitionStart;
+        private int mAttempt;
+
+        /** Config hostapd is running with, null when stopped */
+        private String mAppliedKey;
+        private int mAppliedChannel;
+        private String mTargetKey;
+        private String mTargetSsid;
+        private String mTargetPassword;
+        private int mTargetChannel;
+
+        /** Request seq the running transition acts on */
+        private int mTransitionSeq;
+        /** Request seq that ended in FAILED; not retried until a new request */
+        private int mFailedSeq = -1;
+        /** Client WiFi was on before the AP took the radio */
+        private boolean mRestoreClient;
+
+        private final HostapdHidl mHidl = new HostapdHidl();
+        private int mActivity = ACTIVITY_OFF;
+        private long mActivitySince = SystemClock.elapsedRealtime();
+        private final long[] mActivityMs = new long[ACTIVITY_NAMES.length];
+        private long mIdleSince;
+        /** Beacon interval is lengthened for idling */
+        private boolean mIdleBeacon;
+        private int mIdleShutdowns;
+
+        private final ChannelSelector mSelector = new ChannelSelector();
+        /** BSSID client WiFi was connected to when enabling began */
+        private String mConnectedBssid;
+        private long mScanStart;
+        private final HostapdConfig mConfig = new HostapdConfig(new File(HOSTAPD_CONF_FILE));
+        private int mConfigReloads;
+        /** Cleared for good once the HIDL path fails */
+        private boolean mHidlUsable = HostapdHidl.isSupported();
+        /** The running AP was added through HIDL */
+        private boolean mViaHidl;
+
+        private int mHostapdStarts;
+        private int mHostapdStops;
+        private long mHostapdStartTime;
+        // Time from starting hostapd to beacons, per path
+        private final int[] mBeaconCount = new int[PATH_NAMES.length];
+        private final long[] mBeaconTotalMs = new long[PATH_NAMES.length];
+        private final long[] mBeaconLastMs = new long[PATH_NAMES.length];
+        private long mLastEnableMs = -1;
+        private long mLastDisableMs = -1;
+
+        /** Bringing back the AP that was on before this process started */
+        private boolean mRestoring;
+        /** elapsedRealtime when the restore began and when it beaconed */
+        private long mRestoreStartMs = -1;
+        private long mRestoreBeaconMs = -1;
+
         public ApHandler(Looper looper) {
             super(looper);
         }
 
         @Override
         public void handleMessage(Message msg) {
-            // Handle state transition messages
+            switch (msg.what) {
+                case MSG_RECONCILE:
+                    reconcile();
+                    break;
+                case MSG_POLL:
+                    poll();
+                    break;
+                case MSG_HOSTAPD_TERMINATING:
+                    onHostapdTerminating();
+                    break;
+                case MSG_STATIONS_CHANGED:
+                    publishSnapshot();
+                    updateActivity();
+                    break;
+                case MSG_STATS_SAMPLED:
+                    updateActivity();
+                    break;
+                case MSG_IDLE_POWER_SAVE:
+                    enterIdleBeacon();
+                    break;
+                case MSG_IDLE_TIMEOUT:
+                    onIdleTimeout();
+                    break;
+                case MSG_PROPERTIES_CHANGED:
+                    onPropertiesChanged();
+                    break;
+                case MSG_TEST_SERVER:
+                    updateTestServer();
+                    break;
+            }
+        }
+
+        /**
+         * Start whatever transition moves the AP towards the desired state
+         */
+        private void reconcile() {
+            persist();
+            if (mPhase != PHASE_NONE) {
+                // Picked up again when the running transition ends
+                return;
+            }
+
+            boolean desired;
+            int seq;
+            synchronized (mLock) {
+                desired = mDesiredEnabled;
+                seq = mRequestSeq;
+                mTargetSsid = mApConfig.SSID;
+                mTargetPassword = mApConfig.preSharedKey;
+                mTargetChannel = mChannel;
+            }
+            mTargetKey = mTargetSsid + '\n' + mTargetPassword + '\n' + mTargetChannel;
+            if (mTargetChannel == CHANNEL_AUTO && mAppliedKey != null) {
+                // Stay where selection put the running AP
+                mTargetChannel = mAppliedChannel;
+            }
+
+            if (mWifiApState == WIFI_AP_STATE_FAILED && seq == mFailedSeq) {
+                // Retries are used up; wait for a new request
+                return;
+            }
+            mTransitionSeq = seq;
+
+            if (desired) {
+                if (mWifiApState != WIFI_AP_STATE_ENABLED) {
+                    startEnable();
+                } else if (!mTargetKey.equals(mAppliedKey) && !applyConfigInPlace()) {
+                    Log.i(TAG, "AP configuration changed, restarting hostapd");
+                    startDisable();
+                }
+            } else if (mWifiApState != WIFI_AP_STATE_DISABLED) {
+                startDisable();
+            } else {
+                restoreClientWifi();
+            }
+        }
+
+        private void startEnable() {
+            mTransitionStart = SystemClock.elapsedRealtime();
+            mAttempt = 0;
+            setWifiApState(WIFI_AP_STATE_ENABLING);
+
+            if (mTargetChannel == CHANNEL_AUTO && mRestoring && mStore.lastChannel > 0) {
+                // A scan would hold the beacon back; the radio environment
+                // is most likely the one from before the restart
+                mTargetChannel = mStore.lastChannel;
+            } else if (mTargetChannel == CHANNEL_AUTO && !selectCachedChannel()) {
+                // Scanning needs client WiFi, so before it is turned off
+                if (mWifiManager.isWifiEnabled() && mWifiManager.startScan()) {
+                    mScanStart = SystemClock.elapsedRealtime();
+                    enterPhase(PHASE_SCAN, SCAN_TIMEOUT_MS);
+                    return;
+                }
+                selectChannel();
+            }
+            takeRadio();
+        }
+
+        /**
+         * Use the selection cached for the current surroundings, if fresh
+         */
+        private boolean selectCachedChannel() {
+            WifiInfo info = mWifiManager.getConnectionInfo();
+            mConnectedBssid = info != null ? info.getBSSID() : null;
+            ChannelSelector.Selection selection = mSelector.getCached(
+                    ChannelSelector.environment(mConnectedBssid, mWifiManager.getScanResults()));
+            if (selection == null) {
+                return false;
+            }
+            Log.i(TAG, "Cached " + selection);
+            useSelection(selection);
+            return true;
+        }
+
+        /**
+         * Score the latest scan results; stale ones if the scan failed
+         */
+        private void selectChannel() {
+            List<ScanResult> results = mWifiManager.getScanResults();
+            if (results == null) {
+                results = Collections.emptyList();
+            }
+            ChannelSelector.Selection selection = mSelector.select(
+                    ChannelSelector.environment(mConnectedBssid, results), results);
+            Log.i(TAG, "Selected " + selection + " in "
+                    + (SystemClock.elapsedRealtime() - mTransitionStart) + " ms");
+            useSelection(selection);
+        }
+
+        private void useSelection(ChannelSelector.Selection selection) {
+            mTargetChannel = selection.channel;
+            mChannelSelection = selection;
+        }
+
+        /**
+         * Take the radio from client WiFi, then wait for the driver
+         */
+        private void takeRadio() {
+            if (mWifiManager.isWifiEnabled()) {
+                Log.d(TAG, "Disabling WiFi client mode");
+                mRestoreClient = true;
+                mWifiManager.setWifiEnabled(false);
+                enterPhase(PHASE_CLIENT_OFF, CLIENT_OFF_TIMEOUT_MS);
+            } else {
+                enterPhase(PHASE_DRIVER, getDriverTimeout());
+            }
+        }
+
+        private long getDriverTimeout() {
+            return mRestoring ? BOOT_DRIVER_TIMEOUT_MS : DRIVER_TIMEOUT_MS;
+        }
+
+        private void startDisable() {
+            mTransitionStart = SystemClock.elapsedRealtime();
+            setWifiApState(WIFI_AP_STATE_DISABLING);
+            stopMonitoring();
+            mHostapdStops++;
+            if (mViaHidl) {
+                // The daemon stays up for the next add
+                mViaHidl = false;
+                mHidl.removeAccessPoint(AP_INTERFACE);
+                finishDisable();
+                return;
+            }
+            WifiApNative.stopWifiAp();
+            enterPhase(PHASE_HOSTAPD_STOP, STOP_TIMEOUT_MS);
+        }
+
+        /**
+         * Bring back the AP ApConfigStore says was on, without waiting out
+         * COALESCE_MS
+         */
+        void restore() {
+            mRestoring = true;
+            mRestoreStartMs = SystemClock.elapsedRealtime();
+            Log.i(TAG, "Restoring WiFi AP, " + mRestoreStartMs + " ms after boot");
+            reconcile();
+        }
+
+        /**
+         * Save the desired state and the channel in use, if either changed
+         */
+        private void persist() {
+            synchronized (mLock) {
+                mStore.ssid = mApConfig.SSID;
+                mStore.password = mApConfig.preSharedKey;
+                mStore.channel = mChannel;
+                mStore.enabled = mDesiredEnabled;
+            }
+            if (mAppliedKey != null) {
+                mStore.lastChannel = mAppliedChannel;
+            }
+            try {
+                mStore.save();
+            } catch (IOException e) {
+                Log.e(TAG, "Could not save AP configuration: " + e);
+            }
+        }
+
+        /**
+         * Adopt a hotspot left running by a previous instance of this
+         * process, or bring the AP back if it was on at shutdown.
+         *
+         * The HIDL control socket outlives a hostapd crash or kill, and
+         * a reboot when /data keeps it, so it only counts when the
+         * daemon is running and answers PING. A stale one is removed so
+         * it cannot be mistaken for a running AP later.
+         */
+        void recover() {
+            boolean viaHidl = false;
+            boolean running = false;
+            if (new File(HIDL_CTRL_PATH).exists()) {
+                if (mHidl.isDaemonRunning() && ping(HIDL_CTRL_PATH)) {
+                    viaHidl = true;
+                    running = true;
+                } else {
+                    Log.i(TAG, "Removing stale hostapd socket " + HIDL_CTRL_PATH);
+                    if (!new File(HIDL_CTRL_PATH).delete()) {
+                        Log.w(TAG, "Could not remove " + HIDL_CTRL_PATH);
+                    }
+                }
+            }
+            if (!running && "running".equals(SystemProperties.get(PROP_HOSTAPD_SVC, ""))) {
+                running = true;
+            }
+
+            boolean restore;
+            synchronized (mLock) {
+                // A request made since onCreate wins; its reconcile is queued
+                restore = !running && mStore.enabled && mRequestSeq == 0;
+                if ((running || restore) && mRequestSeq == 0) {
+                    mDesiredEnabled = true;
+                }
+            }
+            if (running) {
+                Log.i(TAG, "Adopting running hostapd" + (viaHidl ? " via HIDL" : ""));
+                adopt(viaHidl);
+                setWifiApState(WIFI_AP_STATE_ENABLED);
+            } else if (restore) {
+                // On at shutdown, or when this process died
+                restore();
+            }
+        }
+
+        private boolean ping(String ctrlPath) {
+            WifiApNative.setHostapdCtrlPath(ctrlPath);
+            String reply = WifiApNative.hostapdCommand("PING");
+            WifiApNative.setHostapdCtrlPath(HOSTAPD_CTRL_PATH);
+            return reply != null && reply.startsWith("PONG");
+        }
+
+        /**
+         * Take over an AP this service started before it was restarted
+         */
+        void adopt(boolean viaHidl) {
+            mViaHidl = viaHidl;
+            WifiApNative.setHostapdCtrlPath(viaHidl ? HIDL_CTRL_PATH : HOSTAPD_CTRL_PATH);
+            startMonitoring();
+        }
+
+        private void enterPhase(int phase, long timeoutMs) {
+            mPhase = phase;
+            mPhaseDeadline = SystemClock.elapsedRealtime() + timeoutMs;
+            removeMessages(MSG_POLL);
+            sendEmptyMessage(MSG_POLL);
+        }
+
+        /**
+         * Advance the running transition if its phase is complete, or act
+         * on the phase timeout
+         */
+        private void poll() {
+            boolean timedOut = SystemClock.elapsedRealtime() >= mPhaseDeadline;
+            switch (mPhase) {
+                case PHASE_NONE:
+                    return;
+
+                case PHASE_SCAN:
+                    if (mScanResultsTime >= mScanStart || timedOut) {
+                        if (timedOut) {
+                            Log.w(TAG, "Scan timed out, using previous results");
+                        }
+                        selectChannel();
+                        takeRadio();
+                        return;
+                    }
+                    break;
+
+                case PHASE_CLIENT_OFF:
+                    if (mWifiManager.getWifiState() == WifiManager.WIFI_STATE_DISABLED
+                            || timedOut) {
+                        if (timedOut) {
+                            // init stops wpa_supplicant for hostapd regardless
+                            Log.w(TAG, "Client WiFi still on, starting AP anyway");
+                        }
+                        enterPhase(PHASE_DRIVER, getDriverTimeout());
+                        return;
+                    }
+                    break;
+
+                case PHASE_DRIVER:
+                    if (isDriverReady()) {
+                        startHostapd();
+                        return;
+                    } else if (timedOut) {
+                        failAttempt("wlan driver not ready");
+                        return;
+                    }
+                    break;
+
+                case PHASE_HIDL_START:
+                    if (mHidl.isReady()) {
+                        addAccessPoint();
+                        return;
+                    } else if (timedOut) {
+                        fallBackToFile("IHostapd did not register");
+                        return;
+                    }
+                    break;
+
+                case PHASE_HIDL_BEACON:
+                    if (isBeaconing()) {
+                        recordBeacon(PATH_HIDL);
+                        finishEnable();
+                        return;
+                    } else if (timedOut) {
+                        mHidl.removeAccessPoint(AP_INTERFACE);
+                        mViaHidl = false;
+                        failAttempt("access point added over HIDL did not start beaconing");
+                        return;
+                    }
+                    break;
+
+                case PHASE_HOSTAPD_START:
+                    if (isHostapdRunning() && isBeaconing()) {
+                        recordBeacon(PATH_FILE);
+                        finishEnable();
+                        return;
+                    } else if (timedOut) {
+                        failAttempt("hostapd did not come up");
+                        return;
+                    }
+                    break;
+
+                case PHASE_RETRY_WAIT:
+                    if (timedOut && !isHostapdRunning()) {
+                        enterPhase(PHASE_DRIVER, getDriverTimeout());
+                        return;
+                    }
+                    break;
+
+                case PHASE_HOSTAPD_STOP:
+                    if (!isHostapdRunning()) {
+                        finishDisable();
+                        return;
+                    } else if (timedOut) {
+                        Log.e(TAG, "hostapd did not stop");
+                        endTransition(WIFI_AP_STATE_FAILED);
+                        return;
+                    }
+                    break;
+            }
+            if (mPhase == PHASE_HOSTAPD_STOP || mPhase == PHASE_RETRY_WAIT) {
+                // Only waiting for hostapd to exit, which MSG_PROPERTIES_CHANGED
+                // reports; wake once more for the timeout
+                if (!timedOut) {
+                    sendEmptyMessageDelayed(MSG_POLL,
+                            mPhaseDeadline - SystemClock.elapsedRealtime());
+                }
+                return;
+            }
+            sendEmptyMessageDelayed(MSG_POLL, POLL_MS);
+        }
+
+        /**
+         * sys.wifi.ap.enabled changed or hostapd started or exited. A
+         * running transition checks its phase; otherwise a change nobody
+         * here asked for is taken over into the state.
+         */
+        private void onPropertiesChanged() {
+            if (mPhase != PHASE_NONE) {
+                removeMessages(MSG_POLL);
+                poll();
+                return;
+            }
+            int props = mPropertyWatcher.get();
+            boolean requested = (props & ApPropertyWatcher.AP_ENABLED) != 0;
+            boolean alive = (props & (mViaHidl ? ApPropertyWatcher.HOSTAPD_HIDL
+                    : ApPropertyWatcher.HOSTAPD)) != 0;
+
+            if (mWifiApState == WIFI_AP_STATE_ENABLED && !alive) {
+                if (!mViaHidl && !requested) {
+                    // Stopped through the property from outside the service
+                    Log.i(TAG, "hostapd stopped externally");
+                    synchronized (mLock) {
+                        mDesiredEnabled = false;
+                    }
+                    mTransitionStart = SystemClock.elapsedRealtime();
+                    stopMonitoring();
+                    finishDisable();
+                } else {
+                    onHostapdTerminating();
+                }
+            } else if (mWifiApState == WIFI_AP_STATE_DISABLED && requested && alive
+                    && !mViaHidl) {
+                // Started through the property from outside the service
+                Log.i(TAG, "hostapd started externally, adopting it");
+                synchronized (mLock) {
+                    mDesiredEnabled = true;
+                }
+                adopt(false);
+                setWifiApState(WIFI_AP_STATE_ENABLED);
+            }
+        }
+
+        private void startHostapd() {
+            mHostapdStarts++;
+            mHostapdStartTime = SystemClock.elapsedRealtime();
+            Log.d(TAG, "Starting hostapd: ssid=" + mTargetSsid + ", channel=" + mTargetChannel
+                    + (mHidlUsable ? " via HIDL" : ""));
+            if (mHidlUsable) {
+                WifiApNative.setHostapdCtrlPath(HIDL_CTRL_PATH);
+                mHidl.startDaemon();
+                enterPhase(PHASE_HIDL_START, HIDL_START_TIMEOUT_MS);
+            } else {
+                startFileHostapd();
+            }
+        }
+
+        private void addAccessPoint() {
+            if (!mHidl.addAccessPoint(AP_INTERFACE, mTargetSsid, mTargetPassword,
+                    mTargetChannel)) {
+                fallBackToFile("addAccessPoint failed");
+                return;
+            }
+            // addAccessPoint returns once the config is accepted, before
+            // the interface is up; wait for beacons as the file path does
+            mViaHidl = true;
+            enterPhase(PHASE_HIDL_BEACON, START_TIMEOUT_MS);
+        }
+
+        private void fallBackToFile(String reason) {
+            Log.w(TAG, "HIDL path unusable (" + reason + "), using hostapd.conf");
+            mHidlUsable = false;
+            mHidl.stopDaemon();
+            startFileHostapd();
+        }
+
+        private void startFileHostapd() {
+            WifiApNative.setHostapdCtrlPath(HOSTAPD_CTRL_PATH);
+            try {
+                mConfig.write(renderConfig());
+            } catch (IOException | IllegalArgumentException e) {
+                Log.e(TAG, "Could not write hostapd config", e);
+                failAttempt("could not write hostapd config");
+                return;
+            }
+            WifiApNative.startWifiAp();
+            enterPhase(PHASE_HOSTAPD_START, START_TIMEOUT_MS);
+        }
+
+        private String renderConfig() {
+            return HostapdConfig.render(AP_INTERFACE, HOSTAPD_DIR, mTargetSsid,
+                    mTargetPassword, mTargetChannel);
+        }
+
+        /**
+         * Bring a running file-started hostapd to the target config without
+         * a restart: nothing to do if the file already matches (e.g. after
+         * adopting it). If only reloadable keys changed, each is SET on the
+         * running hostapd and RELOAD applies them; RELOAD alone would only
+         * re-apply what hostapd already holds, as it never re-reads the file.
+         *
+         * @return false if hostapd has to be restarted
+         */
+        private boolean applyConfigInPlace() {
+            if (mViaHidl) {
+                return false;
+            }
+            int change;
+            try {
+                change = mConfig.write(renderConfig());
+            } catch (IOException | IllegalArgumentException e) {
+                Log.e(TAG, "Could not write hostapd config", e);
+                return false;
+            }
+            if (change == HostapdConfig.RESTART) {
+                return false;
+            }
+            if (change == HostapdConfig.RELOAD) {
+                for (Map.Entry<String, String> param : mConfig.getChanges().entrySet()) {
+                    String reply = WifiApNative.hostapdCommand(
+                            "SET " + param.getKey() + " " + param.getValue());
+                    if (reply == null || !reply.startsWith("OK")) {
+                        // The file has the new values, so a restart applies them
+                        Log.w(TAG, "hostapd SET " + param.getKey() + " failed: " + reply);
+                        return false;
+                    }
+                }
+                String reply = WifiApNative.hostapdCommand("RELOAD");
+                if (reply == null || !reply.startsWith("OK")) {
+                    Log.w(TAG, "hostapd RELOAD failed: " + reply);
+                    return false;
+                }
+                mConfigReloads++;
+                Log.i(TAG, "AP configuration changed, applied to running hostapd");
+            }
+            mAppliedKey = mTargetKey;
+            mAppliedChannel = mTargetChannel;
+            publishSnapshot();
+            return true;
+        }
+
+        private void failAttempt(String reason) {
+            WifiApNative.stopWifiAp();
+            if (mAttempt < MAX_RETRIES) {
+                mAttempt++;
+                Log.w(TAG, "AP start failed (" + reason + "), retry " + mAttempt
+                        + " of " + MAX_RETRIES);
+                enterPhase(PHASE_RETRY_WAIT, RETRY_DELAY_MS * mAttempt);
+                return;
+            }
+            Log.e(TAG, "AP start failed: " + reason);
+            endTransition(WIFI_AP_STATE_FAILED);
+            restoreClientWifi();
+        }
+
+        /**
+         * hostapd reports state=ENABLED once the interface is set up and
+         * beaconing
+         */
+        private boolean isBeaconing() {
+            String status = WifiApNative.hostapdCommand("STATUS");
+            return status != null && status.contains("state=ENABLED");
+        }
+
+        private void recordBeacon(int path) {
+            long ms = SystemClock.elapsedRealtime() - mHostapdStartTime;
+            mBeaconCount[path]++;
+            mBeaconTotalMs[path] += ms;
+            mBeaconLastMs[path] = ms;
+            Log.i(TAG, "Beaconing " + ms + " ms after starting hostapd via "
+                    + PATH_NAMES[path]);
+        }
+
+        private void finishEnable() {
+            mAppliedKey = mTargetKey;
+            mAppliedChannel = mTargetChannel;
+            mLastEnableMs = SystemClock.elapsedRealtime() - mTransitionStart;
+            Log.i(TAG, "WiFi AP enabled in " + mLastEnableMs + " ms");
+            if (mRestoring) {
+                mRestoreBeaconMs = SystemClock.elapsedRealtime();
+                Log.i(TAG, "Restored WiFi AP beaconing " + mRestoreBeaconMs + " ms after boot");
+            }
+            persist();
+            startMonitoring();
+            endTransition(WIFI_AP_STATE_ENABLED);
+        }
+
+        /**
+         * hostapd is exiting while the AP is up, e.g. after a driver error
+         */
+        private void onHostapdTerminating() {
+            if (mPhase != PHASE_NONE || mWifiApState != WIFI_AP_STATE_ENABLED) {
+                return;
+            }
+            Log.e(TAG, "hostapd terminated unexpectedly");
+            stopMonitoring();
+            if (!mViaHidl) {
+                // Back to 0, so the next start changes the property again
+                WifiApNative.stopWifiAp();
+            }
+            mAppliedKey = null;
+            mViaHidl = false;
+            endTransition(WIFI_AP_STATE_FAILED);
+        }
+
+        private void finishDisable() {
+            mAppliedKey = null;
+            mLastDisableMs = SystemClock.elapsedRealtime() - mTransitionStart;
+            Log.i(TAG, "WiFi AP disabled in " + mLastDisableMs + " ms");
+            endTransition(WIFI_AP_STATE_DISABLED);
+        }
+
+        private void endTransition(int state) {
+            if (state == WIFI_AP_STATE_FAILED) {
+                mFailedSeq = mTransitionSeq;
+            }
+            mRestoring = false;
+            mPhase = PHASE_NONE;
+            removeMessages(MSG_POLL);
+            setWifiApState(state);
+            // Catch up with requests that arrived during the transition
+            sendEmptyMessage(MSG_RECONCILE);
+        }
+
+        /**
+         * Give the radio back to client WiFi once the AP is no longer wanted
+         */
+        private void restoreClientWifi() {
+            boolean desired;
+            synchronized (mLock) {
+                desired = mDesiredEnabled;
+            }
+            if (mRestoreClient && !desired) {
+                Log.d(TAG, "Restoring WiFi client mode");
+                mRestoreClient = false;
+                mWifiManager.setWifiEnabled(true);
+            }
+        }
+
+        private boolean isDriverReady() {
+            // The interface exists once the driver is loaded, and a hostapd
+            // still shutting down would hold it
+            return new File(DRIVER_PATH).exists() && !isHostapdRunning();
+        }
+
+        /**
+         * @return whether the config file hostapd is alive, from the
+         *         watcher rather than the property
+         */
+        private boolean isHostapdRunning() {
+            return (mPropertyWatcher.get() & ApPropertyWatcher.HOSTAPD) != 0;
+        }
+
+        /**
+         * Account the time since the last update to the previous activity
+         * level, and start or stop the idle policy when the AP goes idle
+         * or stops being idle
+         */
+        void updateActivity() {
+            int level;
+            if (mWifiApState != WIFI_AP_STATE_ENABLED || mPhase != PHASE_NONE) {
+                level = ACTIVITY_OFF;
+            } else if (mHostapdMonitor.getStationCount() == 0) {
+                level = ACTIVITY_IDLE;
+            } else {
+                level = mStationStats.hasTraffic() ? ACTIVITY_BUSY : ACTIVITY_QUIET;
+            }
+
+            long now = SystemClock.elapsedRealtime();
+            mActivityMs[mActivity] += now - mActivitySince;
+            mActivitySince = now;
+            int previous = mActivity;
+            mActivity = level;
+
+            if (level == ACTIVITY_IDLE && previous != ACTIVITY_IDLE) {
+                mIdleSince = now;
+            }
+            removeMessages(MSG_IDLE_POWER_SAVE);
+            removeMessages(MSG_IDLE_TIMEOUT);
+            if (level == ACTIVITY_IDLE) {
+                // Scheduled from when idling began, so a timeout change
+                // while idle takes effect right away
+                long idleMs = now - mIdleSince;
+                if (!mIdleBeacon) {
+                    sendEmptyMessageDelayed(MSG_IDLE_POWER_SAVE,
+                            Math.max(0, IDLE_POWER_SAVE_MS - idleMs));
+                }
+                long timeoutMs = mIdleTimeoutMs;
+                if (timeoutMs > 0) {
+                    sendEmptyMessageDelayed(MSG_IDLE_TIMEOUT, Math.max(0, timeoutMs - idleMs));
+                }
+            } else if (level == ACTIVITY_OFF) {
+                // Gone with hostapd; the next start uses the default interval
+                mIdleBeacon = false;
+            }
+        }
+
+        /**
+         * Beacon less often while no station needs it. Each beacon is a
+         * transmit, so this is most of what an idle AP spends.
+         *
+         * mac80211 takes the beacon interval only when the BSS starts:
+         * SET beacon_int with UPDATE_BEACON would change the interval the
+         * beacon advertises but not how often it is sent. The BSS is
+         * therefore restarted with DISABLE and ENABLE, which costs nothing
+         * with no station associated. It is not restarted again when a
+         * station arrives, as that would drop the station; the longer
+         * interval stays until hostapd next starts.
+         */
+        private void enterIdleBeacon() {
+            if (mIdleBeacon || mActivity != ACTIVITY_IDLE) {
+                return;
+            }
+            mIdleBeacon = true;
+            String reply = WifiApNative.hostapdCommand("SET beacon_int " + IDLE_BEACON_INTERVAL_TU);
+            if (reply == null || !reply.startsWith("OK")) {
+                Log.w(TAG, "Could not set beacon interval: " + reply);
+                return;
+            }
+            reply = WifiApNative.hostapdCommand("DISABLE");
+            if (reply != null && reply.startsWith("OK")) {
+                reply = WifiApNative.hostapdCommand("ENABLE");
+            }
+            if (reply == null || !reply.startsWith("OK")) {
+                // Try to get the BSS back as it was before giving up on it
+                Log.e(TAG, "Could not restart BSS for idle beacon interval: " + reply);
+                WifiApNative.hostapdCommand("SET beacon_int " + BEACON_INTERVAL_TU);
+                reply = WifiApNative.hostapdCommand("ENABLE");
+                if (reply == null || !reply.startsWith("OK")) {
+                    onHostapdTerminating();
+                }
+                return;
+            }
+            Log.i(TAG, "Beacon interval " + IDLE_BEACON_INTERVAL_TU + " TU while idle");
+        }
+
+        private void onIdleTimeout() {
+            if (mActivity != ACTIVITY_IDLE) {
+                return;
+            }
+            mIdleShutdowns++;
+            Log.i(TAG, "No stations for " + (SystemClock.elapsedRealtime() - mIdleSince) / 1000
+                    + " s, turning the AP off");
+            disableWifiAp();
+        }
+
+        /**
+         * Run the test server while it is enabled and the AP is up. It
+         * listens on the AP interface's address only, so it is reachable
+         * from the hotspot and nowhere else.
+         */
+        void updateTestServer() {
+            removeMessages(MSG_TEST_SERVER);
+            boolean run = mTestServerEnabled && mWifiApState == WIFI_AP_STATE_ENABLED
+                    && mPhase == PHASE_NONE;
+            if (!run) {
+                mTestServer.stop();
+                return;
+            }
+            InetAddress address = getApAddress();
+            if (address == null) {
+                // Not configured yet; never fall back to the wildcard address
+                mTestServer.stop();
+                sendEmptyMessageDelayed(MSG_TEST_SERVER, RETRY_DELAY_MS);
+                return;
+            }
+            try {
+                mTestServer.start(address);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not start test server: " + e);
+            }
+        }
+
+        /**
+         * @return the IPv4 address of AP_INTERFACE, null if it has none
+         */
+        private InetAddress getApAddress() {
+            try {
+                NetworkInterface iface = NetworkInterface.getByName(AP_INTERFACE);
+                if (iface == null) {
+                    return null;
+                }
+                for (InetAddress address : Collections.list(iface.getInetAddresses())) {
+                    if (address instanceof Inet4Address) {
+                        return address;
+                    }
+                }
+            } catch (SocketException e) {
+                Log.w(TAG, "Could not read " + AP_INTERFACE + " addresses: " + e);
+            }
+            return null;
+        }
+
+        /**
+         * Number a new snapshot and hand it to every registered callback
+         */
+        void publishSnapshot() {
+            String ssid;
+            synchronized (mLock) {
+                ssid = mApConfig.SSID;
+            }
+            WifiApSnapshot snapshot = new WifiApSnapshot(mSnapshot.seq + 1, mWifiApState, ssid,
+                    mAppliedKey != null ? mAppliedChannel : 0, mHostapdMonitor.getStations());
+            mSnapshot = snapshot;
+
+            int count = mCallbacks.beginBroadcast();
+            for (int i = 0; i < count; i++) {
+                try {
+                    mCallbacks.getBroadcastItem(i).onSnapshot(snapshot);
+                } catch (RemoteException e) {
+                    // Client died; the list drops it
+                }
+            }
+            mCallbacks.finishBroadcast();
+        }
+
+        void dump(StringBuilder sb) {
+            sb.append("state=").append(mWifiApState).append(" phase=").append(mPhase)
+                    .append(" attempt=").append(mAttempt).append('\n');
+            synchronized (mLock) {
+                sb.append("desired=").append(mDesiredEnabled)
+                        .append(" requests=").append(mRequestSeq).append('\n');
+            }
+            sb.append("applied channel=").append(mAppliedKey != null
+                    ? String.valueOf(mAppliedChannel) : "none").append('\n');
+            sb.append("stations=").append(mHostapdMonitor.getStations()).append('\n');
+            sb.append("snapshot seq=").append(mSnapshot.seq).append(" callbacks=")
+                    .append(mCallbacks.getRegisteredCallbackCount()).append('\n');
+            sb.append("station stats every ").append(mStationStats.getInterval())
+                    .append(" ms, samples=").append(mStationStats.getSamples()).append('\n');
+            for (StationInfo station : mStationStats.getStations()) {
+                sb.append("  ").append(station).append('\n');
+            }
+            sb.append("hostapd starts=").append(mHostapdStarts)
+                    .append(" stops=").append(mHostapdStops).append('\n');
+            sb.append("last enable=").append(mLastEnableMs).append(" ms disable=")
+                    .append(mLastDisableMs).append(" ms\n");
+            updateActivity();
+            sb.append("activity=").append(ACTIVITY_NAMES[mActivity]).append(" idle beacon=")
+                    .append(mIdleBeacon).append(" idle timeout=").append(mIdleTimeoutMs / 1000)
+                    .append(" s shutdowns=").append(mIdleShutdowns).append('\n');
+            sb.append("time");
+            for (int i = 0; i < ACTIVITY_NAMES.length; i++) {
+                sb.append(' ').append(ACTIVITY_NAMES[i]).append('=')
+                        .append(mActivityMs[i] / 1000).append('s');
+            }
+            sb.append('\n');
+            sb.append("channel setting=");
+            synchronized (mLock) {
+                sb.append(mChannel == CHANNEL_AUTO ? "auto" : String.valueOf(mChannel));
+            }
+            sb.append(" selection cache hits=").append(mSelector.getHits())
+                    .append(" misses=").append(mSelector.getMisses()).append('\n');
+            if (mChannelSelection != null) {
+                sb.append("last selection: ").append(mChannelSelection).append(" (")
+                        .append((SystemClock.elapsedRealtime() - mChannelSelection.time) / 1000)
+                        .append(" s ago)\n");
+            }
+            sb.append("config writes=").append(mConfig.getWrites()).append(" unchanged=")
+                    .append(mConfig.getSkipped()).append(" reloads=").append(mConfigReloads)
+                    .append('\n');
+            sb.append("test server enabled=").append(mTestServerEnabled).append('\n');
+            mTestServer.dump(sb);
+            sb.append("hidl usable=").append(mHidlUsable).append(" active=").append(mViaHidl)
+                    .append('\n');
+            for (int path = 0; path < PATH_NAMES.length; path++) {
+                sb.append("time to beacon ").append(PATH_NAMES[path]).append(": starts=")
+                        .append(mBeaconCount[path]);
+                if (mBeaconCount[path] > 0) {
+                    sb.append(" last=").append(mBeaconLastMs[path]).append(" ms avg=")
+                            .append(mBeaconTotalMs[path] / mBeaconCount[path]).append(" ms");
+                }
+                sb.append('\n');
+            }
+            sb.append("saved config writes=").append(mStore.getWrites()).append(" enabled=")
+                    .append(mStore.enabled).append(" last channel=").append(mStore.lastChannel)
+                    .append('\n');
+            if (mRestoreStartMs >= 0) {
+                sb.append("boot restore began=").append(mRestoreStartMs).append(" ms beacon=")
+                        .append(mRestoreBeaconMs).append(" ms after boot\n");
+            }
+            sb.append("properties ").append(ApPropertyWatcher.toString(mPropertyWatcher.get()))
+                    .append(" changes=").append(mPropertyWatcher.getChanges()).append('\n');
         }
     }
 }
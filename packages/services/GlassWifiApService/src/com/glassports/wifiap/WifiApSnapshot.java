@@ -0,0 +1,87 @@
+/*
+ * GlassPorts WiFi Access Point Snapshot
+ * Hotspot state as delivered to WifiApService clients
+ */
+
+package com.glassports.wifiap;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything a client shows about the hotspot, captured at one point.
+ *
+ * seq grows by one with every change the service reports, so a client
+ * can drop snapshots older than one it already has, and after a
+ * reconnect a single getSnapshot() call brings it up to date.
+ */
+public class WifiApSnapshot implements Parcelable {
+    public final long seq;
+    public final int state;
+    public final String ssid;
+    /** Channel hostapd runs on, 0 while the AP is off */
+    public final int channel;
+    /** MAC addresses, in order of association */
+    public final List<String> stations;
+
+    WifiApSnapshot(long seq, int state, String ssid, int channel, List<String> stations) {
+        this.seq = seq;
+        this.state = state;
+        this.ssid = ssid;
+        this.channel = channel;
+        this.stations = Collections.unmodifiableList(new ArrayList<>(stations));
+    }
+
+    private WifiApSnapshot(Parcel in) {
+        seq = in.readLong();
+        state = in.readInt();
+        ssid = in.readString();
+        channel = in.readInt();
+        stations = Collections.unmodifiableList(Arrays.asList(in.createStringArray()));
+    }
+
+    /**
+     * @return whether the AP is up
+     */
+    public boolean isEnabled() {
+        return state == WifiApService.WIFI_AP_STATE_ENABLED;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeLong(seq);
+        dest.writeInt(state);
+        dest.writeString(ssid);
+        dest.writeInt(channel);
+        dest.writeStringArray(stations.toArray(new String[stations.size()]));
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Parcelable.Creator<WifiApSnapshot> CREATOR =
+            new Parcelable.Creator<WifiApSnapshot>() {
+        @Override
+        public WifiApSnapshot createFromParcel(Parcel in) {
+            return new WifiApSnapshot(in);
+        }
+
+        @Override
+        public WifiApSnapshot[] newArray(int size) {
+            return new WifiApSnapshot[size];
+        }
+    };
+
+    @Override
+    public String toString() {
+        return "seq=" + seq + " state=" + state + " ssid=" + ssid + " channel=" + channel
+                + " stations=" + stations;
+    }
+}
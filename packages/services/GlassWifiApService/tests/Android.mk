@@ -0,0 +1,25 @@
+#
+# GlassPorts WiFi Access Point Service host tests
+# Plain JVM tests. HostapdMonitorTest also needs the host libglasswifiap on
+# java.library.path and glass_fake_hostapd, see the test.
+#
+
+LOCAL_PATH := $(call my-dir)
+
+include $(CLEAR_VARS)
+
+LOCAL_MODULE := GlassWifiApServiceHostTests
+LOCAL_MODULE_TAGS := tests
+
+LOCAL_SRC_FILES := \
+    $(call all-java-files-under, src) \
+    ../src/com/glassports/wifiap/HostapdConfig.java \
+    ../src/com/glassports/wifiap/HostapdMonitor.java \
+    ../src/com/glassports/wifiap/WifiApNative.java
+
+LOCAL_STATIC_JAVA_LIBRARIES := junit-host
+LOCAL_REQUIRED_MODULES := \
+    libglasswifiap \
+    glass_fake_hostapd
+
+include $(BUILD_HOST_JAVA_LIBRARY)
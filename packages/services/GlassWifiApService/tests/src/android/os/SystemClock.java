@@ -0,0 +1,18 @@
+/*
+ * GlassPorts host test stub
+ * android.os.SystemClock for the service classes the host tests compile
+ */
+
+package android.os;
+
+/**
+ * Backed by System.nanoTime, which is monotonic like elapsedRealtime.
+ */
+public final class SystemClock {
+    private SystemClock() {
+    }
+
+    public static long elapsedRealtime() {
+        return System.nanoTime() / 1000000L;
+    }
+}
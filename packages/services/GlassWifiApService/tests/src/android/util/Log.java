@@ -0,0 +1,35 @@
+/*
+ * GlassPorts host test stub
+ * android.util.Log for the service classes the host tests compile
+ */
+
+package android.util;
+
+/**
+ * Prints to stderr instead of logcat.
+ */
+public final class Log {
+    private Log() {
+    }
+
+    public static int d(String tag, String msg) {
+        return println("D", tag, msg);
+    }
+
+    public static int i(String tag, String msg) {
+        return println("I", tag, msg);
+    }
+
+    public static int w(String tag, String msg) {
+        return println("W", tag, msg);
+    }
+
+    public static int e(String tag, String msg) {
+        return println("E", tag, msg);
+    }
+
+    private static int println(String level, String tag, String msg) {
+        System.err.println(level + "/" + tag + ": " + msg);
+        return 0;
+    }
+}
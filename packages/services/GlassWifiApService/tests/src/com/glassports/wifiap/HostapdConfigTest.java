@@ -0,0 +1,129 @@
+/*
+ * GlassPorts hostapd Config Test
+ * Rendering, skipped writes and change classification on a plain JVM
+ */
+
+package com.glassports.wifiap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+public class HostapdConfigTest {
+    private static final String IFACE = "wlan0";
+    private static final String CTRL_DIR = "/data/misc/wifi/hostapd";
+
+    private File mDir;
+    private File mFile;
+    private HostapdConfig mConfig;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = Files.createTempDirectory("hostapd").toFile();
+        mFile = new File(mDir, "hostapd.conf");
+        mConfig = new HostapdConfig(mFile);
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : mDir.listFiles()) {
+            file.delete();
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void renderWritesEveryKey() {
+        String conf = HostapdConfig.render(IFACE, CTRL_DIR, "Glass", "password1", 6);
+        assertTrue(conf.contains("\ninterface=wlan0\n"));
+        assertTrue(conf.contains("\nctrl_interface=" + CTRL_DIR + "\n"));
+        assertTrue(conf.contains("\nssid=Glass\n"));
+        assertTrue(conf.contains("\nchannel=6\n"));
+        assertTrue(conf.contains("\nwpa_passphrase=password1\n"));
+        assertTrue(conf.contains("\nmax_num_sta=" + HostapdConfig.MAX_STATIONS + "\n"));
+        assertTrue(conf.endsWith("\n"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void renderRejectsLineBreakInSsid() {
+        HostapdConfig.render(IFACE, CTRL_DIR, "Glass\nchannel=1", "password1", 6);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void renderRejectsLineBreakInPassword() {
+        HostapdConfig.render(IFACE, CTRL_DIR, "Glass", "password1\rwpa=0", 6);
+    }
+
+    @Test
+    public void firstWriteNeedsRestart() throws IOException {
+        String conf = HostapdConfig.render(IFACE, CTRL_DIR, "Glass", "password1", 6);
+        assertEquals(HostapdConfig.RESTART, mConfig.write(conf));
+        assertEquals(conf, read());
+        assertEquals(1, mConfig.getWrites());
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void sameContentIsNotWritten() throws IOException {
+        String conf = HostapdConfig.render(IFACE, CTRL_DIR, "Glass", "password1", 6);
+        mConfig.write(conf);
+        long modified = mFile.lastModified();
+
+        assertEquals(HostapdConfig.UNCHANGED, mConfig.write(conf));
+        assertEquals(1, mConfig.getWrites());
+        assertEquals(1, mConfig.getSkipped());
+        assertEquals(modified, mFile.lastModified());
+        assertTrue(mConfig.getChanges().isEmpty());
+    }
+
+    @Test
+    public void ssidAndPasswordAreReloadable() throws IOException {
+        mConfig.write(HostapdConfig.render(IFACE, CTRL_DIR, "Glass", "password1", 6));
+        String conf = HostapdConfig.render(IFACE, CTRL_DIR, "Glass2", "password2", 6);
+
+        assertEquals(HostapdConfig.RELOAD, mConfig.write(conf));
+        Map<String, String> changes = mConfig.getChanges();
+        assertEquals(2, changes.size());
+        assertEquals("Glass2", changes.get("ssid"));
+        assertEquals("password2", changes.get("wpa_passphrase"));
+        // Still written, so the next start has the new values
+        assertEquals(conf, read());
+    }
+
+    @Test
+    public void channelNeedsRestart() throws IOException {
+        mConfig.write(HostapdConfig.render(IFACE, CTRL_DIR, "Glass", "password1", 6));
+        String conf = HostapdConfig.render(IFACE, CTRL_DIR, "Glass2", "password1", 11);
+
+        assertEquals(HostapdConfig.RESTART, mConfig.write(conf));
+        assertTrue(mConfig.getChanges().isEmpty());
+        assertEquals(conf, read());
+    }
+
+    @Test
+    public void classifyComparesKeysNotLines() {
+        String old = "ssid=a\nchannel=1\n";
+        assertEquals(HostapdConfig.RELOAD,
+                HostapdConfig.classify(old, "# comment\nchannel=1\nssid=b\n"));
+        assertEquals(HostapdConfig.RELOAD,
+                HostapdConfig.classify(old, old + "ignore_broadcast_ssid=1\n"));
+        assertEquals(HostapdConfig.RESTART,
+                HostapdConfig.classify(old, "ssid=a\n"));
+        assertEquals(HostapdConfig.RESTART,
+                HostapdConfig.classify(old, old + "hw_mode=a\n"));
+    }
+
+    private String read() throws IOException {
+        return new String(Files.readAllBytes(mFile.toPath()), StandardCharsets.UTF_8);
+    }
+}
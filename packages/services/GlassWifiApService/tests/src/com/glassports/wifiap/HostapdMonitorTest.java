@@ -0,0 +1,191 @@
+/*
+ * GlassPorts hostapd Monitor Test
+ * Station tracking against glass_fake_hostapd on a plain JVM
+ */
+
+package com.glassports.wifiap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs HostapdMonitor and the host build of its JNI against
+ * glass_fake_hostapd, scripting stations through the fake's stdin.
+ *
+ * Needs the host libglasswifiap on java.library.path, and the fake either
+ * on PATH or named by -Dglass.fake_hostapd=.
+ */
+public class HostapdMonitorTest {
+    private static final String FAKE_HOSTAPD =
+            System.getProperty("glass.fake_hostapd", "glass_fake_hostapd");
+    private static final long TIMEOUT_MS = 5000;
+
+    private static final String STA_A = "02:00:00:00:00:0a";
+    private static final String STA_B = "02:00:00:00:00:0b";
+
+    private static final String CHANGED = "changed";
+    private static final String TERMINATING = "terminating";
+
+    private File mDir;
+    private Process mHostapd;
+    private Writer mScript;
+    private final BlockingQueue<String> mOutput = new LinkedBlockingQueue<>();
+    private final BlockingQueue<String> mCallbacks = new LinkedBlockingQueue<>();
+    private HostapdMonitor mMonitor;
+
+    @Before
+    public void setUp() throws Exception {
+        mDir = Files.createTempDirectory("hostapd").toFile();
+        String ctrlPath = new File(mDir, "wlan0").getPath();
+
+        mHostapd = new ProcessBuilder(FAKE_HOSTAPD, ctrlPath)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        mScript = new OutputStreamWriter(mHostapd.getOutputStream(), StandardCharsets.UTF_8);
+        Thread reader = new Thread(this::readOutput, "FakeHostapdOutput");
+        reader.setDaemon(true);
+        reader.start();
+        expectOutput("listening on " + ctrlPath);
+
+        WifiApNative.setHostapdCtrlPath(ctrlPath);
+        mMonitor = new HostapdMonitor(new HostapdMonitor.Listener() {
+            @Override
+            public void onStationsChanged() {
+                mCallbacks.add(CHANGED);
+            }
+
+            @Override
+            public void onHostapdTerminating() {
+                mCallbacks.add(TERMINATING);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mMonitor.stop();
+        mHostapd.destroy();
+        mHostapd.waitFor(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void listsStationsAssociatedBeforeAttach() throws Exception {
+        // Upper case, as some drivers report it; the table is lower case
+        script("connect " + STA_A.toUpperCase());
+        expectOutput("event: AP-STA-CONNECTED");
+        script("connect " + STA_B);
+        expectOutput("event: AP-STA-CONNECTED");
+
+        mMonitor.start();
+        expectCallback(CHANGED);
+        expectCallback(CHANGED);
+
+        assertEquals(Arrays.asList(STA_A, STA_B), mMonitor.getStations());
+        assertTrue(mMonitor.getConnectedSince(STA_A) >= 0);
+        assertNull(mCallbacks.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void tracksConnectAndDisconnectEvents() throws Exception {
+        mMonitor.start();
+
+        // A connect racing the ATTACH is seen by either the event or the
+        // listing, and reported once
+        script("connect " + STA_A);
+        expectCallback(CHANGED);
+        assertEquals(Collections.singletonList(STA_A), mMonitor.getStations());
+
+        script("connect " + STA_B);
+        expectCallback(CHANGED);
+        assertEquals(2, mMonitor.getStationCount());
+
+        script("disconnect " + STA_A);
+        expectCallback(CHANGED);
+        assertEquals(Collections.singletonList(STA_B), mMonitor.getStations());
+        assertEquals(-1, mMonitor.getConnectedSince(STA_A));
+    }
+
+    @Test
+    public void reportsTerminating() throws Exception {
+        mMonitor.start();
+        script("connect " + STA_A);
+        expectCallback(CHANGED);
+
+        script("quit");
+        expectCallback(TERMINATING);
+    }
+
+    @Test
+    public void restartListsStationsAgain() throws Exception {
+        mMonitor.start();
+        script("connect " + STA_A);
+        expectCallback(CHANGED);
+
+        mMonitor.stop();
+        assertEquals(0, mMonitor.getStationCount());
+
+        mMonitor.start();
+        expectCallback(CHANGED);
+        assertEquals(Collections.singletonList(STA_A), mMonitor.getStations());
+    }
+
+    private void script(String line) throws IOException {
+        mScript.write(line + "\n");
+        mScript.flush();
+    }
+
+    private void readOutput() {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                mHostapd.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                mOutput.add(line);
+            }
+        } catch (IOException e) {
+            // The fake exited
+        }
+    }
+
+    /**
+     * Skip the fake's output up to a line starting with prefix
+     */
+    private void expectOutput(String prefix) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        String line;
+        do {
+            line = mOutput.poll(Math.max(1, deadline - System.currentTimeMillis()),
+                    TimeUnit.MILLISECONDS);
+            assertTrue("no \"" + prefix + "\" from " + FAKE_HOSTAPD, line != null);
+        } while (!line.startsWith(prefix));
+    }
+
+    private void expectCallback(String expected) throws InterruptedException {
+        assertEquals(expected, mCallbacks.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+}
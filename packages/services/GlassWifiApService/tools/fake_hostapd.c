@@ -0,0 +1,289 @@
+/*
+ * GlassPorts Fake hostapd
+ * Stand-in for the hostapd control socket, for testing off-device
+ *
+ * Serves the subset of the hostapd ctrl_interface protocol GlassWifiApService
+ * uses (PING, ATTACH, DETACH, STA, STA-FIRST, STA-NEXT, STATUS, SET, RELOAD,
+ * DISABLE, ENABLE, UPDATE_BEACON) on a Unix datagram socket. SET, RELOAD,
+ * DISABLE and ENABLE are echoed to stdout. Stations are scripted on stdin,
+ * one command per line:
+ *
+ *   connect <mac>            station associates, AP-STA-CONNECTED is sent
+ *   disconnect <mac>         station leaves, AP-STA-DISCONNECTED is sent
+ *   traffic <mac> <tx> <rx>  add bytes sent to / received from a station
+ *   signal <mac> <dbm>       set a station's signal
+ *   quit                     send CTRL-EVENT-TERMINATING and exit
+ *
+ * HostapdMonitorTest runs it and scripts stations through stdin, e.g.
+ *   echo "connect 02:00:00:00:00:01" | glass_fake_hostapd /tmp/hostapd/wlan0
+ */
+
+#include <errno.h>
+#include <poll.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <unistd.h>
+#include <sys/socket.h>
+#include <sys/un.h>
+
+#define MAX_STATIONS 4
+#define MAX_MONITORS 8
+
+struct station {
+    int used;
+    char mac[18];
+    struct timespec connected;
+    struct timespec last_active;
+    unsigned long long tx_bytes;
+    unsigned long long rx_bytes;
+    unsigned long tx_packets;
+    unsigned long rx_packets;
+    int signal;
+};
+
+static struct station stations[MAX_STATIONS];
+static struct sockaddr_un monitors[MAX_MONITORS];
+static socklen_t monitor_lens[MAX_MONITORS];
+static int sock = -1;
+static int beacon_int = 100;
+
+static long elapsed_ms(const struct timespec *since) {
+    struct timespec now;
+    clock_gettime(CLOCK_MONOTONIC, &now);
+    return (now.tv_sec - since->tv_sec) * 1000L + (now.tv_nsec - since->tv_nsec) / 1000000L;
+}
+
+static struct station *find_station(const char *mac) {
+    int i;
+    for (i = 0; i < MAX_STATIONS; i++) {
+        if (stations[i].used && strcasecmp(stations[i].mac, mac) == 0) {
+            return &stations[i];
+        }
+    }
+    return NULL;
+}
+
+/* Same layout as hostapd's STA reply: MAC on the first line, then key=value */
+static int format_station(const struct station *sta, char *buf, size_t size) {
+    return snprintf(buf, size,
+            "%s\n"
+            "flags=[AUTH][ASSOC][AUTHORIZED]\n"
+            "aid=%d\n"
+            "rx_packets=%lu\n"
+            "tx_packets=%lu\n"
+            "rx_bytes=%llu\n"
+            "tx_bytes=%llu\n"
+            "inactive_msec=%ld\n"
+            "signal=%d\n"
+            "rx_rate_info=540\n"
+            "tx_rate_info=650\n"
+            "connected_time=%ld\n",
+            sta->mac, (int)(sta - stations) + 1,
+            sta->rx_packets, sta->tx_packets, sta->rx_bytes, sta->tx_bytes,
+            elapsed_ms(&sta->last_active), sta->signal,
+            elapsed_ms(&sta->connected) / 1000);
+}
+
+static void send_event(const char *event) {
+    char msg[128];
+    int i;
+    int len = snprintf(msg, sizeof(msg), "<3>%s", event);
+    for (i = 0; i < MAX_MONITORS; i++) {
+        if (monitor_lens[i] == 0) {
+            continue;
+        }
+        if (sendto(sock, msg, len, 0, (struct sockaddr *)&monitors[i], monitor_lens[i]) < 0) {
+            /* Monitor went away without DETACH, as hostapd does after errors */
+            monitor_lens[i] = 0;
+        }
+    }
+    printf("event: %s\n", event);
+    fflush(stdout);
+}
+
+static void handle_request(const char *cmd, struct sockaddr_un *from, socklen_t from_len) {
+    char reply[1024];
+    int len = 0;
+    int i;
+
+    if (strcmp(cmd, "PING") == 0) {
+        len = snprintf(reply, sizeof(reply), "PONG\n");
+    } else if (strcmp(cmd, "ATTACH") == 0) {
+        len = snprintf(reply, sizeof(reply), "FAIL\n");
+        for (i = 0; i < MAX_MONITORS; i++) {
+            if (monitor_lens[i] == 0) {
+                monitors[i] = *from;
+                monitor_lens[i] = from_len;
+                len = snprintf(reply, sizeof(reply), "OK\n");
+                break;
+            }
+        }
+    } else if (strcmp(cmd, "DETACH") == 0) {
+        for (i = 0; i < MAX_MONITORS; i++) {
+            if (monitor_lens[i] == from_len
+                    && memcmp(&monitors[i], from, from_len) == 0) {
+                monitor_lens[i] = 0;
+            }
+        }
+        len = snprintf(reply, sizeof(reply), "OK\n");
+    } else if (strcmp(cmd, "STA-FIRST") == 0 || strncmp(cmd, "STA-NEXT ", 9) == 0) {
+        int start = 0;
+        if (cmd[3] == '-' && cmd[4] == 'N') {
+            struct station *prev = find_station(cmd + 9);
+            start = prev != NULL ? (int)(prev - stations) + 1 : MAX_STATIONS;
+        }
+        for (i = start; i < MAX_STATIONS; i++) {
+            if (stations[i].used) {
+                len = format_station(&stations[i], reply, sizeof(reply));
+                break;
+            }
+        }
+    } else if (strcmp(cmd, "STATUS") == 0) {
+        len = snprintf(reply, sizeof(reply), "state=ENABLED\nbeacon_int=%d\n", beacon_int);
+    } else if (strcmp(cmd, "RELOAD") == 0) {
+        printf("RELOAD\n");
+        fflush(stdout);
+        len = snprintf(reply, sizeof(reply), "OK\n");
+    } else if (strncmp(cmd, "SET beacon_int ", 15) == 0) {
+        beacon_int = atoi(cmd + 15);
+        len = snprintf(reply, sizeof(reply), "OK\n");
+    } else if (strncmp(cmd, "SET ", 4) == 0 && strchr(cmd + 4, ' ') != NULL) {
+        printf("%s\n", cmd);
+        fflush(stdout);
+        len = snprintf(reply, sizeof(reply), "OK\n");
+    } else if (strcmp(cmd, "DISABLE") == 0 || strcmp(cmd, "ENABLE") == 0) {
+        printf("%s beacon_int=%d\n", cmd, beacon_int);
+        fflush(stdout);
+        len = snprintf(reply, sizeof(reply), "OK\n");
+    } else if (strcmp(cmd, "UPDATE_BEACON") == 0) {
+        printf("beacon_int=%d\n", beacon_int);
+        fflush(stdout);
+        len = snprintf(reply, sizeof(reply), "OK\n");
+    } else if (strncmp(cmd, "STA ", 4) == 0) {
+        struct station *sta = find_station(cmd + 4);
+        len = sta != NULL ? format_station(sta, reply, sizeof(reply))
+                : snprintf(reply, sizeof(reply), "FAIL\n");
+    } else {
+        len = snprintf(reply, sizeof(reply), "UNKNOWN COMMAND\n");
+    }
+
+    sendto(sock, reply, len, 0, (struct sockaddr *)from, from_len);
+}
+
+static int handle_script(char *line) {
+    char what[16], mac[18];
+    char event[64];
+    long long a = 0, b = 0;
+    struct station *sta;
+    int n;
+    int i;
+
+    n = sscanf(line, "%15s %17s %lld %lld", what, mac, &a, &b);
+    if (n < 1) {
+        return 0;
+    }
+    if (strcmp(what, "quit") == 0) {
+        send_event("CTRL-EVENT-TERMINATING");
+        return 1;
+    }
+    if (n < 2) {
+        fprintf(stderr, "usage: %s <mac> ...\n", what);
+        return 0;
+    }
+
+    sta = find_station(mac);
+    if (strcmp(what, "connect") == 0 && sta == NULL) {
+        for (i = 0; i < MAX_STATIONS; i++) {
+            if (!stations[i].used) {
+                sta = &stations[i];
+                memset(sta, 0, sizeof(*sta));
+                sta->used = 1;
+                strcpy(sta->mac, mac);
+                sta->signal = -50;
+                clock_gettime(CLOCK_MONOTONIC, &sta->connected);
+                sta->last_active = sta->connected;
+                snprintf(event, sizeof(event), "AP-STA-CONNECTED %s", mac);
+                send_event(event);
+                return 0;
+            }
+        }
+        fprintf(stderr, "station table full\n");
+    } else if (strcmp(what, "disconnect") == 0 && sta != NULL) {
+        sta->used = 0;
+        snprintf(event, sizeof(event), "AP-STA-DISCONNECTED %s", mac);
+        send_event(event);
+    } else if (strcmp(what, "traffic") == 0 && sta != NULL && n == 4) {
+        sta->tx_bytes += a;
+        sta->rx_bytes += b;
+        sta->tx_packets += (a + 1499) / 1500;
+        sta->rx_packets += (b + 1499) / 1500;
+        clock_gettime(CLOCK_MONOTONIC, &sta->last_active);
+    } else if (strcmp(what, "signal") == 0 && sta != NULL && n >= 3) {
+        sta->signal = (int)a;
+    } else {
+        fprintf(stderr, "ignored: %s", line);
+    }
+    return 0;
+}
+
+int main(int argc, char **argv) {
+    struct sockaddr_un addr;
+    struct pollfd pfds[2];
+    char buf[256];
+
+    if (argc != 2) {
+        fprintf(stderr, "usage: %s <ctrl socket path>\n", argv[0]);
+        return 2;
+    }
+    if (strlen(argv[1]) >= sizeof(addr.sun_path)) {
+        fprintf(stderr, "socket path too long\n");
+        return 2;
+    }
+
+    sock = socket(AF_UNIX, SOCK_DGRAM, 0);
+    memset(&addr, 0, sizeof(addr));
+    addr.sun_family = AF_UNIX;
+    strcpy(addr.sun_path, argv[1]);
+    unlink(addr.sun_path);
+    if (sock < 0 || bind(sock, (struct sockaddr *)&addr, sizeof(addr)) < 0) {
+        perror("bind");
+        return 1;
+    }
+    printf("listening on %s\n", argv[1]);
+    fflush(stdout);
+
+    pfds[0].fd = sock;
+    pfds[0].events = POLLIN;
+    pfds[1].fd = STDIN_FILENO;
+    pfds[1].events = POLLIN;
+
+    for (;;) {
+        if (poll(pfds, 2, -1) < 0) {
+            if (errno == EINTR) {
+                continue;
+            }
+            break;
+        }
+        if (pfds[0].revents & POLLIN) {
+            struct sockaddr_un from;
+            socklen_t from_len = sizeof(from);
+            ssize_t n = recvfrom(sock, buf, sizeof(buf) - 1, 0,
+                    (struct sockaddr *)&from, &from_len);
+            if (n > 0) {
+                buf[n] = '\0';
+                handle_request(buf, &from, from_len);
+            }
+        }
+        if (pfds[1].revents & (POLLIN | POLLHUP)) {
+            if (fgets(buf, sizeof(buf), stdin) == NULL || handle_script(buf)) {
+                break;
+            }
+        }
+    }
+
+    close(sock);
+    unlink(addr.sun_path);
+    return 0;
+}